@@ -0,0 +1,265 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Path2D;
+
+/**
+ * The BatchedRenderer paints with java.awt.Graphics like the
+ * Java2DRenderer, but with far fewer calls: all reflections of a circle or
+ * triangle, and of every circle and triangle after it that has the same
+ * color, are added to one Path2D that is filled with a single fill(). A
+ * frame then takes one setColor() and one fill() per run of equal colors
+ * instead of a setColor() and 8 fills per figure.
+ *
+ * Java2D fills a path in time that grows faster than the path, and fills
+ * large areas faster through its own calls, so a path is filled once it
+ * holds MAX_OUTLINES outlines, and squares and triangles wider than
+ * MAX_PATH_TRIANGLE are filled one by one with fillRect() and
+ * fillPolygon(), still with one setColor() per run. Batching pays off most
+ * for scenes of many small and medium figures, where the cost per call
+ * outweighs the pixels filled.
+ *
+ * Figures are still painted in order, so that figures added later cover
+ * earlier ones exactly as they do with the other renderers; sorting them
+ * into one bucket per color would change which figure is on top where
+ * figures of different colors overlap. Every outline in a path is added
+ * going the same way round, so that where reflections overlap the
+ * non-zero winding rule fills them rather than leaving holes.
+ *
+ * In a Symmetry other than the classic 8 reflections, turned squares go
+ * into the path too, unless they are wide.
+ *
+ * Ovals, squares and large triangles come out exactly as the
+ * Java2DRenderer draws them. Java2D rounds the edges of a path slightly
+ * differently from its own fillPolygon(), so a few pixels at the edges of
+ * smaller triangles may differ.
+ */
+public class BatchedRenderer implements Renderer {
+
+    /** How far along a quarter circle's tangents its Bezier control points lie, as in Ellipse2D. */
+    private static final double CONTROL = 0.5522847498307933;
+
+    /** Most outlines in one path. */
+    static final int MAX_OUTLINES = 32;
+
+    /** Widest triangle added to a path; wider ones fill faster with fillPolygon(). */
+    static final int MAX_PATH_TRIANGLE = 64;
+
+    private final int[] xPoints = new int[4]; // vertices of a triangle or turned square filled on its own
+    private final int[] yPoints = new int[4];
+    private final Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, 1024);
+    private Color color = Color.BLACK; // the color last filled with
+    private final Rectangle clip = new Rectangle();
+    private volatile Quality quality = Quality.FULL;
+    private volatile Symmetry symmetry; // null for the classic reflections
+    private final Symmetry.Copies copies = new Symmetry.Copies();
+    private int runs; // runs of figures of the same color in the last frame
+    private int outlines; // outlines in the path
+
+    @Override
+    public void setQuality(Quality quality) {
+        this.quality = quality;
+    }
+
+    @Override
+    public void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    /**
+     * @return The number of runs of figures of the same color in the last
+     *         frame, each drawn with one setColor() and at most one fill().
+     */
+    public int getLastRunCount() {
+        return runs;
+    }
+
+    /**
+     * Paints the background black and draws every figure in the frame.
+     * Figures with no reflection inside the clip of g are skipped.
+     *
+     * @see Renderer#paint(Graphics, Frame, float, int, int)
+     */
+    @Override
+    public void paint(Graphics g, Frame f, float alpha, int width, int height) {
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setColor(Color.BLACK);
+        g2.fillRect(0, 0, width, height);
+        clip.setBounds(0, 0, width, height);
+        g2.getClipBounds(clip); // left as it is if there is no clip
+        Quality quality = this.quality;
+        Symmetry symmetry = this.symmetry;
+        runs = 0;
+        path.reset();
+        int runColor = 0;
+        int count = f.count();
+        for (int i = 0; i < count; i++) {
+            int x = f.xAt(i, alpha);
+            int y = f.yAt(i, alpha);
+            Shape shape = f.getShape(i);
+            if (symmetry != null) {
+                if (!copies.place(symmetry, shape, x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i], quality,
+                        clip.x, clip.y, clip.x + clip.width, clip.y + clip.height)) continue;
+            }
+            else if (!Reflections.touches(shape, x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i],
+                    clip.x, clip.y, clip.x + clip.width, clip.y + clip.height)) continue;
+            if (runs == 0 || f.color[i] != runColor) { // a new run: finish the last one, then change color
+                fillPath(g2);
+                runColor = f.color[i];
+                if (color.getRGB() != runColor) color = new Color(runColor, true);
+                g2.setColor(color);
+                runs++;
+            }
+            if (symmetry != null) {
+                if (outlines + copies.count > MAX_OUTLINES) fillPath(g2);
+                addCopies(g2, symmetry, shape, f.size[i], f.offset[i], quality);
+                continue;
+            }
+            if (outlines + quality.getReflections() > MAX_OUTLINES) fillPath(g2);
+            addFigure(g2, x, y, f.originX[i], f.originY[i], shape, f.size[i], f.offset[i], quality);
+        }
+        fillPath(g2);
+    }
+
+    /**
+     * Fills the path built so far, if there is one, in the current color,
+     * and starts a new one.
+     */
+    private void fillPath(Graphics2D g2) {
+        if (path.getCurrentPoint() == null) return; // nothing added
+        g2.fill(path);
+        path.reset();
+        outlines = 0;
+    }
+
+    /**
+     * Adds the outlines of as many reflections of a figure as the quality
+     * asks for to the path. Squares are filled straight away instead, in
+     * the run's color: fillRect() is much quicker than filling a path, and
+     * the order of figures of the same color makes no difference.
+     */
+    private void addFigure(Graphics2D g2, int x, int y, int originX, int originY, Shape shape, int size, int offset, Quality quality) {
+        int dx = x - originX; // X location relative to origin
+        int dy = y - originY; // Y location relative to origin
+        boolean simplified = quality.simplifies(shape, size, offset);
+        int extent = Reflections.extent(shape, size, offset);
+        for (int k = 0; k < quality.getReflections(); k++) {
+            int bx = Reflections.baseX(k, originX, dx, dy);
+            int by = Reflections.baseY(k, originY, dx, dy);
+            int sx = Reflections.signX(k);
+            int sy = Reflections.signY(k);
+            if (simplified) {
+                g2.fillRect(Reflections.boxLeft(k, bx, shape, size, offset), Reflections.boxTop(k, by, shape, size, offset), extent, extent);
+            }
+            else if (shape == Shape.POLYGON && extent > MAX_PATH_TRIANGLE) {
+                xPoints[0] = bx;
+                xPoints[1] = bx + sx * (offset / 4);
+                xPoints[2] = bx + sx * (offset / 2);
+                yPoints[0] = by;
+                yPoints[1] = by + sy * (offset / 2);
+                yPoints[2] = by + sy * (offset / 4);
+                g2.fillPolygon(xPoints, yPoints, 3);
+            }
+            else if (shape == Shape.POLYGON) {
+                addTriangle(bx, by, offset / 4, offset / 2, sx, sy);
+            }
+            else if (shape == Shape.CIRCLE) {
+                addOval(bx + sx * offset, by + sy * offset, size);
+            }
+            else {
+                g2.fillRect(bx + sx * offset, by + sy * offset, size, size);
+            }
+        }
+    }
+
+    /**
+     * Adds the outlines of the copies of a figure placed by a Symmetry to
+     * the path. As with the classic reflections, simplified figures and
+     * wide squares and triangles are filled straight away instead.
+     */
+    private void addCopies(Graphics2D g2, Symmetry symmetry, Shape shape, int size, int offset, Quality quality) {
+        boolean simplified = quality.simplifies(shape, size, offset);
+        boolean direct = shape != Shape.CIRCLE && Reflections.extent(shape, size, offset) > MAX_PATH_TRIANGLE;
+        for (int k = 0; k < copies.count; k++) {
+            int left = copies.boxLeft(k, size), top = copies.boxTop(k, size);
+            if (simplified) {
+                g2.fillRect(left, top, copies.boxRight(k, size) - left, copies.boxBottom(k, size) - top);
+            }
+            else if (shape == Shape.CIRCLE) {
+                addOval(left, top, size);
+            }
+            else if (direct) {
+                int p = k * copies.corners;
+                for (int j = 0; j < copies.corners; j++) {
+                    xPoints[j] = copies.x[p + j];
+                    yPoints[j] = copies.y[p + j];
+                }
+                g2.fillPolygon(xPoints, yPoints, copies.corners);
+            }
+            else {
+                addCorners(k, symmetry.isMirrored(k));
+            }
+        }
+    }
+
+    /**
+     * Adds copy k of a triangle or turned square, its corners moved a
+     * quarter pixel as addTriangle() moves them, going clockwise on screen:
+     * backwards through the corners of a mirrored copy.
+     */
+    private void addCorners(int k, boolean mirrored) {
+        int n = copies.corners, p = k * n;
+        path.moveTo(copies.x[p] - 0.25f, copies.y[p] - 0.25f);
+        for (int j = 1; j < n; j++) {
+            int c = p + (mirrored ? n - j : j);
+            path.lineTo(copies.x[c] - 0.25f, copies.y[c] - 0.25f);
+        }
+        path.closePath();
+        outlines++;
+    }
+
+    /**
+     * Adds a circle as the 4 curves an Ellipse2D of the same bounds is made
+     * of, clockwise on screen from its rightmost point like a triangle, so that it is filled
+     * exactly as fillOval() fills it. Adding the curves directly saves
+     * making a path iterator for every circle.
+     */
+    private void addOval(int x, int y, int size) {
+        if (size <= 0) return;
+        double near = 0.5 - CONTROL / 2, far = 0.5 + CONTROL / 2;
+        path.moveTo(x + size, y + 0.5 * size);
+        path.curveTo(x + size, y + far * size, x + far * size, y + size, x + 0.5 * size, y + size);
+        path.curveTo(x + near * size, y + size, x, y + far * size, x, y + 0.5 * size);
+        path.curveTo(x, y + near * size, x + near * size, y, x + 0.5 * size, y);
+        path.curveTo(x + far * size, y, x + size, y + near * size, x + size, y + 0.5 * size);
+        path.closePath();
+        outlines++;
+    }
+
+    /**
+     * Adds one reflection of a triangle with its corner at (x, y), the same
+     * triangle the Java2DRenderer fills, clockwise on screen. Mirroring it
+     * once turns it round, so its corners are added the other way then.
+     * fillPolygon() rounds integer corners as if they were a quarter of a
+     * pixel up and to the left of where fill() rounds them, so the corners
+     * are moved that far to match.
+     */
+    private void addTriangle(int x, int y, int quarter, int half, int sx, int sy) {
+        float left = x - 0.25f;
+        float top = y - 0.25f;
+        path.moveTo(left, top);
+        if (sx * sy < 0) {
+            path.lineTo(left + sx * quarter, top + sy * half);
+            path.lineTo(left + sx * half, top + sy * quarter);
+        }
+        else {
+            path.lineTo(left + sx * half, top + sy * quarter);
+            path.lineTo(left + sx * quarter, top + sy * half);
+        }
+        path.closePath();
+        outlines++;
+    }
+}
@@ -0,0 +1,53 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+  
+import org.junit.Test;
+  
+public class BatchedRendererTest {
+  
+    private static int[] paint(Renderer renderer, Frame frame) {
+        BufferedImage image = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        renderer.paint(g, frame, 1f, 1000, 800);
+        g.dispose();
+        return image.getRGB(0, 0, 1000, 800, null, 0, 1000);
+    }
+  
+    private static int differences(int[] a, int[] b) {
+        int n = 0;
+        for (int p = 0; p < a.length; p++) {
+            if (a[p] != b[p]) n++;
+        }
+        return n;
+    }
+  
+    @Test
+    public void testSamePixelsAsJava2D() { // Circles and squares exactly; triangles but for a few edge pixels.
+        for (Shape shape : new Shape[] { Shape.CIRCLE, Shape.SQUARE }) {
+            Frame frame = FrameFixture.frame(FrameFixture.figures(5, 300, 1000, 800, shape), 20);
+            assertArrayEquals(shape.toString(), paint(new Java2DRenderer(), frame), paint(new BatchedRenderer(), frame));
+        }
+        Frame frame = FrameFixture.frame(5, 300, 1000, 800, 20);
+        assertTrue(differences(paint(new Java2DRenderer(), frame), paint(new BatchedRenderer(), frame)) < 1000);
+    }
+  
+    @Test
+    public void testOneFillPerRunOfColor() { // Figures of the same color in a row share one path, in order.
+        FigureBuffer figures = new FigureBuffer(100, 8);
+        for (int i = 0; i < 100; i++) {
+            figures.add(1000, 800, Shape.values()[i % 3]);
+            figures.color[i] = i < 40 ? 0xFFFF0000 : i < 90 ? 0xFF00FF00 : 0xFFFF0000;
+        }
+        FrameExchange exchange = new FrameExchange();
+        exchange.publish(figures, 0);
+        Frame frame = exchange.latest();
+        BatchedRenderer batched = new BatchedRenderer();
+        int[] pixels = paint(batched, frame);
+        assertEquals(3, batched.getLastRunCount());
+        assertTrue(differences(paint(new Java2DRenderer(), frame), pixels) < 500);
+    }
+}
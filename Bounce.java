@@ -0,0 +1,82 @@
+package kaleidoscope;
+
+/**
+ * Bounce works out where a figure is along one axis any number of steps
+ * ahead, in constant time, exactly as repeated steps would put it.
+ *
+ * A step moves a figure by its delta unless that would take it below 0 or
+ * to the limit or beyond; then the delta changes sign and the figure stays
+ * where it is for that step. So a figure inside its walls only ever visits
+ * the positions r, r + a, ..., r + K * a, where a is the size of its delta
+ * and r its position modulo a. It climbs to the top one, waits a step,
+ * falls to the bottom one, waits a step, and starts again: a triangle wave
+ * with a period of 2K + 2 steps. Its position and delta after n steps
+ * follow from where it is in that period now.
+ *
+ * A figure outside its walls, as after the window shrinks, either comes in
+ * within two steps or, if its next move would also land outside, stays
+ * where it is forever with its delta changing sign every step.
+ *
+ * The answer is a position and a delta packed into one long; see position()
+ * and delta().
+ */
+public final class Bounce {
+
+    private Bounce() {}
+
+    /**
+     * @param position The figure's position along the axis.
+     * @param delta The figure's delta along the axis.
+     * @param limit Its limit along the axis: positions from 0 to limit - 1 are inside.
+     * @param steps How many steps ahead to look; at least 0.
+     * @return The position and delta after that many steps, to be read with
+     *         position() and delta().
+     */
+    public static long after(int position, int delta, int limit, long steps) {
+        if (steps <= 0) return pack(position, delta);
+        int a = Math.abs(delta);
+        if (position < 0 || position >= limit) {
+            boolean above = position >= limit;
+            int next = above ? position - a : position + a;
+            if (next < 0 || next >= limit) { // stuck outside, turning round on every step
+                return pack(position, steps % 2 == 0 ? delta : -delta);
+            }
+            boolean towards = above ? delta < 0 : delta > 0;
+            int taken = towards ? 1 : 2; // otherwise it turns round first
+            if (steps < taken) return pack(position, -delta);
+            position = next;
+            delta = above ? -a : a;
+            steps -= taken;
+            if (steps == 0) return pack(position, delta);
+        }
+        if (a == 0) return pack(position, 0);
+        int r = position % a;
+        long top = (limit - 1 - r) / a; // K: the highest index of a position it visits
+        long index = (position - r) / a;
+        long period = 2 * top + 2;
+        long phase = delta > 0 ? index : 2 * top + 1 - index;
+        phase = (phase + steps % period) % period;
+        if (phase <= top) return pack((int) (r + phase * a), a);
+        return pack((int) (r + (2 * top + 1 - phase) * a), -a);
+    }
+
+    /**
+     * @param state A value returned by after().
+     * @return The position it holds.
+     */
+    public static int position(long state) {
+        return (int) (state >> 32);
+    }
+
+    /**
+     * @param state A value returned by after().
+     * @return The delta it holds.
+     */
+    public static int delta(long state) {
+        return (int) state;
+    }
+
+    private static long pack(int position, int delta) {
+        return ((long) position << 32) | (delta & 0xFFFFFFFFL);
+    }
+}
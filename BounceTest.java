@@ -0,0 +1,69 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.Random;
+  
+import org.junit.Test;
+  
+public class BounceTest {
+  
+    @Test
+    public void testAgreesWithSteppingOneAxis() { // Every start, inside the walls or not, for hundreds of steps.
+        Random rand = new Random(20);
+        FigureBuffer one = new FigureBuffer(1, 1);
+        one.add(100, 100, Shape.SQUARE);
+        for (int trial = 0; trial < 3000; trial++) {
+            int limit = rand.nextInt(5) == 0 ? rand.nextInt(6) - 2 : 1 + rand.nextInt(300);
+            int position = rand.nextInt(4) == 0 ? rand.nextInt(400) - 50 : rand.nextInt(Math.max(1, limit));
+            int delta = rand.nextInt(31) - 15;
+            one.x[0] = position;
+            one.xDelta[0] = delta;
+            one.xLimit[0] = limit;
+            for (int n = 1; n <= 400; n++) {
+                one.makeOneStep();
+                long state = Bounce.after(position, delta, limit, n);
+                String where = "start " + position + " delta " + delta + " limit " + limit + " after " + n;
+                assertEquals(where, one.x[0], Bounce.position(state));
+                assertEquals(where, one.xDelta[0], Bounce.delta(state));
+            }
+        }
+    }
+  
+    @Test
+    public void testAdvanceMatchesSteppingFigures() { // Jumping ahead lands every figure where stepping does, previous positions included.
+        FigureBuffer stepped = new FigureBuffer(500, 6);
+        FigureBuffer jumped = new FigureBuffer(500, 6);
+        for (int i = 0; i < 500; i++) {
+            stepped.add(1000, 800, Shape.values()[i % 3]);
+            jumped.add(1000, 800, Shape.values()[i % 3]);
+        }
+        stepped.setLimits(700, 500); // some figures start outside their walls
+        jumped.setLimits(700, 500);
+        long done = 0;
+        for (long target : new long[] { 1, 2, 17, 500, 4321 }) {
+            jumped.advance(target - done);
+            for (; done < target; done++) {
+                stepped.savePositions();
+                stepped.makeOneStep();
+            }
+            assertArrayEquals(stepped.x, jumped.x);
+            assertArrayEquals(stepped.y, jumped.y);
+            assertArrayEquals(stepped.xDelta, jumped.xDelta);
+            assertArrayEquals(stepped.yDelta, jumped.yDelta);
+            assertArrayEquals(stepped.prevX, jumped.prevX);
+            assertArrayEquals(stepped.prevY, jumped.prevY);
+        }
+    }
+  
+    @Test
+    public void testLooksFarAheadWithoutMoving() { // A billion steps ahead costs the same as one, and the figure stays put.
+        FigureBuffer figures = new FigureBuffer(1, 3);
+        figures.add(1000, 800, Shape.CIRCLE);
+        int x = figures.x[0], y = figures.y[0];
+        long period = 2 * ((figures.xLimit[0] - 1 - x % figures.xDelta[0]) / figures.xDelta[0]) + 2;
+        assertEquals(figures.xAfter(0, 7), figures.xAfter(0, 7 + 1000000000L * period));
+        assertEquals(x, figures.x[0]);
+        assertEquals(y, figures.y[0]);
+    }
+}
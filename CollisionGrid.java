@@ -0,0 +1,354 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The CollisionGrid makes figures bounce off each other as well as off the
+ * walls. Each figure's body is its unreflected drawing: a circle for
+ * circles, and the bounding box for squares and polygons (triangles).
+ *
+ * Finding the figures that touch is done on a uniform grid whose cells are
+ * as big as the biggest body, so a body can only touch bodies in its own
+ * cell and the 8 around it. Every figure is kept in a linked list for the
+ * cell its center is in, and from tick to tick only figures that have
+ * changed cells are moved, so the grid is never built from scratch unless
+ * the figures outgrow it. This finds pairs in time proportional to the
+ * figures plus the pairs as long as bodies are of similar sizes; a few
+ * very large triangles make big cells, and many figures share each one.
+ * Once the biggest body is SHRINK times smaller than a cell, because the
+ * large figures were removed or shrunk, the grid is rebuilt with cells
+ * to fit it again; the margin keeps a body that grows and shrinks by a
+ * little from rebuilding the grid every tick.
+ *
+ * Looking for touching pairs only reads the figures, so it is done one
+ * band of cell rows per task on a fork-join pool for large scenes. The
+ * pairs are then answered one after another, in the same order however
+ * many threads found them, so the result never depends on the pool: when
+ * two bodies overlap and move towards each other along the axis they
+ * overlap least on, they swap their speeds along that axis, as equal
+ * masses do in an elastic collision.
+ */
+public class CollisionGrid {
+
+    /** Default smallest number of figures worth searching in parallel. */
+    public static final int DEFAULT_THRESHOLD = Integer.getInteger("kaleidoscope.parallelThreshold", 20000);
+
+    /** Cell rows searched by one task. */
+    static final int BAND_ROWS = 4;
+
+    /** How many times bigger than the biggest body a cell may be before the grid is rebuilt smaller. */
+    static final int SHRINK = 4;
+
+    private final ForkJoinPool pool;
+    private volatile int threshold;
+
+    // The grid: cells are cellSize pixels square, columns x rows of them.
+    private int cellSize;
+    private int columns;
+    private int rows;
+    private int[] head = new int[0];  // first figure in each cell, or -1
+    private int[] next = new int[0];  // next figure in the same cell, or -1
+    private int[] prev = new int[0];  // previous figure in the same cell, or -1
+    private int[] cellOf = new int[0]; // the cell each figure is listed in
+    private int listed;               // figures 0 to listed - 1 are in the grid
+
+    // Each figure's body this tick.
+    private int[] left = new int[0];
+    private int[] top = new int[0];
+    private int[] extent = new int[0];
+    private boolean[] round = new boolean[0]; // true for circles
+
+    private Pairs[] bands = new Pairs[0];
+    private int lastPairs;
+
+    /**
+     * Creates a grid that searches large scenes on the common fork-join pool.
+     */
+    public CollisionGrid() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param pool The pool that bands of cells are searched on.
+     * @param threshold The smallest number of figures that is searched in parallel.
+     */
+    public CollisionGrid(ForkJoinPool pool, int threshold) {
+        this.pool = pool;
+        setThreshold(threshold);
+    }
+
+    /**
+     * @param threshold The smallest number of figures that is searched in parallel.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+
+    /**
+     * @return The number of touching pairs found by the last call to collide().
+     */
+    public int getLastPairCount() {
+        return lastPairs;
+    }
+
+    /**
+     * Makes figures that touch bounce off each other. Call it after each step.
+     *
+     * @param figures The figures to collide.
+     */
+    public void collide(FigureBuffer figures) {
+        int count = figures.count();
+        update(figures);
+        for (Pairs band : bands) {
+            band.size = 0;
+        }
+        if (count >= threshold && pool.getParallelism() > 1 && rows > BAND_ROWS) {
+            pool.invoke(new SearchTask(0, rows));
+        }
+        else {
+            for (int r = 0; r < rows; r += BAND_ROWS) {
+                search(r, Math.min(r + BAND_ROWS, rows), bands[r / BAND_ROWS]);
+            }
+        }
+        lastPairs = 0;
+        for (Pairs band : bands) {
+            for (int p = 0; p < band.size; p += 2) {
+                respond(figures, band.pairs[p], band.pairs[p + 1] >> 1, band.pairs[p + 1] & 1);
+            }
+            lastPairs += band.size / 2;
+        }
+    }
+
+    /**
+     * Works out each figure's body and moves the figures that have changed
+     * cells, or rebuilds the grid if a body no longer fits in a cell, the
+     * cells have become far too big for the bodies or the figures have
+     * left the grid.
+     */
+    private void update(FigureBuffer f) {
+        int count = f.count();
+        if (left.length < count) grow(count);
+        int biggest = 1, right = 1, bottom = 1;
+        for (int i = 0; i < count; i++) {
+            Shape shape = f.getShape(i);
+            int e = Reflections.extent(shape, f.size[i], f.offset[i]);
+            left[i] = Reflections.boxLeft(0, f.x[i], shape, f.size[i], f.offset[i]);
+            top[i] = Reflections.boxTop(0, f.y[i], shape, f.size[i], f.offset[i]);
+            extent[i] = e;
+            round[i] = shape == Shape.CIRCLE;
+            biggest = Math.max(biggest, e);
+            right = Math.max(right, left[i] + e);
+            bottom = Math.max(bottom, top[i] + e);
+        }
+        if (biggest > cellSize || biggest * SHRINK < cellSize || right > columns * cellSize || bottom > rows * cellSize) {
+            rebuild(count, biggest, right, bottom);
+            return;
+        }
+        for (int i = count; i < listed; i++) { // figures that have been removed
+            unlink(i);
+        }
+        for (int i = 0; i < count; i++) {
+            int cell = cellFor(i);
+            if (i >= listed) {
+                link(i, cell);
+            }
+            else if (cell != cellOf[i]) {
+                unlink(i);
+                link(i, cell);
+            }
+        }
+        listed = count;
+    }
+
+    /**
+     * Makes a grid big enough for every body, with some room to spare,
+     * and lists every figure in it.
+     */
+    private void rebuild(int count, int biggest, int right, int bottom) {
+        if (biggest > cellSize || biggest * SHRINK < cellSize) { // cells of a new size: count them again
+            cellSize = biggest;
+            columns = 0;
+            rows = 0;
+        }
+        columns = Math.max(columns, right / cellSize + 2);
+        rows = Math.max(rows, bottom / cellSize + 2);
+        head = new int[columns * rows];
+        Arrays.fill(head, -1);
+        int bandCount = (rows + BAND_ROWS - 1) / BAND_ROWS;
+        if (bands.length != bandCount) {
+            Pairs[] old = bands;
+            bands = Arrays.copyOf(bands, bandCount);
+            for (int b = old.length; b < bandCount; b++) {
+                bands[b] = new Pairs();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            link(i, cellFor(i));
+        }
+        listed = count;
+    }
+
+    /**
+     * @return The width and height of a cell, in pixels.
+     */
+    int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return The cell that the center of figure i's body is in.
+     */
+    private int cellFor(int i) {
+        int column = Math.min(Math.max((2 * left[i] + extent[i]) / (2 * cellSize), 0), columns - 1);
+        int row = Math.min(Math.max((2 * top[i] + extent[i]) / (2 * cellSize), 0), rows - 1);
+        return row * columns + column;
+    }
+
+    private void link(int i, int cell) {
+        int first = head[cell];
+        next[i] = first;
+        prev[i] = -1;
+        if (first >= 0) prev[first] = i;
+        head[cell] = i;
+        cellOf[i] = cell;
+    }
+
+    private void unlink(int i) {
+        if (prev[i] >= 0) next[prev[i]] = next[i];
+        else head[cellOf[i]] = next[i];
+        if (next[i] >= 0) prev[next[i]] = prev[i];
+    }
+
+    /**
+     * Finds the touching pairs with at least one figure in rows from
+     * (inclusive) to to (exclusive). Each pair of cells is searched once:
+     * every cell is searched against itself and the 4 cells after it.
+     */
+    private void search(int from, int to, Pairs out) {
+        for (int r = from; r < to; r++) {
+            for (int c = 0; c < columns; c++) {
+                int cell = r * columns + c;
+                for (int a = head[cell]; a >= 0; a = next[a]) {
+                    for (int b = next[a]; b >= 0; b = next[b]) {
+                        test(a, b, out);
+                    }
+                    if (c + 1 < columns) testCell(a, cell + 1, out);
+                    if (r + 1 < rows) {
+                        if (c > 0) testCell(a, cell + columns - 1, out);
+                        testCell(a, cell + columns, out);
+                        if (c + 1 < columns) testCell(a, cell + columns + 1, out);
+                    }
+                }
+            }
+        }
+    }
+
+    private void testCell(int a, int cell, Pairs out) {
+        for (int b = head[cell]; b >= 0; b = next[b]) {
+            test(a, b, out);
+        }
+    }
+
+    private void test(int a, int b, Pairs out) {
+        int axis = touching(a, b);
+        if (axis >= 0) out.add(Math.min(a, b), Math.max(a, b), axis);
+    }
+
+    /**
+     * Tells whether the bodies of figures a and b, as of the last call to
+     * collide(), overlap.
+     *
+     * @param a The slot of one figure.
+     * @param b The slot of the other figure.
+     * @return -1 if they do not overlap, otherwise the axis they overlap
+     *         least on: 0 for X, 1 for Y.
+     */
+    int touching(int a, int b) {
+        int ea = extent[a], eb = extent[b];
+        int overlapX = Math.min(left[a] + ea, left[b] + eb) - Math.max(left[a], left[b]);
+        int overlapY = Math.min(top[a] + ea, top[b] + eb) - Math.max(top[a], top[b]);
+        if (overlapX <= 0 || overlapY <= 0) return -1;
+        if (!round[a] && !round[b]) return overlapX <= overlapY ? 0 : 1;
+        // Twice the centers, so that everything stays whole.
+        long dx = (2L * left[b] + eb) - (2L * left[a] + ea);
+        long dy = (2L * top[b] + eb) - (2L * top[a] + ea);
+        if (round[a] && round[b]) {
+            if (dx * dx + dy * dy >= (long) (ea + eb) * (ea + eb)) return -1;
+        }
+        else {
+            int circle = round[a] ? a : b, box = round[a] ? b : a;
+            long cx = 2L * left[circle] + extent[circle], cy = 2L * top[circle] + extent[circle];
+            long nearX = Math.min(Math.max(cx, 2L * left[box]), 2L * (left[box] + extent[box]));
+            long nearY = Math.min(Math.max(cy, 2L * top[box]), 2L * (top[box] + extent[box]));
+            long r = extent[circle];
+            if ((cx - nearX) * (cx - nearX) + (cy - nearY) * (cy - nearY) >= r * r) return -1;
+        }
+        return Math.abs(dx) >= Math.abs(dy) ? 0 : 1;
+    }
+
+    /**
+     * Swaps the speeds of figures a and b along the axis if they are
+     * moving towards each other on it.
+     */
+    private void respond(FigureBuffer f, int a, int b, int axis) {
+        int[] delta = axis == 0 ? f.xDelta : f.yDelta;
+        int[] position = axis == 0 ? left : top;
+        long apart = (2L * position[b] + extent[b]) - (2L * position[a] + extent[a]);
+        if (apart == 0 || (long) (delta[b] - delta[a]) * apart >= 0) return; // not closing in
+        int t = delta[a];
+        delta[a] = delta[b];
+        delta[b] = t;
+    }
+
+    private void grow(int n) {
+        n = Math.max(n, left.length + (left.length >> 1));
+        left = Arrays.copyOf(left, n);
+        top = Arrays.copyOf(top, n);
+        extent = Arrays.copyOf(extent, n);
+        round = Arrays.copyOf(round, n);
+        next = Arrays.copyOf(next, n);
+        prev = Arrays.copyOf(prev, n);
+        cellOf = Arrays.copyOf(cellOf, n);
+    }
+
+    /**
+     * A growable list of touching pairs: the first figure, then the second
+     * figure shifted left by one with the axis in the lowest bit.
+     */
+    private static class Pairs {
+        int[] pairs = new int[64];
+        int size;
+
+        void add(int a, int b, int axis) {
+            if (size + 2 > pairs.length) pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            pairs[size++] = a;
+            pairs[size++] = (b << 1) | axis;
+        }
+    }
+
+    /**
+     * Searches a range of cell rows, splitting it in half on band
+     * boundaries until it is one band.
+     */
+    private class SearchTask extends RecursiveAction {
+        private final int from, to;
+
+        SearchTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BAND_ROWS) {
+                search(from, to, bands[from / BAND_ROWS]);
+                return;
+            }
+            int bandsLeft = (to - from + BAND_ROWS - 1) / BAND_ROWS;
+            int middle = from + bandsLeft / 2 * BAND_ROWS;
+            invokeAll(new SearchTask(from, middle), new SearchTask(middle, to));
+        }
+    }
+}
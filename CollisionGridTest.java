@@ -0,0 +1,125 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+  
+import org.junit.Test;
+  
+public class CollisionGridTest {
+  
+    /**
+     * Makes figures sized for a 1000x800 window and spreads them over a
+     * world of the given size.
+     */
+    private static FigureBuffer makeFigures(long seed, int count, int width, int height) {
+        Random rand = new Random(seed);
+        FigureBuffer figures = FrameFixture.figures(seed, count, 1000, 800);
+        for (int i = 0; i < count; i++) {
+            figures.xLimit[i] = width - figures.size[i];
+            figures.yLimit[i] = height - figures.size[i];
+            figures.x[i] = rand.nextInt(figures.xLimit[i]);
+            figures.y[i] = rand.nextInt(figures.yLimit[i]);
+        }
+        return figures;
+    }
+  
+    @Test
+    public void testHeadOnCirclesSwapSpeeds() { // Two circles closing in along X trade X speeds and keep their Y speeds.
+        FigureBuffer figures = makeFigures(1, 2, 1000, 800);
+        for (int i = 0; i < 2; i++) {
+            figures.shape[i] = (byte) Shape.CIRCLE.ordinal();
+            figures.size[i] = 40;
+            figures.offset[i] = 0;
+            figures.y[i] = 100;
+            figures.yDelta[i] = 3 + i;
+        }
+        figures.x[0] = 100;
+        figures.xDelta[0] = 5;
+        figures.x[1] = 130;
+        figures.xDelta[1] = -7;
+        CollisionGrid grid = new CollisionGrid();
+        grid.collide(figures);
+        assertEquals(1, grid.getLastPairCount());
+        assertEquals(-7, figures.xDelta[0]);
+        assertEquals(5, figures.xDelta[1]);
+        assertEquals(3, figures.yDelta[0]);
+        assertEquals(4, figures.yDelta[1]);
+        grid.collide(figures); // still overlapping, but now moving apart
+        assertEquals(-7, figures.xDelta[0]);
+    }
+  
+    @Test
+    public void testFindsSamePairsAsCheckingEveryPair() { // The grid must miss no touching pair and count none twice.
+        FigureBuffer figures = makeFigures(5, 800, 1000, 800);
+        CollisionGrid grid = new CollisionGrid();
+        for (int tick = 0; tick < 30; tick++) {
+            figures.makeOneStep();
+            if (tick == 10) figures.removeLast();
+            if (tick == 20) figures.add(1000, 800, Shape.POLYGON);
+            int[] xDelta = figures.xDelta.clone();
+            grid.collide(figures);
+            int expected = 0;
+            for (int a = 0; a < figures.count(); a++) {
+                for (int b = a + 1; b < figures.count(); b++) {
+                    if (grid.touching(a, b) >= 0) expected++;
+                }
+            }
+            assertEquals(expected, grid.getLastPairCount());
+            figures.xDelta = xDelta; // keep stepping the same scene
+        }
+    }
+  
+    @Test
+    public void testCellsShrinkWhenBigFiguresGo() { // Cells grow for a big body, and shrink again once it is gone, still finding every pair.
+        FigureBuffer figures = makeFigures(7, 400, 1000, 800);
+        figures.add(1000, 800, Shape.SQUARE);
+        figures.size[400] = 2000;
+        figures.offset[400] = 0;
+        CollisionGrid grid = new CollisionGrid();
+        grid.collide(figures);
+        assertTrue(grid.getCellSize() >= 2000);
+        figures.removeLast();
+        grid.collide(figures);
+        int biggest = 0;
+        for (int i = 0; i < figures.count(); i++) {
+            biggest = Math.max(biggest, Reflections.extent(figures.getShape(i), figures.size[i], figures.offset[i]));
+        }
+        assertEquals(biggest, grid.getCellSize());
+        int expected = 0;
+        for (int a = 0; a < figures.count(); a++) {
+            for (int b = a + 1; b < figures.count(); b++) {
+                if (grid.touching(a, b) >= 0) expected++;
+            }
+        }
+        assertEquals(expected, grid.getLastPairCount());
+        figures.size[0]++; // a little bigger than the rest: the cells stay
+        grid.collide(figures);
+        assertTrue(grid.getCellSize() >= biggest);
+    }
+  
+    @Test
+    public void testParallelMatchesSerial() { // Searching cells on many threads must bounce figures exactly as on one.
+        FigureBuffer serial = makeFigures(9, 20000, 8000, 6000);
+        FigureBuffer parallel = makeFigures(9, 20000, 8000, 6000);
+        CollisionGrid one = new CollisionGrid(new ForkJoinPool(1), Integer.MAX_VALUE);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CollisionGrid many = new CollisionGrid(pool, 0);
+            for (int tick = 0; tick < 50; tick++) {
+                serial.makeOneStep();
+                one.collide(serial);
+                parallel.makeOneStep();
+                many.collide(parallel);
+                assertEquals(one.getLastPairCount(), many.getLastPairCount());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(serial.x, parallel.x);
+        assertArrayEquals(serial.y, parallel.y);
+        assertArrayEquals(serial.xDelta, parallel.xDelta);
+        assertArrayEquals(serial.yDelta, parallel.yDelta);
+    }
+}
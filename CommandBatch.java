@@ -0,0 +1,282 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A CommandBatch is a list of changes to the scene, made together on the
+ * simulation thread at the start of one step, for programs that drive the
+ * Kaleidoscope instead of a user. Offer it to a CommandQueue in the same
+ * process, or send it with a CommandClient to a CommandServer.
+ *
+ * Each command is stored as an Op and two int arguments, so a batch of
+ * thousands of commands is three int arrays, and adding many figures of
+ * one shape is a single command.
+ *
+ * Once the batch has been made, it is acknowledged: its status becomes
+ * APPLIED (or BUSY, MALFORMED or FAILED), and getStep() and getFigureCount() tell
+ * when it took effect and how many figures there were after it. A batch
+ * is offered only once.
+ */
+public class CommandBatch {
+
+    /**
+     * The things a command can do.
+     */
+    public enum Op {
+        /** Adds figures; arguments: how many, the Shape ordinal. */
+        ADD,
+        /** Removes the last-added figures, leaving at least one; argument: how many. */
+        REMOVE,
+        /** Sets the speed; argument: the period of a step in milliseconds, from 5 to 100. */
+        SPEED,
+        /** Turns color flashing on (1) or off (0). */
+        FLASH,
+        /** Turns collisions between figures on (1) or off (0). */
+        COLLIDE
+    }
+
+    /**
+     * What became of a batch.
+     */
+    public enum Status {
+        /** Not acknowledged yet. */
+        PENDING,
+        /** Made, at getStep(). */
+        APPLIED,
+        /** Not made: the queue was full. It may be sent again. */
+        BUSY,
+        /** Not made: a server could not read it, or it would leave more than MAX_FIGURES figures. */
+        MALFORMED,
+        /** Not made, or only in part: making it failed, or whatever makes it has stopped. */
+        FAILED
+    }
+
+    /** The most figures one command adds or removes. */
+    public static final int MAX_COUNT = 1 << 20;
+
+    /** The most commands in one batch. */
+    public static final int MAX_SIZE = 1 << 16;
+
+    /** The most figures a scene may have; a batch that could leave more is refused whole. */
+    public static final int MAX_FIGURES = 1 << 21;
+
+    private static final Op[] OPS = Op.values();
+    private static final int SHAPES = Shape.values().length;
+
+    private final int id;
+    private int size;
+    private byte[] ops = new byte[8];
+    private int[] first = new int[8];
+    private int[] second = new int[8];
+    private int added; // figures added by all the ADD commands
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Status status = Status.PENDING;
+    private long step;
+    private int figureCount;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param id Any number, to tell the acknowledgements of batches apart.
+     */
+    public CommandBatch(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return The number given when the batch was made.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Adds figures of one shape, inside the current walls.
+     *
+     * @param count How many, from 1 to MAX_COUNT.
+     * @param shape Their shape.
+     * @return This batch.
+     */
+    public CommandBatch add(int count, Shape shape) {
+        return command(Op.ADD, count, shape.ordinal());
+    }
+
+    /**
+     * Removes the last-added figures. The last figure is never removed.
+     *
+     * @param count How many, from 1 to MAX_COUNT.
+     * @return This batch.
+     */
+    public CommandBatch remove(int count) {
+        return command(Op.REMOVE, count, 0);
+    }
+
+    /**
+     * @param period The period of one step in milliseconds, from 5 (fastest) to 100.
+     * @return This batch.
+     */
+    public CommandBatch speed(int period) {
+        return command(Op.SPEED, period, 0);
+    }
+
+    /**
+     * @param on true to flash the colors of the figures every step.
+     * @return This batch.
+     */
+    public CommandBatch flash(boolean on) {
+        return command(Op.FLASH, on ? 1 : 0, 0);
+    }
+
+    /**
+     * @param on true to make the figures bounce off each other.
+     * @return This batch.
+     */
+    public CommandBatch collide(boolean on) {
+        return command(Op.COLLIDE, on ? 1 : 0, 0);
+    }
+
+    /**
+     * Adds a command, checking its arguments.
+     *
+     * @param op What to do.
+     * @param a Its first argument.
+     * @param b Its second argument, or 0.
+     * @return This batch.
+     * @throws IllegalArgumentException If an argument is out of range, the
+     *                                  batch is full or it would add more
+     *                                  than MAX_FIGURES figures.
+     */
+    public CommandBatch command(Op op, int a, int b) {
+        String problem = check(op, a, b);
+        if (problem != null) throw new IllegalArgumentException(problem);
+        if (size == MAX_SIZE) throw new IllegalArgumentException("A batch holds at most " + MAX_SIZE + " commands");
+        if (op == Op.ADD && a > MAX_FIGURES - added) throw new IllegalArgumentException("A batch adds at most " + MAX_FIGURES + " figures");
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, size * 2);
+            first = Arrays.copyOf(first, size * 2);
+            second = Arrays.copyOf(second, size * 2);
+        }
+        ops[size] = (byte) op.ordinal();
+        first[size] = a;
+        second[size] = b;
+        size++;
+        if (op == Op.ADD) added += a;
+        return this;
+    }
+
+    /**
+     * @return Why the command is not valid, or null if it is.
+     */
+    static String check(Op op, int a, int b) {
+        switch (op) {
+        case ADD:
+            if (b < 0 || b >= SHAPES) return "Unknown shape " + b;
+            // fall through
+        case REMOVE:
+            return a < 1 || a > MAX_COUNT ? op + " count must be from 1 to " + MAX_COUNT + ": " + a : null;
+        case SPEED:
+            return a < 5 || a > 100 ? "Period must be from 5 to 100 ms: " + a : null;
+        default:
+            return a != 0 && a != 1 ? op + " takes 0 or 1: " + a : null;
+        }
+    }
+
+    /**
+     * @param ordinal An Op ordinal, as sent by a CommandClient.
+     * @return The Op, or null if there is none.
+     */
+    static Op op(int ordinal) {
+        return ordinal >= 0 && ordinal < OPS.length ? OPS[ordinal] : null;
+    }
+
+    /**
+     * @return The number of commands.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of figures the ADD commands add, not counting any removed.
+     */
+    public int getAddedCount() {
+        return added;
+    }
+
+    /**
+     * @param c The command, from 0 to size() - 1.
+     * @return What it does.
+     */
+    public Op getOp(int c) {
+        return OPS[ops[c]];
+    }
+
+    /**
+     * @param c The command, from 0 to size() - 1.
+     * @return Its first argument.
+     */
+    public int getFirst(int c) {
+        return first[c];
+    }
+
+    /**
+     * @param c The command, from 0 to size() - 1.
+     * @return Its second argument.
+     */
+    public int getSecond(int c) {
+        return second[c];
+    }
+
+    /**
+     * @return What became of the batch so far.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The number of steps taken before the batch was made; only
+     *         meaningful once it is APPLIED.
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * @return The number of figures just after the batch was made; only
+     *         meaningful once it is APPLIED.
+     */
+    public int getFigureCount() {
+        return figureCount;
+    }
+
+    /**
+     * Waits until the batch is acknowledged.
+     *
+     * @param timeout How long to wait at most.
+     * @param unit The unit of timeout.
+     * @return The status of the batch; still PENDING if the time ran out.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Status await(long timeout, TimeUnit unit) throws InterruptedException {
+        done.await(timeout, unit);
+        return status;
+    }
+
+    /**
+     * Acknowledges the batch, waking whoever waits for it.
+     *
+     * @param status What became of it.
+     * @param step The steps taken before it was made.
+     * @param figureCount The figures after it was made.
+     */
+    void acknowledge(Status status, long step, int figureCount) {
+        this.step = step;
+        this.figureCount = figureCount;
+        this.status = status; // written last, so that reading it shows the other two
+        done.countDown();
+    }
+}
@@ -0,0 +1,111 @@
+package kaleidoscope;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * The CommandClient sends CommandBatches to a CommandServer on this
+ * machine and waits for each to be acknowledged.
+ *
+ * Usage: java kaleidoscope.CommandClient PORT [FIGURES] [BATCH]
+ *
+ * adds FIGURES figures (10000 unless given), BATCH (1000 unless given) at
+ * a time, then removes them again, and prints how long it took.
+ */
+public class CommandClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a server.
+     *
+     * @param port The port it listens on.
+     * @throws IOException If it could not be reached.
+     */
+    public CommandClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Sends a batch and waits until it has been made or refused.
+     *
+     * @param batch The batch; it must not have been sent before.
+     * @return What became of it; the step and figure count are also set
+     *         on the batch.
+     * @throws IOException If the server could not be reached, or answered
+     *                     with something other than this batch.
+     */
+    public CommandBatch.Status send(CommandBatch batch) throws IOException {
+        out.writeInt(batch.getId());
+        out.writeInt(batch.size());
+        for (int c = 0; c < batch.size(); c++) {
+            out.writeByte(batch.getOp(c).ordinal());
+            out.writeInt(batch.getFirst(c));
+            out.writeInt(batch.getSecond(c));
+        }
+        out.flush();
+        int id = in.readInt();
+        int status = in.readUnsignedByte();
+        long step = in.readLong();
+        int figures = in.readInt();
+        CommandBatch.Status[] statuses = CommandBatch.Status.values();
+        if (id != batch.getId() || status >= statuses.length) throw new IOException("Bad acknowledgement for batch " + batch.getId());
+        batch.acknowledge(statuses[status], step, figures);
+        return statuses[status];
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Adds figures and removes them again, and prints how fast it went.
+     *
+     * @param args The port of the server, how many figures and how many at a time.
+     * @throws Exception If the server could not be reached.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java kaleidoscope.CommandClient PORT [FIGURES] [BATCH]");
+            System.exit(2);
+        }
+        int figures = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        Shape[] shapes = Shape.values();
+        int id = 0;
+        long start = System.nanoTime();
+        try (CommandClient client = new CommandClient(Integer.parseInt(args[0]))) {
+            for (int done = 0; done < figures; ) {
+                CommandBatch batch = new CommandBatch(id++);
+                for (int c = 0; c < size && done < figures; c++, done++) {
+                    batch.add(1, shapes[done % shapes.length]);
+                }
+                CommandBatch.Status status = client.send(batch);
+                if (status == CommandBatch.Status.BUSY) {
+                    done -= batch.size(); // queue full: send again
+                }
+                else if (status != CommandBatch.Status.APPLIED) {
+                    System.err.println("Batch " + batch.getId() + " was not made: " + status);
+                    return;
+                }
+            }
+            CommandBatch remove = new CommandBatch(id++).remove(figures);
+            client.send(remove);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Added and removed %d figures in %d batches in %.2f s: %.0f commands/s, %d figures left%n",
+                    figures, id, seconds, (figures + 1) / seconds, remove.getFigureCount());
+        }
+    }
+}
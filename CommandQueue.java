@@ -0,0 +1,212 @@
+package kaleidoscope;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The CommandQueue carries CommandBatches from any number of threads to
+ * the simulation thread, which makes them at the start of its next step
+ * (see SimulationLoop.setCommands).
+ *
+ * It is a bounded ring of slots. Each slot has a sequence number that
+ * says whose turn it is: a producer claims the next slot by moving the
+ * tail on with compareAndSet, stores its batch and then bumps the slot's
+ * sequence, which hands it to the consumer; the consumer takes the batch
+ * and bumps the sequence by a whole lap, which hands the slot back to the
+ * producers. Producers never wait for each other or for the consumer:
+ * when every slot is taken, offer() fails at once and the batch is
+ * acknowledged as BUSY. Nothing is allocated per batch.
+ *
+ * There must be only one consumer. Once it has stopped for good, for
+ * example because its session failed, close() acknowledges every batch
+ * still waiting, and every one offered later, as FAILED, so that nobody
+ * waits for a batch that will never be made.
+ */
+public class CommandQueue {
+
+    /** Default number of slots. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Makes batches. Only called on the consumer's thread.
+     */
+    public interface Target {
+        /**
+         * @param batch The commands to make, in order.
+         * @return The number of figures after making them.
+         * @throws IllegalArgumentException If the batch cannot be made; none
+         *                                  of it has been made then.
+         */
+        int apply(CommandBatch batch);
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<CommandBatch> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private long head; // next slot to take; only used by the consumer, then by refuseWaiting()
+    private volatile Thread consumer;
+    private volatile boolean closed;
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+
+    /**
+     * @param capacity The most batches waiting at once; rounded up to a power of two.
+     */
+    public CommandQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Bad capacity: " + capacity);
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity) slots <<= 1;
+        mask = slots - 1;
+        this.slots = new AtomicReferenceArray<CommandBatch>(slots);
+        sequences = new AtomicLongArray(slots);
+        for (int s = 0; s < slots; s++) {
+            sequences.set(s, s);
+        }
+    }
+
+    /**
+     * @return The most batches that can wait at once.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @param consumer The thread to wake when a batch is offered, or null.
+     */
+    public void setConsumer(Thread consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Queues a batch, or acknowledges it as BUSY if the queue is full, or
+     * as FAILED if it is closed. Never blocks; may be called on any thread.
+     *
+     * @param batch The batch; it must not have been offered before.
+     * @return true if it was queued.
+     */
+    public boolean offer(CommandBatch batch) {
+        if (closed) {
+            batch.acknowledge(CommandBatch.Status.FAILED, -1, -1);
+            return false;
+        }
+        while (true) {
+            long t = tail.get();
+            int s = (int) t & mask;
+            long turn = sequences.get(s) - t;
+            if (turn == 0) {
+                if (!tail.compareAndSet(t, t + 1)) continue; // another producer got there first
+                slots.set(s, batch);
+                sequences.set(s, t + 1); // the slot is the consumer's now
+                offered.incrementAndGet();
+                if (closed) { // closed while storing it: close() may not have seen it
+                    refuseWaiting();
+                    return false;
+                }
+                Thread thread = consumer;
+                if (thread != null) LockSupport.unpark(thread);
+                return true;
+            }
+            if (turn < 0) { // the slot a lap back has not been taken yet: full
+                refused.incrementAndGet();
+                batch.acknowledge(CommandBatch.Status.BUSY, -1, -1);
+                return false;
+            }
+            // another producer claimed this slot since we read the tail; look again
+        }
+    }
+
+    /**
+     * @return true if no batch is waiting. Only reliable on the consumer's thread.
+     */
+    public boolean isEmpty() {
+        return sequences.get((int) head & mask) != head + 1;
+    }
+
+    /**
+     * Makes every batch that is waiting, in the order they were queued,
+     * and acknowledges each as soon as it has been made. A batch the
+     * target refuses is acknowledged as MALFORMED and the rest are still
+     * made; if making one fails in any other way, it is acknowledged as
+     * FAILED and the failure is thrown. Only called by the consumer.
+     *
+     * @param target What makes the batches.
+     * @param step The number of steps taken so far.
+     * @return The number of batches taken from the queue.
+     */
+    public int drain(Target target, long step) {
+        int n = 0;
+        while (true) {
+            int s = (int) head & mask;
+            if (sequences.get(s) != head + 1) return n; // empty, or the producer is still storing it
+            CommandBatch batch = slots.get(s);
+            slots.set(s, null);
+            sequences.set(s, head + mask + 1); // free for the producers' next lap
+            head++;
+            n++;
+            int figures;
+            try {
+                figures = target.apply(batch);
+            } catch (IllegalArgumentException e) {
+                batch.acknowledge(CommandBatch.Status.MALFORMED, -1, -1);
+                continue;
+            } catch (Throwable e) { // an OutOfMemoryError, say; whoever sent it must not wait forever
+                batch.acknowledge(CommandBatch.Status.FAILED, -1, -1);
+                throw e;
+            }
+            batch.acknowledge(CommandBatch.Status.APPLIED, step, figures);
+        }
+    }
+
+    /**
+     * Stops taking batches: acknowledges those waiting, and all offered
+     * from now on, as FAILED. Only called by the consumer, or once it will
+     * never drain again.
+     */
+    public void close() {
+        closed = true;
+        refuseWaiting();
+    }
+
+    /**
+     * @return true once close() has been called.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Acknowledges every batch that is waiting as FAILED. Runs once the
+     * queue is closed, on whichever thread closed it or stored a batch
+     * after that, one at a time; the consumer never drains again by then.
+     */
+    private synchronized void refuseWaiting() {
+        while (true) {
+            int s = (int) head & mask;
+            if (sequences.get(s) != head + 1) return; // empty, or its producer will call again once it is stored
+            CommandBatch batch = slots.get(s);
+            slots.set(s, null);
+            sequences.set(s, head + mask + 1);
+            head++;
+            batch.acknowledge(CommandBatch.Status.FAILED, -1, -1);
+        }
+    }
+
+    /**
+     * @return The number of batches queued so far.
+     */
+    public long getOffered() {
+        return offered.get();
+    }
+
+    /**
+     * @return The number of batches refused because the queue was full.
+     */
+    public long getRefused() {
+        return refused.get();
+    }
+}
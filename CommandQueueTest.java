@@ -0,0 +1,193 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+  
+import org.junit.Test;
+  
+public class CommandQueueTest {
+  
+    /** Keeps the ids of the batches it is given, in order. */
+    static class Log implements CommandQueue.Target {
+        final List<Integer> ids = new ArrayList<Integer>();
+  
+        @Override
+        public int apply(CommandBatch batch) {
+            ids.add(batch.getId());
+            return ids.size();
+        }
+    }
+  
+    @Test
+    public void testDrainInOrder() { // Batches are made in the order they were queued, and acknowledged.
+        CommandQueue queue = new CommandQueue(8);
+        CommandBatch[] batches = new CommandBatch[5];
+        for (int b = 0; b < batches.length; b++) {
+            batches[b] = new CommandBatch(b).remove(1);
+            assertTrue(queue.offer(batches[b]));
+        }
+        assertEquals(CommandBatch.Status.PENDING, batches[0].getStatus());
+        Log log = new Log();
+        assertEquals(5, queue.drain(log, 42));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), log.ids);
+        assertEquals(CommandBatch.Status.APPLIED, batches[4].getStatus());
+        assertEquals(42, batches[4].getStep());
+        assertEquals(5, batches[4].getFigureCount());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.drain(log, 43));
+    }
+  
+    @Test
+    public void testFailuresAcknowledged() { // A batch the target refuses, or fails to make, is still acknowledged, and the rest are made.
+        CommandQueue queue = new CommandQueue(8);
+        CommandBatch[] batches = new CommandBatch[5];
+        for (int b = 0; b < batches.length; b++) {
+            batches[b] = new CommandBatch(b).remove(1);
+            assertTrue(queue.offer(batches[b]));
+        }
+        Log log = new Log() {
+            @Override
+            public int apply(CommandBatch batch) {
+                if (batch.getId() == 1) throw new IllegalArgumentException("refused");
+                if (batch.getId() == 3) throw new OutOfMemoryError("failed");
+                return super.apply(batch);
+            }
+        };
+        try {
+            queue.drain(log, 7);
+            fail();
+        } catch (OutOfMemoryError e) {
+            // expected
+        }
+        assertEquals(CommandBatch.Status.APPLIED, batches[0].getStatus());
+        assertEquals(CommandBatch.Status.MALFORMED, batches[1].getStatus());
+        assertEquals(CommandBatch.Status.APPLIED, batches[2].getStatus());
+        assertEquals(CommandBatch.Status.FAILED, batches[3].getStatus());
+        assertEquals(CommandBatch.Status.PENDING, batches[4].getStatus());
+        assertEquals(1, queue.drain(log, 8));
+        assertEquals(CommandBatch.Status.APPLIED, batches[4].getStatus());
+    }
+  
+    @Test
+    public void testClosedQueueFailsBatches() { // Closing fails the batches waiting and every one offered after.
+        CommandQueue queue = new CommandQueue(4);
+        CommandBatch waiting = new CommandBatch(0).remove(1);
+        assertTrue(queue.offer(waiting));
+        queue.close();
+        assertTrue(queue.isClosed());
+        assertEquals(CommandBatch.Status.FAILED, waiting.getStatus());
+        CommandBatch later = new CommandBatch(1).remove(1);
+        assertFalse(queue.offer(later));
+        assertEquals(CommandBatch.Status.FAILED, later.getStatus());
+    }
+  
+    @Test
+    public void testBatchAddsAtMostMaxFigures() { // One batch cannot ask for more figures than a scene may have.
+        CommandBatch batch = new CommandBatch(0);
+        for (int added = 0; added < CommandBatch.MAX_FIGURES; added += CommandBatch.MAX_COUNT) {
+            batch.add(CommandBatch.MAX_COUNT, Shape.CIRCLE);
+        }
+        try {
+            batch.add(1, Shape.CIRCLE);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        batch.remove(1);
+        assertEquals(CommandBatch.MAX_FIGURES, batch.getAddedCount());
+    }
+  
+    @Test
+    public void testFullQueueRefuses() { // A full queue acknowledges new batches as BUSY at once, and takes them again once drained.
+        CommandQueue queue = new CommandQueue(3);
+        assertEquals(4, queue.getCapacity());
+        for (int lap = 0; lap < 3; lap++) {
+            for (int b = 0; b < 4; b++) {
+                assertTrue(queue.offer(new CommandBatch(b)));
+            }
+            CommandBatch extra = new CommandBatch(4);
+            assertFalse(queue.offer(extra));
+            assertEquals(CommandBatch.Status.BUSY, extra.getStatus());
+            assertEquals(4, queue.drain(new Log(), lap));
+        }
+        assertEquals(12, queue.getOffered());
+        assertEquals(3, queue.getRefused());
+    }
+  
+    @Test
+    public void testManyProducers() throws Exception { // Every batch from every thread is made once, each thread's in order.
+        final CommandQueue queue = new CommandQueue(64);
+        final int producers = 4, each = 20000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < each; ) {
+                        if (queue.offer(new CommandBatch(producer * each + n))) n++;
+                        else Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        Log log = new Log();
+        while (log.ids.size() < producers * each) {
+            if (queue.drain(log, 0) == 0) Thread.yield();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+        int[] next = new int[producers];
+        for (int id : log.ids) {
+            int producer = id / each;
+            assertEquals(next[producer]++, id % each);
+        }
+    }
+  
+    @Test
+    public void testLoopMakesBatches() throws Exception { // A loop makes batches even while paused, and wakes up for them.
+        final FigureBuffer figures = new FigureBuffer(1, 7);
+        figures.add(1000, 800, Shape.CIRCLE);
+        SimulationLoop loop = new SimulationLoop(new Runnable() {
+            @Override
+            public void run() {
+                figures.makeOneStep();
+            }
+        });
+        CommandQueue queue = new CommandQueue(CommandQueue.DEFAULT_CAPACITY);
+        loop.setCommands(queue, new CommandQueue.Target() {
+            @Override
+            public int apply(CommandBatch batch) {
+                for (int c = 0; c < batch.size(); c++) {
+                    for (int k = 0; k < batch.getFirst(c); k++) {
+                        if (batch.getOp(c) == CommandBatch.Op.ADD) figures.add(1000, 800, Shape.SQUARE);
+                        else figures.removeLast();
+                    }
+                }
+                return figures.count();
+            }
+        });
+        loop.start();
+        try {
+            CommandBatch add = new CommandBatch(1).add(5000, Shape.SQUARE).remove(1000);
+            assertTrue(queue.offer(add));
+            assertEquals(CommandBatch.Status.APPLIED, add.await(5, TimeUnit.SECONDS));
+            assertEquals(4001, add.getFigureCount());
+            assertEquals(0, add.getStep());
+        } finally {
+            loop.shutdown();
+        }
+    }
+  
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCommand() { // Commands are checked as they are added to a batch.
+        new CommandBatch(0).speed(1);
+    }
+}
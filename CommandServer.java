@@ -0,0 +1,182 @@
+package kaleidoscope;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CommandServer takes CommandBatches over TCP from CommandClients on
+ * this machine and offers them to a CommandQueue. Every batch is answered
+ * with an acknowledgement once it has been made or refused.
+ *
+ * A batch is sent as its id, its size and then, for every command, the Op
+ * ordinal as a byte and its two int arguments. The acknowledgement is the
+ * id, the Status ordinal as a byte, the step the batch was made at and
+ * the number of figures after it (-1 for both unless APPLIED). Each
+ * connection has a thread of its own, which reads the next batch once the
+ * last one is acknowledged; put many commands in a batch, or use several
+ * connections, to make more changes per step.
+ *
+ * The Controller starts one with -Dkaleidoscope.commandPort=PORT.
+ */
+public class CommandServer implements Closeable {
+
+    private final ServerSocket socket;
+    private final CommandQueue queue;
+    private final ExecutorService threads;
+    private final List<Socket> connections = new CopyOnWriteArrayList<Socket>();
+    private volatile boolean closed;
+
+    /**
+     * Starts listening on the loopback address.
+     *
+     * @param port The port; 0 picks a free one.
+     * @param queue Where the batches go.
+     * @throws IOException If the port could not be bound.
+     */
+    public CommandServer(int port, CommandQueue queue) throws IOException {
+        this.queue = queue;
+        socket = new ServerSocket();
+        socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            private int n = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kaleidoscope-command-" + n++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        threads.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Stops listening and drops every connection.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (Socket connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+        threads.shutdownNow();
+    }
+
+    /**
+     * Hands every new connection to a thread of its own.
+     */
+    private void accept() {
+        while (!closed) {
+            final Socket connection;
+            try {
+                connection = socket.accept();
+            } catch (IOException e) {
+                if (!closed) System.err.println("Stopped taking commands: " + e);
+                return;
+            }
+            connections.add(connection);
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(connection);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads batches from one connection and acknowledges them, until it
+     * closes or sends something that is not a batch.
+     */
+    private void serve(Socket connection) {
+        try (Socket s = connection) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            while (!closed) {
+                int id;
+                try {
+                    id = in.readInt();
+                } catch (IOException e) {
+                    return; // the client has gone
+                }
+                CommandBatch batch = new CommandBatch(id);
+                boolean whole = read(in, batch);
+                if (!whole) {
+                    batch.acknowledge(CommandBatch.Status.MALFORMED, -1, -1);
+                }
+                else if (queue.offer(batch)) {
+                    while (batch.await(1, TimeUnit.SECONDS) == CommandBatch.Status.PENDING) {
+                        if (closed) return;
+                    }
+                }
+                out.writeInt(id);
+                out.writeByte(batch.getStatus().ordinal());
+                out.writeLong(batch.getStatus() == CommandBatch.Status.APPLIED ? batch.getStep() : -1);
+                out.writeInt(batch.getStatus() == CommandBatch.Status.APPLIED ? batch.getFigureCount() : -1);
+                out.flush();
+                if (!whole) return; // cannot tell where the next batch starts
+            }
+        } catch (IOException e) {
+            // the client has gone
+        } catch (InterruptedException e) {
+            // the server is closing
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Reads the commands of a batch.
+     *
+     * @return false if the batch was not valid.
+     */
+    private static boolean read(DataInputStream in, CommandBatch batch) throws IOException {
+        int size = in.readInt();
+        if (size < 0 || size > CommandBatch.MAX_SIZE) return false;
+        for (int c = 0; c < size; c++) {
+            CommandBatch.Op op = CommandBatch.op(in.readUnsignedByte());
+            int a = in.readInt();
+            int b = in.readInt();
+            if (op == null || CommandBatch.check(op, a, b) != null) return false;
+            if (op == CommandBatch.Op.ADD && a > CommandBatch.MAX_FIGURES - batch.getAddedCount()) return false;
+            batch.command(op, a, b);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+  
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+  
+public class CommandServerTest {
+    FigureBuffer figures;
+    SimulationLoop loop;
+    CommandServer server;
+  
+    @Before
+    public void setUp() throws Exception {
+        figures = new FigureBuffer(1, 3);
+        figures.add(1000, 800, Shape.CIRCLE);
+        loop = new SimulationLoop(new Runnable() {
+            @Override
+            public void run() {
+                figures.makeOneStep();
+            }
+        });
+        CommandQueue queue = new CommandQueue(16);
+        loop.setCommands(queue, new CommandQueue.Target() {
+            @Override
+            public int apply(CommandBatch batch) {
+                for (int c = 0; c < batch.size(); c++) {
+                    for (int k = 0; k < batch.getFirst(c); k++) {
+                        if (batch.getOp(c) == CommandBatch.Op.ADD) figures.add(1000, 800, Shape.values()[batch.getSecond(c)]);
+                        else figures.removeLast();
+                    }
+                }
+                return figures.count();
+            }
+        });
+        loop.start();
+        server = new CommandServer(0, queue);
+    }
+  
+    @After
+    public void tearDown() {
+        server.close();
+        loop.shutdown();
+    }
+  
+    @Test
+    public void testBatchesAcknowledged() throws Exception { // Every batch sent is made and acknowledged with the figures after it.
+        try (CommandClient client = new CommandClient(server.getPort())) {
+            for (int b = 0; b < 20; b++) {
+                CommandBatch batch = new CommandBatch(b).add(100, Shape.POLYGON).add(50, Shape.SQUARE).remove(50);
+                assertEquals(CommandBatch.Status.APPLIED, client.send(batch));
+                assertEquals(1 + 100 * (b + 1), batch.getFigureCount());
+            }
+        }
+        assertEquals(2001, figures.count());
+    }
+  
+    @Test
+    public void testMalformedBatch() throws Exception { // A batch with an unknown command is refused and the connection closed.
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(9);
+            out.writeInt(1);
+            out.writeByte(99);
+            out.writeInt(1);
+            out.writeInt(0);
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertEquals(9, in.readInt());
+            assertEquals(CommandBatch.Status.MALFORMED.ordinal(), in.readUnsignedByte());
+            assertEquals(-1, in.readLong());
+            assertEquals(-1, in.readInt());
+            assertEquals(-1, in.read());
+        }
+        assertEquals(1, figures.count());
+    }
+}
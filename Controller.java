@@ -3,22 +3,40 @@ package kaleidoscope;
 import kaleidoscope.Shape;
 
 import java.awt.BorderLayout;
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
-import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
 
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * The Controller sets up the GUI and handles all the controls (buttons,
  * menu items, etc.)
  * 
+ * The figures, their speed and switches are kept in a Session, which the
+ * SimulationLoop steps and every button changes on the simulation thread.
+ * 
+ * The figures are made from the seed in Seeds. When started with
+ * -Dkaleidoscope.record=PATH, everything the user does that changes the
+ * figures is written to a ReplayLog at PATH as it takes effect on the
+ * simulation thread, so that FrameExporter --replay can play the run back.
+ * 
+ * Other programs can change the scene too, in batches of commands offered
+ * to getCommands(), or sent over a local socket to the CommandServer that
+ * -Dkaleidoscope.commandPort=PORT starts. Batches are made at the start of
+ * a step and recorded like the user's actions.
+ * 
  * @author David Matuszek
  * @author Lucas Tejwani	
  * @author Yue Chen
@@ -32,12 +50,23 @@ public class Controller extends JFrame {
     JButton addFigureButton = new JButton("Add Figure");
     JButton removeFigureButton = new JButton("Remove Figure");
     JButton flashColorsButton = new JButton("Flash Colors");
+    JButton collideButton = new JButton("Collide");
+    JButton rendererButton = new JButton("Renderer: Java2D");
+    JButton symmetryButton = new JButton("Symmetry: 8");
+    JButton saveButton = new JButton("Save");
+    JButton loadButton = new JButton("Load");
     JButton exitButton = new JButton("Exit");
-    Timer timer;
+    Timer renderTimer; // repaints what has changed in the view at the display's refresh rate while running
 
-    private ArrayList<Model> models;  // initializes ArrayList to control Model objects
-    private int timerSpeed = 50;
-    private boolean flashOn = false;
+    private Session session;  // every figure on the screen, their speed and switches; only changed on the simulation thread
+    private int figureCount;  // number of figures once all submitted edits are made; only used on the event thread
+    private SimulationLoop loop = new SimulationLoop(new Strobe(), new Publisher()); // steps the figures on a thread of its own
+    private int timerSpeed = 50; // period of one step at the current speed, in milliseconds
+    private final Metrics metrics = Metrics.ENABLED ? new Metrics() : null; // step and paint times, also shown through JMX
+    private final FrameGovernor governor = new FrameGovernor(1000000000L / refreshRate()); // draws less when frames take too long
+    private static final String[] RENDERERS = { "Java2D", "Batched", "Software", "Compositor", "Tiled" };
+    private int rendererIndex = 0; // position in RENDERERS of the renderer the view uses
+    private int symmetryIndex = 0; // position in Symmetry.ORDERS of the copies the view draws
     
     /** The View object displays what is happening in the Model. */
     View view;
@@ -48,29 +77,73 @@ public class Controller extends JFrame {
      */
     public static void main(String[] args) {
         Controller c = new Controller();
-        ArrayList<Model> listOfModels = new ArrayList<Model>();
-        c.init(listOfModels);
+        c.init(new FigureBuffer(10, Seeds.SEED));
         c.display();
     }
 
     /**
      * Sets up communication between the components.
      */
-    private void init(ArrayList<Model> listOfModels) {
-    	this.models = listOfModels;
+    private void init(FigureBuffer figures) {
+    	session = new Session(figures, new ParallelStepper(), 1000, 800, CommandQueue.DEFAULT_CAPACITY); // default X and Y limits (change when window resized)
         view = new View();  // The view needs to know what model to look at 
-    	for (int i = 0; i < 10; i++) { // Creates initial drawing of 10 model objects on screen
-    		if (i % 5 == 0) {  // Every 5th item will be a polygon type (triangle-shaped).
-    			models.add(new Model(1000, 800, Shape.POLYGON));  // initialize with default X and Y limits (changes when window resized)
-    		}
-    		else if (i % 2 == 0) { // Every even-numbered item that is not a multiple of 5 will be a circle.
-    			models.add(new Model(1000, 800, Shape.CIRCLE)); 
-    		}
-    		else { // Every odd-numbered item that is not a multiple of 5 will be a square.
-    			models.add(new Model(1000, 800, Shape.SQUARE)); 
+        String record = System.getProperty("kaleidoscope.record"); // e.g. -Dkaleidoscope.record=run.krpl
+        if (record != null) {
+            try {
+                session.setRecorder(new ReplayRecorder(new FileOutputStream(record), Seeds.SEED));
+            } catch (IOException e) {
+                System.err.println("Not recording: " + e);
+            }
+        }
+    	session.populate(10); // Creates initial drawing of 10 model objects on screen
+    	figureCount = figures.count();
+    	if (metrics != null) {
+    		metrics.register();
+    		view.setMetrics(metrics);
+    		session.setMetrics(metrics);
+    	}
+    	governor.register();
+    	view.setGovernor(governor);
+    	view.setFrames(session.getFrames());
+    	view.setSimulationLoop(loop);
+    	String renderer = System.getProperty("kaleidoscope.renderer", "java2d"); // e.g. -Dkaleidoscope.renderer=software
+    	for (int i = 0; i < RENDERERS.length; i++) {
+    		if (RENDERERS[i].equalsIgnoreCase(renderer)) useRenderer(i);
+    	}
+    	int order = Integer.getInteger("kaleidoscope.symmetry", Reflections.COUNT); // e.g. -Dkaleidoscope.symmetry=12
+    	for (int i = 0; i < Symmetry.ORDERS.length; i++) {
+    		if (Symmetry.ORDERS[i] == order) useSymmetry(i);
+    	}
+    	renderTimer = new Timer(1000 / refreshRate(), new ActionListener() {
+    	    @Override
+    	    public void actionPerformed(ActionEvent event) {
+    	        double stepsPerFrame = renderTimer.getDelay() * loop.getTimeScale() / (SimulationLoop.STEP_NANOS / 1e6);
+    	        boolean paint = governor.frame(stepsPerFrame);
+    	        view.setQuality(governor.getQuality());
+    	        if (paint) view.repaintChanged();
+    	    }
+    	});
+    	loop.setTimeScale(timeScale());
+    	loop.setCommands(session.getCommands(), new Commands());
+    	loop.start();
+    	int port = Integer.getInteger("kaleidoscope.commandPort", -1); // e.g. -Dkaleidoscope.commandPort=7070
+    	if (port >= 0) {
+    		try {
+    			System.out.println("Taking commands on port " + new CommandServer(port, session.getCommands()).getPort());
+    		} catch (IOException e) {
+    			System.err.println("Not taking commands: " + e);
     		}
     	}
-    	view.addFigures(models);
+    }
+    
+    /**
+     * @return The refresh rate of the screen, or 60 if it is not known.
+     */
+    private static int refreshRate() {
+        if (GraphicsEnvironment.isHeadless()) return 60;
+        int rate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : rate;
     }
 
     /**
@@ -111,13 +184,24 @@ public class Controller extends JFrame {
         buttonPanel.add(flashColorsButton);
         flashColorsButton.setEnabled(false);
         
+        buttonPanel.add(collideButton);
+        collideButton.setEnabled(false);
+        
+        buttonPanel.add(rendererButton);
+        
+        buttonPanel.add(symmetryButton);
+        
+        buttonPanel.add(saveButton);
+        
+        buttonPanel.add(loadButton);
+        
         buttonPanel.add(exitButton);
         
         this.add(BorderLayout.CENTER, view);
     }
     
     /**
-     * Attaches listeners to the components, and schedules a Timer.
+     * Attaches listeners to the components.
      */
     private void attachListenersToComponents() {
     	
@@ -134,6 +218,7 @@ public class Controller extends JFrame {
                 addFigureButton.setEnabled(true);
                 removeFigureButton.setEnabled(true);
                 flashColorsButton.setEnabled(true);
+                collideButton.setEnabled(true);
             }
         });
         // The Stop button tells the Model to pause and disables all action buttons.
@@ -147,6 +232,7 @@ public class Controller extends JFrame {
                 addFigureButton.setEnabled(false);
                 removeFigureButton.setEnabled(false);
                 flashColorsButton.setEnabled(false);
+                collideButton.setEnabled(false);
                 pause();
             }
         });
@@ -154,10 +240,22 @@ public class Controller extends JFrame {
         this.addComponentListener(new ComponentAdapter() {
             @Override
             public void componentResized(ComponentEvent arg0) {
-            	for (int i = 0;  i < models.size(); i++){
-            		models.get(i).setLimits(view.getWidth(), view.getHeight());
-            		models.get(i).setOrigin();
-            	}
+            	final int width = view.getWidth();
+            	final int height = view.getHeight();
+            	loop.submit(new Runnable() {
+            	    @Override
+            	    public void run() {
+            	        Events.Resize resize = new Events.Resize();
+            	        resize.begin();
+            	        session.setLimits(width, height);
+            	        if (resize.shouldCommit()) {
+            	            resize.width = width;
+            	            resize.height = height;
+            	            resize.figures = session.getFigures().count();
+            	            resize.commit();
+            	        }
+            	    }
+            	});
             }
         });
         
@@ -167,8 +265,8 @@ public class Controller extends JFrame {
             public void actionPerformed(ActionEvent event) {
             	if (timerSpeed > 5) { // Prevents the user from decreasing animation's period to 0.
             		increaseSpeed();
-            		pause();
-            		start();
+            		loop.setTimeScale(timeScale());
+            		recordSpeed();
             	}
             	if (timerSpeed <= 5) {  // Disables the increaseSpeed button if timerSpeed approaches 0.
             		increaseSpeedButton.setEnabled(false);
@@ -183,8 +281,8 @@ public class Controller extends JFrame {
             public void actionPerformed(ActionEvent event) { // Disables the increaseSpeed button if timerSpeed approaches 100.
             	if (timerSpeed < 100){ // Prevents the user from increasing animation's period beyond 100.
             		decreaseSpeed();
-                	pause();
-                	start();
+            		loop.setTimeScale(timeScale());
+            		recordSpeed();
             	}
             	if (timerSpeed >= 100) {
             		decreaseSpeedButton.setEnabled(false);
@@ -213,7 +311,63 @@ public class Controller extends JFrame {
         flashColorsButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent event) {
-            	flashOn = !flashOn;
+            	loop.submit(new Runnable() { // toggled between steps, so that a replay flashes on the same step
+            	    @Override
+            	    public void run() {
+            	        session.toggleFlash();
+            	    }
+            	});
+            }
+        });
+        
+        // Makes the figures bounce off each other as well as off the walls, or stop doing so.
+        collideButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+            	loop.submit(new Runnable() {
+            	    @Override
+            	    public void run() {
+            	        session.toggleCollide();
+            	    }
+            	});
+            }
+        });
+        
+        // Cycles through the RENDERERS the view paints with by calling toggleRenderer().
+        rendererButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+            	toggleRenderer();
+            }
+        });
+        
+        // Switches between drawing each figure 8, 6, 12, 24 and 32 times.
+        symmetryButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+            	useSymmetry((symmetryIndex + 1) % Symmetry.ORDERS.length);
+            }
+        });
+        
+        // Saves the whole scene to a file chosen by the user.
+        saveButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+            	JFileChooser chooser = new JFileChooser();
+            	if (chooser.showSaveDialog(Controller.this) == JFileChooser.APPROVE_OPTION) {
+            		saveScene(chooser.getSelectedFile().toPath());
+            	}
+            }
+        });
+        
+        // Replaces the scene with one saved earlier.
+        loadButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+            	JFileChooser chooser = new JFileChooser();
+            	if (chooser.showOpenDialog(Controller.this) == JFileChooser.APPROVE_OPTION) {
+            		loadScene(chooser.getSelectedFile().toPath());
+            	}
             }
         });
         
@@ -227,22 +381,149 @@ public class Controller extends JFrame {
     }
     
     /**
-     * Tells the ball to start moving. This is done by starting a Timer
-     * that periodically executes a TimerTask. The TimerTask then tells
-     * the ball to make one "step."
+     * Tells the ball to start moving. This is done by resuming the
+     * SimulationLoop, which then tells the ball to make one "step" at
+     * a time, and by starting the Timer that repaints the view.
      */
-
-    // Starts a timer whose period is determined by a variable timerSpeed.
     public void start() {
-        timer = new Timer(true);
-        timer.schedule(new Strobe(), 5, timerSpeed);      
+        loop.setRunning(true);
+        renderTimer.start();
+        recordLater(ReplayLog.Action.RUN);
     }
     
     /**
      * Tells the ball to stop where it is.
      */
     public void pause() {
-        timer.cancel();
+        loop.setRunning(false);
+        renderTimer.stop();
+        view.repaint();
+        recordLater(ReplayLog.Action.STOP);
+    }
+    
+    /**
+     * @return How fast the simulation should run compared to normal speed,
+     *         based on timerSpeed.
+     */
+    private double timeScale() {
+        return timeScale(timerSpeed);
+    }
+    
+    /**
+     * @param period The period of one step in milliseconds.
+     * @return How fast the simulation should run compared to normal speed.
+     */
+    private static double timeScale(int period) {
+        return (double) (SimulationLoop.STEP_NANOS / 1000000) / period;
+    }
+    
+    /**
+     * Switches the view to the next of the RENDERERS, and after the last
+     * back to Java2D.
+     */
+    public void toggleRenderer() {
+    	useRenderer((rendererIndex + 1) % RENDERERS.length);
+    }
+    
+    /**
+     * Switches the view to one of the RENDERERS.
+     * 
+     * @param index The position of the renderer in RENDERERS.
+     */
+    private void useRenderer(int index) {
+    	rendererIndex = index;
+    	view.setRenderer(Renderer.forName(RENDERERS[index]));
+    	rendererButton.setText("Renderer: " + RENDERERS[index]);
+    	view.repaint();
+    }
+    
+    /**
+     * Makes the view draw every figure as many times as one of the
+     * Symmetry.ORDERS says.
+     * 
+     * @param index The position of the order in Symmetry.ORDERS.
+     */
+    private void useSymmetry(int index) {
+    	symmetryIndex = index;
+    	view.setSymmetry(Symmetry.forOrder(Symmetry.ORDERS[index]));
+    	symmetryButton.setText("Symmetry: " + Symmetry.ORDERS[index]);
+    	view.repaint();
+    }
+    
+    /**
+     * Saves every figure, the speed and the switches to a Snapshot file.
+     * The file is written by the simulation thread between two steps.
+     * 
+     * @param path The file to write.
+     */
+    public void saveScene(final Path path) {
+    	loop.submit(new Runnable() {
+    	    @Override
+    	    public void run() {
+    	        try {
+    	            session.save(path);
+    	        } catch (IOException e) {
+    	            System.err.println("Could not save " + path + ": " + e);
+    	        }
+    	    }
+    	});
+    }
+    
+    /**
+     * Replaces every figure, the speed and the switches with those saved
+     * in a Snapshot file. The file is read by the simulation thread between
+     * two steps. A loaded scene cannot be replayed, so recording stops.
+     * 
+     * @param path A file written by saveScene().
+     */
+    public void loadScene(final Path path) {
+    	loop.submit(new Runnable() {
+    	    @Override
+    	    public void run() {
+    	        Snapshot snapshot = null;
+    	        try {
+    	            snapshot = session.load(path);
+    	        } catch (IOException e) {
+    	            System.err.println("Could not load " + path + ": " + e);
+    	        }
+    	        final int count = session.getFigures().count();
+    	        final int speed = snapshot == null ? -1 : snapshot.getTimerSpeed();
+    	        SwingUtilities.invokeLater(new Runnable() {
+    	            @Override
+    	            public void run() {
+    	                loaded(count, speed);
+    	            }
+    	        });
+    	    }
+    	});
+    }
+    
+    /**
+     * @return The queue that batches of commands can be offered to from any
+     *         thread; see CommandBatch.
+     */
+    public CommandQueue getCommands() {
+    	return session.getCommands();
+    }
+    
+    /**
+     * Brings the controls up to date with a scene that has just been loaded
+     * or changed by commands.
+     * 
+     * @param count The number of figures loaded.
+     * @param speed The period of one step in milliseconds, or -1 to keep the current one.
+     */
+    private void loaded(int count, int speed) {
+    	figureCount = count;
+    	if (speed > 0) {
+    		timerSpeed = Math.max(5, Math.min(100, speed));
+    		loop.setTimeScale(timeScale());
+    	}
+    	if (stopButton.isEnabled()) { // the action buttons are only on while running
+    		increaseSpeedButton.setEnabled(timerSpeed > 5);
+    		decreaseSpeedButton.setEnabled(timerSpeed < 100);
+    		removeFigureButton.setEnabled(figureCount > 1);
+    	}
     }
     
     /**
@@ -255,17 +536,78 @@ public class Controller extends JFrame {
     /**
      * Tells the model to advance one "step."
      */
-    private class Strobe extends TimerTask {
+    private class Strobe implements Runnable {
+        private int ticksSinceReport = 0;
+        
         @Override
         public void run() {
-            for (int i = 0; i < models.size(); i++){
-            	models.get(i).makeOneStep();
+            Events.Tick event = new Events.Tick();
+            event.begin();
+            long nanos = session.step();
+            int count = session.getFigures().count();
+            if (event.shouldCommit()) {
+                event.step = session.getSteps();
+                event.figures = count;
+                event.commit();
+            }
+            if (metrics != null) metrics.tick(nanos, count);
+            governor.ticked(nanos);
+            if (++ticksSinceReport * timerSpeed >= 1000) { // Shows the tick time in the title about once a second.
+                ticksSinceReport = 0;
+                reportTickTime();
             }
-            if (flashOn) changeColor();
-            view.repaint();
         }
     }
     
+    /**
+     * Makes batches of commands in the session at the start of a step, and
+     * brings the speed of the loop and the controls up to date with them.
+     */
+    private class Commands implements CommandQueue.Target {
+        @Override
+        public int apply(CommandBatch batch) {
+            int before = session.getPeriod();
+            final int count = session.apply(batch);
+            final int period = session.getPeriod() == before ? -1 : session.getPeriod();
+            if (period > 0) loop.setTimeScale(timeScale(period));
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    loaded(count, period);
+                }
+            });
+            return count;
+        }
+    }
+    
+    /**
+     * Hands a copy of the figures to the view after each round of steps.
+     */
+    private class Publisher implements Runnable {
+        @Override
+        public void run() {
+            session.publish();
+        }
+    }
+    
+    /**
+     * Shows how long stepping the figures takes in the window title.
+     */
+    private void reportTickTime() {
+        int count = session.getFigures().count();
+        ParallelStepper stepper = session.getStepper();
+        final String title = metrics == null
+                ? String.format("Kaleidoscope - %d figures, step %.3f ms (avg %.3f ms)",
+                        count, stepper.getLastTickNanos() / 1e6, stepper.getAverageTickNanos() / 1e6)
+                : String.format("Kaleidoscope - %d figures, %s, %s", count, metrics.summary(), governor.summary());
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                setTitle(title);
+            }
+        });
+    }
+    
     /**
      * Increases the speed of animation by reducing the period by 5.
      */
@@ -285,36 +627,85 @@ public class Controller extends JFrame {
      * Every 5th figure will be a polygon (triangle).
      * Every even-numbered figure that is not a multiple of 5 will be a circle.
      * Every odd-numbered figure that is not a multiple of 5 will be a square.
+     * The figure is added by the simulation thread before its next step.
      */
     public void addFigure(){
-    	if (models.size() % 5 == 0) { // Adds new Polygon figure when size of list of models is a multiple of 5.
-    		models.add(new Model(view.getWidth(), view.getHeight(), Shape.POLYGON));
-    	}
-    	else if (models.size() % 2 == 0){ // Adds new Circle figure when size of list of models is even.
-    		models.add(new Model(view.getWidth(), view.getHeight(), Shape.CIRCLE));
-    	}
-    	else { // Adds new Square figure when size of list of models is not even and not a multiple of 5.
-    		models.add(new Model(view.getWidth(), view.getHeight(), Shape.SQUARE));
-    	}
+    	final Shape shape = Session.nextShape(figureCount);
+    	final int width = view.getWidth();
+    	final int height = view.getHeight();
+    	loop.submit(new Runnable() {
+    	    @Override
+    	    public void run() {
+    	        session.add(width, height, shape);
+    	    }
+    	});
+    	figureCount++;
     	removeFigureButton.setEnabled(true);
     }
     
     /**
-     * Pops the last-added figure from the ArrayList models and removes it from the screen.
+     * Pops the last-added figure from the FigureBuffer and removes it from the screen.
+     * The figure is removed by the simulation thread before its next step.
      */
     public void removeFigure(){
-    	if(models.size() > 1){
-    		models.remove(models.size() - 1); // pops last item in models ArrayList and removes it from the screen
+    	if(figureCount > 1){
+    		loop.submit(new Runnable() {
+    		    @Override
+    		    public void run() {
+    		        session.removeLast(); // pops last figure in the buffer and removes it from the screen
+    		    }
+    		});
+    		figureCount--;
     	}
-    	if (models.size() <= 1) removeFigureButton.setEnabled(false); // prevents user from removing all figures
+    	if (figureCount <= 1) removeFigureButton.setEnabled(false); // prevents user from removing all figures
+    }
+    
+    /**
+     * Hands the speed the user has chosen to the session, which records it,
+     * once the simulation thread gets to it.
+     */
+    private void recordSpeed() {
+    	final int speed = timerSpeed;
+    	loop.submit(new Runnable() {
+    	    @Override
+    	    public void run() {
+    	        session.setPeriod(speed);
+    	    }
+    	});
+    }
+    
+    /**
+     * Records an action on the simulation thread, stamped with the step it
+     * has reached when it gets to it.
+     * 
+     * @param action What the user did.
+     * @param arguments The arguments of the action.
+     */
+    private void recordLater(final ReplayLog.Action action, final int... arguments) {
+    	loop.submit(new Runnable() {
+    	    @Override
+    	    public void run() {
+    	        record(action, arguments);
+    	    }
+    	});
+    }
+    
+    /**
+     * Records an action stamped with the current step, if recording.
+     * Only called on the simulation thread, or before it has started.
+     * 
+     * @param action What the user did.
+     * @param arguments The arguments of the action.
+     */
+    private void record(ReplayLog.Action action, int... arguments) {
+    	session.record(action, arguments);
     }
     
     /**
      * Randomly changes the color of each figure on the screen.
+     * Only called on the simulation thread.
      */
     public void changeColor(){
-	    for (int i = 0; i < models.size(); i++){
-	    	models.get(i).randomizeColor(); // randomly generates new color for each figure
-    	}
+	    session.getFigures().randomizeColors(); // randomly generates new color for each figure
     }
 }
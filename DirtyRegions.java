@@ -0,0 +1,358 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * DirtyRegions works out which parts of the screen have to be repainted
+ * to get from the last frame drawn to the next one.
+ *
+ * It remembers where every figure was drawn and in what color. When a
+ * figure moves or changes, the bounding boxes of all 8 of its reflections
+ * (or of all its copies in a Symmetry), both where they were and where
+ * they will be, are marked on a grid of
+ * TILE x TILE pixel tiles. The marked tiles are then merged into a small
+ * set of rectangles: runs of marked tiles in each row, stacked with the
+ * same run in the rows below.
+ *
+ * If the marked tiles cover more than the threshold fraction of the
+ * screen, or would take more than MAX_REGIONS rectangles, the whole
+ * screen is repainted instead, since that is cheaper. So is it when
+ * there are so many figures and rectangles that going through every
+ * figure once per rectangle costs more than filling the screen.
+ */
+public class DirtyRegions {
+
+    /** Default largest fraction of the screen that is repainted piece by piece. */
+    public static final double DEFAULT_THRESHOLD = Double.parseDouble(System.getProperty("kaleidoscope.dirtyThreshold", "0.5"));
+
+    private static final Shape[] SHAPES = Shape.values();
+
+    /** Width and height of a tile, in pixels. */
+    static final int TILE = 32;
+
+    /** Most rectangles repainted one by one before the whole screen is repainted. */
+    static final int MAX_REGIONS = 256;
+
+    private final double threshold;
+    private Symmetry symmetry; // null for the classic reflections
+    private final Symmetry.Copies copies = new Symmetry.Copies();
+    private int width;
+    private int height;
+    private int columns;
+    private int rows;
+    private boolean[] tiles = new boolean[0];
+    private int marked;       // number of marked tiles
+    private boolean full = true;
+
+    // Where each figure was last drawn, and how.
+    private int drawn;
+    private int[] x = new int[0];
+    private int[] y = new int[0];
+    private int[] originX = new int[0];
+    private int[] originY = new int[0];
+    private int[] size = new int[0];
+    private int[] offset = new int[0];
+    private int[] color = new int[0];
+    private byte[] shape = new byte[0];
+
+    // The merged rectangles, in pixels.
+    private int regions;
+    private int[] regionX = new int[16];
+    private int[] regionY = new int[16];
+    private int[] regionWidth = new int[16];
+    private int[] regionHeight = new int[16];
+
+    /**
+     * Creates a tracker with the default threshold.
+     */
+    public DirtyRegions() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold The largest fraction of the screen (0 to 1) that is
+     *                  repainted piece by piece; 0 always repaints everything.
+     */
+    public DirtyRegions(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Makes the next frame repaint the whole screen, for example because
+     * the way figures are drawn has changed.
+     */
+    public void invalidate() {
+        full = true;
+    }
+
+    /**
+     * Chooses the symmetry figures are drawn in from now on, and repaints
+     * the whole screen next time.
+     *
+     * @param symmetry The symmetry, or null for the classic 8 Reflections.
+     */
+    public void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+        full = true;
+    }
+
+    /**
+     * Marks everything that changes when the figures are drawn as they are
+     * in the frame, and remembers that they have been drawn that way. Marks
+     * add up until clear() is called.
+     *
+     * @param frame The figures about to be drawn.
+     * @param alpha How far between their previous (0) and current (1)
+     *              positions the figures will be drawn.
+     * @param width The width of the screen.
+     * @param height The height of the screen.
+     */
+    public void mark(Frame frame, float alpha, int width, int height) {
+        if (width != this.width || height != this.height) resize(width, height);
+        int count = frame.count();
+        if (x.length < count) grow(count);
+        int common = Math.min(count, drawn);
+        for (int i = 0; i < drawn; i++) {
+            if (i >= common || changed(frame, i, frame.xAt(i, alpha), frame.yAt(i, alpha))) {
+                markFigure(x[i], y[i], originX[i], originY[i], size[i], offset[i], shape[i]);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int fx = frame.xAt(i, alpha);
+            int fy = frame.yAt(i, alpha);
+            if (i >= common || changed(frame, i, fx, fy)) {
+                markFigure(fx, fy, frame.originX[i], frame.originY[i], frame.size[i], frame.offset[i], frame.shape[i]);
+                x[i] = fx;
+                y[i] = fy;
+                originX[i] = frame.originX[i];
+                originY[i] = frame.originY[i];
+                size[i] = frame.size[i];
+                offset[i] = frame.offset[i];
+                color[i] = frame.color[i];
+                shape[i] = frame.shape[i];
+            }
+        }
+        drawn = count;
+    }
+
+    /**
+     * @return true if figure i is to be drawn differently from last time.
+     */
+    private boolean changed(Frame f, int i, int fx, int fy) {
+        return x[i] != fx || y[i] != fy || color[i] != f.color[i] || size[i] != f.size[i]
+                || offset[i] != f.offset[i] || shape[i] != f.shape[i]
+                || originX[i] != f.originX[i] || originY[i] != f.originY[i];
+    }
+
+    /**
+     * Marks the tiles under the bounding box of each of the 8 reflections,
+     * or of each copy, of a figure drawn at (fx, fy).
+     */
+    private void markFigure(int fx, int fy, int ox, int oy, int size, int offset, byte shape) {
+        if (full) return;
+        Shape s = SHAPES[shape];
+        if (symmetry != null) {
+            copies.place(symmetry, s, fx, fy, ox, oy, size, offset, Quality.FULL, 0, 0, width, height);
+            for (int k = 0; k < copies.count; k++) {
+                markBox(copies.boxLeft(k, size) - 1, copies.boxTop(k, size) - 1,
+                        copies.boxRight(k, size) + 1, copies.boxBottom(k, size) + 1);
+            }
+            return;
+        }
+        int dx = fx - ox;
+        int dy = fy - oy;
+        int extent = Reflections.extent(s, size, offset);
+        for (int k = 0; k < Reflections.COUNT; k++) {
+            int left = Reflections.boxLeft(k, Reflections.baseX(k, ox, dx, dy), s, size, offset);
+            int top = Reflections.boxTop(k, Reflections.baseY(k, oy, dx, dy), s, size, offset);
+            markBox(left - 1, top - 1, left + extent + 1, top + extent + 1); // a pixel of slack all round
+        }
+    }
+
+    /**
+     * Marks the tiles under the pixels from (x0, y0) to (x1, y1) inclusive.
+     */
+    private void markBox(int x0, int y0, int x1, int y1) {
+        if (x1 < 0 || y1 < 0 || x0 >= width || y0 >= height) return;
+        int c0 = Math.max(x0, 0) / TILE;
+        int c1 = Math.min(x1, width - 1) / TILE;
+        int r0 = Math.max(y0, 0) / TILE;
+        int r1 = Math.min(y1, height - 1) / TILE;
+        for (int r = r0; r <= r1; r++) {
+            int row = r * columns;
+            for (int c = c0; c <= c1; c++) {
+                if (!tiles[row + c]) {
+                    tiles[row + c] = true;
+                    marked++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the marked tiles into rectangles, or decides to repaint the
+     * whole screen if that is cheaper.
+     *
+     * @param maxWork The most rectangles times figures worth repainting one
+     *                rectangle at a time.
+     * @return The number of rectangles to repaint; 0 if nothing has changed
+     *         or if isFull().
+     */
+    public int merge(long maxWork) {
+        regions = 0;
+        if (full) return 0;
+        if (marked > threshold * tiles.length) {
+            full = true;
+            return 0;
+        }
+        int open = 0; // the last open regions reach down to the row above
+        for (int r = 0; r < rows && marked > 0; r++) {
+            int row = r * columns;
+            int firstOpen = regions - open;
+            int aboveEnd = regions;
+            for (int c = 0; c < columns; c++) {
+                if (!tiles[row + c]) continue;
+                int start = c;
+                while (c + 1 < columns && tiles[row + c + 1]) c++;
+                int left = start * TILE;
+                int right = Math.min((c + 1) * TILE, width);
+                int j = firstOpen;
+                while (j < aboveEnd && (regionX[j] != left || regionX[j] + regionWidth[j] != right)) j++;
+                if (j < aboveEnd) { // same run as in the row above: make that region taller
+                    regionHeight[j] = Math.min((r + 1) * TILE, height) - regionY[j];
+                    continue;
+                }
+                if (regions == MAX_REGIONS) {
+                    full = true;
+                    regions = 0;
+                    return 0;
+                }
+                if (regions == regionX.length) growRegions();
+                regionX[regions] = left;
+                regionY[regions] = r * TILE;
+                regionWidth[regions] = right - left;
+                regionHeight[regions] = Math.min((r + 1) * TILE, height) - r * TILE;
+                regions++;
+            }
+            open = moveOpenToEnd(firstOpen, Math.min((r + 1) * TILE, height));
+        }
+        if ((long) regions * drawn > maxWork) {
+            full = true;
+            regions = 0;
+        }
+        return regions;
+    }
+
+    /**
+     * Moves the regions from first on that reach down to bottom behind
+     * those that do not, so that only they are searched in the next row.
+     *
+     * @return The number of regions that reach down to bottom.
+     */
+    private int moveOpenToEnd(int first, int bottom) {
+        int end = regions;
+        for (int j = first; j < end; ) {
+            if (regionY[j] + regionHeight[j] == bottom) {
+                end--;
+                swap(j, end);
+            }
+            else {
+                j++;
+            }
+        }
+        return regions - end;
+    }
+
+    private void swap(int a, int b) {
+        int t = regionX[a]; regionX[a] = regionX[b]; regionX[b] = t;
+        t = regionY[a]; regionY[a] = regionY[b]; regionY[b] = t;
+        t = regionWidth[a]; regionWidth[a] = regionWidth[b]; regionWidth[b] = t;
+        t = regionHeight[a]; regionHeight[a] = regionHeight[b]; regionHeight[b] = t;
+    }
+
+    /**
+     * @return true if the whole screen has to be repainted.
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * @return true if nothing has changed since the last clear().
+     */
+    public boolean isEmpty() {
+        return !full && marked == 0;
+    }
+
+    /**
+     * @param r The rectangle, from 0 to merge(maxWork) - 1.
+     * @return Its left edge.
+     */
+    public int getX(int r) {
+        return regionX[r];
+    }
+
+    /**
+     * @param r The rectangle, from 0 to merge(maxWork) - 1.
+     * @return Its top edge.
+     */
+    public int getY(int r) {
+        return regionY[r];
+    }
+
+    /**
+     * @param r The rectangle, from 0 to merge(maxWork) - 1.
+     * @return Its width.
+     */
+    public int getWidth(int r) {
+        return regionWidth[r];
+    }
+
+    /**
+     * @param r The rectangle, from 0 to merge(maxWork) - 1.
+     * @return Its height.
+     */
+    public int getHeight(int r) {
+        return regionHeight[r];
+    }
+
+    /**
+     * Forgets the marks, once the regions have been repainted.
+     */
+    public void clear() {
+        if (marked > 0) Arrays.fill(tiles, false);
+        marked = 0;
+        regions = 0;
+        full = false;
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        columns = (width + TILE - 1) / TILE;
+        rows = (height + TILE - 1) / TILE;
+        tiles = new boolean[columns * rows];
+        marked = 0;
+        full = true;
+    }
+
+    private void grow(int n) {
+        n = Math.max(n, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, n);
+        y = Arrays.copyOf(y, n);
+        originX = Arrays.copyOf(originX, n);
+        originY = Arrays.copyOf(originY, n);
+        size = Arrays.copyOf(size, n);
+        offset = Arrays.copyOf(offset, n);
+        color = Arrays.copyOf(color, n);
+        shape = Arrays.copyOf(shape, n);
+    }
+
+    private void growRegions() {
+        int n = regionX.length * 2;
+        regionX = Arrays.copyOf(regionX, n);
+        regionY = Arrays.copyOf(regionY, n);
+        regionWidth = Arrays.copyOf(regionWidth, n);
+        regionHeight = Arrays.copyOf(regionHeight, n);
+    }
+}
@@ -0,0 +1,155 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+  
+import org.junit.Before;
+import org.junit.Test;
+  
+public class DirtyRegionsTest {
+    FigureBuffer figures;
+    FrameExchange frames;
+  
+    @Before
+    public void setUp() throws Exception {
+        figures = new FigureBuffer(8, 3);
+        for (int i = 0; i < 8; i++) {
+            figures.add(1000, 800, Shape.values()[i % 3]);
+        }
+        frames = new FrameExchange();
+        frames.publish(figures, 0);
+    }
+  
+    private static int[] rgb(BufferedImage image) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData().clone();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF; // Java2D may leave the unused top byte set
+        }
+        return pixels;
+    }
+  
+    private static boolean nearTileEdge(int coordinate) {
+        int within = coordinate % DirtyRegions.TILE;
+        return within < 2 || within >= DirtyRegions.TILE - 2;
+    }
+  
+    private void step() {
+        figures.savePositions();
+        figures.makeOneStep();
+        frames.publish(figures, 0);
+    }
+  
+    @Test
+    public void testNothingChanged() { // A frame drawn the same way again marks nothing.
+        DirtyRegions dirty = new DirtyRegions(1.0);
+        dirty.mark(frames.latest(), 1f, 1000, 800);
+        assertTrue(dirty.isFull()); // first frame
+        dirty.clear();
+        dirty.mark(frames.latest(), 1f, 1000, 800);
+        assertTrue(dirty.isEmpty());
+        assertEquals(0, dirty.merge(Long.MAX_VALUE));
+    }
+  
+    @Test
+    public void testRegionsCoverMovedFigures() { // Every region lies on screen, and a few figures leave most of it alone.
+        DirtyRegions dirty = new DirtyRegions(1.0);
+        dirty.mark(frames.latest(), 1f, 1000, 800);
+        dirty.clear();
+        step();
+        dirty.mark(frames.latest(), 1f, 1000, 800);
+        int regions = dirty.merge(Long.MAX_VALUE);
+        assertFalse(dirty.isFull());
+        assertTrue(regions > 0);
+        long area = 0;
+        for (int r = 0; r < regions; r++) {
+            assertTrue(dirty.getX(r) >= 0 && dirty.getX(r) + dirty.getWidth(r) <= 1000);
+            assertTrue(dirty.getY(r) >= 0 && dirty.getY(r) + dirty.getHeight(r) <= 800);
+            area += (long) dirty.getWidth(r) * dirty.getHeight(r);
+        }
+        assertTrue(area < 1000 * 800 / 2);
+    }
+  
+    @Test
+    public void testFullAboveThreshold() { // Changes covering more than the threshold repaint everything.
+        DirtyRegions dirty = new DirtyRegions(0.0);
+        dirty.mark(frames.latest(), 1f, 1000, 800);
+        dirty.clear();
+        step();
+        dirty.mark(frames.latest(), 1f, 1000, 800);
+        assertEquals(0, dirty.merge(Long.MAX_VALUE));
+        assertTrue(dirty.isFull());
+    }
+  
+    @Test
+    public void testIncrementalPaintMatchesFullPaint() { // Repainting only what changed gives the same pixels as painting everything.
+        View view = new View(new DirtyRegions(1.0));
+        view.setFrames(frames);
+        view.setRenderer(new SymmetryCompositor());
+        view.setSize(1000, 800);
+        BufferedImage screen = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+        SoftwareRenderer software = new SoftwareRenderer();
+        for (int tick = 0; tick < 40; tick++) {
+            if (tick == 20) figures.removeLast();
+            if (tick == 30) figures.randomizeColors();
+            step();
+            view.repaintChanged();
+            view.paint(g);
+            int[] actual = ((DataBufferInt) screen.getRaster().getDataBuffer()).getData();
+            assertArrayEquals(software.render(frames.latest(), 1f, 1000, 800).getPixels(), actual);
+        }
+        g.dispose();
+    }
+  
+    @Test
+    public void testIncrementalJava2DPaintMatchesFullPaint() { // Same for renderers that paint through a clipped Graphics, but for the odd pixel next to a clip edge.
+        View view = new View(new DirtyRegions(1.0));
+        view.setFrames(frames);
+        view.setSize(1000, 800);
+        BufferedImage screen = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB);
+        BufferedImage expected = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+        Graphics2D full = expected.createGraphics();
+        for (int tick = 0; tick < 20; tick++) {
+            step();
+            view.repaintChanged();
+            view.paint(g);
+            new Java2DRenderer().paint(full, frames.latest(), 1f, 1000, 800);
+            int[] want = rgb(expected), got = rgb(screen);
+            int differ = 0;
+            for (int i = 0; i < want.length; i++) {
+                if (want[i] == got[i]) continue;
+                differ++; // Java2D fills a large oval a pixel differently when a clip edge cuts through it
+                assertTrue("tick " + tick + ": pixel " + i + " is away from the clip edges", nearTileEdge(i % 1000) || nearTileEdge(i / 1000));
+            }
+            assertTrue("tick " + tick + ": " + differ + " pixels differ", differ <= 8);
+        }
+        g.dispose();
+        full.dispose();
+    }
+  
+    @Test
+    public void testIncrementalPaintMatchesFullPaintInSymmetry() { // The copies of a Symmetry are marked as well as the classic reflections are.
+        View view = new View(new DirtyRegions(1.0));
+        view.setFrames(frames);
+        view.setRenderer(new SoftwareRenderer());
+        view.setSymmetry(Symmetry.of(12));
+        view.setSize(1000, 800);
+        BufferedImage screen = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = screen.createGraphics();
+        SoftwareRenderer software = new SoftwareRenderer();
+        software.setSymmetry(Symmetry.of(12));
+        for (int tick = 0; tick < 30; tick++) {
+            if (tick == 20) figures.removeLast();
+            step();
+            view.repaintChanged();
+            view.paint(g);
+            int[] actual = ((DataBufferInt) screen.getRaster().getDataBuffer()).getData();
+            assertArrayEquals(software.render(frames.latest(), 1f, 1000, 800).getPixels(), actual);
+        }
+        g.dispose();
+    }
+}
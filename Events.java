@@ -0,0 +1,93 @@
+package kaleidoscope;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The JFR events the kaleidoscope emits, for Flight Recorder recordings
+ * started with -XX:StartFlightRecording or from Mission Control. An event
+ * that no recording has enabled costs one check when it is committed.
+ */
+public final class Events {
+
+    private Events() {}
+
+    /** One step of the simulation, including collisions and color flashes. */
+    @Name("kaleidoscope.Tick")
+    @Label("Tick")
+    @Category("Kaleidoscope")
+    @Description("One step of every figure")
+    public static class Tick extends Event {
+        @Label("Step")
+        public long step;
+
+        @Label("Figures")
+        public int figures;
+    }
+
+    /** One paint of the view. */
+    @Name("kaleidoscope.Paint")
+    @Label("Paint")
+    @Category("Kaleidoscope")
+    @Description("Drawing a frame and copying it to the screen")
+    public static class Paint extends Event {
+        @Label("Step")
+        public long step;
+
+        @Label("Figures")
+        public int figures;
+
+        @Label("Regions")
+        @Description("Regions redrawn one by one, or 0 if the whole view was redrawn")
+        public int regions;
+    }
+
+    /** A figure added or removed. */
+    @Name("kaleidoscope.FigureEdit")
+    @Label("Figure Added or Removed")
+    @Category("Kaleidoscope")
+    public static class FigureEdit extends Event {
+        @Label("Added")
+        public boolean added;
+
+        @Label("Figures")
+        @Description("The number of figures afterwards")
+        public int figures;
+    }
+
+    /** The window resized, and the figures given new walls. */
+    @Name("kaleidoscope.Resize")
+    @Label("Resize")
+    @Category("Kaleidoscope")
+    public static class Resize extends Event {
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Figures")
+        public int figures;
+    }
+
+    /** The FrameGovernor changed how much it draws. */
+    @Name("kaleidoscope.QualityChange")
+    @Label("Quality Change")
+    @Category("Kaleidoscope")
+    @Description("The frame governor lowered or raised the drawing quality")
+    public static class QualityChange extends Event {
+        @Label("From Level")
+        public int from;
+
+        @Label("To Level")
+        @Description("0 is full quality; higher levels draw less")
+        public int to;
+
+        @Label("Load")
+        @Description("Estimated work per frame as a fraction of the frame budget")
+        public double load;
+    }
+}
@@ -0,0 +1,343 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The FigureBuffer holds every figure on the screen in parallel primitive
+ * arrays (one slot per figure) instead of one Model object per figure.
+ * Stepping and painting walk these arrays from front to back, and nothing
+ * is allocated once the arrays are big enough.
+ *
+ * A Model is a view onto one slot of a FigureBuffer, so code that works
+ * with Model objects keeps working.
+ *
+ * Random sizes, speeds and offsets come from the generator the buffer is
+ * made with, and colors from a generator split off it, so the same seed
+ * always gives the same figures however often their colors flash.
+ */
+public class FigureBuffer {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Shape[] SHAPES = Shape.values();
+
+    private final SplittableRandom rand;   // sizes, speeds and offsets
+    private final SplittableRandom colors; // colors
+    private int count;
+
+    // One entry per figure. Package-private so that View and the steppers can
+    // read them directly; the arrays are replaced when the buffer grows, so
+    // never hold on to one across a call to add().
+    int[] x;
+    int[] y;
+    int[] prevX; // position before the last step, for drawing between steps
+    int[] prevY;
+    int[] xDelta;
+    int[] yDelta;
+    int[] size;
+    int[] offset;
+    int[] xLimit;
+    int[] yLimit;
+    int[] originX;
+    int[] originY;
+    int[] color;  // packed ARGB
+    byte[] shape; // Shape ordinal
+
+    /**
+     * Creates an empty buffer with a generator split off Seeds.
+     */
+    public FigureBuffer() {
+        this(INITIAL_CAPACITY, Seeds.split());
+    }
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity The number of figures to make room for up front.
+     * @param seed The seed for random sizes, speeds, offsets and colors.
+     */
+    public FigureBuffer(int capacity, long seed) {
+        this(capacity, new SplittableRandom(seed));
+    }
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity The number of figures to make room for up front.
+     * @param rand The source of random sizes, speeds, offsets and colors.
+     *             The buffer keeps it, so it must not be used elsewhere.
+     */
+    public FigureBuffer(int capacity, SplittableRandom rand) {
+        this.rand = rand;
+        this.colors = rand.split();
+        capacity = Math.max(1, capacity);
+        x = new int[capacity];
+        y = new int[capacity];
+        prevX = new int[capacity];
+        prevY = new int[capacity];
+        xDelta = new int[capacity];
+        yDelta = new int[capacity];
+        size = new int[capacity];
+        offset = new int[capacity];
+        xLimit = new int[capacity];
+        yLimit = new int[capacity];
+        originX = new int[capacity];
+        originY = new int[capacity];
+        color = new int[capacity];
+        shape = new byte[capacity];
+    }
+
+    /**
+     * @return The number of figures in the buffer.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Adds a figure with a random size, color, speed and offset, exactly as
+     * the Model constructor does. Walls too close for the figure to have any
+     * offset give it an offset of 0. The figure is only counted once all of
+     * it is set.
+     *
+     * @param xLimit The position (in pixels) of the wall on the right.
+     * @param yLimit The position (in pixels) of the floor.
+     * @param shape The type of shape of the new figure.
+     * @return The slot of the new figure.
+     */
+    public int add(int xLimit, int yLimit, Shape shape) {
+        ensureCapacity(count + 1);
+        int i = count;
+        x[i] = 0;
+        y[i] = 0;
+        size[i] = 0;
+        setLimits(i, xLimit, yLimit); // sets limit of window
+        setOrigin(i);
+
+        size[i] = rand.nextInt(70);
+        randomizeColor(i);
+        xDelta[i] = 5 + rand.nextInt(10);
+        yDelta[i] = 3 + rand.nextInt(10);
+
+        int maxOffset = Math.min(xLimit, yLimit) - size[i];
+        offset[i] = rand.nextInt(Math.max(1, maxOffset / 2));
+        this.shape[i] = (byte) shape.ordinal();
+        count = i + 1;
+        return i;
+    }
+
+    /**
+     * Removes the last-added figure. Does nothing if the buffer is empty.
+     */
+    public void removeLast() {
+        if (count > 0) count--;
+    }
+
+    /**
+     * Removes every figure.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Makes the buffer hold count figures, whose slots the caller then
+     * fills in directly, as when a Snapshot is loaded.
+     *
+     * @param count The new number of figures.
+     */
+    void setCount(int count) {
+        ensureCapacity(count);
+        this.count = count;
+    }
+
+    /**
+     * Returns a Model that reads and writes slot i of this buffer.
+     *
+     * @param i The slot of the figure.
+     * @return A view onto that figure.
+     */
+    public Model get(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Figure " + i + ", count " + count);
+        }
+        return new Model(this, i);
+    }
+
+    /**
+     * Gives every figure new walls and recalculates its origin, as happens
+     * when the window is resized.
+     *
+     * @param xLimit The position (in pixels) of the wall on the right.
+     * @param yLimit The position (in pixels) of the floor.
+     */
+    public void setLimits(int xLimit, int yLimit) {
+        for (int i = 0; i < count; i++) {
+            setLimits(i, xLimit, yLimit);
+            setOrigin(i);
+        }
+    }
+
+    /**
+     * Sets the "walls" that figure i should bounce off from.
+     *
+     * @param i The slot of the figure.
+     * @param xLimit The position (in pixels) of the wall on the right.
+     * @param yLimit The position (in pixels) of the floor.
+     */
+    void setLimits(int i, int xLimit, int yLimit) {
+        this.xLimit[i] = xLimit - size[i];
+        this.yLimit[i] = yLimit - size[i];
+        x[i] = Math.min(x[i], xLimit);
+        y[i] = Math.min(y[i], yLimit);
+        prevX[i] = x[i];
+        prevY[i] = y[i];
+    }
+
+    /**
+     * Sets the origin of figure i based on its walls.
+     *
+     * @param i The slot of the figure.
+     */
+    void setOrigin(int i) {
+        originX[i] = xLimit[i] / 2;
+        originY[i] = yLimit[i] / 2;
+    }
+
+    /**
+     * Randomly generates a new color for figure i. Gives the same value as
+     * new Color(float, float, float) would.
+     *
+     * @param i The slot of the figure.
+     */
+    void randomizeColor(int i) {
+        int red = (int) (colors.nextFloat() * 255 + 0.5);
+        int green = (int) (colors.nextFloat() * 255 + 0.5);
+        int blue = (int) (colors.nextFloat() * 255 + 0.5);
+        color[i] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Randomly changes the color of every figure.
+     */
+    public void randomizeColors() {
+        for (int i = 0; i < count; i++) {
+            randomizeColor(i);
+        }
+    }
+
+    /**
+     * @param i The slot of the figure.
+     * @return The shape of figure i.
+     */
+    public Shape getShape(int i) {
+        return SHAPES[shape[i]];
+    }
+
+    /**
+     * Remembers where every figure is now as its previous position, so that
+     * it can be drawn part of the way between its previous and its next one.
+     */
+    public void savePositions() {
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
+    }
+
+    /**
+     * Advances every figure one step.
+     */
+    public void makeOneStep() {
+        step(0, count);
+    }
+
+    /**
+     * Advances figures from (inclusive) to to (exclusive) one step. If a
+     * figure hits a wall, its direction of movement changes.
+     *
+     * @param from The first slot to step.
+     * @param to One past the last slot to step.
+     */
+    public void step(int from, int to) {
+        int[] x = this.x, y = this.y, xDelta = this.xDelta, yDelta = this.yDelta;
+        int[] xLimit = this.xLimit, yLimit = this.yLimit;
+        for (int i = from; i < to; i++) {
+            int xPosition = x[i] + xDelta[i];
+            if (xPosition < 0 || xPosition >= xLimit[i]) {
+                xDelta[i] = -xDelta[i];
+                xPosition += xDelta[i];
+            }
+            x[i] = xPosition;
+            int yPosition = y[i] + yDelta[i];
+            if (yPosition < 0 || yPosition >= yLimit[i]) {
+                yDelta[i] = -yDelta[i];
+                yPosition += yDelta[i];
+            }
+            y[i] = yPosition;
+        }
+    }
+
+    /**
+     * Moves every figure to where the given number of steps would take it,
+     * in time that does not depend on the number of steps; see Bounce. The
+     * previous positions become those one step before, as after a step.
+     * Colors and collisions are not part of this: flashing and colliding
+     * figures must be stepped.
+     *
+     * @param steps How many steps to jump ahead; 0 does nothing.
+     */
+    public void advance(long steps) {
+        if (steps <= 0) return;
+        for (int i = 0; i < count; i++) {
+            prevX[i] = Bounce.position(Bounce.after(x[i], xDelta[i], xLimit[i], steps - 1));
+            prevY[i] = Bounce.position(Bounce.after(y[i], yDelta[i], yLimit[i], steps - 1));
+            long xState = Bounce.after(x[i], xDelta[i], xLimit[i], steps);
+            long yState = Bounce.after(y[i], yDelta[i], yLimit[i], steps);
+            x[i] = Bounce.position(xState);
+            xDelta[i] = Bounce.delta(xState);
+            y[i] = Bounce.position(yState);
+            yDelta[i] = Bounce.delta(yState);
+        }
+    }
+
+    /**
+     * @param i The slot of a figure.
+     * @param steps How many steps ahead to look.
+     * @return The X position of figure i after that many steps, without moving it.
+     */
+    public int xAfter(int i, long steps) {
+        return Bounce.position(Bounce.after(x[i], xDelta[i], xLimit[i], steps));
+    }
+
+    /**
+     * @param i The slot of a figure.
+     * @param steps How many steps ahead to look.
+     * @return The Y position of figure i after that many steps, without moving it.
+     */
+    public int yAfter(int i, long steps) {
+        return Bounce.position(Bounce.after(y[i], yDelta[i], yLimit[i], steps));
+    }
+
+    /**
+     * Grows the arrays so that they can hold at least the given number of figures.
+     *
+     * @param capacity The number of figures to make room for.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= x.length) return;
+        int newCapacity = Math.max(capacity, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        prevX = Arrays.copyOf(prevX, newCapacity);
+        prevY = Arrays.copyOf(prevY, newCapacity);
+        xDelta = Arrays.copyOf(xDelta, newCapacity);
+        yDelta = Arrays.copyOf(yDelta, newCapacity);
+        size = Arrays.copyOf(size, newCapacity);
+        offset = Arrays.copyOf(offset, newCapacity);
+        xLimit = Arrays.copyOf(xLimit, newCapacity);
+        yLimit = Arrays.copyOf(yLimit, newCapacity);
+        originX = Arrays.copyOf(originX, newCapacity);
+        originY = Arrays.copyOf(originY, newCapacity);
+        color = Arrays.copyOf(color, newCapacity);
+        shape = Arrays.copyOf(shape, newCapacity);
+    }
+}
@@ -0,0 +1,116 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.awt.Color;
+import java.util.SplittableRandom;
+  
+import org.junit.Before;
+import org.junit.Test;
+  
+public class FigureBufferTest {
+  
+    private FigureBuffer figures;
+  
+    @Before
+    public void setUp() throws Exception {
+        figures = new FigureBuffer(2, 42);
+        figures.add(1000, 800, Shape.POLYGON);
+        figures.add(1000, 800, Shape.CIRCLE);
+        figures.add(1000, 800, Shape.SQUARE); // forces the arrays to grow
+    }
+  
+    @Test
+    public void testAddAndRemove() {
+        assertEquals(3, figures.count());
+        assertEquals(Shape.POLYGON, figures.getShape(0));
+        assertEquals(Shape.SQUARE, figures.getShape(2));
+        figures.removeLast();
+        assertEquals(2, figures.count());
+    }
+  
+    @Test
+    public void testSameFiguresAsModelConstructor() { // Same seed must give the same size, speed, offset and color.
+        FigureBuffer single = new FigureBuffer(1, 7);
+        single.add(1000, 800, Shape.CIRCLE);
+        SplittableRandom check = new SplittableRandom(7);
+        SplittableRandom checkColors = check.split();
+        int size = check.nextInt(70);
+        Color color = new Color(checkColors.nextFloat(), checkColors.nextFloat(), checkColors.nextFloat());
+        assertEquals(size, single.size[0]);
+        assertEquals(color.getRGB(), single.color[0]);
+        assertEquals(5 + check.nextInt(10), single.xDelta[0]);
+        assertEquals(3 + check.nextInt(10), single.yDelta[0]);
+        assertEquals(check.nextInt((800 - size) / 2), single.offset[0]);
+        assertEquals(500, single.originX[0]);
+        assertEquals(400, single.originY[0]);
+    }
+  
+    @Test
+    public void testFlashingLeavesNewFiguresAlone() { // Colors come from a stream of their own, so flashing must not change the next figure's size or speed.
+        FigureBuffer flashed = new FigureBuffer(2, 11);
+        FigureBuffer plain = new FigureBuffer(2, 11);
+        flashed.add(1000, 800, Shape.SQUARE);
+        plain.add(1000, 800, Shape.SQUARE);
+        flashed.randomizeColors();
+        flashed.add(1000, 800, Shape.POLYGON);
+        plain.add(1000, 800, Shape.POLYGON);
+        assertEquals(plain.size[1], flashed.size[1]);
+        assertEquals(plain.xDelta[1], flashed.xDelta[1]);
+        assertEquals(plain.yDelta[1], flashed.yDelta[1]);
+        assertEquals(plain.offset[1], flashed.offset[1]);
+    }
+  
+    @Test
+    public void testModelView() { // Changes made through a Model must show up in the buffer and the other way round.
+        Model model = figures.get(1);
+        model.setX(50);
+        model.setColor(new Color(100, 100, 100));
+        assertEquals(50, figures.x[1]);
+        assertEquals(new Color(100, 100, 100).getRGB(), figures.color[1]);
+        figures.y[1] = 85;
+        assertEquals(85, model.getY());
+        assertEquals(185, model.getOriginXPlusY());
+    }
+  
+    @Test
+    public void testStepBounces() { // Stepping must reverse direction at the walls, as Model.makeOneStep() always has.
+        int xPosition = 0, yPosition = 0, xDelta = figures.xDelta[0], yDelta = figures.yDelta[0];
+        int xLimit = figures.xLimit[0], yLimit = figures.yLimit[0];
+        for (int i = 0; i < 1000; i++) {
+            figures.makeOneStep();
+            xPosition += xDelta;
+            if (xPosition < 0 || xPosition >= xLimit) {
+                xDelta = -xDelta;
+                xPosition += xDelta;
+            }
+            yPosition += yDelta;
+            if (yPosition < 0 || yPosition >= yLimit) {
+                yDelta = -yDelta;
+                yPosition += yDelta;
+            }
+            assertEquals(xPosition, figures.x[0]);
+            assertEquals(yPosition, figures.y[0]);
+        }
+    }
+  
+    @Test
+    public void testSetLimits() {
+        figures.x[0] = 900;
+        figures.setLimits(500, 400);
+        assertEquals(500, figures.x[0]);
+        assertEquals((500 - figures.size[0]) / 2, figures.originX[0]);
+        assertEquals(400 - figures.size[0], figures.yLimit[0]);
+    }
+  
+    @Test
+    public void testAddBetweenCloseWalls() { // Walls narrower than a figure must still give one whole figure.
+        FigureBuffer small = new FigureBuffer(1, 42);
+        for (int n = 1; n <= 50; n++) {
+            int i = small.add(60, 60, Shape.CIRCLE);
+            assertEquals(n, small.count());
+            assertEquals(Shape.CIRCLE, small.getShape(i));
+            assertTrue(small.offset[i] >= 0);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * A Frame is a copy of every figure's drawing state at the end of one step
+ * of the simulation. The simulation fills a Frame and hands it over through
+ * a FrameExchange; after that it is only read, so the View can draw it
+ * without any locking while the simulation goes on with the next step.
+ */
+public class Frame {
+
+    private static final Shape[] SHAPES = Shape.values();
+
+    private int count;
+    private long tick;
+
+    // One entry per figure, as in FigureBuffer.
+    int[] x = new int[0];
+    int[] y = new int[0];
+    int[] prevX = new int[0];
+    int[] prevY = new int[0];
+    int[] size = new int[0];
+    int[] offset = new int[0];
+    int[] originX = new int[0];
+    int[] originY = new int[0];
+    int[] color = new int[0];
+    byte[] shape = new byte[0];
+
+    /**
+     * @return The number of figures in the frame.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return The number of steps the simulation had taken when this frame was made.
+     */
+    public long tick() {
+        return tick;
+    }
+
+    /**
+     * @param i The slot of the figure.
+     * @return The shape of figure i.
+     */
+    public Shape getShape(int i) {
+        return SHAPES[shape[i]];
+    }
+
+    /**
+     * @param i The slot of the figure.
+     * @param alpha How far between its previous (0) and current (1) position.
+     * @return The X position to draw figure i at.
+     */
+    public int xAt(int i, float alpha) {
+        return prevX[i] + Math.round((x[i] - prevX[i]) * alpha);
+    }
+
+    /**
+     * @param i The slot of the figure.
+     * @param alpha How far between its previous (0) and current (1) position.
+     * @return The Y position to draw figure i at.
+     */
+    public int yAt(int i, float alpha) {
+        return prevY[i] + Math.round((y[i] - prevY[i]) * alpha);
+    }
+
+    /**
+     * Copies the drawing state of every figure in the buffer into this frame,
+     * reusing this frame's arrays when they are big enough.
+     *
+     * @param figures The figures to copy.
+     * @param tick The number of steps the simulation has taken.
+     */
+    void copyFrom(FigureBuffer figures, long tick) {
+        int n = figures.count();
+        if (x.length < n) grow(n);
+        System.arraycopy(figures.x, 0, x, 0, n);
+        System.arraycopy(figures.y, 0, y, 0, n);
+        System.arraycopy(figures.prevX, 0, prevX, 0, n);
+        System.arraycopy(figures.prevY, 0, prevY, 0, n);
+        System.arraycopy(figures.size, 0, size, 0, n);
+        System.arraycopy(figures.offset, 0, offset, 0, n);
+        System.arraycopy(figures.originX, 0, originX, 0, n);
+        System.arraycopy(figures.originY, 0, originY, 0, n);
+        System.arraycopy(figures.color, 0, color, 0, n);
+        System.arraycopy(figures.shape, 0, shape, 0, n);
+        this.count = n;
+        this.tick = tick;
+    }
+
+    private void grow(int capacity) {
+        capacity = Math.max(capacity, x.length + (x.length >> 1));
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        prevX = Arrays.copyOf(prevX, capacity);
+        prevY = Arrays.copyOf(prevY, capacity);
+        size = Arrays.copyOf(size, capacity);
+        offset = Arrays.copyOf(offset, capacity);
+        originX = Arrays.copyOf(originX, capacity);
+        originY = Arrays.copyOf(originY, capacity);
+        color = Arrays.copyOf(color, capacity);
+        shape = Arrays.copyOf(shape, capacity);
+    }
+}
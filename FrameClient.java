@@ -0,0 +1,126 @@
+package kaleidoscope;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The FrameClient watches a FrameServer's MJPEG stream without a screen,
+ * for tests and for checking a server from the command line.
+ *
+ * Usage: java kaleidoscope.FrameClient [URL] [SECONDS]
+ *
+ * reads http://127.0.0.1:8080/stream (or URL) for 10 seconds (or SECONDS)
+ * and prints how many frames arrived and how big they were.
+ */
+public class FrameClient implements Closeable {
+
+    private final HttpURLConnection connection;
+    private final DataInputStream in;
+    private final String boundary;
+
+    /**
+     * Connects to a stream.
+     *
+     * @param url The stream, for example http://127.0.0.1:8080/stream.
+     * @throws IOException If the stream could not be opened.
+     */
+    public FrameClient(URL url) throws IOException {
+        connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(10000);
+        String type = connection.getContentType();
+        int at = type == null ? -1 : type.indexOf("boundary=");
+        if (connection.getResponseCode() != 200 || at < 0) {
+            connection.disconnect();
+            throw new IOException("Not an MJPEG stream: " + connection.getResponseCode() + " " + type);
+        }
+        boundary = "--" + type.substring(at + "boundary=".length()).trim();
+        in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+    }
+
+    /**
+     * Waits for the next frame and returns it as it was sent.
+     *
+     * @return The JPEG bytes of the frame, or null if the stream has ended.
+     * @throws IOException If the stream could not be read.
+     */
+    public byte[] nextJpeg() throws IOException {
+        String line;
+        do {
+            line = readLine();
+            if (line == null) return null;
+        } while (!line.equals(boundary));
+        int length = -1;
+        while ((line = readLine()) != null && !line.isEmpty()) {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) length = Integer.parseInt(line.substring(15).trim());
+        }
+        if (line == null) return null;
+        if (length < 0) throw new IOException("Frame without a Content-Length");
+        byte[] jpeg = new byte[length];
+        in.readFully(jpeg);
+        return jpeg;
+    }
+
+    /**
+     * Waits for the next frame and decodes it.
+     *
+     * @return The frame, or null if the stream has ended.
+     * @throws IOException If the stream could not be read or the frame decoded.
+     */
+    public BufferedImage next() throws IOException {
+        byte[] jpeg = nextJpeg();
+        return jpeg == null ? null : ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    /**
+     * @return The next line of headers, without its CR LF, or null at the end of the stream.
+     */
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c < 0) return line.length() == 0 ? null : line.toString();
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() {
+        connection.disconnect(); // first, so that closing does not read the rest of an endless stream
+        try {
+            in.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Counts the frames of a stream for a while.
+     *
+     * @param args The URL of the stream and how many seconds to watch it.
+     * @throws Exception If the stream could not be read.
+     */
+    public static void main(String[] args) throws Exception {
+        URL url = new URL(args.length > 0 ? args[0] : "http://127.0.0.1:8080/stream");
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        long frames = 0, bytes = 0;
+        long start = System.nanoTime(), end = start + seconds * 1000000000L;
+        try (FrameClient client = new FrameClient(url)) {
+            for (byte[] jpeg = client.nextJpeg(); jpeg != null; jpeg = client.nextJpeg()) {
+                frames++;
+                bytes += jpeg.length;
+                if (System.nanoTime() >= end) break;
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d frames in %.1f s: %.1f frames/s, %.1f KB each%n",
+                frames, elapsed, frames / elapsed, frames == 0 ? 0 : bytes / 1024.0 / frames);
+    }
+}
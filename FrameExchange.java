@@ -0,0 +1,49 @@
+package kaleidoscope;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The FrameExchange hands finished Frames from the simulation thread to the
+ * painting thread through three buffers, without locks. The simulation
+ * always writes into a frame that nobody is reading, and the painter always
+ * reads the newest complete frame. Neither side ever waits for the other;
+ * if the simulation publishes faster than frames are painted, the frames in
+ * between are simply skipped.
+ *
+ * There must be only one publishing thread and one reading thread.
+ */
+public class FrameExchange {
+
+    private static final int INDEX = 3;  // low bits of middle: which frame is in the middle
+    private static final int FRESH = 4;  // set when the middle frame has not been read yet
+
+    private final Frame[] frames = { new Frame(), new Frame(), new Frame() };
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;   // only touched by the publishing thread
+    private int front = 2;  // only touched by the reading thread
+
+    /**
+     * Copies the figures into a free frame and makes it the newest one.
+     * Called by the simulation thread.
+     *
+     * @param figures The figures to publish.
+     * @param tick The number of steps the simulation has taken.
+     */
+    public void publish(FigureBuffer figures, long tick) {
+        frames[back].copyFrom(figures, tick);
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Returns the newest complete frame. The frame stays unchanged until the
+     * next call to this method. Called by the painting thread.
+     *
+     * @return The newest frame; empty if nothing has been published yet.
+     */
+    public Frame latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return frames[front];
+    }
+}
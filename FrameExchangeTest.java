@@ -0,0 +1,44 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import org.junit.Test;
+  
+public class FrameExchangeTest {
+  
+    @Test
+    public void testEmptyBeforePublish() {
+        assertEquals(0, new FrameExchange().latest().count());
+    }
+  
+    @Test
+    public void testReadsNewestFrame() { // Frames published in between reads are skipped.
+        FrameExchange exchange = new FrameExchange();
+        FigureBuffer figures = new FigureBuffer(4, 1);
+        figures.add(1000, 800, Shape.CIRCLE);
+        exchange.publish(figures, 1);
+        figures.add(1000, 800, Shape.SQUARE);
+        exchange.publish(figures, 2);
+        Frame frame = exchange.latest();
+        assertEquals(2, frame.tick());
+        assertEquals(2, frame.count());
+        assertSame(frame, exchange.latest()); // nothing new published
+    }
+  
+    @Test
+    public void testFrameUnchangedWhileHeld() { // Publishing never writes into the frame being painted.
+        FrameExchange exchange = new FrameExchange();
+        FigureBuffer figures = new FigureBuffer(4, 1);
+        figures.add(1000, 800, Shape.CIRCLE);
+        exchange.publish(figures, 1);
+        Frame held = exchange.latest();
+        int x = held.x[0];
+        for (int tick = 2; tick < 10; tick++) {
+            figures.makeOneStep();
+            exchange.publish(figures, tick);
+            assertEquals(1, held.tick());
+            assertEquals(x, held.x[0]);
+        }
+        assertEquals(9, exchange.latest().tick());
+    }
+}
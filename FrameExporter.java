@@ -0,0 +1,437 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The FrameExporter runs the kaleidoscope without a window: it steps a
+ * Session, renders each frame off screen and hands it to a FrameSink.
+ * Storing (and compressing) frames happens on a pool of encoder threads,
+ * so the simulation only waits when every spare frame buffer is still
+ * being stored.
+ *
+ * Usage: java kaleidoscope.FrameExporter [--frames N] [--width W]
+ * [--height H] [--seed S] [--figures F] [--format png|rgba|y4m|raw|mjpeg|none]
+ * [--out PATH] [--renderer java2d|batched|software|compositor|tiled] [--encoders E] [--flash]
+ * [--collide] [--replay LOG] [--load SNAPSHOT] [--start S] [--symmetry N] [--realtime]
+ *
+ * The png and rgba formats write one file per frame into the directory
+ * PATH. The y4m and raw (headerless RGBA) formats write one video file, or
+ * named pipe, at PATH; see MappedVideoSink. The none format renders every
+ * frame and throws it away, for timing. The mjpeg format serves the frames
+ * live over HTTP at [HOST:]PORT (127.0.0.1:8080 unless given), one frame
+ * per step in real time, until stopped or --frames have been shown; see
+ * FrameServer.
+ *
+ * With --load, the figures, the flashing and the collisions come from a
+ * Snapshot instead of --seed, --figures, --flash and --collide.
+ *
+ * With --replay, the figures and everything done to them come from a
+ * ReplayLog recorded by the Controller instead of --seed, --figures,
+ * --flash and --collide. Frame N shows the figures after N steps, so the
+ * same log always gives the same frames. Unless given, the number of
+ * frames runs to the last recorded action and the frame size is that of
+ * the window when it was first shown.
+ *
+ * With --start, the first frame shows the figures after S steps. The steps
+ * before it are not simulated one by one: the figures jump straight there
+ * (see FigureBuffer.advance()), stopping only at recorded actions. Steps
+ * in which the figures flash or collide are still taken one at a time,
+ * since colors and collisions depend on every step.
+ *
+ * With --realtime, frames are made no faster than the simulation steps
+ * on screen, FRAMES_PER_SECOND of them a second.
+ *
+ * With --symmetry, every figure is drawn N times (see Symmetry) instead of
+ * in the classic 8 reflections.
+ */
+public class FrameExporter {
+
+    /** Frame rate of exported video: one frame per step at normal speed. */
+    public static final int FRAMES_PER_SECOND = (int) (1000000000L / SimulationLoop.STEP_NANOS);
+
+    private final int width;
+    private final int height;
+    private final Session session;
+    private final Renderer renderer;
+    private final ReplayLog replay;
+    private int replayed; // actions of the replay log applied so far
+    private long start; // the step the first frame shows
+    private boolean realTime; // true to make frames no faster than the simulation steps
+
+    private long renderNanos;
+    private long waitNanos;
+    private long elapsedNanos;
+    private long framesWritten;
+
+    /**
+     * Sets up a scene the way the Controller does: every 5th figure is a
+     * polygon, other even-numbered figures are circles and odd-numbered
+     * figures are squares.
+     *
+     * @param width The width of each frame in pixels.
+     * @param height The height of each frame in pixels.
+     * @param seed The seed for the figures' random sizes, speeds and colors.
+     * @param figureCount The number of figures.
+     * @param renderer How to draw the frames.
+     */
+    public FrameExporter(int width, int height, long seed, int figureCount, Renderer renderer) {
+        this.width = width;
+        this.height = height;
+        this.renderer = renderer;
+        this.session = new Session(new FigureBuffer(figureCount, seed), new ParallelStepper(), width, height, 1);
+        this.replay = null;
+        session.populate(figureCount);
+    }
+
+    /**
+     * Sets up a scene that plays back a run of the Controller.
+     *
+     * @param width The width of each frame in pixels.
+     * @param height The height of each frame in pixels.
+     * @param replay The seed of the run and everything the user did.
+     * @param renderer How to draw the frames.
+     */
+    public FrameExporter(int width, int height, ReplayLog replay, Renderer renderer) {
+        this.width = width;
+        this.height = height;
+        this.renderer = renderer;
+        this.session = new Session(new FigureBuffer(16, replay.getSeed()), new ParallelStepper(), width, height, 1);
+        this.replay = replay;
+    }
+
+    /**
+     * Replaces the figures with those saved in a snapshot, and flashes and
+     * collides them if they were when it was saved.
+     *
+     * @param path A file written by Snapshot.save().
+     * @throws IOException If the snapshot could not be read.
+     */
+    public void load(Path path) throws IOException {
+        session.load(path);
+    }
+
+    /**
+     * @param flashOn true to give every figure a new random color on every frame.
+     */
+    public void setFlash(boolean flashOn) {
+        if (flashOn != session.isFlashOn()) session.toggleFlash();
+    }
+
+    /**
+     * @param collideOn true to make figures bounce off each other as well as off the walls.
+     */
+    public void setCollide(boolean collideOn) {
+        if (collideOn != session.isCollideOn()) session.toggleCollide();
+    }
+
+    /**
+     * @param start The step that the first frame of the next run shows, at
+     *              least the step the figures are at.
+     */
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    /**
+     * @param realTime true to make frames no faster than one per step at
+     *                 normal speed, for sinks that show them live.
+     */
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    /**
+     * Brings the figures to the given step, jumping over the steps in
+     * which they neither flash nor collide, and doing what the user did
+     * on the way if replaying.
+     *
+     * @param target The step to go to.
+     * @throws IllegalArgumentException If the figures are already past it.
+     */
+    public void seek(long target) {
+        long tick = session.getSteps();
+        if (target < tick) throw new IllegalArgumentException("Cannot go back from step " + tick + " to " + target);
+        if (replay != null) replayUntil(tick);
+        while (tick < target) {
+            long stop = target;
+            if (replay != null && replayed < replay.size()) stop = Math.min(stop, replay.getTick(replayed));
+            if (session.isFlashOn() || session.isCollideOn()) {
+                session.step();
+            }
+            else {
+                session.advance(stop - tick);
+            }
+            tick = session.getSteps();
+            if (replay != null) replayUntil(tick);
+        }
+    }
+
+    /**
+     * Renders frames and stores them in the sink. Frame 0 shows the figures
+     * at the start step (where they start, unless setStart() was called);
+     * every frame after that is one step later.
+     *
+     * @param frames The number of frames to render.
+     * @param sink Where to store the frames. It is closed at the end.
+     * @param encoders The number of threads storing frames. Ignored if the
+     *                 sink is sequential, which always gets one thread.
+     * @throws IOException If the sink failed to store a frame.
+     * @throws InterruptedException If interrupted while waiting for the encoders.
+     */
+    public void run(int frames, FrameSink sink, int encoders) throws IOException, InterruptedException {
+        if (sink.isSequential()) encoders = 1;
+        encoders = Math.max(1, encoders);
+        final BlockingQueue<PixelBuffer> free = new ArrayBlockingQueue<PixelBuffer>(encoders * 2 + 1);
+        while (free.remainingCapacity() > 0) {
+            free.add(new PixelBuffer(width, height));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(encoders, new ThreadFactory() {
+            private int n = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kaleidoscope-encoder-" + n++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final FrameSink out = sink;
+        Frame frame = new Frame();
+        long started = System.nanoTime();
+        try {
+            seek(Math.max(start, session.getSteps()));
+            for (int n = 0; n < frames && failure.get() == null; n++) {
+                if (realTime) {
+                    long early = started + n * SimulationLoop.STEP_NANOS - System.nanoTime();
+                    if (early > 0) TimeUnit.NANOSECONDS.sleep(early);
+                }
+                long t0 = System.nanoTime();
+                final PixelBuffer target = free.take(); // only waits when every buffer is being stored
+                long t1 = System.nanoTime();
+                if (n > 0) {
+                    session.step();
+                    if (replay != null) replayUntil(session.getSteps());
+                }
+                frame.copyFrom(session.getFigures(), session.getSteps());
+                draw(frame, target);
+                renderNanos += System.nanoTime() - t1;
+                waitNanos += t1 - t0;
+
+                final long index = n;
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (failure.get() == null) out.write(index, target);
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            free.add(target);
+                        }
+                    }
+                });
+                framesWritten++;
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            elapsedNanos = System.nanoTime() - started;
+            sink.close();
+        }
+        if (failure.get() != null) throw failure.get();
+    }
+
+    /**
+     * Does to the session what the user did up to and including the given
+     * step. Running, pausing and the speed only change how fast steps come
+     * in real time, so they are skipped.
+     */
+    private void replayUntil(long tick) {
+        for (; replayed < replay.size() && replay.getTick(replayed) <= tick; replayed++) {
+            int e = replayed;
+            switch (replay.getAction(e)) {
+            case ADD:
+                session.add(replay.getArgument(e, 0), replay.getArgument(e, 1), Shape.values()[replay.getArgument(e, 2)]);
+                break;
+            case REMOVE:
+                session.removeLast();
+                break;
+            case ADD_MANY:
+                session.add(replay.getArgument(e, 0), replay.getArgument(e, 1), Shape.values()[replay.getArgument(e, 2)],
+                        replay.getArgument(e, 3));
+                break;
+            case REMOVE_MANY:
+                session.remove(replay.getArgument(e, 0));
+                break;
+            case RESIZE:
+                session.setLimits(replay.getArgument(e, 0), replay.getArgument(e, 1));
+                break;
+            case FLASH:
+                session.toggleFlash();
+                break;
+            case COLLIDE:
+                session.toggleCollide();
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Draws one frame into the target buffer.
+     */
+    private void draw(Frame frame, PixelBuffer target) {
+        if (renderer instanceof RasterRenderer) {
+            ((RasterRenderer) renderer).render(frame, 1f, target);
+            return;
+        }
+        Graphics2D g = target.getImage().createGraphics();
+        try {
+            renderer.paint(g, frame, 1f, width, height);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * @return Frames stored per second over the whole run.
+     */
+    public double getFramesPerSecond() {
+        return elapsedNanos == 0 ? 0 : framesWritten * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return A one-line summary of the last run.
+     */
+    public String report() {
+        return String.format("%d frames of %dx%d in %.2f s: %.1f frames/s "
+                + "(simulate+render %.2f ms/frame, waited for encoders %.2f ms/frame)",
+                framesWritten, width, height, elapsedNanos / 1e9, getFramesPerSecond(),
+                renderNanos / 1e6 / Math.max(1, framesWritten), waitNanos / 1e6 / Math.max(1, framesWritten));
+    }
+
+    /**
+     * Renders a sequence of frames to files without opening a window.
+     *
+     * @param args See the class comment.
+     * @throws Exception If the frames could not be written.
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int frames = 100, width = 1000, height = 800, figureCount = 10, order = Reflections.COUNT;
+        int encoders = Runtime.getRuntime().availableProcessors();
+        long seed = 0, start = 0;
+        String format = "png", out = "frames", renderer = "compositor", replayPath = null, loadPath = null;
+        boolean flash = false, collide = false, sized = false, framesGiven = false, outGiven = false, realTime = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--flash")) { flash = true; continue; }
+            if (arg.equals("--collide")) { collide = true; continue; }
+            if (arg.equals("--realtime")) { realTime = true; continue; }
+            if (i + 1 >= args.length) usage("Missing value for " + arg);
+            String value = args[++i];
+            if (arg.equals("--frames")) { frames = Integer.parseInt(value); framesGiven = true; }
+            else if (arg.equals("--width")) { width = Integer.parseInt(value); sized = true; }
+            else if (arg.equals("--height")) { height = Integer.parseInt(value); sized = true; }
+            else if (arg.equals("--seed")) seed = Long.parseLong(value);
+            else if (arg.equals("--figures")) figureCount = Integer.parseInt(value);
+            else if (arg.equals("--encoders")) encoders = Integer.parseInt(value);
+            else if (arg.equals("--format")) format = value;
+            else if (arg.equals("--out")) { out = value; outGiven = true; }
+            else if (arg.equals("--renderer")) renderer = value;
+            else if (arg.equals("--replay")) replayPath = value;
+            else if (arg.equals("--load")) loadPath = value;
+            else if (arg.equals("--start")) start = Long.parseLong(value);
+            else if (arg.equals("--symmetry")) order = Integer.parseInt(value);
+            else usage("Unknown option " + arg);
+        }
+        Renderer drawer = Renderer.forName(renderer);
+        drawer.setSymmetry(Symmetry.forOrder(order));
+        FrameExporter exporter;
+        if (replayPath != null) {
+            ReplayLog log = ReplayLog.read(Paths.get(replayPath));
+            for (int e = 0; e < log.size() && !sized; e++) {
+                if (log.getAction(e) == ReplayLog.Action.RESIZE) {
+                    width = log.getArgument(e, 0);
+                    height = log.getArgument(e, 1);
+                    sized = true;
+                }
+            }
+            if (!framesGiven) frames = (int) Math.max(1, (log.size() == 0 ? 0 : log.getTick(log.size() - 1)) + 1 - start);
+            exporter = new FrameExporter(width, height, log, drawer);
+        }
+        else if (loadPath != null) {
+            exporter = new FrameExporter(width, height, seed, 0, drawer);
+            exporter.load(Paths.get(loadPath));
+        }
+        else {
+            exporter = new FrameExporter(width, height, seed, figureCount, drawer);
+            exporter.setFlash(flash);
+            exporter.setCollide(collide);
+        }
+        exporter.setStart(start);
+        FrameSink sink;
+        if (format.equalsIgnoreCase("mjpeg")) {
+            String address = outGiven ? out : "127.0.0.1:8080";
+            int colon = address.lastIndexOf(':');
+            String host = colon < 0 ? "127.0.0.1" : address.substring(0, colon); // 0.0.0.0 serves the LAN
+            FrameServer server = new FrameServer(new InetSocketAddress(host, Integer.parseInt(address.substring(colon + 1))),
+                    FrameServer.DEFAULT_QUALITY);
+            System.out.println("Serving http://" + host + ":" + server.getPort() + "/");
+            if (!framesGiven) frames = Integer.MAX_VALUE;
+            realTime = true;
+            sink = server;
+        }
+        else if (format.equalsIgnoreCase("none")) {
+            sink = new FrameSink() {
+                @Override
+                public void write(long index, PixelBuffer pixels) {
+                }
+
+                @Override
+                public boolean isSequential() {
+                    return false;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+        else if (format.equalsIgnoreCase("y4m")) {
+            sink = new MappedVideoSink(Paths.get(out), MappedVideoSink.Format.Y4M, width, height, FRAMES_PER_SECOND);
+        }
+        else if (format.equalsIgnoreCase("raw")) {
+            sink = new MappedVideoSink(Paths.get(out), MappedVideoSink.Format.RGBA, width, height, FRAMES_PER_SECOND);
+        }
+        else {
+            sink = new ImageSequenceSink(new File(out), ImageSequenceSink.Format.valueOf(format.toUpperCase()));
+        }
+        exporter.setRealTime(realTime);
+        exporter.run(frames, sink, encoders);
+        System.out.println(exporter.report());
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: java kaleidoscope.FrameExporter [--frames N] [--width W] [--height H] [--seed S]"
+                + " [--figures F] [--format png|rgba|y4m|raw|mjpeg|none] [--out PATH] [--renderer java2d|batched|software|compositor|tiled]"
+                + " [--encoders E] [--flash] [--collide] [--replay LOG]"
+                + " [--load SNAPSHOT] [--start S] [--symmetry N] [--realtime]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,76 @@
+package kaleidoscope;
+
+/**
+ * Scenes shared by the tests: figures of every shape made from a seed, so
+ * that a test sees the same ones on every run, and frames of them after a
+ * number of steps. Compiled with the tests only (see core/pom.xml).
+ */
+final class FrameFixture {
+
+    private FrameFixture() {
+    }
+
+    /**
+     * Makes figures of each shape in turn: circle, square, polygon.
+     *
+     * @param seed The seed for their sizes, speeds, offsets and colors.
+     * @param count How many.
+     * @param width Where the wall on the right is.
+     * @param height Where the floor is.
+     * @return The figures.
+     */
+    static FigureBuffer figures(long seed, int count, int width, int height) {
+        FigureBuffer figures = new FigureBuffer(count, seed);
+        for (int i = 0; i < count; i++) {
+            figures.add(width, height, Shape.values()[i % 3]);
+        }
+        return figures;
+    }
+
+    /**
+     * Makes figures all of one shape.
+     *
+     * @param seed The seed for their sizes, speeds, offsets and colors.
+     * @param count How many.
+     * @param width Where the wall on the right is.
+     * @param height Where the floor is.
+     * @param shape Their shape.
+     * @return The figures.
+     */
+    static FigureBuffer figures(long seed, int count, int width, int height, Shape shape) {
+        FigureBuffer figures = new FigureBuffer(count, seed);
+        for (int i = 0; i < count; i++) {
+            figures.add(width, height, shape);
+        }
+        return figures;
+    }
+
+    /**
+     * Steps figures as the simulation does and publishes a frame of them.
+     *
+     * @param figures The figures.
+     * @param steps How many steps to take first.
+     * @return The frame after the last step.
+     */
+    static Frame frame(FigureBuffer figures, int steps) {
+        for (int i = 0; i < steps; i++) {
+            figures.savePositions();
+            figures.makeOneStep();
+        }
+        FrameExchange exchange = new FrameExchange();
+        exchange.publish(figures, steps);
+        return exchange.latest();
+    }
+
+    /**
+     * @param seed The seed for the figures.
+     * @param count How many figures, of each shape in turn.
+     * @param width Where the wall on the right is.
+     * @param height Where the floor is.
+     * @param steps How many steps to take first.
+     * @return A frame of the figures after the steps.
+     */
+    static Frame frame(long seed, int count, int width, int height, int steps) {
+        return frame(figures(seed, count, width, height), steps);
+    }
+}
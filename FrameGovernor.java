@@ -0,0 +1,252 @@
+package kaleidoscope;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The FrameGovernor keeps frames within their time budget, one refresh of
+ * the display, by drawing less when stepping and painting take too long
+ * and more again once there is time to spare.
+ *
+ * It keeps moving averages of how long a step and a paint take, and works
+ * out the load: the time a frame needs (a paint, if this frame is painted,
+ * plus the steps the simulation takes in one frame at the current speed)
+ * as a fraction of the budget. After OVERLOADED_FRAMES frames in a row
+ * above HIGH_LOAD it goes one level down the ladder in LEVELS, and after
+ * IDLE_FRAMES frames in a row below LOW_LOAD one level back up. Going down
+ * is quick and coming back slow, and the loads are far apart, so that the
+ * quality does not flicker between two levels.
+ *
+ * The levels first draw small figures as squares, then paint only every
+ * other frame, then draw 4 reflections instead of 8, then paint one frame
+ * in 4. The simulation itself is never slowed.
+ *
+ * Every decision is counted, shown through JMX and emitted as a JFR
+ * event. The governor is on unless -Dkaleidoscope.governor=false is given,
+ * and can be turned off at any time through JMX. Steps are recorded on the
+ * simulation thread; everything else happens on the event dispatch thread.
+ */
+public class FrameGovernor implements GovernorMXBean {
+
+    /** true unless the governor has been turned off with -Dkaleidoscope.governor=false. */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("kaleidoscope.governor", "true"));
+
+    /** The name the governor is registered under in JMX. */
+    public static final String OBJECT_NAME = "kaleidoscope:type=Governor";
+
+    /** Load above which frames count as overloaded. */
+    static final double HIGH_LOAD = 0.9;
+
+    /** Load below which frames count as idle. */
+    static final double LOW_LOAD = 0.45;
+
+    /** Overloaded frames in a row before quality is lowered. */
+    static final int OVERLOADED_FRAMES = 10;
+
+    /** Idle frames in a row before quality is raised. */
+    static final int IDLE_FRAMES = 60;
+
+    /** Weight of the newest time in the moving averages. */
+    private static final double SMOOTHING = 0.1;
+
+    /** The quality at each level, and how many frames go by per paint. */
+    static final Quality[] LEVELS = {
+        Quality.FULL,
+        new Quality(4, Reflections.COUNT),
+        new Quality(12, Reflections.COUNT),
+        new Quality(12, Reflections.COUNT),
+        new Quality(12, Reflections.COUNT / 2),
+        new Quality(12, Reflections.COUNT / 2),
+    };
+    static final int[] PAINT_EVERY = { 1, 1, 1, 2, 2, 4 };
+
+    private final long frameNanos;
+    private volatile double tickNanos = -1;  // moving average, written on the simulation thread
+    private volatile double paintNanos = -1; // moving average, written on the event dispatch thread
+    private volatile double load;
+    private volatile int level;
+    private volatile boolean enabled = ENABLED;
+    private volatile long degrades;
+    private volatile long restores;
+    private volatile long skippedPaints;
+    private int overloaded; // frames in a row above HIGH_LOAD
+    private int idle;       // frames in a row below LOW_LOAD
+    private long frames;
+
+    /**
+     * @param frameNanos The time there is for each frame, in nanoseconds.
+     */
+    public FrameGovernor(long frameNanos) {
+        this.frameNanos = frameNanos;
+    }
+
+    /**
+     * Registers the governor with the platform MBean server.
+     *
+     * @return true if it was registered.
+     */
+    public boolean register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            return true;
+        } catch (JMException e) {
+            System.err.println("Governor not registered: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Records how long one step took. Only called on the simulation thread.
+     *
+     * @param nanos How long the step took.
+     */
+    public void ticked(long nanos) {
+        tickNanos = average(tickNanos, nanos);
+    }
+
+    /**
+     * Records how long one paint took. Only called on the event dispatch thread.
+     *
+     * @param nanos How long the paint took.
+     */
+    public void painted(long nanos) {
+        paintNanos = average(paintNanos, nanos);
+    }
+
+    private static double average(double average, long nanos) {
+        return average < 0 ? nanos : average + SMOOTHING * (nanos - average);
+    }
+
+    /**
+     * Called once per frame, before it is painted: works out the load,
+     * changes level if it has been too high or low for long enough, and
+     * tells whether to paint this frame.
+     *
+     * @param stepsPerFrame How many steps the simulation takes in one frame.
+     * @return true if the view should be painted this frame.
+     */
+    public boolean frame(double stepsPerFrame) {
+        int every = PAINT_EVERY[level];
+        double paint = Math.max(paintNanos, 0);
+        double tick = Math.max(tickNanos, 0);
+        load = (paint / every + tick * stepsPerFrame) / frameNanos;
+        if (!enabled) {
+            if (level != 0) changeLevel(0);
+        }
+        else if (load > HIGH_LOAD) {
+            idle = 0;
+            if (++overloaded >= OVERLOADED_FRAMES && level < LEVELS.length - 1) changeLevel(level + 1);
+        }
+        else if (load < LOW_LOAD) {
+            overloaded = 0;
+            if (++idle >= IDLE_FRAMES && level > 0) changeLevel(level - 1);
+        }
+        else {
+            overloaded = 0;
+            idle = 0;
+        }
+        boolean paintThis = frames++ % PAINT_EVERY[level] == 0;
+        if (!paintThis) skippedPaints++;
+        return paintThis;
+    }
+
+    private void changeLevel(int to) {
+        Events.QualityChange event = new Events.QualityChange();
+        event.from = level;
+        event.to = to;
+        event.load = load;
+        event.commit();
+        if (to > level) degrades++;
+        else restores++;
+        level = to;
+        overloaded = 0;
+        idle = 0;
+        frames = 0;
+    }
+
+    /**
+     * @return The quality to draw the figures at.
+     */
+    public Quality getQuality() {
+        return LEVELS[level];
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public int getMaxLevel() {
+        return LEVELS.length - 1;
+    }
+
+    @Override
+    public double getLoad() {
+        return load;
+    }
+
+    @Override
+    public double getFrameBudgetMicros() {
+        return frameNanos / 1e3;
+    }
+
+    @Override
+    public double getTickMicros() {
+        return Math.max(tickNanos, 0) / 1e3;
+    }
+
+    @Override
+    public double getPaintMicros() {
+        return Math.max(paintNanos, 0) / 1e3;
+    }
+
+    @Override
+    public int getDetailSize() {
+        return getQuality().getDetailSize();
+    }
+
+    @Override
+    public int getReflections() {
+        return getQuality().getReflections();
+    }
+
+    @Override
+    public int getPaintEvery() {
+        return PAINT_EVERY[level];
+    }
+
+    @Override
+    public long getDegradeCount() {
+        return degrades;
+    }
+
+    @Override
+    public long getRestoreCount() {
+        return restores;
+    }
+
+    @Override
+    public long getSkippedPaintCount() {
+        return skippedPaints;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return A short description of the level, for the window title.
+     */
+    public String summary() {
+        return level == 0 ? "full quality" : String.format("quality %d/%d", LEVELS.length - 1 - level, LEVELS.length - 1);
+    }
+}
@@ -0,0 +1,76 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import org.junit.Test;
+  
+public class FrameGovernorTest {
+  
+    private static final long BUDGET = 16000000L; // about 60 frames a second
+  
+    /**
+     * Runs frames in which each paint and step take the given times.
+     *
+     * @return How many of them were painted.
+     */
+    private static int run(FrameGovernor governor, int frames, long paintNanos, long tickNanos) {
+        int painted = 0;
+        for (int f = 0; f < frames; f++) {
+            governor.ticked(tickNanos);
+            if (governor.frame(1)) {
+                governor.painted(paintNanos);
+                painted++;
+            }
+        }
+        return painted;
+    }
+  
+    @Test
+    public void testStaysAtFullQualityWithTimeToSpare() { // Light frames never lower the quality.
+        FrameGovernor governor = new FrameGovernor(BUDGET);
+        assertEquals(500, run(governor, 500, 4000000L, 1000000L));
+        assertEquals(0, governor.getLevel());
+        assertSame(Quality.FULL, governor.getQuality());
+        assertEquals(0, governor.getDegradeCount());
+        assertEquals(0, governor.getSkippedPaintCount());
+    }
+  
+    @Test
+    public void testDegradesUnderLoadAndRestoresAfterwards() { // Down the ladder while frames are too slow, back up once they are fast.
+        FrameGovernor governor = new FrameGovernor(BUDGET);
+        run(governor, FrameGovernor.OVERLOADED_FRAMES + 5, 20000000L, 1000000L);
+        assertEquals(1, governor.getLevel());
+        assertEquals(1, governor.getDegradeCount());
+        assertTrue(governor.getLoad() > FrameGovernor.HIGH_LOAD);
+        int painted = run(governor, 400, 40000000L, 1000000L);
+        assertEquals(governor.getMaxLevel(), governor.getLevel());
+        assertTrue(painted < 400);
+        assertEquals(400 - painted, governor.getSkippedPaintCount());
+        assertTrue(governor.getQuality().getReflections() < Reflections.COUNT);
+        run(governor, 2000, 1000000L, 500000L);
+        assertEquals(0, governor.getLevel());
+        assertEquals(governor.getMaxLevel(), governor.getRestoreCount());
+    }
+  
+    @Test
+    public void testDoesNotFlickerAtModerateLoad() { // A load between the thresholds keeps whatever level it is at.
+        FrameGovernor governor = new FrameGovernor(BUDGET);
+        run(governor, 3 * FrameGovernor.OVERLOADED_FRAMES, 20000000L, 0);
+        int level = governor.getLevel();
+        assertTrue(level > 0);
+        run(governor, 1000, 11000000L * FrameGovernor.PAINT_EVERY[level], 0);
+        assertEquals(level, governor.getLevel());
+    }
+  
+    @Test
+    public void testTurningOffRestoresFullQuality() { // Disabled through JMX, it goes straight back to full quality.
+        FrameGovernor governor = new FrameGovernor(BUDGET);
+        run(governor, 100, 40000000L, 0);
+        assertTrue(governor.getLevel() > 0);
+        governor.setEnabled(false);
+        assertTrue(governor.frame(1));
+        assertEquals(0, governor.getLevel());
+        run(governor, 100, 40000000L, 0);
+        assertEquals(0, governor.getLevel());
+    }
+}
@@ -0,0 +1,405 @@
+package kaleidoscope;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The FrameServer is a FrameSink that shows the frames live over HTTP, so
+ * that one simulation can be watched on many screens. It serves:
+ *
+ * /stream     the frames as MJPEG (multipart/x-mixed-replace of JPEGs),
+ *             which browsers show in an img tag;
+ * /frame.jpg  the newest frame;
+ * /           a page showing the stream.
+ *
+ * Every frame is encoded once, into a reference-counted buffer that every
+ * connected client holds a reference to until it has sent it; the last
+ * release puts the buffer back on a free list for a later frame. Each
+ * client has its own thread and room for one waiting frame. If a newer
+ * frame arrives before the client has started sending the waiting one,
+ * the waiting one is dropped, so a slow client sees fewer frames but
+ * never holds up the others or whoever writes the frames.
+ *
+ * The FrameExporter drives it with --format mjpeg; see FrameClient for a
+ * headless client.
+ */
+public class FrameServer implements FrameSink {
+
+    /** Default JPEG quality, from 0 to 1. */
+    public static final float DEFAULT_QUALITY = Float.parseFloat(System.getProperty("kaleidoscope.jpegQuality", "0.8"));
+
+    /** The boundary between frames of the stream. */
+    static final String BOUNDARY = "kaleidoscope-frame";
+
+    private static final byte[] PAGE = ("<!DOCTYPE html><html><head><title>Kaleidoscope</title></head>"
+            + "<body style=\"margin:0;background:#000\"><img src=\"/stream\" style=\"width:100%\"></body></html>")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpServer server;
+    private final ExecutorService threads;
+    private final ImageWriter writer;
+    private final ImageWriteParam param;
+    private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+    private final ArrayDeque<Encoded> free = new ArrayDeque<Encoded>(); // buffers no client holds; guarded by itself
+    private Encoded latest; // the newest frame, held for clients that join; guarded by this
+    private volatile boolean closed;
+
+    private final AtomicInteger buffers = new AtomicInteger();   // buffers ever made
+    private final AtomicInteger inUse = new AtomicInteger();     // buffers holding a frame
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Starts serving at the given address.
+     *
+     * @param address Where to listen: loopback to serve this machine only,
+     *                the wildcard address to serve the LAN; port 0 picks a free port.
+     * @param quality The JPEG quality, from 0 to 1.
+     * @throws IOException If the address could not be bound.
+     */
+    public FrameServer(InetSocketAddress address, float quality) throws IOException {
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        threads = Executors.newCachedThreadPool(new ThreadFactory() {
+            private int n = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kaleidoscope-serve-" + n++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server = HttpServer.create(address, 0);
+        server.setExecutor(threads);
+        server.createContext("/stream", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                stream(exchange);
+            }
+        });
+        server.createContext("/frame.jpg", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                still(exchange);
+            }
+        });
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("Content-Type", "text/html");
+                exchange.sendResponseHeaders(200, PAGE.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(PAGE);
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The number of clients being streamed to.
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return The number of frames encoded and handed to the clients.
+     */
+    public long getFramesPublished() {
+        return published.get();
+    }
+
+    /**
+     * @return The number of frames sent, counting each client separately.
+     */
+    public long getFramesSent() {
+        return sent.get();
+    }
+
+    /**
+     * @return The number of frames clients were too slow to send, counting each client separately.
+     */
+    public long getFramesDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The number of encoded frames that are still held by the server or a client.
+     */
+    public int getBuffersInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return The number of frame buffers ever made; they are reused once released.
+     */
+    public int getBuffersMade() {
+        return buffers.get();
+    }
+
+    /**
+     * Encodes the frame once and hands it to every client, dropping the
+     * frame each client still had waiting. Never waits for a client.
+     */
+    @Override
+    public void write(long index, PixelBuffer pixels) throws IOException {
+        if (closed) throw new IOException("Server closed");
+        Encoded frame = encode(pixels);
+        Encoded old;
+        synchronized (this) {
+            old = latest;
+            latest = frame; // the server's own reference
+            for (Client client : clients) {
+                client.offer(frame.retain());
+            }
+        }
+        if (old != null) old.release();
+        published.incrementAndGet();
+    }
+
+    /**
+     * Frames go out in the order they are written, so they must be written
+     * one at a time.
+     */
+    @Override
+    public boolean isSequential() {
+        return true;
+    }
+
+    /**
+     * Disconnects every client and stops serving.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Client client : clients) {
+            client.close();
+        }
+        server.stop(0);
+        threads.shutdownNow();
+        Encoded old;
+        synchronized (this) {
+            old = latest;
+            latest = null;
+        }
+        if (old != null) old.release();
+        writer.dispose();
+    }
+
+    /**
+     * Encodes a frame as a JPEG into a free buffer, holding one reference.
+     */
+    private Encoded encode(PixelBuffer pixels) throws IOException {
+        Encoded frame;
+        synchronized (free) {
+            frame = free.poll();
+        }
+        if (frame == null) {
+            frame = new Encoded();
+            buffers.incrementAndGet();
+        }
+        frame.length = 0;
+        frame.references.set(1);
+        inUse.incrementAndGet();
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(frame.output)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(pixels.getImage(), null, null), param);
+        } catch (IOException | RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        return frame;
+    }
+
+    /**
+     * Streams frames to one client until it goes away or the server closes.
+     */
+    private void stream(HttpExchange exchange) throws IOException {
+        Client client = new Client();
+        synchronized (this) {
+            if (latest != null) client.offer(latest.retain()); // something to show straight away
+            clients.add(client);
+        }
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (Encoded frame = client.take(); frame != null; frame = client.take()) {
+                try {
+                    out.write(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: " + frame.length + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.write(frame.bytes, 0, frame.length);
+                    out.write('\r');
+                    out.write('\n');
+                    out.flush();
+                } finally {
+                    frame.release();
+                }
+                sent.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // the client has gone
+        } finally {
+            clients.remove(client);
+            client.close();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends the newest frame, or 503 if there is none yet.
+     */
+    private void still(HttpExchange exchange) throws IOException {
+        Encoded frame;
+        synchronized (this) {
+            frame = latest == null ? null : latest.retain();
+        }
+        try {
+            if (frame == null) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, frame.length);
+            exchange.getResponseBody().write(frame.bytes, 0, frame.length);
+        } finally {
+            if (frame != null) frame.release();
+            exchange.close();
+        }
+    }
+
+    /**
+     * One encoded frame, shared by every client that has yet to send it.
+     */
+    private final class Encoded {
+        byte[] bytes = new byte[1 << 16];
+        int length;
+        final AtomicInteger references = new AtomicInteger();
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                grow(length + 1);
+                bytes[length++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                grow(length + len);
+                System.arraycopy(b, off, bytes, length, len);
+                length += len;
+            }
+        };
+
+        private void grow(int n) {
+            if (n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(n, bytes.length * 2));
+        }
+
+        /**
+         * @return This frame, with one more reference to it.
+         */
+        Encoded retain() {
+            references.incrementAndGet();
+            return this;
+        }
+
+        /**
+         * Drops a reference, and reuses the buffer once there are none.
+         */
+        void release() {
+            if (references.decrementAndGet() != 0) return;
+            inUse.decrementAndGet();
+            synchronized (free) {
+                free.push(this);
+            }
+        }
+    }
+
+    /**
+     * A connected client: the frame waiting to be sent to it, if any.
+     */
+    private final class Client {
+        private Encoded waiting;
+        private boolean gone;
+
+        /**
+         * Makes the frame the next one to send, dropping the one waiting.
+         */
+        synchronized void offer(Encoded frame) {
+            if (gone) {
+                frame.release();
+                return;
+            }
+            if (waiting != null) {
+                waiting.release();
+                dropped.incrementAndGet();
+            }
+            waiting = frame;
+            notifyAll();
+        }
+
+        /**
+         * @return The next frame to send, waiting for one; null once the client is closed.
+         */
+        synchronized Encoded take() {
+            while (waiting == null && !gone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            Encoded frame = waiting; // null once closed, since close() lets go of it
+            waiting = null;
+            return frame;
+        }
+
+        /**
+         * Lets go of the waiting frame and wakes the client's thread.
+         */
+        synchronized void close() {
+            gone = true;
+            if (waiting != null) {
+                waiting.release();
+                waiting = null;
+            }
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+  
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+  
+public class FrameServerTest {
+    FrameServer server;
+  
+    @Before
+    public void setUp() throws Exception {
+        server = new FrameServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0.9f);
+    }
+  
+    @After
+    public void tearDown() {
+        server.close();
+    }
+  
+    private URL stream() throws Exception {
+        return new URL("http://127.0.0.1:" + server.getPort() + "/stream");
+    }
+  
+    private void awaitClients(int n) throws InterruptedException {
+        for (int i = 0; i < 500 && server.getClientCount() != n; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(n, server.getClientCount());
+    }
+  
+    private static PixelBuffer solid(int rgb) {
+        PixelBuffer pixels = new PixelBuffer(160, 120);
+        pixels.clear(rgb);
+        return pixels;
+    }
+  
+    @Test
+    public void testEveryClientGetsTheFrames() throws Exception { // Two headless clients see the same frames, encoded once each.
+        server.write(0, solid(0xFF0000));
+        try (FrameClient first = new FrameClient(stream()); FrameClient second = new FrameClient(stream())) {
+            for (FrameClient client : new FrameClient[] { first, second }) {
+                BufferedImage image = client.next(); // the newest frame, sent on joining
+                assertEquals(160, image.getWidth());
+                assertEquals(120, image.getHeight());
+                assertTrue(((image.getRGB(80, 60) >> 16) & 0xFF) > 200);
+            }
+            awaitClients(2);
+            server.write(1, solid(0x0000FF));
+            for (FrameClient client : new FrameClient[] { first, second }) {
+                assertTrue((client.next().getRGB(80, 60) & 0xFF) > 200);
+            }
+        }
+        assertEquals(2, server.getFramesPublished());
+        assertEquals(4, server.getFramesSent());
+        assertTrue(server.getBuffersMade() <= 2);
+    }
+  
+    @Test
+    public void testSlowClientDropsFrames() throws Exception { // A client that never reads does not hold up writing, nor keep every frame.
+        Socket stalled = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        OutputStream request = stalled.getOutputStream();
+        request.write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        request.flush();
+        awaitClients(1);
+        PixelBuffer noise = new PixelBuffer(640, 480); // barely compresses, so the socket fills up fast
+        Random rand = new Random(1);
+        int[] pixels = noise.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = rand.nextInt(0x1000000);
+        }
+        for (int n = 0; n < 60; n++) {
+            server.write(n, noise);
+        }
+        assertTrue(server.getFramesDropped() > 0);
+        assertTrue(server.getBuffersMade() < 10);
+        stalled.close();
+        try (FrameClient client = new FrameClient(stream())) { // others are still served
+            assertNotNull(client.next());
+        }
+    }
+  
+    @Test
+    public void testBuffersReleased() throws Exception { // Once clients leave and the server closes, no frame is held.
+        try (FrameClient client = new FrameClient(stream())) {
+            awaitClients(1);
+            for (int n = 0; n < 5; n++) {
+                server.write(n, solid(0x00FF00));
+            }
+            assertNotNull(client.next());
+        }
+        for (int n = 5; n < 500 && server.getClientCount() > 0; n++) { // a client is found gone when sending to it fails
+            server.write(n, solid(0x00FF00));
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getClientCount());
+        assertEquals(1, server.getBuffersInUse()); // the newest frame, for clients that join
+        server.close();
+        assertEquals(0, server.getBuffersInUse());
+    }
+}
@@ -0,0 +1,27 @@
+package kaleidoscope;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A FrameSink stores rendered frames, for example as numbered image files.
+ * The FrameExporter calls write() from several encoder threads at once, so
+ * frames may arrive out of order unless the sink says otherwise.
+ */
+public interface FrameSink extends Closeable {
+
+    /**
+     * Stores one frame. The pixels must not be used after this returns.
+     *
+     * @param index The number of the frame, counting from 0.
+     * @param pixels The finished frame.
+     * @throws IOException If the frame could not be stored.
+     */
+    void write(long index, PixelBuffer pixels) throws IOException;
+
+    /**
+     * @return true if frames must be written one at a time in order, false
+     *         if write() may be called from several threads at once.
+     */
+    boolean isSequential();
+}
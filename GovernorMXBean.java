@@ -0,0 +1,53 @@
+package kaleidoscope;
+
+/**
+ * What the FrameGovernor shows through JMX under the name
+ * kaleidoscope:type=Governor: the quality it has chosen, why, and how
+ * often it has changed its mind. Times are in microseconds.
+ */
+public interface GovernorMXBean {
+
+    /** @return The current level, from 0 (full quality) up to the most degraded. */
+    int getLevel();
+
+    /** @return The highest level there is. */
+    int getMaxLevel();
+
+    /** @return The estimated work per frame as a fraction of the frame budget. */
+    double getLoad();
+
+    /** @return The time there is for each frame at the display's refresh rate. */
+    double getFrameBudgetMicros();
+
+    /** @return The average time of a step. */
+    double getTickMicros();
+
+    /** @return The average time of a paint. */
+    double getPaintMicros();
+
+    /** @return The width below which figures are drawn as squares, or 0. */
+    int getDetailSize();
+
+    /** @return How many reflections of each figure are drawn. */
+    int getReflections();
+
+    /** @return The view is painted on one frame in this many. */
+    int getPaintEvery();
+
+    /** @return The number of times quality was lowered. */
+    long getDegradeCount();
+
+    /** @return The number of times quality was raised. */
+    long getRestoreCount();
+
+    /** @return Frames on which the view was not painted to save time. */
+    long getSkippedPaintCount();
+
+    /** @return true if the governor may lower quality. */
+    boolean isEnabled();
+
+    /**
+     * @param enabled false to go back to full quality and stay there.
+     */
+    void setEnabled(boolean enabled);
+}
@@ -0,0 +1,82 @@
+package kaleidoscope;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The ImageSequenceSink writes every frame to a numbered file of its own
+ * in a directory: frame-000000.png, frame-000001.png, ... as PNG images, or
+ * frame-000000.rgba, ... as raw 8-bit RGBA pixels, row by row.
+ * Frames are written independently, so any number of threads may write.
+ */
+public class ImageSequenceSink implements FrameSink {
+
+    /** The file formats this sink can write. */
+    public enum Format { PNG, RGBA }
+
+    private final File directory;
+    private final Format format;
+    private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>();
+
+    /**
+     * @param directory Where to write the files; created if it does not exist.
+     * @param format The file format.
+     * @throws IOException If the directory could not be created.
+     */
+    public ImageSequenceSink(File directory, Format format) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+        this.format = format;
+    }
+
+    @Override
+    public void write(long index, PixelBuffer pixels) throws IOException {
+        String name = String.format("frame-%06d.%s", index, format.name().toLowerCase());
+        File file = new File(directory, name);
+        if (format == Format.PNG) {
+            if (!ImageIO.write(pixels.getImage(), "png", file)) throw new IOException("No PNG writer");
+            return;
+        }
+        ByteBuffer bytes = toRgba(pixels);
+        try (FileChannel out = new FileOutputStream(file).getChannel()) {
+            while (bytes.hasRemaining()) out.write(bytes);
+        }
+    }
+
+    /**
+     * Converts the frame to RGBA bytes in a buffer kept for this thread.
+     */
+    private ByteBuffer toRgba(PixelBuffer pixels) {
+        int n = pixels.getWidth() * pixels.getHeight();
+        ByteBuffer bytes = scratch.get();
+        if (bytes == null || bytes.capacity() < n * 4) {
+            bytes = ByteBuffer.allocateDirect(n * 4); // big-endian, so 0xRRGGBBAA is stored R, G, B, A
+            scratch.set(bytes);
+        }
+        bytes.clear();
+        IntBuffer ints = bytes.asIntBuffer();
+        int[] rgb = pixels.getPixels();
+        for (int i = 0; i < n; i++) {
+            ints.put(i, (rgb[i] << 8) | 0xFF);
+        }
+        bytes.limit(n * 4);
+        return bytes;
+    }
+
+    @Override
+    public boolean isSequential() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
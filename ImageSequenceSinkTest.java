@@ -0,0 +1,95 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+  
+import javax.imageio.ImageIO;
+  
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+  
+public class ImageSequenceSinkTest {
+    static final int WIDTH = 7, HEIGHT = 5;
+    Path root;
+  
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("kaleidoscope");
+    }
+  
+    @After
+    public void tearDown() throws Exception {
+        File[] dirs = root.toFile().listFiles();
+        for (File dir : dirs) {
+            for (File file : dir.listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(dir.toPath());
+        }
+        Files.delete(root);
+    }
+  
+    private static PixelBuffer frame(int index) {
+        PixelBuffer pixels = new PixelBuffer(WIDTH, HEIGHT);
+        int[] rgb = pixels.getPixels();
+        for (int p = 0; p < rgb.length; p++) {
+            rgb[p] = (index * 50 << 16) | (p * 7 << 8) | (200 - p);
+        }
+        return pixels;
+    }
+  
+    /**
+     * Writes frames 2, 0 and 1, in that order, and returns the file names made.
+     */
+    private String[] writeFrames(File dir, ImageSequenceSink.Format format) throws Exception {
+        ImageSequenceSink sink = new ImageSequenceSink(dir, format);
+        assertFalse(sink.isSequential());
+        for (int index : new int[] { 2, 0, 1 }) {
+            sink.write(index, frame(index));
+        }
+        sink.close();
+        String[] names = dir.list();
+        Arrays.sort(names);
+        return names;
+    }
+  
+    @Test
+    public void testPngFrames() throws Exception { // Each frame is a numbered PNG with the frame's pixels, in a directory made for them.
+        File dir = new File(root.toFile(), "png");
+        String[] names = writeFrames(dir, ImageSequenceSink.Format.PNG);
+        assertArrayEquals(new String[] { "frame-000000.png", "frame-000001.png", "frame-000002.png" }, names);
+        for (int i = 0; i < 3; i++) {
+            BufferedImage image = ImageIO.read(new File(dir, names[i]));
+            assertEquals(WIDTH, image.getWidth());
+            assertEquals(HEIGHT, image.getHeight());
+            int[] rgb = frame(i).getPixels();
+            for (int p = 0; p < rgb.length; p++) {
+                assertEquals(names[i] + " pixel " + p, rgb[p] & 0xFFFFFF, image.getRGB(p % WIDTH, p / WIDTH) & 0xFFFFFF);
+            }
+        }
+    }
+  
+    @Test
+    public void testRgbaFrames() throws Exception { // Each frame is a numbered file of R, G, B and opaque A bytes, row by row.
+        File dir = new File(root.toFile(), "rgba");
+        String[] names = writeFrames(dir, ImageSequenceSink.Format.RGBA);
+        assertArrayEquals(new String[] { "frame-000000.rgba", "frame-000001.rgba", "frame-000002.rgba" }, names);
+        for (int i = 0; i < 3; i++) {
+            byte[] bytes = Files.readAllBytes(new File(dir, names[i]).toPath());
+            assertEquals(WIDTH * HEIGHT * 4, bytes.length);
+            int[] rgb = frame(i).getPixels();
+            for (int p = 0; p < rgb.length; p++) {
+                assertEquals((byte) (rgb[p] >> 16), bytes[4 * p]);
+                assertEquals((byte) (rgb[p] >> 8), bytes[4 * p + 1]);
+                assertEquals((byte) rgb[p], bytes[4 * p + 2]);
+                assertEquals((byte) 0xFF, bytes[4 * p + 3]);
+            }
+        }
+    }
+}
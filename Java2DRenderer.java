@@ -0,0 +1,251 @@
+package kaleidoscope;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * The Java2DRenderer paints figures with the fill calls of java.awt.Graphics,
+ * one call for each of the 8 reflections of each figure, or for each copy
+ * of it in a Symmetry.
+ *
+ * Painting a frame allocates nothing once the renderer has seen every
+ * figure: triangles are filled from one reused pair of vertex arrays, and
+ * each figure's Color is kept and only replaced when its packed color
+ * changes. Because of that, a renderer must only paint on one thread at a time.
+ */
+public class Java2DRenderer implements Renderer {
+
+    private final int[] xPoints = new int[4]; // vertices of the triangle or turned square being filled
+    private final int[] yPoints = new int[4];
+    private Color[] colors = new Color[0];    // the last Color used for each figure
+    private final Rectangle clip = new Rectangle();
+    private volatile Quality quality = Quality.FULL;
+    private volatile Symmetry symmetry; // null for the classic reflections
+    private final Symmetry.Copies copies = new Symmetry.Copies();
+
+    @Override
+    public void setQuality(Quality quality) {
+        this.quality = quality;
+    }
+
+    @Override
+    public void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    /**
+     * Paints the background black and draws every figure in the frame.
+     * Figures with no reflection inside the clip of g are skipped.
+     * 
+     * @see Renderer#paint(Graphics, Frame, float, int, int)
+     */
+    @Override
+    public void paint(Graphics g, Frame f, float alpha, int width, int height) {
+        g.setColor(Color.BLACK); // Sets background to black
+        g.fillRect(0, 0, width, height);
+        int count = f.count();
+        if (colors.length < count) colors = Arrays.copyOf(colors, count);
+        clip.setBounds(0, 0, width, height);
+        g.getClipBounds(clip); // left as it is if there is no clip
+        Quality quality = this.quality;
+        Symmetry symmetry = this.symmetry;
+    	for (int i = 0; i < count; i++){ // Iterates through the frame and draws each figure on screen
+    		int x = f.xAt(i, alpha);
+    		int y = f.yAt(i, alpha);
+    		Shape shape = f.getShape(i);
+    		if (symmetry != null) {
+    			if (!copies.place(symmetry, shape, x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i], quality,
+    					clip.x, clip.y, clip.x + clip.width, clip.y + clip.height)) continue;
+    			g.setColor(colorOf(i, f.color[i]));
+    			drawCopies(g, shape, f.size[i], quality.simplifies(shape, f.size[i], f.offset[i]));
+    			continue;
+    		}
+    		if (!Reflections.touches(shape, x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i],
+    				clip.x, clip.y, clip.x + clip.width, clip.y + clip.height)) continue;
+    		g.setColor(colorOf(i, f.color[i])); // Sets color of model to be drawn based on randomly assigned color.
+    		if (!quality.isFull()) {
+    			drawReduced(g, x, y, f.originX[i], f.originY[i], shape, f.size[i], f.offset[i], quality);
+    		}
+    		else if (shape == Shape.POLYGON){ // Draws polygon objects.
+    			createPolygon(g, x, y, f.originX[i], f.originY[i], f.offset[i]);
+    		}
+    		else if (shape == Shape.CIRCLE){ // Draws circle objects.
+    			drawOval(g, x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i]);
+    		}
+    		else{ // Draws square objects.
+    			drawSquare(g, x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i]);
+    		}
+    	}
+    }
+    
+    /**
+     * Draws as much of a figure as the quality asks for: its first few
+     * reflections, as squares if it is small.
+     */
+    private void drawReduced(Graphics g, int x, int y, int originX, int originY, Shape shape, int size, int offset, Quality quality) {
+    	int dx = x - originX; // X location relative to origin
+    	int dy = y - originY; // Y location relative to origin
+    	boolean simplified = quality.simplifies(shape, size, offset);
+    	int extent = Reflections.extent(shape, size, offset);
+    	for (int k = 0; k < quality.getReflections(); k++) {
+    		int bx = Reflections.baseX(k, originX, dx, dy);
+    		int by = Reflections.baseY(k, originY, dx, dy);
+    		if (simplified) {
+    			g.fillRect(Reflections.boxLeft(k, bx, shape, size, offset), Reflections.boxTop(k, by, shape, size, offset), extent, extent);
+    		}
+    		else if (shape == Shape.POLYGON) {
+    			fillTriangle(g, bx, by, offset / 4, offset / 2, Reflections.signX(k), Reflections.signY(k));
+    		}
+    		else if (shape == Shape.CIRCLE) {
+    			g.fillOval(bx + Reflections.signX(k) * offset, by + Reflections.signY(k) * offset, size, size);
+    		}
+    		else {
+    			g.fillRect(bx + Reflections.signX(k) * offset, by + Reflections.signY(k) * offset, size, size);
+    		}
+    	}
+    }
+    
+    /**
+     * Draws the copies of a figure placed by a Symmetry: circles around
+     * their centers, triangles and turned squares between their corners,
+     * or just the box around each copy if the figure is simplified.
+     */
+    private void drawCopies(Graphics g, Shape shape, int size, boolean simplified) {
+    	for (int k = 0; k < copies.count; k++) {
+    		if (simplified) {
+    			int left = copies.boxLeft(k, size), top = copies.boxTop(k, size);
+    			g.fillRect(left, top, copies.boxRight(k, size) - left, copies.boxBottom(k, size) - top);
+    		}
+    		else if (shape == Shape.CIRCLE) {
+    			g.fillOval(copies.boxLeft(k, size), copies.boxTop(k, size), size, size);
+    		}
+    		else {
+    			int p = k * copies.corners;
+    			for (int j = 0; j < copies.corners; j++) {
+    				xPoints[j] = copies.x[p + j];
+    				yPoints[j] = copies.y[p + j];
+    			}
+    			g.fillPolygon(xPoints, yPoints, copies.corners);
+    		}
+    	}
+    }
+    
+    /**
+     * Returns the Color for figure i, making a new one only if the figure's
+     * color has changed since it was last painted.
+     *
+     * @param i The slot of the figure.
+     * @param rgb The figure's packed color.
+     * @return A Color with that value.
+     */
+    private Color colorOf(int i, int rgb) {
+        Color c = colors[i];
+        if (c == null || c.getRGB() != rgb) {
+            c = new Color(rgb, true);
+            colors[i] = c;
+        }
+        return c;
+    }
+
+    /**
+     * Draws an oval and its 8 reflections.
+     * Position of each model is based on offset from origin. 
+     * 
+     * @param g The Graphics on which to paint things.
+     * @param x The X position of the figure.
+     * @param y The Y position of the figure.
+     * @param originX The X origin the figure is reflected around.
+     * @param originY The Y origin the figure is reflected around.
+     * @param size The size of the figure.
+     * @param offset The figure's offset from the origin.
+     */
+    public void drawOval(Graphics g, int x, int y, int originX, int originY, int size, int offset){ // Draws Circle objects and its reflections.
+    	int dx = x - originX; // X location relative to origin
+    	int dy = y - originY; // Y location relative to origin
+    	g.fillOval(originX + dx + offset, originY + dy + offset, size, size);
+        g.fillOval(originX - dx - offset, originY - dy - offset, size, size);
+        g.fillOval(originX - dx - offset, originY + dy + offset, size, size);
+        g.fillOval(originX + dx + offset, originY - dy - offset, size, size);
+        
+    	g.fillOval(originX + dy + offset, originY + dx + offset, size, size);
+        g.fillOval(originX - dy - offset, originY - dx - offset, size, size);
+        g.fillOval(originX - dy - offset, originY + dx + offset, size, size);
+        g.fillOval(originX + dy + offset, originY - dx - offset, size, size);
+    }
+    
+    /**
+     * Draws an square and its 8 reflections.
+     * Position of each model is based on offset from origin. 
+     * 
+     * @param g The Graphics on which to paint things.
+     * @param x The X position of the figure.
+     * @param y The Y position of the figure.
+     * @param originX The X origin the figure is reflected around.
+     * @param originY The Y origin the figure is reflected around.
+     * @param size The size of the figure.
+     * @param offset The figure's offset from the origin.
+     */
+    public void drawSquare(Graphics g, int x, int y, int originX, int originY, int size, int offset){ // Draws Square objects and its reflections.
+    	int dx = x - originX; // X location relative to origin
+    	int dy = y - originY; // Y location relative to origin
+    	g.fillRect(originX + dx + offset, originY + dy + offset, size, size);
+        g.fillRect(originX - dx - offset, originY - dy - offset, size, size);
+        g.fillRect(originX - dx - offset, originY + dy + offset, size, size);
+        g.fillRect(originX + dx + offset, originY - dy - offset, size, size);
+        
+    	g.fillRect(originX + dy + offset, originY + dx + offset, size, size);
+        g.fillRect(originX - dy - offset, originY - dx - offset, size, size);
+        g.fillRect(originX - dy - offset, originY + dx + offset, size, size);
+        g.fillRect(originX + dy + offset, originY - dx - offset, size, size);
+    }
+
+    /**
+     * Draws an polygon (triangle) and its 8 reflections.
+     * Position of each model is based on offset from origin. 
+     * 
+     * @param g The Graphics on which to paint things.
+     * @param x The X position of the figure.
+     * @param y The Y position of the figure.
+     * @param originX The X origin the figure is reflected around.
+     * @param originY The Y origin the figure is reflected around.
+     * @param offset The figure's offset from the origin.
+     */
+    public void createPolygon(Graphics g, int x, int y, int originX, int originY, int offset){ // Draws Polygon objects and its reflections.
+    	int dx = x - originX; // X location relative to origin
+    	int dy = y - originY; // Y location relative to origin
+    	int quarter = offset / 4;
+    	int half = offset / 2;
+    	fillTriangle(g, originX + dx, originY + dy, quarter, half, 1, 1);
+    	fillTriangle(g, originX - dx, originY - dy, quarter, half, -1, -1);
+    	fillTriangle(g, originX - dx, originY + dy, quarter, half, -1, 1);
+    	fillTriangle(g, originX + dx, originY - dy, quarter, half, 1, -1);
+    	
+    	fillTriangle(g, originX + dy, originY + dx, quarter, half, 1, 1);
+    	fillTriangle(g, originX - dy, originY - dx, quarter, half, -1, -1);
+    	fillTriangle(g, originX - dy, originY + dx, quarter, half, -1, 1);
+    	fillTriangle(g, originX + dy, originY - dx, quarter, half, 1, -1);
+    }
+    
+    /**
+     * Draws one reflection of a polygon (triangle) with its corner at (x, y).
+     * 
+     * @param g The Graphics on which to paint things.
+     * @param x The X position of the corner.
+     * @param y The Y position of the corner.
+     * @param quarter A quarter of the figure's offset.
+     * @param half Half of the figure's offset.
+     * @param xSign 1 if the triangle points right, -1 if it points left.
+     * @param ySign 1 if the triangle points down, -1 if it points up.
+     */
+    private void fillTriangle(Graphics g, int x, int y, int quarter, int half, int xSign, int ySign) {
+    	xPoints[0] = x;
+    	xPoints[1] = x + xSign * quarter;
+    	xPoints[2] = x + xSign * half;
+    	yPoints[0] = y;
+    	yPoints[1] = y + ySign * half;
+    	yPoints[2] = y + ySign * quarter;
+    	g.fillPolygon(xPoints, yPoints, 3);
+    }
+}
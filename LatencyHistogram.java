@@ -0,0 +1,107 @@
+package kaleidoscope;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram counts durations in buckets that grow with the
+ * duration: one bucket per nanosecond up to 16 ns, then 8 buckets for every
+ * power of two, so every bucket is at most 1/8 as wide as the durations in
+ * it and percentiles come out within about 12%. Recording is one array
+ * increment, and nothing is allocated.
+ *
+ * Only one thread may record into a histogram, but any thread may read it
+ * at any time; readers may miss the last few durations recorded.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB_BUCKETS; // durations below this get a bucket each
+    private static final int BUCKETS = LINEAR + (63 - (SUB_BITS + 1)) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private volatile long count;
+    private volatile long total;
+    private volatile long max;
+
+    /**
+     * Counts one duration. Only call it from the one recording thread.
+     *
+     * @param nanos The duration in nanoseconds; negative values count as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int b = bucket(nanos);
+        counts.lazySet(b, counts.get(b) + 1);
+        total += nanos;
+        if (nanos > max) max = nanos;
+        count++;
+    }
+
+    /**
+     * @return The number of durations recorded.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The mean duration in nanoseconds, or 0 if none have been recorded.
+     */
+    public long getMean() {
+        long n = count;
+        return n == 0 ? 0 : total / n;
+    }
+
+    /**
+     * @return The longest duration in nanoseconds.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @param fraction The fraction of durations, from 0 to 1, that are to be
+     *                 no longer than the result: 0.5 for the median, 0.99
+     *                 for the 99th percentile.
+     * @return The upper end of the bucket holding that duration, in
+     *         nanoseconds, or 0 if none have been recorded.
+     */
+    public long getPercentile(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = counts.get(b);
+            n += snapshot[b];
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= rank) return Math.min(upperBound(b), max);
+        }
+        return max;
+    }
+
+    /**
+     * @return The bucket that a duration is counted in.
+     */
+    static int bucket(long nanos) {
+        if (nanos < LINEAR) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos); // at least SUB_BITS + 1
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return The longest duration counted in bucket b.
+     */
+    static long upperBound(int b) {
+        if (b < LINEAR) return b;
+        int exponent = (b - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+        long sub = (b - LINEAR) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
@@ -0,0 +1,274 @@
+package kaleidoscope;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The MappedVideoSink streams every frame into one raw video file:
+ * either YUV4MPEG2 (Y4M, 4:4:4, which ffmpeg and most encoders read) or
+ * headerless 8-bit RGBA, row by row.
+ *
+ * A regular file is written through memory-mapped regions, REGION_SIZE
+ * bytes each, mapped as the file grows. Every frame has the same size, so
+ * each frame's place in the file is known from its number, and several
+ * encoder threads can write frames at once. Pixels are converted row by row
+ * straight from the PixelBuffer's int[] into the mapping.
+ *
+ * If the path is not a regular file (for example a named pipe made with
+ * mkfifo, read by an encoder), frames are written in order through an
+ * ordinary channel instead, since pipes cannot be mapped. Opening a named
+ * pipe waits until a reader has opened the other end. Regular files are
+ * written that way too on Windows, which cannot cut a file down to the
+ * frames written while parts of it are still mapped.
+ */
+public class MappedVideoSink implements FrameSink {
+
+    /** The video formats this sink can write. */
+    public enum Format { Y4M, RGBA }
+
+    /** Size of each mapped region of the file. */
+    static final long REGION_SIZE = 64L << 20;
+
+    /** Whether the file may be mapped: Windows cannot truncate a mapped file. */
+    private static final boolean MAPPABLE = !System.getProperty("os.name", "").startsWith("Windows");
+
+    private static final byte[] FRAME_HEADER = "FRAME\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final byte[] header;
+    private final long frameSize;       // bytes per frame, including the Y4M frame header
+    private final long regionSize;
+    private final FileChannel channel;
+    private final boolean mapped;
+    private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+    private final ThreadLocal<byte[]> rows = new ThreadLocal<byte[]>();
+    private long frames;                // one more than the highest frame number written
+    private long streamed;              // frames written through the channel so far
+    private byte[] planes;              // one Y4M frame being written through the channel
+
+    /**
+     * Opens (creating or truncating) the output.
+     *
+     * @param path The file or named pipe to write to.
+     * @param format The video format.
+     * @param width The width of every frame in pixels.
+     * @param height The height of every frame in pixels.
+     * @param framesPerSecond The frame rate written in the Y4M header.
+     * @throws IOException If the output could not be opened.
+     */
+    public MappedVideoSink(Path path, Format format, int width, int height, int framesPerSecond) throws IOException {
+        this(path, format, width, height, framesPerSecond, MAPPABLE ? REGION_SIZE : 0);
+    }
+
+    /**
+     * Opens (creating or truncating) the output, mapping regions of the given size.
+     *
+     * @param regionSize The size of each mapped region, or 0 to write even
+     *                   a regular file in order through a channel.
+     */
+    MappedVideoSink(Path path, Format format, int width, int height, int framesPerSecond, long regionSize) throws IOException {
+        if (regionSize < 0 || regionSize > Integer.MAX_VALUE) throw new IllegalArgumentException("Bad region size: " + regionSize);
+        this.format = format;
+        this.regionSize = regionSize;
+        this.width = width;
+        this.height = height;
+        long pixels = (long) width * height;
+        if (format == Format.Y4M) {
+            header = String.format("YUV4MPEG2 W%d H%d F%d:1 Ip A1:1 C444\n", width, height, framesPerSecond)
+                    .getBytes(StandardCharsets.US_ASCII);
+            frameSize = FRAME_HEADER.length + pixels * 3;
+        }
+        else {
+            header = new byte[0];
+            frameSize = pixels * 4;
+        }
+        boolean regular = !Files.exists(path) || Files.isRegularFile(path);
+        mapped = regular && regionSize > 0;
+        if (mapped) {
+            RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            put(0, header, 0, header.length);
+        }
+        else if (regular) {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(ByteBuffer.wrap(header));
+        }
+        else {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            writeFully(ByteBuffer.wrap(header));
+        }
+    }
+
+    @Override
+    public boolean isSequential() {
+        return !mapped;
+    }
+
+    @Override
+    public void write(long index, PixelBuffer pixels) throws IOException {
+        if (pixels.getWidth() != width || pixels.getHeight() != height) {
+            throw new IOException("Frame is " + pixels.getWidth() + "x" + pixels.getHeight()
+                    + ", video is " + width + "x" + height);
+        }
+        if (mapped) {
+            writeMapped(index, pixels.getPixels());
+            synchronized (this) {
+                frames = Math.max(frames, index + 1);
+            }
+        }
+        else {
+            if (index != streamed) throw new IOException("Frame " + index + " out of order; expected " + streamed);
+            writeStreamed(pixels.getPixels());
+            streamed++;
+        }
+    }
+
+    /**
+     * Converts and copies one frame into its place in the mapped file.
+     */
+    private void writeMapped(long index, int[] rgb) throws IOException {
+        long position = header.length + index * frameSize;
+        byte[] row = rowScratch();
+        if (format == Format.RGBA) {
+            for (int y = 0; y < height; y++) {
+                rgbaRow(rgb, y, row);
+                put(position + (long) y * width * 4, row, 0, width * 4);
+            }
+            return;
+        }
+        put(position, FRAME_HEADER, 0, FRAME_HEADER.length);
+        long plane = (long) width * height;
+        long start = position + FRAME_HEADER.length;
+        for (int y = 0; y < height; y++) {
+            yuvRow(rgb, y, row);
+            long at = start + (long) y * width;
+            put(at, row, 0, width);
+            put(at + plane, row, width, width);
+            put(at + 2 * plane, row, 2 * width, width);
+        }
+    }
+
+    /**
+     * Converts and writes one frame to the pipe or file, a plane at a time for Y4M.
+     */
+    private void writeStreamed(int[] rgb) throws IOException {
+        byte[] row = rowScratch();
+        if (format == Format.RGBA) {
+            for (int y = 0; y < height; y++) {
+                rgbaRow(rgb, y, row);
+                writeFully(ByteBuffer.wrap(row, 0, width * 4));
+            }
+            return;
+        }
+        writeFully(ByteBuffer.wrap(FRAME_HEADER));
+        if (planes == null) planes = new byte[width * height * 3];
+        int plane = width * height;
+        for (int y = 0; y < height; y++) {
+            yuvRow(rgb, y, row);
+            System.arraycopy(row, 0, planes, y * width, width);
+            System.arraycopy(row, width, planes, plane + y * width, width);
+            System.arraycopy(row, 2 * width, planes, 2 * plane + y * width, width);
+        }
+        writeFully(ByteBuffer.wrap(planes));
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    private byte[] rowScratch() {
+        byte[] row = rows.get();
+        if (row == null) {
+            row = new byte[width * 4];
+            rows.set(row);
+        }
+        return row;
+    }
+
+    /**
+     * Converts row y of packed RGB ints to R, G, B, A bytes.
+     */
+    private void rgbaRow(int[] rgb, int y, byte[] row) {
+        int p = y * width;
+        for (int x = 0, b = 0; x < width; x++, p++) {
+            int c = rgb[p];
+            row[b++] = (byte) (c >> 16);
+            row[b++] = (byte) (c >> 8);
+            row[b++] = (byte) c;
+            row[b++] = (byte) 0xFF;
+        }
+    }
+
+    /**
+     * Converts row y of packed RGB ints to studio-range BT.601 Y, U and V,
+     * stored one after another in the row.
+     */
+    private void yuvRow(int[] rgb, int y, byte[] row) {
+        int p = y * width;
+        for (int x = 0; x < width; x++, p++) {
+            int c = rgb[p];
+            int r = (c >> 16) & 0xFF;
+            int g = (c >> 8) & 0xFF;
+            int b = c & 0xFF;
+            row[x] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+            row[width + x] = (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+            row[2 * width + x] = (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+        }
+    }
+
+    /**
+     * Copies bytes into the mapped file at the given position, mapping
+     * more of the file when needed. A copy may span two regions.
+     */
+    private void put(long position, byte[] src, int offset, int length) throws IOException {
+        while (length > 0) {
+            int r = (int) (position / regionSize);
+            int at = (int) (position % regionSize);
+            int n = (int) Math.min(length, regionSize - at);
+            region(r).put(at, src, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * @return Region r of the file, mapping it (and growing the file) the first time.
+     */
+    private synchronized MappedByteBuffer region(int r) throws IOException {
+        while (regions.size() <= r) {
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, regions.size() * regionSize, regionSize));
+        }
+        return regions.get(r);
+    }
+
+    /**
+     * Flushes the mapped regions and cuts the file down to the frames written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        try {
+            if (mapped) {
+                for (MappedByteBuffer region : regions) {
+                    region.force();
+                }
+                channel.truncate(header.length + frames * frameSize);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+  
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+  
+public class MappedVideoSinkTest {
+    static final int WIDTH = 20, HEIGHT = 10, FRAMES = 12;
+    static final String HEADER = "YUV4MPEG2 W20 H10 F30:1 Ip A1:1 C444\n";
+    Path path;
+  
+    @Before
+    public void setUp() throws Exception {
+        path = Files.createTempFile("kaleidoscope", ".y4m");
+    }
+  
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+  
+    private static PixelBuffer frame(int index) {
+        PixelBuffer pixels = new PixelBuffer(WIDTH, HEIGHT);
+        int[] rgb = pixels.getPixels();
+        for (int p = 0; p < rgb.length; p++) {
+            rgb[p] = (index * 40 << 16) | (p << 8) | (255 - index * 20);
+        }
+        return pixels;
+    }
+  
+    /**
+     * Writes every frame, out of order, from several threads at once.
+     */
+    private static void writeShuffled(final MappedVideoSink sink) throws Exception {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < FRAMES; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(3));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> written = new ArrayList<Future<?>>();
+            for (final int index : order) {
+                written.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        sink.write(index, frame(index));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : written) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        sink.close();
+    }
+  
+    @Test
+    public void testY4MLayoutAcrossRegions() throws Exception { // Frames written out of order across region boundaries land where a reader expects them.
+        int frameSize = 6 + WIDTH * HEIGHT * 3;
+        writeShuffled(new MappedVideoSink(path, MappedVideoSink.Format.Y4M, WIDTH, HEIGHT, 30, 1000)); // frames straddle the 1000-byte regions
+        byte[] video = Files.readAllBytes(path);
+        assertEquals(HEADER.length() + FRAMES * frameSize, video.length);
+        assertEquals(HEADER, new String(video, 0, HEADER.length(), StandardCharsets.US_ASCII));
+        for (int i = 0; i < FRAMES; i++) {
+            int start = HEADER.length() + i * frameSize;
+            assertEquals("FRAME\n", new String(video, start, 6, StandardCharsets.US_ASCII));
+            int[] rgb = frame(i).getPixels();
+            for (int p = 0; p < rgb.length; p++) {
+                int r = (rgb[p] >> 16) & 0xFF, g = (rgb[p] >> 8) & 0xFF, b = rgb[p] & 0xFF;
+                assertEquals("frame " + i + " pixel " + p, ((66 * r + 129 * g + 25 * b + 128) >> 8) + 16, video[start + 6 + p] & 0xFF);
+            }
+        }
+    }
+  
+    @Test
+    public void testMappedMatchesChannel() throws Exception { // Mapped regions and the plain channel write the same bytes, cut to the frames written.
+        Path streamed = Files.createTempFile("kaleidoscope", ".rgba");
+        try {
+            writeShuffled(new MappedVideoSink(path, MappedVideoSink.Format.RGBA, WIDTH, HEIGHT, 30, 4096));
+            MappedVideoSink sink = new MappedVideoSink(streamed, MappedVideoSink.Format.RGBA, WIDTH, HEIGHT, 30, 0);
+            assertTrue(sink.isSequential());
+            for (int i = 0; i < FRAMES; i++) {
+                sink.write(i, frame(i));
+            }
+            sink.close();
+            byte[] video = Files.readAllBytes(path);
+            assertEquals(FRAMES * WIDTH * HEIGHT * 4, video.length);
+            assertArrayEquals(Files.readAllBytes(streamed), video);
+            assertEquals((byte) 0xFF, video[3]); // alpha
+            assertEquals((byte) 215, video[4 * WIDTH * HEIGHT * 2 + 2]); // blue of frame 2
+        } finally {
+            Files.delete(streamed);
+        }
+    }
+}
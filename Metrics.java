@@ -0,0 +1,202 @@
+package kaleidoscope;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics counts what the simulation and the view do, and how long it
+ * takes: latency histograms for steps and paints, and counters for
+ * repaints, skipped frames and figures. Steps are recorded on the
+ * simulation thread and paints on the event dispatch thread, so each
+ * histogram has a single writer and recording never waits.
+ *
+ * Metrics are on unless -Dkaleidoscope.metrics=false is given; the
+ * Controller then makes no Metrics at all and every hook is one null
+ * check. The JFR events in Events are independent of this and cost next to
+ * nothing unless a recording is running.
+ */
+public class Metrics implements MetricsMXBean {
+
+    /** true unless metrics have been turned off with -Dkaleidoscope.metrics=false. */
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("kaleidoscope.metrics", "true"));
+
+    /** The name the metrics are registered under in JMX. */
+    public static final String OBJECT_NAME = "kaleidoscope:type=Metrics";
+
+    // Swapped for new ones by reset(); a duration recorded during the swap may be lost.
+    private volatile LatencyHistogram ticks = new LatencyHistogram();
+    private volatile LatencyHistogram paints = new LatencyHistogram();
+
+    private final AtomicLong partialPaints = new AtomicLong();
+    private final AtomicLong repaintRequests = new AtomicLong();
+    private final AtomicLong paintsDone = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final AtomicLong adds = new AtomicLong();
+    private final AtomicLong removes = new AtomicLong();
+    private volatile int figureCount;
+    private long lastPaintedTick = -1; // only used on the event dispatch thread
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @return true if they were registered.
+     */
+    public boolean register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            return true;
+        } catch (JMException e) {
+            System.err.println("Metrics not registered: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Records one step. Only called on the simulation thread.
+     *
+     * @param nanos How long the step took.
+     * @param figures The number of figures after it.
+     */
+    public void tick(long nanos, int figures) {
+        ticks.record(nanos);
+        figureCount = figures;
+    }
+
+    /**
+     * Records that the view has asked Swing to repaint, once per frame
+     * however many regions it asked for.
+     */
+    public void repaintRequested() {
+        repaintRequests.incrementAndGet();
+    }
+
+    /**
+     * Records one paint. Only called on the event dispatch thread.
+     *
+     * @param nanos How long the paint took.
+     * @param tick The step of the frame painted.
+     * @param partial true if only the regions that changed were redrawn.
+     */
+    public void paint(long nanos, long tick, boolean partial) {
+        paints.record(nanos);
+        paintsDone.incrementAndGet();
+        if (partial) partialPaints.incrementAndGet();
+        if (lastPaintedTick >= 0 && tick > lastPaintedTick + 1) {
+            skippedFrames.addAndGet(tick - lastPaintedTick - 1);
+        }
+        if (tick > lastPaintedTick) lastPaintedTick = tick;
+    }
+
+    /**
+     * Records that a figure was added.
+     *
+     * @param figures The number of figures after adding it.
+     */
+    public void added(int figures) {
+        adds.incrementAndGet();
+        figureCount = figures;
+    }
+
+    /**
+     * Records that a figure was removed.
+     *
+     * @param figures The number of figures after removing it.
+     */
+    public void removed(int figures) {
+        removes.incrementAndGet();
+        figureCount = figures;
+    }
+
+    @Override
+    public long getTickCount() {
+        return ticks.getCount();
+    }
+
+    @Override
+    public double getTickP50Micros() {
+        return ticks.getPercentile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getTickP99Micros() {
+        return ticks.getPercentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getTickMaxMicros() {
+        return ticks.getMax() / 1e3;
+    }
+
+    @Override
+    public long getPaintCount() {
+        return paints.getCount();
+    }
+
+    @Override
+    public double getPaintP50Micros() {
+        return paints.getPercentile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getPaintP99Micros() {
+        return paints.getPercentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getPaintMaxMicros() {
+        return paints.getMax() / 1e3;
+    }
+
+    @Override
+    public long getPartialPaintCount() {
+        return partialPaints.get();
+    }
+
+    @Override
+    public long getCoalescedRepaintCount() {
+        return Math.max(0, repaintRequests.get() - paintsDone.get());
+    }
+
+    @Override
+    public long getSkippedFrameCount() {
+        return skippedFrames.get();
+    }
+
+    @Override
+    public int getFigureCount() {
+        return figureCount;
+    }
+
+    @Override
+    public long getAddCount() {
+        return adds.get();
+    }
+
+    @Override
+    public long getRemoveCount() {
+        return removes.get();
+    }
+
+    @Override
+    public void reset() {
+        ticks = new LatencyHistogram();
+        paints = new LatencyHistogram();
+        partialPaints.set(0);
+        repaintRequests.set(0);
+        paintsDone.set(0);
+        skippedFrames.set(0);
+        adds.set(0);
+        removes.set(0);
+    }
+
+    /**
+     * @return A one-line summary, for the window title.
+     */
+    public String summary() {
+        return String.format("step p50 %.3f p99 %.3f ms, paint p50 %.3f p99 %.3f ms",
+                getTickP50Micros() / 1e3, getTickP99Micros() / 1e3, getPaintP50Micros() / 1e3, getPaintP99Micros() / 1e3);
+    }
+}
@@ -0,0 +1,56 @@
+package kaleidoscope;
+
+/**
+ * What Metrics shows through JMX, for example in JConsole or Mission
+ * Control, under the name kaleidoscope:type=Metrics. Times are in
+ * microseconds; percentiles are accurate to within about 12%.
+ */
+public interface MetricsMXBean {
+
+    /** @return The number of steps taken. */
+    long getTickCount();
+
+    /** @return The median time of a step, including collisions and color flashes. */
+    double getTickP50Micros();
+
+    /** @return The 99th percentile time of a step. */
+    double getTickP99Micros();
+
+    /** @return The longest step. */
+    double getTickMaxMicros();
+
+    /** @return The number of times the view was painted. */
+    long getPaintCount();
+
+    /** @return The median time of a paint, including copying it to the screen. */
+    double getPaintP50Micros();
+
+    /** @return The 99th percentile time of a paint. */
+    double getPaintP99Micros();
+
+    /** @return The longest paint. */
+    double getPaintMaxMicros();
+
+    /** @return The number of paints that only redrew the regions that changed. */
+    long getPartialPaintCount();
+
+    /** @return Repaints asked for that Swing merged into another paint. */
+    long getCoalescedRepaintCount();
+
+    /** @return Steps the simulation took whose figures were never painted. */
+    long getSkippedFrameCount();
+
+    /** @return The number of figures after the last step. */
+    int getFigureCount();
+
+    /** @return The number of figures added. */
+    long getAddCount();
+
+    /** @return The number of figures removed. */
+    long getRemoveCount();
+
+    /**
+     * Starts counting again from zero, for example before measuring a change.
+     */
+    void reset();
+}
@@ -0,0 +1,75 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.lang.management.ManagementFactory;
+  
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+  
+import org.junit.Test;
+  
+public class MetricsTest {
+  
+    @Test
+    public void testBucketsCoverEveryDuration() { // Every duration falls in a bucket whose upper end is at most 1/8 above it.
+        long[] durations = { 0, 1, 15, 16, 17, 31, 32, 1000, 999999, 123456789L, Long.MAX_VALUE / 3 };
+        for (long d : durations) {
+            int b = LatencyHistogram.bucket(d);
+            assertTrue(d + " above its bucket", d <= LatencyHistogram.upperBound(b));
+            assertTrue(d + " below its bucket", b == 0 || d > LatencyHistogram.upperBound(b - 1));
+            assertTrue(d + " in too wide a bucket", LatencyHistogram.upperBound(b) - d <= d / 8);
+        }
+    }
+  
+    @Test
+    public void testPercentiles() { // Percentiles of 1..1000 microseconds come out within the bucket error.
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1000; i >= 1; i--) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getMean());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500000, histogram.getPercentile(0.5), 500000 / 8);
+        assertEquals(990000, histogram.getPercentile(0.99), 990000 / 8);
+        assertEquals(1000000, histogram.getPercentile(1.0));
+        assertEquals(0, new LatencyHistogram().getPercentile(0.5));
+    }
+  
+    @Test
+    public void testCountsSkippedAndCoalescedFrames() { // Steps never painted, and repaints merged by Swing, are counted.
+        Metrics metrics = new Metrics();
+        for (int i = 0; i < 5; i++) {
+            metrics.repaintRequested();
+        }
+        metrics.paint(1000, 10, false);
+        metrics.paint(1000, 11, true);
+        metrics.paint(1000, 15, true); // steps 12-14 never painted
+        metrics.paint(1000, 15, true); // painted again, nothing skipped
+        assertEquals(3, metrics.getSkippedFrameCount());
+        assertEquals(1, metrics.getCoalescedRepaintCount());
+        assertEquals(3, metrics.getPartialPaintCount());
+        metrics.reset();
+        assertEquals(0, metrics.getPaintCount());
+        assertEquals(0, metrics.getSkippedFrameCount());
+    }
+  
+    @Test
+    public void testReadableThroughJmx() throws Exception { // The MBean shows what has been recorded.
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        Metrics metrics = new Metrics();
+        assertTrue(metrics.register());
+        try {
+            metrics.tick(2000000, 42);
+            metrics.added(43);
+            assertEquals(1L, server.getAttribute(name, "TickCount"));
+            assertEquals(43, server.getAttribute(name, "FigureCount"));
+            assertEquals(2000.0, (Double) server.getAttribute(name, "TickMaxMicros"), 0.001);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -1,10 +1,5 @@
 package kaleidoscope;
   
-import java.util.ArrayList;
-import java.util.Observable;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.Random;
 import java.awt.Color;
 import kaleidoscope.Shape;
   
@@ -15,28 +10,20 @@ import kaleidoscope.Shape;
  * which means that it can notifyObservers that something in the
  * model has changed, and they should take appropriate actions.
  * 
+ * The figure's state lives in one slot of a FigureBuffer; a Model only
+ * reads and writes that slot.
+ * 
  * @author David Matuszek
  * @author Lucas Tejwani
  * @author Yue Chen
  */
 public class Model {
       
-    private int size;
-    public int originX;
-    public int originY;
-    private int xPosition;
-    private int yPosition;
-    private int distanceFromOriginX;
-    private int distanceFromOriginY;
-    private int xLimit, yLimit;
-    private int xDelta;
-    private int yDelta;
-    private int offset;
-    private Random rand;
-    private Color color;
-    private Shape shape;
+    private final FigureBuffer figures;
+    private int index;
     /**
      * Sets the "walls" that the ball should bounce off from.
+     * The new Model gets a FigureBuffer of its own.
      * 
      * @param xLimit The position (in pixels) of the wall on the right.
      * @param yLimit The position (in pixels) of the floor.
@@ -44,20 +31,29 @@ public class Model {
      */
       
     public Model(int xLimit, int yLimit, Shape shape) {
-          
-        setLimits(xLimit, yLimit); // sets limit of window
-        setOrigin(); // sets origin of the window by calling setOrigin()
-          
-        this.rand = new Random();
-        this.size = rand.nextInt(70); // randomly selects a size for the circle and square Model objects
-        randomizeColor(); // randomly selects a color by calling randomizeColor()
-          
-        this.xDelta = 5 + rand.nextInt(10);  // randomly selects a 'speed' for horizontal movement between 5 and 15
-        this.yDelta =  3 + rand.nextInt(10); // randomly selects a 'speed' for vertical movement between 3 and 13
-  
-        int maxOffset = Math.min(xLimit, yLimit) - size;
-        this.offset = rand.nextInt(maxOffset / 2);
-        this.shape = shape;
+        this.figures = new FigureBuffer(1, Seeds.split());
+        this.index = figures.add(xLimit, yLimit, shape); // randomly selects size, color, speed and offset
+    }
+      
+    /**
+     * Makes a Model that reads and writes one slot of a FigureBuffer.
+     * 
+     * @param figures The FigureBuffer that holds the figure.
+     * @param index The slot of the figure in the buffer.
+     */
+    Model(FigureBuffer figures, int index) {
+        this.figures = figures;
+        this.index = index;
+    }
+      
+    /**
+     * Points this Model at another slot of the same FigureBuffer, so that one
+     * Model can be used to walk over every figure without allocating.
+     * 
+     * @param index The slot of the figure in the buffer.
+     */
+    void moveTo(int index) {
+        this.index = index;
     }
       
     /**
@@ -67,28 +63,35 @@ public class Model {
      * @param yLimit The position (in pixels) of the floor.
      */
     public void setLimits(int xLimit, int yLimit) {
-        this.xLimit = xLimit - size;
-        this.yLimit = yLimit - size;
-        xPosition = Math.min(xPosition, xLimit);
-        yPosition = Math.min(yPosition, yLimit);
+        figures.setLimits(index, xLimit, yLimit);
     }
       
     /**
      * Sets the origin of the window based on the size of the window.
      */
     public void setOrigin() {
-        this.originX = xLimit / 2;
-        this.originY = yLimit / 2;
+        figures.setOrigin(index);
+    }
+      
+    /**
+     * @return X coordinate of the origin.
+     */
+    public int getOriginX() {
+        return figures.originX[index];
+    }
+      
+    /**
+     * @return Y coordinate of the origin.
+     */
+    public int getOriginY() {
+        return figures.originY[index];
     }
       
     /**
      * Randomly generates a color and assigns it as an instance variable to each Model object.
      */
     public void randomizeColor() {
-        float redValue = rand.nextFloat(); // Generate a random float for redValue
-        float greenValue = rand.nextFloat(); // Generate a random float for greenValue
-        float blueValue = rand.nextFloat(); // Generate a random float for blueValue
-        color = new Color(redValue, greenValue, blueValue);
+        figures.randomizeColor(index);
     }
       
     /**
@@ -97,14 +100,21 @@ public class Model {
      * @param color The color to set the Model object.
      */
     public void setColor(Color color) {
-        this.color = color;
+        figures.color[index] = color.getRGB();
     }
       
     /**
      * @return The Model object's color.
      */
     public Color getColor() {
-        return color;
+        return new Color(figures.color[index], true);
+    }
+      
+    /**
+     * @return The Model object's color as a packed ARGB int.
+     */
+    public int getRGB() {
+        return figures.color[index];
     }
       
     /**
@@ -113,14 +123,14 @@ public class Model {
      * @param offset The offset to set the Model object's offset from origin.
      */
     public void setOffset(int offset) {
-        this.offset = offset;
+        figures.offset[index] = offset;
     }
       
     /**
      * @return The Model object's offset from the origin.
      */
     public int getOffset() {
-        return offset;
+        return figures.offset[index];
     }
       
     /**
@@ -129,21 +139,21 @@ public class Model {
      * @param size The size to set the Model object's size.
      */
     public void setSize(int size) {
-        this.size = size;
+        figures.size[index] = size;
     }
       
     /**
      * @return The Model object's size.
      */
     public int getSize() {
-        return size;
+        return figures.size[index];
     }
       
     /**
      * @return The Model object's shape.
      */
     public Shape getShape() {
-        return shape;
+        return figures.getShape(index);
     }
     
     /**
@@ -151,14 +161,15 @@ public class Model {
      * @param x The Model object's X position.
      */
     public void setX(int x) {
-        this.xPosition = x;
+        figures.x[index] = x;
+        figures.prevX[index] = x;
     }
     
     /**
      * @return The Model object's X position.
      */
     public int getX() {
-        return xPosition;
+        return figures.x[index];
     }
   
     /**
@@ -166,13 +177,14 @@ public class Model {
      * @param y The Model object's Y position.
      */
     public void setY(int y) {
-        this.yPosition = y;
+        figures.y[index] = y;
+        figures.prevY[index] = y;
     }
     /**
      * @return The Model object's Y position.
      */
     public int getY() {
-        return yPosition;
+        return figures.y[index];
     }
       
     /**
@@ -180,8 +192,7 @@ public class Model {
      * @return X location on screen - X origin.
      */
     public int getDistanceFromOriginX(){
-        distanceFromOriginX = getX() - originX;
-        return distanceFromOriginX;
+        return getX() - getOriginX();
     }
       
     /**
@@ -189,16 +200,18 @@ public class Model {
      * @return Y location on screen - Y origin.
      */
     public int getDistanceFromOriginY(){
-        distanceFromOriginY = getY() - originY;
-        return distanceFromOriginY;
+        return getY() - getOriginY();
     }
       
+    // The eight reflections of the position, from getOriginXPlusX() to
+    // getOriginYMinusX(). Nothing draws with them any more; the renderers
+    // use Reflections. They are kept because ModelTest checks them.
     /**
      * 
      * @return Origin X + X location relative to origin.
      */
     public int getOriginXPlusX(){
-        return this.originX + this.getDistanceFromOriginX();
+        return this.getOriginX() + this.getDistanceFromOriginX();
     }
       
     /**
@@ -206,7 +219,7 @@ public class Model {
      * @return Origin X - X location relative to origin.
      */
     public int getOriginXMinusX(){
-        return this.originX - this.getDistanceFromOriginX();
+        return this.getOriginX() - this.getDistanceFromOriginX();
     }
       
     /**
@@ -214,7 +227,7 @@ public class Model {
      * @return Origin Y + Y location relative to origin.
      */
     public int getOriginYPlusY(){
-        return this.originY + this.getDistanceFromOriginY();
+        return this.getOriginY() + this.getDistanceFromOriginY();
     }
       
     /**
@@ -222,7 +235,7 @@ public class Model {
      * @return Origin Y - Y location relative to origin.
      */
     public int getOriginYMinusY(){
-        return this.originY - this.getDistanceFromOriginY();
+        return this.getOriginY() - this.getDistanceFromOriginY();
     }
       
     /**
@@ -230,7 +243,7 @@ public class Model {
      * @return Origin X + Y location relative to origin.
      */
     public int getOriginXPlusY(){
-        return this.originX + this.getDistanceFromOriginY();
+        return this.getOriginX() + this.getDistanceFromOriginY();
     }
       
     /**
@@ -238,7 +251,7 @@ public class Model {
      * @return Origin X - Y location relative to origin.
      */
     public int getOriginXMinusY(){
-        return this.originX - this.getDistanceFromOriginY();
+        return this.getOriginX() - this.getDistanceFromOriginY();
     }
       
     /**
@@ -246,7 +259,7 @@ public class Model {
      * @return Origin Y + X location relative to origin.
      */
     public int getOriginYPlusX(){
-        return this.originY + this.getDistanceFromOriginX();
+        return this.getOriginY() + this.getDistanceFromOriginX();
     }
       
     /**
@@ -254,7 +267,7 @@ public class Model {
      * @return Origin Y - X location relative to origin.
      */
     public int getOriginYMinusX(){
-        return this.originY - this.getDistanceFromOriginX();
+        return this.getOriginY() - this.getDistanceFromOriginX();
     }
   
       
@@ -263,17 +276,7 @@ public class Model {
      * If it hits a wall, its direction of movement changes.
      */
     public void makeOneStep() {
-        // Do the work
-        xPosition += xDelta;
-        if (xPosition < 0 || xPosition >= xLimit) {
-            xDelta = -xDelta;
-            xPosition += xDelta;
-        }
-        yPosition += yDelta;
-        if (yPosition < 0 || yPosition >= yLimit) {
-            yDelta = -yDelta;
-            yPosition += yDelta;
-        }
+        figures.step(index, index + 1);
     }
   
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package kaleidoscope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelStepper advances every figure in a FigureBuffer one step,
+ * splitting the buffer into chunks that are stepped on a fork-join pool.
+ * Each figure only ever touches its own slot, so the result is exactly the
+ * same as stepping the figures one after another.
+ *
+ * Scenes with fewer figures than the threshold are stepped on the calling
+ * thread, since handing them to the pool costs more than it saves.
+ *
+ * The chunks themselves are stepped by a StepKernel, which is scalar unless
+ * the kaleidoscope.vector system property asks for the vectorized one.
+ */
+public class ParallelStepper {
+
+    /** Default smallest number of figures worth stepping in parallel. */
+    public static final int DEFAULT_THRESHOLD = Integer.getInteger("kaleidoscope.parallelThreshold", 20000);
+
+    /** Default number of figures stepped by one task. */
+    public static final int DEFAULT_CHUNK_SIZE = Integer.getInteger("kaleidoscope.chunkSize", 4096);
+
+    private final ForkJoinPool pool;
+    private volatile StepKernel kernel = StepKernel.fromSystemProperty();
+    private volatile int threshold;
+    private volatile int chunkSize;
+
+    private volatile long lastTickNanos;
+    private long totalTickNanos;
+    private long ticks;
+
+    /**
+     * Creates a stepper that uses the common fork-join pool and the default
+     * threshold and chunk size.
+     */
+    public ParallelStepper() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pool The pool that the chunks are stepped on.
+     * @param threshold The smallest number of figures that is stepped in parallel.
+     * @param chunkSize The number of figures stepped by one task.
+     */
+    public ParallelStepper(ForkJoinPool pool, int threshold, int chunkSize) {
+        this.pool = pool;
+        setThreshold(threshold);
+        setChunkSize(chunkSize);
+    }
+
+    /**
+     * @param kernel The kernel that steps each chunk.
+     */
+    public void setKernel(StepKernel kernel) {
+        if (kernel == null) throw new IllegalArgumentException("kernel must not be null");
+        this.kernel = kernel;
+    }
+
+    /**
+     * @return The kernel that steps each chunk.
+     */
+    public StepKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * @param threshold The smallest number of figures that is stepped in parallel.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+
+    /**
+     * @return The smallest number of figures that is stepped in parallel.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param chunkSize The number of figures stepped by one task.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return The number of figures stepped by one task.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Advances every figure in the buffer one step, and records how long it took.
+     *
+     * @param figures The figures to step.
+     */
+    public void step(FigureBuffer figures) {
+        long start = System.nanoTime();
+        int count = figures.count();
+        StepKernel kernel = this.kernel;
+        if (count < threshold || count <= chunkSize || pool.getParallelism() < 2) {
+            kernel.step(figures, 0, count);
+        }
+        else {
+            pool.invoke(new StepTask(kernel, figures, 0, count, chunkSize));
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            lastTickNanos = elapsed;
+            totalTickNanos += elapsed;
+            ticks++;
+        }
+    }
+
+    /**
+     * @return How long the last call to step() took, in nanoseconds.
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+
+    /**
+     * @return The average time a call to step() has taken, in nanoseconds.
+     */
+    public synchronized long getAverageTickNanos() {
+        return ticks == 0 ? 0 : totalTickNanos / ticks;
+    }
+
+    /**
+     * Forgets the recorded tick times.
+     */
+    public synchronized void resetStatistics() {
+        lastTickNanos = 0;
+        totalTickNanos = 0;
+        ticks = 0;
+    }
+
+    /**
+     * Steps a range of figures, splitting it in half until it is no bigger than one chunk.
+     */
+    private static class StepTask extends RecursiveAction {
+        private final StepKernel kernel;
+        private final FigureBuffer figures;
+        private final int from, to, chunkSize;
+
+        StepTask(StepKernel kernel, FigureBuffer figures, int from, int to, int chunkSize) {
+            this.kernel = kernel;
+            this.figures = figures;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                kernel.step(figures, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new StepTask(kernel, figures, from, middle, chunkSize),
+                      new StepTask(kernel, figures, middle, to, chunkSize));
+        }
+    }
+}
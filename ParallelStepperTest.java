@@ -0,0 +1,42 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.concurrent.ForkJoinPool;
+  
+import org.junit.Test;
+  
+public class ParallelStepperTest {
+  
+    @Test
+    public void testMatchesSerialStepping() { // Parallel stepping must give exactly the same positions and deltas.
+        FigureBuffer serial = FrameFixture.figures(3, 50000, 1000, 800);
+        FigureBuffer parallel = FrameFixture.figures(3, 50000, 1000, 800);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelStepper stepper = new ParallelStepper(pool, 0, 1000);
+            for (int tick = 0; tick < 200; tick++) {
+                serial.makeOneStep();
+                stepper.step(parallel);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < serial.count(); i++) {
+            assertEquals(serial.x[i], parallel.x[i]);
+            assertEquals(serial.y[i], parallel.y[i]);
+            assertEquals(serial.xDelta[i], parallel.xDelta[i]);
+            assertEquals(serial.yDelta[i], parallel.yDelta[i]);
+        }
+    }
+  
+    @Test
+    public void testRecordsTickTime() {
+        ParallelStepper stepper = new ParallelStepper();
+        stepper.step(FrameFixture.figures(1, 10, 1000, 800));
+        assertTrue(stepper.getLastTickNanos() > 0);
+        assertTrue(stepper.getAverageTickNanos() > 0);
+        stepper.resetStatistics();
+        assertEquals(0, stepper.getAverageTickNanos());
+    }
+}
@@ -0,0 +1,327 @@
+package kaleidoscope;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * A PixelBuffer is a BufferedImage whose pixels are written directly
+ * through its int[] raster, one packed RGB int per pixel, row by row.
+ * Its fill routines work one horizontal span at a time and clip to the
+ * clip rectangle, which is the whole image unless setClip() is called.
+ *
+ * Polygons (triangles) are filled with every pixel whose top-left corner
+ * lies inside or on the triangle. Unlike Java2D's pixel-center rule, this
+ * gives exactly mirrored pixels for mirrored triangles.
+ */
+public class PixelBuffer {
+
+    private BufferedImage image;
+    private int[] pixels;
+    private int width;
+    private int height;
+    private int clipLeft;   // the clip rectangle; right and bottom are exclusive
+    private int clipTop;
+    private int clipRight;
+    private int clipBottom;
+
+    /**
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     */
+    public PixelBuffer(int width, int height) {
+        allocate(Math.max(1, width), Math.max(1, height));
+    }
+
+    /**
+     * Makes the image the given size, replacing it only if the size changes.
+     *
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     */
+    public void setSize(int width, int height) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        if (width != this.width || height != this.height) allocate(width, height);
+    }
+
+    private void allocate(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        resetClip();
+    }
+
+    /**
+     * Makes this buffer draw into the same image as another one, with a
+     * clip rectangle of its own, so that several threads can each fill
+     * their own part of one image. The clip becomes the whole image.
+     *
+     * @param other The buffer whose image to draw into.
+     */
+    void share(PixelBuffer other) {
+        image = other.image;
+        pixels = other.pixels;
+        width = other.width;
+        height = other.height;
+        resetClip();
+    }
+
+    /**
+     * Limits every fill, including clear(), to part of the image.
+     *
+     * @param x The left edge of the clip rectangle.
+     * @param y The top edge of the clip rectangle.
+     * @param w The width of the clip rectangle.
+     * @param h The height of the clip rectangle.
+     */
+    public void setClip(int x, int y, int w, int h) {
+        clipLeft = Math.max(x, 0);
+        clipTop = Math.max(y, 0);
+        clipRight = Math.min(x + w, width);
+        clipBottom = Math.min(y + h, height);
+    }
+
+    /**
+     * Tells whether any reflection of figure i of a frame reaches into the
+     * clip rectangle; see Reflections.touches().
+     *
+     * @param f The frame holding the figure.
+     * @param i The slot of the figure.
+     * @param x The X position to draw the figure at.
+     * @param y The Y position to draw the figure at.
+     * @return true if drawing the figure may change a pixel.
+     */
+    public boolean touchesClip(Frame f, int i, int x, int y) {
+        return Reflections.touches(f.getShape(i), x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i],
+                clipLeft, clipTop, clipRight, clipBottom);
+    }
+
+    /**
+     * Places the copies of figure i of a frame in a symmetry, unless none
+     * of them reaches into the clip rectangle.
+     *
+     * @param copies Receives where the copies go.
+     * @param symmetry The symmetry the figure is drawn in.
+     * @param f The frame holding the figure.
+     * @param i The slot of the figure.
+     * @param x The X position to draw the figure at.
+     * @param y The Y position to draw the figure at.
+     * @param quality How many copies to place.
+     * @return true if drawing the figure may change a pixel.
+     */
+    boolean placeInClip(Symmetry.Copies copies, Symmetry symmetry, Frame f, int i, int x, int y, Quality quality) {
+        return copies.place(symmetry, f.getShape(i), x, y, f.originX[i], f.originY[i], f.size[i], f.offset[i], quality,
+                clipLeft, clipTop, clipRight, clipBottom);
+    }
+
+    /**
+     * Tells whether a rectangle lies wholly inside the clip rectangle, so
+     * that pixels in it can be written without clipping.
+     *
+     * @param left The left edge.
+     * @param top The top edge.
+     * @param right The right edge, exclusive.
+     * @param bottom The bottom edge, exclusive.
+     * @return true if every pixel of the rectangle is inside the clip.
+     */
+    public boolean clipContains(int left, int top, int right, int bottom) {
+        return left >= clipLeft && top >= clipTop && right <= clipRight && bottom <= clipBottom;
+    }
+
+    /**
+     * @return The left edge of the clip rectangle.
+     */
+    int getClipLeft() {
+        return clipLeft;
+    }
+
+    /**
+     * @return The top edge of the clip rectangle.
+     */
+    int getClipTop() {
+        return clipTop;
+    }
+
+    /**
+     * @return The right edge of the clip rectangle, exclusive.
+     */
+    int getClipRight() {
+        return clipRight;
+    }
+
+    /**
+     * @return The bottom edge of the clip rectangle, exclusive.
+     */
+    int getClipBottom() {
+        return clipBottom;
+    }
+
+    /**
+     * Lets fills reach the whole image again.
+     */
+    public void resetClip() {
+        setClip(0, 0, width, height);
+    }
+
+    /**
+     * @return The image that the pixels belong to.
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return The pixels, row by row, as packed RGB ints.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return The width of the image in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the image in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Fills the whole image, or the clip rectangle if one is set, with one color.
+     *
+     * @param rgb The color as a packed RGB int.
+     */
+    public void clear(int rgb) {
+        if (clipLeft == 0 && clipTop == 0 && clipRight == width && clipBottom == height) {
+            Arrays.fill(pixels, 0, width * height, rgb);
+            return;
+        }
+        for (int row = clipTop; row < clipBottom; row++) {
+            fillSpan(row, clipLeft, clipRight - 1, rgb);
+        }
+    }
+
+    /**
+     * Fills pixels x0 to x1 (inclusive) of row y, clipped to the clip rectangle.
+     *
+     * @param y The row.
+     * @param x0 The first pixel of the span.
+     * @param x1 The last pixel of the span.
+     * @param rgb The color as a packed RGB int.
+     */
+    public void fillSpan(int y, int x0, int x1, int rgb) {
+        if (y < clipTop || y >= clipBottom) return;
+        if (x0 < clipLeft) x0 = clipLeft;
+        if (x1 >= clipRight) x1 = clipRight - 1;
+        if (x0 > x1) return;
+        int row = y * width;
+        Arrays.fill(pixels, row + x0, row + x1 + 1, rgb);
+    }
+
+    /**
+     * Fills a rectangle the way Graphics.fillRect() does.
+     *
+     * @param x The left edge.
+     * @param y The top edge.
+     * @param w The width.
+     * @param h The height.
+     * @param rgb The color as a packed RGB int.
+     */
+    public void fillRect(int x, int y, int w, int h, int rgb) {
+        int y0 = Math.max(y, clipTop);
+        int y1 = Math.min(y + h, clipBottom);
+        for (int row = y0; row < y1; row++) {
+            fillSpan(row, x, x + w - 1, rgb);
+        }
+    }
+
+    /**
+     * Fills an oval inside the given rectangle, like Graphics.fillOval().
+     * A pixel is filled if its center is inside the oval.
+     *
+     * @param x The left edge of the bounding rectangle.
+     * @param y The top edge of the bounding rectangle.
+     * @param w The width of the bounding rectangle.
+     * @param h The height of the bounding rectangle.
+     * @param rgb The color as a packed RGB int.
+     */
+    public void fillOval(int x, int y, int w, int h, int rgb) {
+        if (w <= 0 || h <= 0) return;
+        double a = w / 2.0;
+        double b = h / 2.0;
+        int y0 = Math.max(y, clipTop);
+        int y1 = Math.min(y + h, clipBottom);
+        for (int row = y0; row < y1; row++) {
+            double dy = (row - y + 0.5 - b) / b;
+            double t = 1 - dy * dy;
+            if (t <= 0) continue;
+            double halfWidth = a * Math.sqrt(t);
+            // pixels whose centers lie between a - halfWidth and a + halfWidth
+            int start = (int) Math.ceil(a - halfWidth - 0.5);
+            int end = (int) Math.ceil(a + halfWidth - 0.5) - 1;
+            fillSpan(row, x + start, x + end, rgb);
+        }
+    }
+
+    /**
+     * Fills a triangle. A pixel is filled if its top-left corner lies inside
+     * or on the triangle, using exact integer arithmetic.
+     *
+     * @param x0 The X position of the first corner.
+     * @param y0 The Y position of the first corner.
+     * @param x1 The X position of the second corner.
+     * @param y1 The Y position of the second corner.
+     * @param x2 The X position of the third corner.
+     * @param y2 The Y position of the third corner.
+     * @param rgb The color as a packed RGB int.
+     */
+    public void fillTriangle(int x0, int y0, int x1, int y1, int x2, int y2, int rgb) {
+        int top = Math.max(Math.min(y0, Math.min(y1, y2)), clipTop);
+        int bottom = Math.min(Math.max(y0, Math.max(y1, y2)), clipBottom - 1);
+        for (int row = top; row <= bottom; row++) {
+            int left = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE;
+            // Where the row crosses each edge; the triangle covers everything between.
+            left = Math.min(left, edgeCeil(x0, y0, x1, y1, row));
+            right = Math.max(right, edgeFloor(x0, y0, x1, y1, row));
+            left = Math.min(left, edgeCeil(x1, y1, x2, y2, row));
+            right = Math.max(right, edgeFloor(x1, y1, x2, y2, row));
+            left = Math.min(left, edgeCeil(x2, y2, x0, y0, row));
+            right = Math.max(right, edgeFloor(x2, y2, x0, y0, row));
+            if (left <= right) fillSpan(row, left, right, rgb);
+        }
+    }
+
+    /**
+     * @return The smallest whole X at or right of where row y crosses the
+     *         edge, or Integer.MAX_VALUE if it does not cross it.
+     */
+    static int edgeCeil(int xa, int ya, int xb, int yb, int y) {
+        if (y < Math.min(ya, yb) || y > Math.max(ya, yb)) return Integer.MAX_VALUE;
+        if (ya == yb) return Math.min(xa, xb);
+        long num = (long) (y - ya) * (xb - xa);
+        long den = yb - ya;
+        if (den < 0) { num = -num; den = -den; }
+        return (int) (xa - Math.floorDiv(-num, den));
+    }
+
+    /**
+     * @return The largest whole X at or left of where row y crosses the
+     *         edge, or Integer.MIN_VALUE if it does not cross it.
+     */
+    static int edgeFloor(int xa, int ya, int xb, int yb, int y) {
+        if (y < Math.min(ya, yb) || y > Math.max(ya, yb)) return Integer.MIN_VALUE;
+        if (ya == yb) return Math.max(xa, xb);
+        long num = (long) (y - ya) * (xb - xa);
+        long den = yb - ya;
+        if (den < 0) { num = -num; den = -den; }
+        return (int) (xa + Math.floorDiv(num, den));
+    }
+}
@@ -0,0 +1,70 @@
+package kaleidoscope;
+
+/**
+ * A Quality says how much of each figure a Renderer draws: figures whose
+ * bounding box is narrower than the detail size are drawn as filled
+ * squares, which are much cheaper than ovals and triangles and look the
+ * same when they are only a few pixels across, and only the first few of
+ * the 8 reflections may be drawn. Reflections 0 to 3 mirror the figure
+ * across both axes, so drawing 4 keeps the picture symmetric.
+ *
+ * Qualities never change; the FrameGovernor picks a lower one when frames
+ * take too long and a higher one when they are fast again.
+ */
+public final class Quality {
+
+    /** Every figure in full, in all its reflections. */
+    public static final Quality FULL = new Quality(0, Reflections.COUNT);
+
+    private final int detailSize;
+    private final int reflections;
+
+    /**
+     * @param detailSize Figures whose bounding box is narrower than this, in
+     *                   pixels, are drawn as squares; 0 draws every figure in full.
+     * @param reflections How many reflections of each figure to draw, from 1 to 8.
+     */
+    public Quality(int detailSize, int reflections) {
+        if (reflections < 1 || reflections > Reflections.COUNT) {
+            throw new IllegalArgumentException("reflections must be 1 to " + Reflections.COUNT + ": " + reflections);
+        }
+        this.detailSize = Math.max(0, detailSize);
+        this.reflections = reflections;
+    }
+
+    /**
+     * @return The width below which figures are drawn as squares.
+     */
+    public int getDetailSize() {
+        return detailSize;
+    }
+
+    /**
+     * @return How many reflections of each figure are drawn.
+     */
+    public int getReflections() {
+        return reflections;
+    }
+
+    /**
+     * @return true if every figure is drawn in full, in all its reflections.
+     */
+    public boolean isFull() {
+        return detailSize == 0 && reflections == Reflections.COUNT;
+    }
+
+    /**
+     * @param shape The shape of the figure.
+     * @param size The figure's size.
+     * @param offset The figure's offset from the origin.
+     * @return true if the figure is to be drawn as a square filling its bounding box.
+     */
+    public boolean simplifies(Shape shape, int size, int offset) {
+        return Reflections.extent(shape, size, offset) < detailSize;
+    }
+
+    @Override
+    public String toString() {
+        return "Quality[detail " + detailSize + " px, " + reflections + " reflections]";
+    }
+}
@@ -0,0 +1,18 @@
+package kaleidoscope;
+
+/**
+ * A RasterRenderer draws frames straight into the pixels of a PixelBuffer,
+ * so that it can render off screen without going through a Graphics.
+ */
+public interface RasterRenderer extends Renderer {
+
+    /**
+     * Paints the background black and draws every figure in the frame.
+     *
+     * @param frame The figures to draw.
+     * @param alpha How far between their previous (0) and current (1)
+     *              positions to draw the figures.
+     * @param target Where to draw; its size is the size of the image.
+     */
+    void render(Frame frame, float alpha, PixelBuffer target);
+}
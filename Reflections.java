@@ -0,0 +1,138 @@
+package kaleidoscope;
+
+/**
+ * The Reflections class describes the 8 reflections that every figure is
+ * drawn in. Reflection k puts the corner of the figure at
+ * (baseX(k, ...), baseY(k, ...)) and points it in the direction
+ * (signX(k), signY(k)): circles and squares are drawn at the corner moved
+ * by the offset in that direction, and polygons (triangles) spread out from
+ * the corner in that direction.
+ *
+ * Reflections 0-3 mirror the figure's position across the two axes through
+ * the origin; reflections 4-7 do the same after swapping its X and Y
+ * distances from the origin.
+ */
+public final class Reflections {
+
+    /** Number of reflections of each figure. */
+    public static final int COUNT = 8;
+
+    private static final int[] SIGN_X = { 1, -1, -1, 1, 1, -1, -1, 1 };
+    private static final int[] SIGN_Y = { 1, -1, 1, -1, 1, -1, 1, -1 };
+
+    private Reflections() {}
+
+    /**
+     * @param k The reflection, from 0 to 7.
+     * @return 1 if reflection k points right, -1 if it points left.
+     */
+    public static int signX(int k) {
+        return SIGN_X[k];
+    }
+
+    /**
+     * @param k The reflection, from 0 to 7.
+     * @return 1 if reflection k points down, -1 if it points up.
+     */
+    public static int signY(int k) {
+        return SIGN_Y[k];
+    }
+
+    /**
+     * @param k The reflection, from 0 to 7.
+     * @return true if reflection k swaps the X and Y distances from the origin.
+     */
+    public static boolean swapsAxes(int k) {
+        return k >= 4;
+    }
+
+    /**
+     * @param k The reflection, from 0 to 7.
+     * @param originX The X origin the figure is reflected around.
+     * @param dx The figure's X position minus originX.
+     * @param dy The figure's Y position minus originY.
+     * @return The X position of the corner of reflection k.
+     */
+    public static int baseX(int k, int originX, int dx, int dy) {
+        return originX + SIGN_X[k] * (k >= 4 ? dy : dx);
+    }
+
+    /**
+     * @param k The reflection, from 0 to 7.
+     * @param originY The Y origin the figure is reflected around.
+     * @param dx The figure's X position minus originX.
+     * @param dy The figure's Y position minus originY.
+     * @return The Y position of the corner of reflection k.
+     */
+    public static int baseY(int k, int originY, int dx, int dy) {
+        return originY + SIGN_Y[k] * (k >= 4 ? dx : dy);
+    }
+
+    /**
+     * @param shape The shape of the figure.
+     * @param size The figure's size.
+     * @param offset The figure's offset from the origin.
+     * @return The width and height of the bounding box of each reflection.
+     */
+    public static int extent(Shape shape, int size, int offset) {
+        return shape == Shape.POLYGON ? offset / 2 : size;
+    }
+
+    /**
+     * @param k The reflection, from 0 to 7.
+     * @param baseX The X position of the corner of reflection k.
+     * @param shape The shape of the figure.
+     * @param size The figure's size.
+     * @param offset The figure's offset from the origin.
+     * @return The left edge of the bounding box of reflection k.
+     */
+    public static int boxLeft(int k, int baseX, Shape shape, int size, int offset) {
+        if (shape == Shape.POLYGON) return SIGN_X[k] > 0 ? baseX : baseX - offset / 2;
+        return baseX + SIGN_X[k] * offset;
+    }
+
+    /**
+     * @param k The reflection, from 0 to 7.
+     * @param baseY The Y position of the corner of reflection k.
+     * @param shape The shape of the figure.
+     * @param size The figure's size.
+     * @param offset The figure's offset from the origin.
+     * @return The top edge of the bounding box of reflection k.
+     */
+    public static int boxTop(int k, int baseY, Shape shape, int size, int offset) {
+        if (shape == Shape.POLYGON) return SIGN_Y[k] > 0 ? baseY : baseY - offset / 2;
+        return baseY + SIGN_Y[k] * offset;
+    }
+
+    /**
+     * Tells whether any reflection of a figure reaches into a rectangle, so
+     * that figures that do not can be skipped when only part of the screen
+     * is painted. A pixel of slack is allowed all round.
+     *
+     * @param shape The shape of the figure.
+     * @param x The X position the figure is drawn at.
+     * @param y The Y position the figure is drawn at.
+     * @param originX The X origin the figure is reflected around.
+     * @param originY The Y origin the figure is reflected around.
+     * @param size The figure's size.
+     * @param offset The figure's offset from the origin.
+     * @param left The left edge of the rectangle.
+     * @param top The top edge of the rectangle.
+     * @param right The right edge of the rectangle (exclusive).
+     * @param bottom The bottom edge of the rectangle (exclusive).
+     * @return true if some reflection may cover a pixel of the rectangle.
+     */
+    public static boolean touches(Shape shape, int x, int y, int originX, int originY, int size, int offset,
+                                  int left, int top, int right, int bottom) {
+        int dx = x - originX;
+        int dy = y - originY;
+        int extent = extent(shape, size, offset);
+        for (int k = 0; k < COUNT; k++) {
+            int boxLeft = boxLeft(k, baseX(k, originX, dx, dy), shape, size, offset);
+            int boxTop = boxTop(k, baseY(k, originY, dx, dy), shape, size, offset);
+            if (boxLeft - 1 < right && boxLeft + extent + 1 >= left
+                    && boxTop - 1 < bottom && boxTop + extent + 1 >= top) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+
+/**
+ * A Renderer paints a Frame of figures, each in its 8 reflections or in
+ * the copies of a Symmetry, on a black background.
+ */
+public interface Renderer {
+
+    /**
+     * Paints every figure in the frame.
+     *
+     * @param g The Graphics on which to paint things.
+     * @param frame The figures to paint.
+     * @param alpha How far between their previous (0) and current (1)
+     *              positions to draw the figures.
+     * @param width The width of the area to paint.
+     * @param height The height of the area to paint.
+     */
+    void paint(Graphics g, Frame frame, float alpha, int width, int height);
+
+    /**
+     * Chooses how much of each figure to draw from now on. Renderers that
+     * cannot draw less ignore it.
+     *
+     * @param quality The detail and number of reflections to draw.
+     */
+    default void setQuality(Quality quality) {
+    }
+
+    /**
+     * Chooses how many copies of each figure to draw from now on.
+     * Renderers that only draw the classic 8 reflections ignore it.
+     *
+     * @param symmetry The symmetry to draw figures in, or null for the
+     *                 classic 8 Reflections.
+     */
+    default void setSymmetry(Symmetry symmetry) {
+    }
+
+    /**
+     * Makes a renderer from its name.
+     *
+     * @param name "java2d", "batched", "software", "compositor" or "tiled", in any case.
+     * @return A new renderer of that kind.
+     */
+    static Renderer forName(String name) {
+        if ("java2d".equalsIgnoreCase(name)) return new Java2DRenderer();
+        if ("batched".equalsIgnoreCase(name)) return new BatchedRenderer();
+        if ("software".equalsIgnoreCase(name)) return new SoftwareRenderer();
+        if ("compositor".equalsIgnoreCase(name)) return new SymmetryCompositor();
+        if ("tiled".equalsIgnoreCase(name)) return new TiledRenderer();
+        throw new IllegalArgumentException("Unknown renderer: " + name);
+    }
+}
@@ -0,0 +1,187 @@
+package kaleidoscope;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A ReplayLog is a recording of everything the user did during a run,
+ * read back from the file a ReplayRecorder wrote. Together with the seed
+ * it holds, it determines every frame of the run, so the run can be played
+ * again without a window, as fast as the machine allows (see
+ * FrameExporter --replay).
+ *
+ * The file starts with MAGIC, VERSION and the 8-byte seed. Then comes one
+ * record per action: the number of steps since the previous action, the
+ * action's ordinal as a byte, and the action's arguments. Step counts and
+ * arguments are written as unsigned variable-length integers, 7 bits per
+ * byte, so most actions take 2 to 6 bytes.
+ *
+ * Version 2 added ADD_MANY and REMOVE_MANY, so that a CommandBatch adding
+ * or removing thousands of figures is one record; version 1 logs are
+ * still read.
+ */
+public class ReplayLog {
+
+    /**
+     * The things a user can do. Each is stamped with the step the
+     * simulation had reached when it took effect.
+     */
+    public enum Action {
+        /** Resumed the simulation. */
+        RUN(0),
+        /** Paused the simulation. */
+        STOP(0),
+        /** Changed the speed; argument: the period of a step in milliseconds. */
+        SPEED(1),
+        /** Added a figure; arguments: the wall on the right, the floor, the Shape ordinal. */
+        ADD(3),
+        /** Removed the last-added figure. */
+        REMOVE(0),
+        /** Turned color flashing on or off. */
+        FLASH(0),
+        /** Turned collisions between figures on or off. */
+        COLLIDE(0),
+        /** Resized the window; arguments: the wall on the right, the floor. */
+        RESIZE(2),
+        /** Added several figures of one shape at once; arguments: the wall on the right, the floor, the Shape ordinal, how many. */
+        ADD_MANY(4),
+        /** Removed several figures at once, last-added first; argument: how many. */
+        REMOVE_MANY(1);
+
+        private final int arguments;
+
+        Action(int arguments) {
+            this.arguments = arguments;
+        }
+
+        /**
+         * @return The number of arguments recorded with the action.
+         */
+        public int getArgumentCount() {
+            return arguments;
+        }
+    }
+
+    /** The first 4 bytes of every log: "KRPL". */
+    static final int MAGIC = 0x4B52504C;
+
+    /** The version of the format written by ReplayRecorder. */
+    static final int VERSION = 2;
+
+    /** The most arguments any action has. */
+    static final int MAX_ARGUMENTS = 4;
+
+    private static final Action[] ACTIONS = Action.values();
+
+    private final long seed;
+    private int size;
+    private long[] ticks = new long[16];
+    private Action[] actions = new Action[16];
+    private int[] arguments = new int[16 * MAX_ARGUMENTS];
+
+    private ReplayLog(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Reads a whole log into memory.
+     *
+     * @param path The file a ReplayRecorder wrote.
+     * @return The recorded actions.
+     * @throws IOException If the file could not be read or is not a replay log.
+     */
+    public static ReplayLog read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) throw new IOException(path + " is not a replay log");
+            int version = in.readUnsignedByte();
+            if (version < 1 || version > VERSION) throw new IOException(path + " has version " + version + ", expected 1 to " + VERSION);
+            ReplayLog log = new ReplayLog(in.readLong());
+            long tick = 0;
+            while (true) {
+                int first = in.read();
+                if (first < 0) break; // a log may end after any whole action
+                tick += readUnsigned(in, first);
+                int ordinal = in.readUnsignedByte();
+                if (ordinal >= ACTIONS.length) throw new IOException(path + ": unknown action " + ordinal);
+                Action action = ACTIONS[ordinal];
+                int e = log.append(tick, action);
+                for (int k = 0; k < action.getArgumentCount(); k++) {
+                    log.arguments[e * MAX_ARGUMENTS + k] = (int) readUnsigned(in, in.readUnsignedByte());
+                }
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Reads the rest of an unsigned variable-length integer.
+     *
+     * @param first Its first byte, already read.
+     */
+    private static long readUnsigned(InputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+            first = in.read();
+            if (first < 0) throw new EOFException();
+            if (shift > 63) throw new IOException("Variable-length integer too long");
+            value |= (long) (first & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private int append(long tick, Action action) {
+        if (size == ticks.length) {
+            ticks = Arrays.copyOf(ticks, size * 2);
+            actions = Arrays.copyOf(actions, size * 2);
+            arguments = Arrays.copyOf(arguments, size * 2 * MAX_ARGUMENTS);
+        }
+        ticks[size] = tick;
+        actions[size] = action;
+        return size++;
+    }
+
+    /**
+     * @return The seed the run was started with.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return The number of recorded actions.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param e The action, from 0 to size() - 1, in the order they were taken.
+     * @return The number of steps taken before it.
+     */
+    public long getTick(int e) {
+        return ticks[e];
+    }
+
+    /**
+     * @param e The action, from 0 to size() - 1, in the order they were taken.
+     * @return What was done.
+     */
+    public Action getAction(int e) {
+        return actions[e];
+    }
+
+    /**
+     * @param e The action, from 0 to size() - 1, in the order they were taken.
+     * @param k The argument, from 0 to getAction(e).getArgumentCount() - 1.
+     * @return The value of the argument.
+     */
+    public int getArgument(int e, int k) {
+        return arguments[e * MAX_ARGUMENTS + k];
+    }
+}
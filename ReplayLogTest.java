@@ -0,0 +1,186 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+  
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+  
+public class ReplayLogTest {
+    private Path path;
+  
+    @Before
+    public void setUp() throws Exception {
+        path = Files.createTempFile("kaleidoscope", ".krpl");
+    }
+  
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+  
+    private void recordRun() throws IOException {
+        try (ReplayRecorder recorder = new ReplayRecorder(new FileOutputStream(path.toFile()), 1234567890123L)) {
+            for (int i = 0; i < 6; i++) {
+                recorder.record(0, ReplayLog.Action.ADD, 1000, 800, i % 3);
+            }
+            recorder.record(0, ReplayLog.Action.RESIZE, 640, 480);
+            recorder.record(0, ReplayLog.Action.RUN);
+            recorder.record(3, ReplayLog.Action.SPEED, 25);
+            recorder.record(5, ReplayLog.Action.FLASH);
+            recorder.record(9, ReplayLog.Action.FLASH);
+            recorder.record(12, ReplayLog.Action.COLLIDE);
+            recorder.record(200, ReplayLog.Action.ADD, 640, 480, Shape.POLYGON.ordinal());
+            recorder.record(300, ReplayLog.Action.REMOVE);
+            recorder.record(300, ReplayLog.Action.STOP);
+        }
+    }
+  
+    @Test
+    public void testReadsBackWhatWasRecorded() throws Exception { // Every action comes back in order with its step and arguments.
+        recordRun();
+        ReplayLog log = ReplayLog.read(path);
+        assertEquals(1234567890123L, log.getSeed());
+        assertEquals(15, log.size());
+        assertEquals(ReplayLog.Action.ADD, log.getAction(2));
+        assertEquals(2, log.getArgument(2, 2));
+        assertEquals(ReplayLog.Action.RESIZE, log.getAction(6));
+        assertEquals(640, log.getArgument(6, 0));
+        assertEquals(480, log.getArgument(6, 1));
+        assertEquals(25, log.getArgument(8, 0));
+        assertEquals(200, log.getTick(12));
+        assertEquals(Shape.POLYGON.ordinal(), log.getArgument(12, 2));
+        assertEquals(ReplayLog.Action.STOP, log.getAction(14));
+        assertEquals(300, log.getTick(14));
+        assertTrue(Files.size(path) < 100); // 13-byte header, then a few bytes per action
+    }
+  
+    @Test
+    public void testRejectsStepsGoingBack() throws Exception { // Actions must be recorded in the order they took effect.
+        try (ReplayRecorder recorder = new ReplayRecorder(new FileOutputStream(path.toFile()), 1)) {
+            recorder.record(10, ReplayLog.Action.RUN);
+            recorder.record(9, ReplayLog.Action.STOP);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+  
+    @Test
+    public void testReadsVersionOne() throws Exception { // Logs written before counted actions still play back.
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(path.toFile()))) {
+            out.writeInt(ReplayLog.MAGIC);
+            out.writeByte(1);
+            out.writeLong(42);
+            out.write(new byte[] { 7, (byte) ReplayLog.Action.FLASH.ordinal() });
+        }
+        ReplayLog log = ReplayLog.read(path);
+        assertEquals(42, log.getSeed());
+        assertEquals(1, log.size());
+        assertEquals(7, log.getTick(0));
+    }
+  
+    @Test
+    public void testCountedActionsReplayAsSingleOnes() throws Exception { // Adding or removing n figures at once shows the same frames as doing it n times.
+        Path counted = Files.createTempFile("kaleidoscope", ".krpl");
+        try {
+            try (ReplayRecorder recorder = new ReplayRecorder(new FileOutputStream(path.toFile()), 7)) {
+                for (int i = 0; i < 20; i++) {
+                    recorder.record(0, ReplayLog.Action.ADD, 640, 480, Shape.SQUARE.ordinal());
+                }
+                for (int i = 0; i < 5; i++) {
+                    recorder.record(30, ReplayLog.Action.REMOVE);
+                }
+            }
+            try (ReplayRecorder recorder = new ReplayRecorder(new FileOutputStream(counted.toFile()), 7)) {
+                recorder.beginBatch();
+                recorder.record(0, ReplayLog.Action.ADD_MANY, 640, 480, Shape.SQUARE.ordinal(), 20);
+                recorder.endBatch();
+                recorder.record(30, ReplayLog.Action.REMOVE_MANY, 5);
+            }
+            ReplayLog many = ReplayLog.read(counted);
+            assertEquals(2, many.size());
+            assertEquals(20, many.getArgument(0, 3));
+            ChecksumSink single = new ChecksumSink(60);
+            ChecksumSink batched = new ChecksumSink(60);
+            new FrameExporter(640, 480, ReplayLog.read(path), new SymmetryCompositor()).run(60, single, 1);
+            new FrameExporter(640, 480, many, new SymmetryCompositor()).run(60, batched, 1);
+            assertArrayEquals(single.sums, batched.sums);
+        } finally {
+            Files.delete(counted);
+        }
+    }
+  
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws Exception { // Anything but a replay log is refused.
+        Files.write(path, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 });
+        ReplayLog.read(path);
+    }
+  
+    /**
+     * Remembers a checksum of every frame it is given.
+     */
+    private static class ChecksumSink implements FrameSink {
+        final int[] sums;
+  
+        ChecksumSink(int frames) {
+            sums = new int[frames];
+        }
+  
+        @Override
+        public void write(long index, PixelBuffer pixels) {
+            sums[(int) index] = Arrays.hashCode(pixels.getPixels());
+        }
+  
+        @Override
+        public boolean isSequential() {
+            return false;
+        }
+  
+        @Override
+        public void close() {
+        }
+    }
+  
+    @Test
+    public void testReplayGivesSameFrames() throws Exception { // Playing a log back twice must give the same frames, whatever the number of encoders.
+        recordRun();
+        ReplayLog log = ReplayLog.read(path);
+        ChecksumSink first = new ChecksumSink(320);
+        ChecksumSink second = new ChecksumSink(320);
+        new FrameExporter(640, 480, log, new SymmetryCompositor()).run(320, first, 3);
+        new FrameExporter(640, 480, log, new SymmetryCompositor()).run(320, second, 1);
+        assertArrayEquals(first.sums, second.sums);
+        assertFalse(first.sums[0] == first.sums[1]);
+    }
+  
+    @Test
+    public void testStartingLaterGivesSameFrames() throws Exception { // Jumping to a step must show what stepping to it shows.
+        try (ReplayRecorder recorder = new ReplayRecorder(new FileOutputStream(path.toFile()), 99)) {
+            for (int i = 0; i < 30; i++) {
+                recorder.record(0, ReplayLog.Action.ADD, 640, 480, i % 3);
+            }
+            recorder.record(0, ReplayLog.Action.RESIZE, 640, 480);
+            recorder.record(40, ReplayLog.Action.FLASH);
+            recorder.record(43, ReplayLog.Action.FLASH);
+            recorder.record(150, ReplayLog.Action.RESIZE, 500, 400);
+            recorder.record(900, ReplayLog.Action.ADD, 500, 400, Shape.CIRCLE.ordinal());
+            recorder.record(1500, ReplayLog.Action.REMOVE);
+        }
+        ReplayLog log = ReplayLog.read(path);
+        ChecksumSink all = new ChecksumSink(1600);
+        ChecksumSink later = new ChecksumSink(100);
+        new FrameExporter(640, 480, log, new SymmetryCompositor()).run(1600, all, 1);
+        FrameExporter exporter = new FrameExporter(640, 480, log, new SymmetryCompositor());
+        exporter.setStart(1450);
+        exporter.run(100, later, 1);
+        assertArrayEquals(Arrays.copyOfRange(all.sums, 1450, 1550), later.sums);
+    }
+}
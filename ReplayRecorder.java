@@ -0,0 +1,96 @@
+package kaleidoscope;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The ReplayRecorder writes a ReplayLog: the seed of a run, then every
+ * action of the user, stamped with the step at which it took effect. It
+ * should be called on the simulation thread, where the actions take
+ * effect, so that the steps are exact.
+ *
+ * Each action is flushed as soon as it is recorded, so a run that ends
+ * with System.exit() still leaves a complete log. Commands from other
+ * programs come much faster than clicks, so the actions of a whole
+ * CommandBatch are recorded between beginBatch() and endBatch() and
+ * flushed once at the end.
+ */
+public class ReplayRecorder implements Closeable {
+
+    private final DataOutputStream out;
+    private long lastTick;
+    private int batches; // beginBatch() calls not yet ended
+
+    /**
+     * Writes the header of a log.
+     *
+     * @param out Where to write the log. It is closed by close().
+     * @param seed The seed the run was started with.
+     * @throws IOException If the header could not be written.
+     */
+    public ReplayRecorder(OutputStream out, long seed) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(ReplayLog.MAGIC);
+        this.out.writeByte(ReplayLog.VERSION);
+        this.out.writeLong(seed);
+        this.out.flush();
+    }
+
+    /**
+     * Records an action.
+     *
+     * @param tick The number of steps taken before the action; never less
+     *             than that of the previous action.
+     * @param action What was done.
+     * @param arguments Its arguments; there must be exactly
+     *                  action.getArgumentCount() of them, none negative.
+     * @throws IOException If the action could not be written.
+     */
+    public synchronized void record(long tick, ReplayLog.Action action, int... arguments) throws IOException {
+        if (tick < lastTick) throw new IllegalArgumentException("Step " + tick + " is before step " + lastTick);
+        if (arguments.length != action.getArgumentCount()) {
+            throw new IllegalArgumentException(action + " takes " + action.getArgumentCount() + " arguments");
+        }
+        writeUnsigned(tick - lastTick);
+        out.writeByte(action.ordinal());
+        for (int argument : arguments) {
+            if (argument < 0) throw new IllegalArgumentException("Negative argument for " + action + ": " + argument);
+            writeUnsigned(argument);
+        }
+        if (batches == 0) out.flush();
+        lastTick = tick;
+    }
+
+    /**
+     * Holds back flushing until the matching endBatch().
+     */
+    public synchronized void beginBatch() {
+        batches++;
+    }
+
+    /**
+     * Flushes what was recorded since the matching beginBatch().
+     *
+     * @throws IOException If it could not be written.
+     */
+    public synchronized void endBatch() throws IOException {
+        if (batches == 0) throw new IllegalStateException("No batch begun");
+        if (--batches == 0) out.flush();
+    }
+
+    private void writeUnsigned(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,30 @@
+package kaleidoscope;
+
+import java.util.SplittableRandom;
+
+/**
+ * Seeds is the root of every random number generator in the program.
+ * Generators are split off one SplittableRandom, seeded from the
+ * kaleidoscope.seed system property if it is set and from the clock if
+ * not, so a run started with the same seed (and the same actions, see
+ * ReplayLog) makes the same figures in the same colors.
+ *
+ * SplittableRandom is not thread-safe, but it is not synchronized either:
+ * each generator split off here belongs to whichever thread uses it.
+ */
+public final class Seeds {
+
+    /** The seed of this run. */
+    public static final long SEED = Long.getLong("kaleidoscope.seed", System.nanoTime() ^ System.currentTimeMillis());
+
+    private static final SplittableRandom ROOT = new SplittableRandom(SEED);
+
+    private Seeds() {}
+
+    /**
+     * @return A new generator, independent of every other one split off so far.
+     */
+    public static synchronized SplittableRandom split() {
+        return ROOT.split();
+    }
+}
@@ -0,0 +1,576 @@
+package kaleidoscope;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Session is one kaleidoscope without a window: its figures, their
+ * speed and switches, the batches of commands waiting for it and the
+ * newest frame of it. The Controller shows one Session, stepped by a
+ * SimulationLoop; a SessionHost steps thousands of them on a few threads.
+ *
+ * Only one thread at a time may step a Session or change it (the
+ * methods marked "stepping thread"), and each must see what the last one
+ * did; a SimulationLoop, or a SessionHost's pool, makes sure of that.
+ * Other threads change it with batches offered to getCommands(), which
+ * tick() makes before stepping, and draw it with render(), which uses the
+ * newest published frame and so never waits for a step.
+ *
+ * When a ReplayRecorder is set, every change is recorded, stamped with
+ * the step it was made at, so that FrameExporter --replay can play the
+ * session back.
+ */
+public class Session implements CommandQueue.Target {
+
+    private static final Shape[] SHAPES = Shape.values();
+
+    private final FigureBuffer figures;
+    private final ParallelStepper stepper;
+    private final CollisionGrid collisions = new CollisionGrid();
+    private final CommandQueue commands;
+    private final FrameExchange frames = new FrameExchange();
+    private ReplayRecorder recorder;
+    private Metrics metrics;
+    private volatile boolean running = true;
+    private volatile boolean flashOn;
+    private volatile boolean collideOn;
+    private volatile int period = 50; // of one step, in milliseconds
+    private volatile long steps;
+    private volatile boolean failed;
+    private int wallX; // where added figures bounce
+    private int wallY;
+
+    // Per-session metrics; recorded by the stepping thread, read by anyone.
+    private final LatencyHistogram stepTimes = new LatencyHistogram();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong droppedSteps = new AtomicLong();
+    private long sampledSteps; // as of the last sample(); only used by the sampling thread
+    private long sampledRenders;
+    private volatile double stepRate;
+    private volatile double renderRate;
+
+    /**
+     * @param figures The figures; the session keeps them.
+     * @param stepper What steps them.
+     * @param width Where the wall on the right of added figures is.
+     * @param height Where the floor of added figures is.
+     * @param commandCapacity The most batches of commands waiting at once.
+     */
+    public Session(FigureBuffer figures, ParallelStepper stepper, int width, int height, int commandCapacity) {
+        this.figures = figures;
+        this.stepper = stepper;
+        this.wallX = width;
+        this.wallY = height;
+        this.commands = new CommandQueue(commandCapacity);
+    }
+
+    /**
+     * Adds figures inside the current walls, in the shapes the Add Figure
+     * button gives them (see nextShape()). Stepping thread.
+     *
+     * @param count How many to add.
+     */
+    public void populate(int count) {
+        figures.ensureCapacity(figures.count() + count);
+        for (int i = 0; i < count; i++) {
+            add(wallX, wallY, nextShape(figures.count()));
+        }
+    }
+
+    /**
+     * @param i How many figures there are.
+     * @return The shape the next figure gets: a polygon (triangle) when i
+     *         is a multiple of 5, else a circle when i is even, else a square.
+     */
+    public static Shape nextShape(int i) {
+        if (i % 5 == 0) return Shape.POLYGON;
+        return i % 2 == 0 ? Shape.CIRCLE : Shape.SQUARE;
+    }
+
+    /**
+     * @param recorder Where to record every change, or null to stop recording.
+     */
+    public void setRecorder(ReplayRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @param metrics Where to count added and removed figures, or null.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Makes the batches of commands that are waiting, then takes a step
+     * unless paused, and publishes the figures. Stepping thread.
+     */
+    public void tick() {
+        boolean changed = commands.drain(this, steps) > 0;
+        if (running) {
+            step();
+            changed = true;
+        }
+        if (changed) publish();
+    }
+
+    /**
+     * Gives up on the session after tick() has thrown: every batch of
+     * commands waiting for it, and every one offered later, is
+     * acknowledged as FAILED. It may still be rendered. Stepping thread.
+     */
+    public void fail() {
+        failed = true;
+        commands.close();
+    }
+
+    /**
+     * @return true once fail() has been called.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Moves every figure one step, bounces them off each other if
+     * colliding, and flashes their colors if flashing. Stepping thread.
+     *
+     * @return How long it took, in nanoseconds.
+     */
+    public long step() {
+        long start = System.nanoTime();
+        figures.savePositions();
+        stepper.step(figures);
+        if (collideOn) collisions.collide(figures);
+        if (flashOn) figures.randomizeColors();
+        steps++;
+        long nanos = System.nanoTime() - start;
+        stepTimes.record(nanos);
+        return nanos;
+    }
+
+    /**
+     * Moves every figure to where the given number of steps would take it,
+     * without taking them one by one (see FigureBuffer.advance()). Only
+     * for figures that neither flash nor collide. Stepping thread.
+     *
+     * @param count How many steps to jump ahead.
+     */
+    public void advance(long count) {
+        if (count <= 0) return;
+        figures.advance(count);
+        steps += count;
+    }
+
+    /**
+     * Hands a copy of the figures to render(). Stepping thread.
+     */
+    public void publish() {
+        frames.publish(figures, steps);
+    }
+
+    /**
+     * Draws the newest published frame. May be called on any thread, by
+     * one thread at a time.
+     *
+     * @param renderer What draws it; owned by the caller.
+     * @param target Where to draw it.
+     * @return The step the frame shows.
+     */
+    public synchronized long render(RasterRenderer renderer, PixelBuffer target) {
+        Frame frame = frames.latest(); // empty until the first publish()
+        renderer.render(frame, 1f, target);
+        renders.incrementAndGet();
+        return frame.tick();
+    }
+
+    /**
+     * Adds a figure. Stepping thread.
+     *
+     * @param xLimit The position (in pixels) of the wall on the right.
+     * @param yLimit The position (in pixels) of the floor.
+     * @param shape The type of shape of the new figure.
+     */
+    public void add(int xLimit, int yLimit, Shape shape) {
+        figures.add(xLimit, yLimit, shape);
+        edited(true);
+        record(ReplayLog.Action.ADD, xLimit, yLimit, shape.ordinal());
+    }
+
+    /**
+     * Adds figures, recorded as one action. Stepping thread.
+     *
+     * @param xLimit The position (in pixels) of the wall on the right.
+     * @param yLimit The position (in pixels) of the floor.
+     * @param shape The type of shape of the new figures.
+     * @param count How many to add.
+     */
+    public void add(int xLimit, int yLimit, Shape shape, int count) {
+        figures.ensureCapacity(figures.count() + count);
+        for (int k = 0; k < count; k++) {
+            figures.add(xLimit, yLimit, shape);
+            edited(true);
+        }
+        if (count == 1) record(ReplayLog.Action.ADD, xLimit, yLimit, shape.ordinal());
+        else if (count > 1) record(ReplayLog.Action.ADD_MANY, xLimit, yLimit, shape.ordinal(), count);
+    }
+
+    /**
+     * Removes the last-added figures, recorded as one action. The last
+     * figure stays, as with the Remove Figure button. Stepping thread.
+     *
+     * @param count How many to remove.
+     * @return How many were removed.
+     */
+    public int remove(int count) {
+        int removed = 0;
+        for (; removed < count && figures.count() > 1; removed++) {
+            figures.removeLast();
+            edited(false);
+        }
+        if (removed == 1) record(ReplayLog.Action.REMOVE);
+        else if (removed > 1) record(ReplayLog.Action.REMOVE_MANY, removed);
+        return removed;
+    }
+
+    /**
+     * Removes the last-added figure. Stepping thread.
+     */
+    public void removeLast() {
+        figures.removeLast();
+        edited(false);
+        record(ReplayLog.Action.REMOVE);
+    }
+
+    /**
+     * Gives every figure new walls, as when the window is resized. Stepping thread.
+     *
+     * @param width The position (in pixels) of the wall on the right.
+     * @param height The position (in pixels) of the floor.
+     */
+    public void setLimits(int width, int height) {
+        figures.setLimits(width, height);
+        wallX = width;
+        wallY = height;
+        record(ReplayLog.Action.RESIZE, width, height);
+    }
+
+    /**
+     * Turns color flashing on or off. Stepping thread.
+     */
+    public void toggleFlash() {
+        flashOn = !flashOn;
+        record(ReplayLog.Action.FLASH);
+    }
+
+    /**
+     * Turns collisions between figures on or off. Stepping thread.
+     */
+    public void toggleCollide() {
+        collideOn = !collideOn;
+        record(ReplayLog.Action.COLLIDE);
+    }
+
+    /**
+     * Sets the speed. Stepping thread.
+     *
+     * @param period The period of one step in milliseconds.
+     */
+    public void setPeriod(int period) {
+        this.period = period;
+        record(ReplayLog.Action.SPEED, period);
+    }
+
+    /**
+     * Pauses or resumes stepping; tick() still makes commands while paused.
+     * Stepping thread.
+     *
+     * @param running true to step.
+     */
+    public void setRunning(boolean running) {
+        this.running = running;
+        record(running ? ReplayLog.Action.RUN : ReplayLog.Action.STOP);
+    }
+
+    /**
+     * Makes a batch of commands. Stepping thread. Each command is recorded
+     * as one action, however many figures it adds or removes, and the
+     * recording is flushed once for the whole batch. The only check that can
+     * refuse a batch is made before any of it is made; an ADD adds all its
+     * figures however close the walls are.
+     *
+     * @return The number of figures after it.
+     * @throws IllegalArgumentException If it could leave more than
+     *                                  CommandBatch.MAX_FIGURES figures.
+     */
+    @Override
+    public int apply(CommandBatch batch) {
+        if (figures.count() + batch.getAddedCount() > CommandBatch.MAX_FIGURES) { // checked before anything is made
+            throw new IllegalArgumentException("More than " + CommandBatch.MAX_FIGURES + " figures");
+        }
+        ReplayRecorder recording = recorder;
+        if (recording != null) recording.beginBatch();
+        try {
+            for (int c = 0; c < batch.size(); c++) {
+                apply(batch.getOp(c), batch.getFirst(c), batch.getSecond(c));
+            }
+        } finally {
+            if (recording != null) endBatch(recording);
+        }
+        batches.incrementAndGet();
+        return figures.count();
+    }
+
+    /**
+     * Makes one command of a batch.
+     */
+    private void apply(CommandBatch.Op op, int a, int b) {
+        switch (op) {
+        case ADD:
+            add(wallX, wallY, SHAPES[b], a);
+            break;
+        case REMOVE:
+            remove(a);
+            break;
+        case SPEED:
+            setPeriod(a);
+            break;
+        case FLASH:
+            if ((a == 1) != flashOn) toggleFlash();
+            break;
+        case COLLIDE:
+            if ((a == 1) != collideOn) toggleCollide();
+            break;
+        }
+    }
+
+    /**
+     * Flushes what a batch recorded, unless recording has stopped since.
+     */
+    private void endBatch(ReplayRecorder recording) {
+        if (recording != recorder) return;
+        try {
+            recording.endBatch();
+        } catch (IOException e) {
+            System.err.println("Stopped recording: " + e);
+            recorder = null;
+        }
+    }
+
+    /**
+     * Saves every figure, the speed and the switches. Stepping thread.
+     *
+     * @param path The file to write.
+     * @throws IOException If it could not be written.
+     */
+    public void save(Path path) throws IOException {
+        new Snapshot(period, flashOn, collideOn).save(path, figures);
+    }
+
+    /**
+     * Replaces every figure, the speed and the switches with those of a
+     * Snapshot. A loaded scene cannot be replayed, so recording stops.
+     * Stepping thread.
+     *
+     * @param path A file written by save().
+     * @return What was loaded.
+     * @throws IOException If it could not be read.
+     */
+    public Snapshot load(Path path) throws IOException {
+        Snapshot snapshot = Snapshot.load(path, figures);
+        flashOn = snapshot.isFlashOn();
+        collideOn = snapshot.isCollideOn();
+        period = Math.max(5, Math.min(100, snapshot.getTimerSpeed()));
+        if (recorder != null) {
+            System.err.println("Stopped recording: a loaded scene cannot be replayed");
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                // the log is flushed after every action, so nothing is lost
+            }
+            recorder = null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Records a change stamped with the current step, if recording.
+     * Stepping thread.
+     *
+     * @param action What was done.
+     * @param arguments The arguments of the action.
+     */
+    public void record(ReplayLog.Action action, int... arguments) {
+        if (recorder == null) return;
+        try {
+            recorder.record(steps, action, arguments);
+        } catch (IOException e) {
+            System.err.println("Stopped recording: " + e);
+            recorder = null;
+        }
+    }
+
+    /**
+     * Reports a figure added or removed to JFR and the metrics.
+     *
+     * @param added true if a figure was added, false if one was removed.
+     */
+    private void edited(boolean added) {
+        Events.FigureEdit event = new Events.FigureEdit();
+        if (event.shouldCommit()) {
+            event.added = added;
+            event.figures = figures.count();
+            event.commit();
+        }
+        if (metrics == null) return;
+        if (added) metrics.added(figures.count());
+        else metrics.removed(figures.count());
+    }
+
+    /**
+     * Records how late a step started, and how many steps were given up
+     * on to catch up. Called by a SessionHost on the stepping thread.
+     */
+    void late(long nanos, long dropped) {
+        lateness.record(nanos);
+        if (dropped > 0) droppedSteps.addAndGet(dropped);
+    }
+
+    /**
+     * Works out the step and render rates since the last call. Called by
+     * one thread, about once a second.
+     *
+     * @param seconds The time since the last call.
+     */
+    void sample(double seconds) {
+        long steps = this.steps, renders = this.renders.get();
+        stepRate = (steps - sampledSteps) / seconds;
+        renderRate = (renders - sampledRenders) / seconds;
+        sampledSteps = steps;
+        sampledRenders = renders;
+    }
+
+    /**
+     * @return A one-line summary of the session's throughput and timing.
+     */
+    public String summary() {
+        return String.format("%d steps, %.1f steps/s, %.1f renders/s, step p99 %.3f ms, late p99 %.3f ms, %d dropped",
+                steps, stepRate, renderRate, stepTimes.getPercentile(0.99) / 1e6, lateness.getPercentile(0.99) / 1e6,
+                droppedSteps.get());
+    }
+
+    /**
+     * @return The queue that batches of commands can be offered to from any thread.
+     */
+    public CommandQueue getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return The newest frames, for a single painting thread.
+     */
+    public FrameExchange getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The figures. Only read or change them on the stepping thread.
+     */
+    public FigureBuffer getFigures() {
+        return figures;
+    }
+
+    /**
+     * @return What steps the figures.
+     */
+    public ParallelStepper getStepper() {
+        return stepper;
+    }
+
+    /**
+     * @return The number of steps taken.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return The period of one step in milliseconds.
+     */
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return true unless paused.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return true if colors are flashing.
+     */
+    public boolean isFlashOn() {
+        return flashOn;
+    }
+
+    /**
+     * @return true if figures are colliding.
+     */
+    public boolean isCollideOn() {
+        return collideOn;
+    }
+
+    /**
+     * @return How long steps take.
+     */
+    public LatencyHistogram getStepTimes() {
+        return stepTimes;
+    }
+
+    /**
+     * @return How late steps started, when stepped by a SessionHost.
+     */
+    public LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    /**
+     * @return The number of batches of commands made.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return The number of frames rendered.
+     */
+    public long getRenderCount() {
+        return renders.get();
+    }
+
+    /**
+     * @return Steps per second when a SessionHost last sampled it.
+     */
+    public double getStepRate() {
+        return stepRate;
+    }
+
+    /**
+     * @return Frames rendered per second when a SessionHost last sampled it.
+     */
+    public double getRenderRate() {
+        return renderRate;
+    }
+
+    /**
+     * @return The number of steps given up on because the session fell too far behind.
+     */
+    public long getDroppedStepCount() {
+        return droppedSteps.get();
+    }
+}
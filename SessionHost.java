@@ -0,0 +1,328 @@
+package kaleidoscope;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The SessionHost steps thousands of Sessions in one JVM, without a
+ * window or a thread for each. Every session's next step is a task on one
+ * shared TimingWheel; when it is due, the wheel hands it to a small pool
+ * of threads, which makes the session's waiting commands, steps it,
+ * publishes it and schedules its next step one period after the last
+ * deadline. A session is only ever on the wheel or on one thread, so it
+ * is stepped by one thread at a time. Consumers draw a session whenever
+ * they like with Session.render().
+ *
+ * A session that falls behind steps again straight away until it has
+ * caught up; one more than MAX_CATCH_UP_STEPS behind gives up on the
+ * backlog instead, as the SimulationLoop does. A session whose tick()
+ * throws is logged and closed, and fails every batch sent to it from
+ * then on; the other sessions go on.
+ *
+ * Usage: java kaleidoscope.SessionHost [SESSIONS] [FIGURES] [SECONDS] [THREADS]
+ *
+ * hosts 1000 (or SESSIONS) sessions of 10 (or FIGURES) figures each for
+ * 10 (or SECONDS) seconds on one thread per core (or THREADS), rendering
+ * one of them at a time, and prints the host's throughput every second.
+ */
+public class SessionHost implements Closeable, SessionHostMXBean {
+
+    /** The name the host is registered under in JMX. */
+    public static final String OBJECT_NAME = "kaleidoscope:type=SessionHost";
+
+    /** Most steps a session may be behind before it gives up catching up. */
+    static final int MAX_CATCH_UP_STEPS = 25;
+
+    /** Length of one tick of the timing wheel: 1 ms. */
+    static final long TICK_NANOS = 1000000L;
+
+    /** Buckets of the timing wheel, enough for the slowest speed without a second turn. */
+    static final int WHEEL_SIZE = 256;
+
+    /** Batches of commands that may wait for each session. */
+    static final int COMMAND_CAPACITY = 16;
+
+    private static final long SAMPLE_NANOS = 1000000000L;
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final TimingWheel wheel;
+    private final Map<Session, Ticker> tickers = new ConcurrentHashMap<Session, Ticker>();
+    private volatile boolean closed;
+
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder lateSteps = new LongAdder();
+    private final LongAdder droppedSteps = new LongAdder();
+    private final AtomicLong maxLateness = new AtomicLong();
+    private volatile double stepRate;
+    private volatile double renderRate;
+    private volatile long batches;
+
+    /**
+     * Starts a host.
+     *
+     * @param threads The number of threads sessions are stepped on.
+     */
+    public SessionHost(int threads) {
+        this.threads = threads;
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int n = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "kaleidoscope-session-" + n++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        wheel = new TimingWheel(TICK_NANOS, WHEEL_SIZE, pool);
+        wheel.schedule(new Sampler(), System.nanoTime() + SAMPLE_NANOS);
+    }
+
+    /**
+     * Registers the host with the platform MBean server.
+     *
+     * @return true if it was registered.
+     */
+    public boolean register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            return true;
+        } catch (JMException e) {
+            System.err.println("Session host not registered: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Opens a session and starts stepping it, one period from now.
+     *
+     * @param figureCount The number of figures to start with.
+     * @param seed The seed for their sizes, speeds, offsets and colors.
+     * @param width Where the wall on the right is.
+     * @param height Where the floor is.
+     * @return The session.
+     */
+    public Session open(int figureCount, long seed, int width, int height) {
+        Session session = new Session(new FigureBuffer(figureCount, seed), new ParallelStepper(), width, height,
+                COMMAND_CAPACITY);
+        session.populate(figureCount);
+        return open(session);
+    }
+
+    /**
+     * Starts stepping a session made elsewhere, one period from now.
+     *
+     * @param session The session; no other thread may step it from now on.
+     * @return The session.
+     */
+    public Session open(Session session) {
+        if (closed) throw new IllegalStateException("Host closed");
+        session.publish();
+        Ticker ticker = new Ticker(session);
+        tickers.put(session, ticker);
+        wheel.schedule(ticker, System.nanoTime() + session.getPeriod() * 1000000L);
+        return session;
+    }
+
+    /**
+     * Stops stepping a session. It may still be rendered.
+     *
+     * @param session A session opened by this host.
+     */
+    public void close(Session session) {
+        Ticker ticker = tickers.remove(session);
+        if (ticker != null) ticker.cancel();
+    }
+
+    /**
+     * Stops stepping every session.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        wheel.stop();
+        pool.shutdownNow();
+        tickers.clear();
+    }
+
+    /**
+     * @param timeout How long to wait at most.
+     * @param unit The unit of timeout.
+     * @return true if every step under way has finished.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public int getSessionCount() {
+        return tickers.size();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return threads;
+    }
+
+    @Override
+    public long getStepCount() {
+        return steps.sum();
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return stepRate;
+    }
+
+    @Override
+    public double getRendersPerSecond() {
+        return renderRate;
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batches;
+    }
+
+    @Override
+    public long getLateStepCount() {
+        return lateSteps.sum();
+    }
+
+    @Override
+    public double getMaxLatenessMicros() {
+        return maxLateness.get() / 1e3;
+    }
+
+    @Override
+    public long getDroppedStepCount() {
+        return droppedSteps.sum();
+    }
+
+    /**
+     * @return A one-line summary of the host's throughput.
+     */
+    public String summary() {
+        return String.format("%d sessions, %.0f steps/s, %.0f renders/s, %d late, max late %.1f ms, %d dropped",
+                getSessionCount(), stepRate, renderRate, getLateStepCount(), getMaxLatenessMicros() / 1e3,
+                getDroppedStepCount());
+    }
+
+    /**
+     * Steps one session when it is due, and schedules its next step.
+     */
+    private class Ticker extends TimingWheel.Task {
+        final Session session;
+
+        Ticker(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            long late = start - getDeadline();
+            long before = session.getSteps();
+            long period = session.getPeriod() * 1000000L;
+            try {
+                session.tick();
+            } catch (RuntimeException | Error e) {
+                System.err.println("Closed a session that failed to step:");
+                e.printStackTrace();
+                tickers.remove(session);
+                session.fail();
+                if (e instanceof Error) throw e;
+                return;
+            }
+            long next = getDeadline() + period;
+            long dropped = 0;
+            long behind = System.nanoTime() - next;
+            if (behind > MAX_CATCH_UP_STEPS * period) { // too far behind; drop the backlog rather than fall further behind
+                dropped = behind / period;
+                next += dropped * period;
+            }
+            session.late(late, dropped);
+            steps.add(session.getSteps() - before);
+            if (late >= period) lateSteps.increment();
+            if (dropped > 0) droppedSteps.add(dropped);
+            for (long max = maxLateness.get(); late > max && !maxLateness.compareAndSet(max, late); max = maxLateness.get()) {
+                // another thread raised it; look again
+            }
+            if (!cancelled && !closed) wheel.schedule(this, next);
+        }
+    }
+
+    /**
+     * Works out the rates of the host and of every session once a second.
+     */
+    private class Sampler extends TimingWheel.Task {
+        private long sampledSteps;
+        private long sampledAt = System.nanoTime();
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            double seconds = (now - sampledAt) / 1e9;
+            long total = steps.sum();
+            stepRate = (total - sampledSteps) / seconds;
+            sampledSteps = total;
+            sampledAt = now;
+            double renders = 0;
+            long made = 0;
+            for (Session session : tickers.keySet()) {
+                session.sample(seconds);
+                renders += session.getRenderRate();
+                made += session.getBatchCount();
+            }
+            renderRate = renders;
+            batches = made;
+            if (!closed) wheel.schedule(this, getDeadline() + SAMPLE_NANOS);
+        }
+    }
+
+    /**
+     * Hosts sessions for a while and prints the host's throughput.
+     *
+     * @param args How many sessions, of how many figures, for how many
+     *             seconds, on how many threads.
+     * @throws InterruptedException If interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int figures = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        SessionHost host = new SessionHost(threads);
+        host.register();
+        Session[] open = new Session[sessions];
+        for (int s = 0; s < sessions; s++) {
+            open[s] = host.open(figures, Seeds.SEED + s, 640, 480);
+        }
+        SoftwareRenderer renderer = new SoftwareRenderer();
+        PixelBuffer target = new PixelBuffer(640, 480);
+        long end = System.nanoTime() + seconds * 1000000000L, report = System.nanoTime() + SAMPLE_NANOS;
+        for (int s = 0; System.nanoTime() < end; s = (s + 1) % sessions) {
+            open[s].render(renderer, target); // a consumer looking at one session after another
+            if (System.nanoTime() >= report) {
+                System.out.println(host.summary());
+                report += SAMPLE_NANOS;
+            }
+            Thread.sleep(10);
+        }
+        System.out.println("Session 0: " + open[0].summary());
+        host.close();
+    }
+}
@@ -0,0 +1,36 @@
+package kaleidoscope;
+
+/**
+ * What a SessionHost shows through JMX under the name
+ * kaleidoscope:type=SessionHost, added up over every open session. Rates
+ * are worked out about once a second; times are in microseconds.
+ */
+public interface SessionHostMXBean {
+
+    /** @return The number of open sessions. */
+    int getSessionCount();
+
+    /** @return The number of threads sessions are stepped on. */
+    int getThreadCount();
+
+    /** @return The number of steps taken. */
+    long getStepCount();
+
+    /** @return Steps taken per second, by all sessions together. */
+    double getStepsPerSecond();
+
+    /** @return Frames rendered per second, for all sessions together. */
+    double getRendersPerSecond();
+
+    /** @return The number of batches of commands made. */
+    long getBatchCount();
+
+    /** @return Steps that started a whole period or more after they were due. */
+    long getLateStepCount();
+
+    /** @return The latest any step started. */
+    double getMaxLatenessMicros();
+
+    /** @return Steps given up on because a session fell too far behind. */
+    long getDroppedStepCount();
+}
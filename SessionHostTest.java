@@ -0,0 +1,101 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.concurrent.TimeUnit;
+  
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+  
+public class SessionHostTest {
+    SessionHost host;
+  
+    @Before
+    public void setUp() {
+        host = new SessionHost(2);
+    }
+  
+    @After
+    public void tearDown() throws Exception {
+        host.close();
+        host.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  
+    /**
+     * Waits until the session has taken at least the given number of steps.
+     */
+    private static void awaitSteps(Session session, long steps) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (session.getSteps() < steps) {
+            assertTrue(session.summary(), System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+  
+    @Test
+    public void testManySessionsStep() throws Exception { // Hundreds of sessions all keep stepping on two threads.
+        Session[] sessions = new Session[500];
+        for (int s = 0; s < sessions.length; s++) {
+            sessions[s] = host.open(10, s, 640, 480);
+        }
+        assertEquals(500, host.getSessionCount());
+        for (Session session : sessions) {
+            awaitSteps(session, 3);
+        }
+        assertTrue(host.getStepCount() >= 1500);
+        long[] before = new long[sessions.length];
+        for (int s = 0; s < sessions.length; s++) {
+            before[s] = sessions[s].getSteps();
+        }
+        for (int s = 0; s < sessions.length; s++) {
+            awaitSteps(sessions[s], before[s] + 2); // none is left behind
+        }
+    }
+  
+    @Test
+    public void testCommandsAndClose() throws Exception { // Each session takes its own commands at its next step, and stops once closed.
+        Session first = host.open(10, 1, 640, 480);
+        Session second = host.open(10, 2, 640, 480);
+        CommandBatch batch = new CommandBatch(0).add(90, Shape.SQUARE).speed(5);
+        assertTrue(first.getCommands().offer(batch));
+        assertEquals(CommandBatch.Status.APPLIED, batch.await(5, TimeUnit.SECONDS));
+        assertEquals(100, batch.getFigureCount());
+        assertEquals(5, first.getPeriod());
+        assertEquals(50, second.getPeriod());
+        awaitSteps(second, 1);
+        host.close(second);
+        assertEquals(1, host.getSessionCount());
+        long steps = second.getSteps();
+        awaitSteps(first, first.getSteps() + 20); // the host goes on stepping the other
+        assertTrue(second.getSteps() <= steps + 1); // only a step already under way may finish
+        PixelBuffer target = new PixelBuffer(640, 480);
+        assertEquals(second.getSteps(), second.render(new SoftwareRenderer(), target)); // closed sessions can still be drawn
+    }
+  
+    @Test
+    public void testFailedSessionRefusesCommands() throws Exception { // A session that throws is closed and fails its commands; the others go on.
+        Session healthy = host.open(10, 1, 640, 480);
+        Session failing = new Session(new FigureBuffer(10, 2), new ParallelStepper(), 640, 480, 4) {
+            @Override
+            public long step() {
+                if (getSteps() == 2) throw new IllegalStateException("broken on purpose");
+                return super.step();
+            }
+        };
+        failing.populate(10);
+        failing.setPeriod(5);
+        host.open(failing);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!failing.isFailed()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        assertEquals(1, host.getSessionCount());
+        CommandBatch batch = new CommandBatch(0).flash(true);
+        assertFalse(failing.getCommands().offer(batch));
+        assertEquals(CommandBatch.Status.FAILED, batch.getStatus());
+        assertEquals(2, failing.getSteps());
+        awaitSteps(healthy, healthy.getSteps() + 2);
+    }
+}
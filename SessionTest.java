@@ -0,0 +1,134 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+  
+import org.junit.Test;
+  
+public class SessionTest {
+  
+    private static Session session(int figures) {
+        Session session = new Session(new FigureBuffer(figures, 5), new ParallelStepper(), 640, 480, 4);
+        session.populate(figures);
+        return session;
+    }
+  
+    @Test
+    public void testTickMakesCommandsFirst() { // Batches waiting are made before the step, and acknowledged with it.
+        Session session = session(10);
+        CommandBatch batch = new CommandBatch(1).add(5, Shape.CIRCLE).remove(2).flash(true).speed(20);
+        assertTrue(session.getCommands().offer(batch));
+        session.tick();
+        assertEquals(CommandBatch.Status.APPLIED, batch.getStatus());
+        assertEquals(0, batch.getStep());
+        assertEquals(13, batch.getFigureCount());
+        assertEquals(1, session.getSteps());
+        assertTrue(session.isFlashOn());
+        assertEquals(20, session.getPeriod());
+        session.setRunning(false);
+        session.tick(); // paused: commands only
+        assertEquals(1, session.getSteps());
+    }
+  
+    @Test
+    public void testSameFiguresAsStandAlone() { // A session steps its figures exactly as a FigureBuffer does on its own.
+        Session session = session(50);
+        FigureBuffer alone = new FigureBuffer(50, 5);
+        for (int i = 0; i < 50; i++) {
+            alone.add(640, 480, Session.nextShape(i));
+        }
+        for (int n = 0; n < 100; n++) {
+            session.tick();
+            alone.savePositions();
+            alone.makeOneStep();
+        }
+        FigureBuffer figures = session.getFigures();
+        for (int i = 0; i < 50; i++) {
+            assertEquals(alone.x[i], figures.x[i]);
+            assertEquals(alone.y[i], figures.y[i]);
+        }
+        PixelBuffer target = new PixelBuffer(640, 480);
+        assertEquals(100, session.render(new SoftwareRenderer(), target));
+        assertEquals(1, session.getRenderCount());
+    }
+  
+    @Test
+    public void testTooManyFiguresRefused() { // A batch that could leave more than MAX_FIGURES figures is refused before any of it is made.
+        Session session = session(10);
+        CommandBatch batch = new CommandBatch(1).speed(20);
+        for (int added = 0; added < CommandBatch.MAX_FIGURES; added += CommandBatch.MAX_COUNT) {
+            batch.add(CommandBatch.MAX_COUNT, Shape.SQUARE);
+        }
+        assertTrue(session.getCommands().offer(batch));
+        session.tick();
+        assertEquals(CommandBatch.Status.MALFORMED, batch.getStatus());
+        assertEquals(10, session.getFigures().count());
+        assertEquals(50, session.getPeriod());
+    }
+  
+    @Test
+    public void testAddBetweenCloseWalls() throws Exception { // Walls narrower than a figure still get every figure added, and recorded.
+        Path log = Files.createTempFile("session", ".krpl");
+        try {
+            Session session = new Session(new FigureBuffer(4, 5), new ParallelStepper(), 60, 60, 4);
+            session.setRecorder(new ReplayRecorder(new FileOutputStream(log.toFile()), 5));
+            CommandBatch batch = new CommandBatch(0).add(50, Shape.CIRCLE);
+            assertTrue(session.getCommands().offer(batch));
+            session.tick();
+            assertEquals(CommandBatch.Status.APPLIED, batch.getStatus());
+            assertEquals(50, session.getFigures().count());
+            ReplayLog replay = ReplayLog.read(log);
+            assertEquals(1, replay.size());
+            assertEquals(ReplayLog.Action.ADD_MANY, replay.getAction(0));
+            assertEquals(50, replay.getArgument(0, 3));
+        } finally {
+            Files.delete(log);
+        }
+    }
+  
+    @Test
+    public void testCommandsRecorded() throws Exception { // Commands are recorded as the user's actions would be, so they replay.
+        Path log = Files.createTempFile("session", ".krpl");
+        try {
+            Session session = new Session(new FigureBuffer(4, 5), new ParallelStepper(), 640, 480, 4);
+            session.setRecorder(new ReplayRecorder(new FileOutputStream(log.toFile()), 5));
+            session.populate(2);
+            session.tick();
+            session.getCommands().offer(new CommandBatch(0).add(1, Shape.SQUARE).collide(true).collide(true));
+            session.tick();
+            ReplayLog replay = ReplayLog.read(log);
+            assertEquals(4, replay.size());
+            assertEquals(ReplayLog.Action.ADD, replay.getAction(2));
+            assertEquals(1, replay.getTick(2));
+            assertEquals(Shape.SQUARE.ordinal(), replay.getArgument(2, 2));
+            assertEquals(ReplayLog.Action.COLLIDE, replay.getAction(3));
+        } finally {
+            Files.delete(log);
+        }
+    }
+  
+    @Test
+    public void testBatchRecordedOnce() throws Exception { // A command adding or removing many figures is one action in the log.
+        Path log = Files.createTempFile("session", ".krpl");
+        try {
+            Session session = new Session(new FigureBuffer(4, 5), new ParallelStepper(), 640, 480, 4);
+            session.setRecorder(new ReplayRecorder(new FileOutputStream(log.toFile()), 5));
+            session.populate(2);
+            session.getCommands().offer(new CommandBatch(0).add(1000, Shape.CIRCLE).remove(10).remove(5000));
+            session.tick();
+            ReplayLog replay = ReplayLog.read(log);
+            assertEquals(5, replay.size());
+            assertEquals(ReplayLog.Action.ADD_MANY, replay.getAction(2));
+            assertEquals(1000, replay.getArgument(2, 3));
+            assertEquals(ReplayLog.Action.REMOVE_MANY, replay.getAction(3));
+            assertEquals(10, replay.getArgument(3, 0));
+            assertEquals(991, replay.getArgument(4, 0)); // only as many as were removed; one figure stays
+            assertTrue(Files.size(log) < 100);
+        } finally {
+            Files.delete(log);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package kaleidoscope;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The SimulationLoop runs the simulation on a thread of its own, one fixed
+ * step at a time, paced with System.nanoTime(). It is started once and never
+ * torn down: pausing parks the thread, and changing the speed only changes
+ * how fast simulated time passes.
+ *
+ * Rendering is not done here. After each round of steps the loop runs its
+ * publish action, which hands a copy of the figures to the renderer. The
+ * renderer asks getAlpha() how far the simulation has got between the last
+ * step and the next one, and draws the figures that far between their
+ * previous and current positions.
+ *
+ * Only the loop thread may change the figures. Other threads submit() their
+ * changes, and the loop applies them before its next step, even when paused.
+ * Batches of commands from a CommandQueue are made at the start of every
+ * step, and straight away when paused.
+ */
+public class SimulationLoop implements Runnable {
+
+    /** Simulated time covered by one step, in nanoseconds (one step per 50 ms at normal speed). */
+    public static final long STEP_NANOS = 50000000L;
+
+    /** Most steps taken in one go before the loop gives up catching up. */
+    static final int MAX_CATCH_UP_STEPS = 25;
+
+    private final Runnable step;
+    private final Runnable publish;
+    private final Thread thread;
+    private final Queue<Runnable> edits = new ConcurrentLinkedQueue<Runnable>();
+    private CommandQueue commands; // set before the thread starts
+    private CommandQueue.Target target;
+
+    private volatile boolean running = false;
+    private volatile boolean stopped = false;
+    private volatile double timeScale = 1.0;
+
+    // Written by the loop thread, read by the renderer.
+    private volatile long lastStepNanos = System.nanoTime();
+    private volatile long steps = 0;
+
+    /**
+     * @param step What to do on each step of the simulation.
+     */
+    public SimulationLoop(Runnable step) {
+        this(step, null);
+    }
+
+    /**
+     * @param step What to do on each step of the simulation.
+     * @param publish What to do after steps have been taken or edits applied,
+     *                or null to do nothing.
+     */
+    public SimulationLoop(Runnable step, Runnable publish) {
+        this.step = step;
+        this.publish = publish;
+        this.thread = new Thread(this, "kaleidoscope-simulation");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Makes the loop take batches from a queue at the start of every step.
+     * Must be called before start().
+     *
+     * @param commands The queue to drain.
+     * @param target What makes the batches, on the loop thread.
+     */
+    public void setCommands(CommandQueue commands, CommandQueue.Target target) {
+        this.commands = commands;
+        this.target = target;
+        commands.setConsumer(thread);
+    }
+
+    /**
+     * Starts the simulation thread. The simulation itself stays paused
+     * until setRunning(true) is called.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the simulation thread for good.
+     */
+    public void shutdown() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Pauses or resumes the simulation without stopping its thread.
+     *
+     * @param running true to run the simulation, false to pause it.
+     */
+    public void setRunning(boolean running) {
+        this.running = running;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Queues a change to the figures, to be made on the loop thread before
+     * its next step. Never blocks.
+     *
+     * @param edit The change to make.
+     */
+    public void submit(Runnable edit) {
+        edits.add(edit);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return true if the simulation is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets how fast simulated time passes compared to real time. At 2.0,
+     * the simulation takes twice as many steps per second.
+     *
+     * @param timeScale The new time scale; must be positive.
+     */
+    public void setTimeScale(double timeScale) {
+        if (!(timeScale > 0)) throw new IllegalArgumentException("timeScale must be positive: " + timeScale);
+        this.timeScale = timeScale;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return How fast simulated time passes compared to real time.
+     */
+    public double getTimeScale() {
+        return timeScale;
+    }
+
+    /**
+     * @return The number of steps taken since the loop was started.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Tells the renderer how far to draw figures between their previous
+     * position (0) and their current position (1).
+     *
+     * @return A value between 0 and 1.
+     */
+    public float getAlpha() {
+        if (!running) return 1f;
+        return Pacer.alpha(System.nanoTime() - lastStepNanos, timeScale);
+    }
+
+    /**
+     * Takes a step every time STEP_NANOS of simulated time has passed, and
+     * sleeps until the next one is due.
+     */
+    @Override
+    public void run() {
+        Pacer pacer = new Pacer(System.nanoTime());
+        boolean changed = true; // publish the starting state
+        while (!stopped) {
+            changed |= applyEdits();
+            changed |= applyCommands();
+            if (!running) {
+                if (changed && publish != null) publish.run();
+                changed = false;
+                LockSupport.park(this);
+                pacer.restart(System.nanoTime());
+                continue;
+            }
+            pacer.advance(System.nanoTime(), timeScale);
+
+            int taken = 0;
+            while (running && pacer.takeStep()) {
+                if (taken > 0) changed |= applyCommands(); // the first step's were made above
+                step.run();
+                taken++;
+                steps++;
+                lastStepNanos = System.nanoTime();
+            }
+            if ((taken > 0 || changed) && publish != null) publish.run();
+            changed = false;
+
+            long sleep = pacer.nanosToNextStep(timeScale);
+            if (sleep > 0 && edits.isEmpty() && (commands == null || commands.isEmpty())) LockSupport.parkNanos(this, sleep);
+        }
+    }
+
+    /**
+     * Makes every change that has been submitted so far. A change that
+     * throws is reported and skipped, and the loop goes on.
+     *
+     * @return true if there were any.
+     */
+    private boolean applyEdits() {
+        boolean any = false;
+        Runnable edit;
+        while ((edit = edits.poll()) != null) {
+            try {
+                edit.run();
+            } catch (RuntimeException e) { // one bad edit must not stop the simulation
+                System.err.println("Skipped an edit that failed:");
+                e.printStackTrace();
+            }
+            any = true;
+        }
+        return any;
+    }
+
+    /**
+     * Makes every batch of commands that has been queued so far.
+     *
+     * @return true if there were any.
+     */
+    private boolean applyCommands() {
+        return commands != null && commands.drain(target, steps) > 0;
+    }
+
+    /**
+     * Keeps count of the simulated time owed to the simulation, and says
+     * when steps are due. It is given the time instead of reading the
+     * clock, so that the pacing can be tried out with any times. Only used
+     * by the loop thread.
+     */
+    static final class Pacer {
+        private double accumulator; // simulated nanoseconds not yet stepped
+        private long previous;      // when time was last added
+        private int taken;          // steps taken since then
+
+        /**
+         * @param now The time to count from.
+         */
+        Pacer(long now) {
+            previous = now;
+        }
+
+        /**
+         * Forgets any time owed and counts from now, as after a pause.
+         *
+         * @param now The time to count from.
+         */
+        void restart(long now) {
+            previous = now;
+            accumulator = 0;
+            taken = 0;
+        }
+
+        /**
+         * Adds the simulated time that has passed since the last call,
+         * and starts a new round of steps.
+         *
+         * @param now The time now.
+         * @param timeScale How fast simulated time passes.
+         */
+        void advance(long now, double timeScale) {
+            accumulator += (now - previous) * timeScale;
+            previous = now;
+            taken = 0;
+        }
+
+        /**
+         * Takes a step if one is due. After MAX_CATCH_UP_STEPS in one
+         * round, the rest of the time owed is dropped rather than fall
+         * further behind.
+         *
+         * @return true if a step should be taken now.
+         */
+        boolean takeStep() {
+            if (accumulator < STEP_NANOS) return false;
+            accumulator -= STEP_NANOS;
+            if (++taken == MAX_CATCH_UP_STEPS) accumulator = 0; // too far behind
+            return true;
+        }
+
+        /**
+         * @param timeScale How fast simulated time passes.
+         * @return The real time until the next step is due.
+         */
+        long nanosToNextStep(double timeScale) {
+            return (long) ((STEP_NANOS - accumulator) / timeScale);
+        }
+
+        /**
+         * @param sinceStep The real time since the last step.
+         * @param timeScale How fast simulated time passes.
+         * @return How far between the last step (0) and the next (1) the
+         *         simulation is, at most 1.
+         */
+        static float alpha(long sinceStep, double timeScale) {
+            double alpha = sinceStep * timeScale / STEP_NANOS;
+            return alpha >= 1 ? 1f : (float) alpha;
+        }
+    }
+}
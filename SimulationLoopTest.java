@@ -0,0 +1,145 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+  
+import org.junit.Test;
+  
+public class SimulationLoopTest {
+    static final long STEP = SimulationLoop.STEP_NANOS;
+  
+    /**
+     * @return The number of steps the pacer takes in one round.
+     */
+    private static int round(SimulationLoop.Pacer pacer) {
+        int taken = 0;
+        while (pacer.takeStep()) {
+            taken++;
+        }
+        return taken;
+    }
+  
+    @Test
+    public void testOneStepPerStepTime() { // At normal speed a step is due every STEP_NANOS, and what is left over carries on.
+        SimulationLoop.Pacer pacer = new SimulationLoop.Pacer(1000);
+        pacer.advance(1000 + STEP / 2, 1.0);
+        assertEquals(0, round(pacer));
+        assertEquals(STEP / 2, pacer.nanosToNextStep(1.0));
+        pacer.advance(1000 + STEP * 5 / 2, 1.0);
+        assertEquals(2, round(pacer));
+        assertEquals(STEP / 2, pacer.nanosToNextStep(1.0));
+    }
+  
+    @Test
+    public void testTimeScale() { // Twice the time scale takes twice the steps, and sleeps half as long.
+        SimulationLoop.Pacer pacer = new SimulationLoop.Pacer(0);
+        pacer.advance(10 * STEP, 2.0);
+        assertEquals(20, round(pacer));
+        assertEquals(STEP / 2, pacer.nanosToNextStep(2.0));
+        pacer.advance(11 * STEP, 0.5);
+        assertEquals(0, round(pacer));
+        pacer.advance(12 * STEP, 0.5);
+        assertEquals(1, round(pacer));
+    }
+  
+    @Test
+    public void testCatchUpIsCapped() { // Far behind, one round takes MAX_CATCH_UP_STEPS and drops the rest of the backlog.
+        SimulationLoop.Pacer pacer = new SimulationLoop.Pacer(0);
+        pacer.advance(1000 * STEP, 1.0);
+        assertEquals(SimulationLoop.MAX_CATCH_UP_STEPS, round(pacer));
+        assertEquals(STEP, pacer.nanosToNextStep(1.0));
+        pacer.advance(1000 * STEP + STEP, 1.0);
+        assertEquals(1, round(pacer)); // back to one step per step time
+        pacer.advance(1001 * STEP + (SimulationLoop.MAX_CATCH_UP_STEPS - 1) * STEP, 1.0);
+        assertEquals(SimulationLoop.MAX_CATCH_UP_STEPS - 1, round(pacer)); // just behind is caught up in full
+    }
+  
+    @Test
+    public void testRestartForgetsTimeOwed() { // Time spent paused is not made up afterwards.
+        SimulationLoop.Pacer pacer = new SimulationLoop.Pacer(0);
+        pacer.advance(STEP * 3 / 4, 1.0);
+        pacer.restart(100 * STEP);
+        pacer.advance(100 * STEP + STEP / 2, 1.0);
+        assertEquals(0, round(pacer));
+        assertEquals(STEP / 2, pacer.nanosToNextStep(1.0));
+    }
+  
+    @Test
+    public void testAlpha() { // Alpha grows with the time since the last step, faster at a higher time scale, and stops at 1.
+        assertEquals(0f, SimulationLoop.Pacer.alpha(0, 1.0), 0f);
+        assertEquals(0.25f, SimulationLoop.Pacer.alpha(STEP / 4, 1.0), 1e-6f);
+        assertEquals(0.5f, SimulationLoop.Pacer.alpha(STEP / 4, 2.0), 1e-6f);
+        assertEquals(1f, SimulationLoop.Pacer.alpha(3 * STEP, 1.0), 0f);
+    }
+  
+    @Test
+    public void testEditsAndCommandsWhilePaused() throws Exception { // A paused loop still makes edits and commands, without stepping.
+        final AtomicInteger stepsRun = new AtomicInteger();
+        SimulationLoop loop = new SimulationLoop(new Runnable() {
+            @Override
+            public void run() {
+                stepsRun.incrementAndGet();
+            }
+        });
+        CommandQueue commands = new CommandQueue(4);
+        loop.setCommands(commands, new CommandQueue.Target() {
+            @Override
+            public int apply(CommandBatch batch) {
+                return 7;
+            }
+        });
+        loop.start();
+        try {
+            final CountDownLatch edited = new CountDownLatch(1);
+            loop.submit(new Runnable() {
+                @Override
+                public void run() {
+                    edited.countDown();
+                }
+            });
+            assertTrue(edited.await(5, TimeUnit.SECONDS));
+            CommandBatch batch = new CommandBatch(0).flash(true);
+            assertTrue(commands.offer(batch));
+            assertEquals(CommandBatch.Status.APPLIED, batch.await(5, TimeUnit.SECONDS));
+            assertEquals(0, batch.getStep());
+            assertEquals(7, batch.getFigureCount());
+            assertFalse(loop.isRunning());
+            assertEquals(1f, loop.getAlpha(), 0f);
+            assertEquals(0, stepsRun.get());
+            assertEquals(0, loop.getSteps());
+        } finally {
+            loop.shutdown();
+        }
+    }
+  
+    @Test
+    public void testFailedEditSkipped() throws Exception { // An edit that throws is skipped, and later edits are still made.
+        SimulationLoop loop = new SimulationLoop(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        loop.start();
+        try {
+            loop.submit(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalArgumentException("broken on purpose");
+                }
+            });
+            final CountDownLatch edited = new CountDownLatch(1);
+            loop.submit(new Runnable() {
+                @Override
+                public void run() {
+                    edited.countDown();
+                }
+            });
+            assertTrue(edited.await(5, TimeUnit.SECONDS));
+        } finally {
+            loop.shutdown();
+        }
+    }
+}
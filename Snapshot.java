@@ -0,0 +1,234 @@
+package kaleidoscope;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A Snapshot saves the whole scene to a file and loads it back: every
+ * figure, and the speed and switches the user had chosen.
+ *
+ * The file is fixed-width and little-endian, so where everything is
+ * follows from the number of figures alone. A HEADER_SIZE-byte header
+ * holds MAGIC, VERSION, the number of figures, the period of a step in
+ * milliseconds and the flags (FLASH, COLLIDE). Then comes one column per
+ * FigureBuffer array, in the order of COLUMNS: 13 columns of 4-byte ints
+ * and finally one byte per figure for the shape.
+ *
+ * The file is memory-mapped and each column is copied with one bulk get or
+ * put between the mapping and the FigureBuffer's array, so a scene of a
+ * million figures loads in a few milliseconds, without making a single
+ * Model or random number. On Windows, which cannot replace a file while a
+ * mapping of it is still alive, the whole file goes through an ordinary
+ * buffer and channel instead.
+ */
+public class Snapshot {
+
+    /** The first 4 bytes of every snapshot: "KSNP". */
+    static final int MAGIC = 0x4B534E50;
+
+    /** The version of the format written by save(). */
+    static final int VERSION = 1;
+
+    /** Bytes before the first column. */
+    static final int HEADER_SIZE = 32;
+
+    /** Flag set if colors were flashing. */
+    static final int FLASH = 1;
+
+    /** Flag set if figures were colliding. */
+    static final int COLLIDE = 2;
+
+    /** Number of int columns, one per int array of a FigureBuffer. */
+    static final int COLUMNS = 13;
+
+    /** The column of sizes, in the order of columnsOf(). */
+    private static final int SIZE_COLUMN = 6;
+
+    /** Whether the file may be mapped: Windows cannot replace a file that is still mapped. */
+    private static final boolean MAPPABLE = !System.getProperty("os.name", "").startsWith("Windows");
+
+    private final int timerSpeed;
+    private final boolean flashOn;
+    private final boolean collideOn;
+
+    /**
+     * @param timerSpeed The period of one step in milliseconds.
+     * @param flashOn true if colors are flashing.
+     * @param collideOn true if figures are colliding.
+     */
+    public Snapshot(int timerSpeed, boolean flashOn, boolean collideOn) {
+        this.timerSpeed = timerSpeed;
+        this.flashOn = flashOn;
+        this.collideOn = collideOn;
+    }
+
+    /**
+     * @return The period of one step in milliseconds.
+     */
+    public int getTimerSpeed() {
+        return timerSpeed;
+    }
+
+    /**
+     * @return true if colors were flashing.
+     */
+    public boolean isFlashOn() {
+        return flashOn;
+    }
+
+    /**
+     * @return true if figures were colliding.
+     */
+    public boolean isCollideOn() {
+        return collideOn;
+    }
+
+    /**
+     * Writes the figures and these settings to a file, replacing it.
+     *
+     * @param path The file to write.
+     * @param figures The figures to save. They must not change until this returns.
+     * @throws IOException If the file could not be written.
+     */
+    public void save(Path path, FigureBuffer figures) throws IOException {
+        save(path, figures, MAPPABLE);
+    }
+
+    /**
+     * Writes the figures and these settings to a file, replacing it.
+     *
+     * @param mapped true to write through a mapping of the file, false to
+     *               write it through the channel.
+     */
+    void save(Path path, FigureBuffer figures, boolean mapped) throws IOException {
+        int count = figures.count();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = fileSize(count);
+            ByteBuffer map = mapped ? channel.map(FileChannel.MapMode.READ_WRITE, 0, size) : ByteBuffer.allocate((int) size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            map.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(timerSpeed)
+                    .putInt((flashOn ? FLASH : 0) | (collideOn ? COLLIDE : 0));
+            IntBuffer ints = columns(map, count);
+            for (int[] column : columnsOf(figures)) {
+                ints.put(column, 0, count);
+            }
+            map.position(HEADER_SIZE + COLUMNS * 4 * count);
+            map.put(figures.shape, 0, count);
+            if (mapped) {
+                ((MappedByteBuffer) map).force();
+            }
+            else {
+                map.rewind();
+                while (map.hasRemaining()) {
+                    channel.write(map);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces every figure in the buffer with those in a file. The file is
+     * checked before the buffer is touched, so a file that is refused
+     * leaves the figures as they were.
+     *
+     * @param path A file written by save().
+     * @param figures The buffer to load the figures into.
+     * @return The settings saved with the figures.
+     * @throws IOException If the file could not be read or is not a snapshot.
+     */
+    public static Snapshot load(Path path, FigureBuffer figures) throws IOException {
+        return load(path, figures, MAPPABLE);
+    }
+
+    /**
+     * Replaces every figure in the buffer with those in a file.
+     *
+     * @param mapped true to read through a mapping of the file, false to
+     *               read it through the channel.
+     */
+    static Snapshot load(Path path, FigureBuffer figures, boolean mapped) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) throw new IOException(path + " is not a snapshot");
+            if (length > Integer.MAX_VALUE) throw new IOException(path + " is too big to be a snapshot");
+            ByteBuffer map = mapped ? channel.map(FileChannel.MapMode.READ_ONLY, 0, length) : read(channel, (int) length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC) throw new IOException(path + " is not a snapshot");
+            int version = map.getInt();
+            if (version != VERSION) throw new IOException(path + " has version " + version + ", expected " + VERSION);
+            int count = map.getInt();
+            int timerSpeed = map.getInt();
+            int flags = map.getInt();
+            if (count < 0 || fileSize(count) != length) {
+                throw new IOException(path + " holds " + length + " bytes, not " + count + " figures");
+            }
+            if (count > CommandBatch.MAX_FIGURES) {
+                throw new IOException(path + " holds " + count + " figures, more than " + CommandBatch.MAX_FIGURES);
+            }
+            IntBuffer ints = columns(map, count);
+            int shapes = HEADER_SIZE + COLUMNS * 4 * count;
+            for (int i = 0; i < count; i++) {
+                byte shape = map.get(shapes + i);
+                if (shape < 0 || shape >= Shape.values().length) {
+                    throw new IOException(path + ": figure " + i + " has no shape " + shape);
+                }
+                int size = ints.get(SIZE_COLUMN * count + i);
+                if (size < 0) throw new IOException(path + ": figure " + i + " has size " + size);
+            }
+            figures.setCount(count);
+            for (int[] column : columnsOf(figures)) {
+                ints.get(column, 0, count);
+            }
+            map.position(shapes);
+            map.get(figures.shape, 0, count);
+            return new Snapshot(timerSpeed, (flags & FLASH) != 0, (flags & COLLIDE) != 0);
+        }
+    }
+
+    /**
+     * @return The whole file, read through the channel.
+     * @throws IOException If it could not be read, or ended early.
+     */
+    private static ByteBuffer read(FileChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("The snapshot ended after " + buffer.position() + " bytes");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return The size of a snapshot of count figures, in bytes.
+     * @throws IOException If it is too big to map in one go.
+     */
+    private static long fileSize(int count) throws IOException {
+        long size = HEADER_SIZE + (COLUMNS * 4L + 1) * count;
+        if (size > Integer.MAX_VALUE) throw new IOException(count + " figures are too many for one snapshot");
+        return size;
+    }
+
+    /**
+     * @return The int columns of the mapping, as one buffer.
+     */
+    private static IntBuffer columns(ByteBuffer map, int count) {
+        ByteBuffer view = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(HEADER_SIZE).limit(HEADER_SIZE + COLUMNS * 4 * count);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * @return The int arrays of the buffer in the order they are saved.
+     */
+    private static int[][] columnsOf(FigureBuffer f) {
+        return new int[][] { f.x, f.y, f.prevX, f.prevY, f.xDelta, f.yDelta, f.size, f.offset,
+                f.xLimit, f.yLimit, f.originX, f.originY, f.color };
+    }
+}
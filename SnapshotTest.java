@@ -0,0 +1,145 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+  
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+  
+public class SnapshotTest {
+    private Path path;
+    private FigureBuffer figures;
+  
+    @Before
+    public void setUp() throws Exception {
+        path = Files.createTempFile("kaleidoscope", ".ksnp");
+        figures = new FigureBuffer(100, 17);
+        for (int i = 0; i < 100; i++) {
+            figures.add(1000, 800, Shape.values()[i % 3]);
+        }
+        for (int i = 0; i < 7; i++) {
+            figures.savePositions();
+            figures.makeOneStep();
+        }
+        figures.setLimits(900, 700);
+    }
+  
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+  
+    @Test
+    public void testLoadsWhatWasSaved() throws Exception { // Every figure and setting comes back exactly, replacing what was in the buffer.
+        new Snapshot(35, true, false).save(path, figures);
+        assertEquals(Snapshot.HEADER_SIZE + 100 * (Snapshot.COLUMNS * 4 + 1), Files.size(path));
+        FigureBuffer loaded = new FigureBuffer(1, 99);
+        for (int i = 0; i < 250; i++) {
+            loaded.add(500, 500, Shape.CIRCLE);
+        }
+        Snapshot snapshot = Snapshot.load(path, loaded);
+        assertEquals(35, snapshot.getTimerSpeed());
+        assertTrue(snapshot.isFlashOn());
+        assertFalse(snapshot.isCollideOn());
+        assertEquals(100, loaded.count());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(figures.x[i], loaded.x[i]);
+            assertEquals(figures.y[i], loaded.y[i]);
+            assertEquals(figures.prevX[i], loaded.prevX[i]);
+            assertEquals(figures.prevY[i], loaded.prevY[i]);
+            assertEquals(figures.xDelta[i], loaded.xDelta[i]);
+            assertEquals(figures.yDelta[i], loaded.yDelta[i]);
+            assertEquals(figures.size[i], loaded.size[i]);
+            assertEquals(figures.offset[i], loaded.offset[i]);
+            assertEquals(figures.xLimit[i], loaded.xLimit[i]);
+            assertEquals(figures.yLimit[i], loaded.yLimit[i]);
+            assertEquals(figures.originX[i], loaded.originX[i]);
+            assertEquals(figures.originY[i], loaded.originY[i]);
+            assertEquals(figures.color[i], loaded.color[i]);
+            assertEquals(figures.getShape(i), loaded.getShape(i));
+        }
+    }
+  
+    @Test
+    public void testChannelMatchesMapped() throws Exception { // Saving and loading through the channel, as on Windows, gives the same file and figures as mapping it.
+        Path streamed = Files.createTempFile("kaleidoscope", ".ksnp");
+        try {
+            new Snapshot(35, true, true).save(path, figures, true);
+            new Snapshot(35, true, true).save(streamed, figures, false);
+            assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(streamed));
+            new Snapshot(35, true, true).save(streamed, figures, false); // replaces a file just read
+            FigureBuffer loaded = new FigureBuffer(1, 1);
+            Snapshot snapshot = Snapshot.load(streamed, loaded, false);
+            assertEquals(35, snapshot.getTimerSpeed());
+            assertTrue(snapshot.isCollideOn());
+            assertEquals(100, loaded.count());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(figures.x[i], loaded.x[i]);
+                assertEquals(figures.color[i], loaded.color[i]);
+                assertEquals(figures.getShape(i), loaded.getShape(i));
+            }
+        } finally {
+            Files.delete(streamed);
+        }
+    }
+  
+    @Test
+    public void testEmptyScene() throws Exception { // A scene with no figures is just the header.
+        new Snapshot(50, false, true).save(path, new FigureBuffer(1, 1));
+        Snapshot snapshot = Snapshot.load(path, figures);
+        assertTrue(snapshot.isCollideOn());
+        assertEquals(0, figures.count());
+    }
+  
+    @Test(expected = IOException.class)
+    public void testRejectsOtherVersions() throws Exception { // A snapshot from another version of the format is refused.
+        new Snapshot(50, false, false).save(path, figures);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(4);
+            file.write(Snapshot.VERSION + 1); // little-endian: the low byte comes first
+        }
+        Snapshot.load(path, new FigureBuffer(1, 1));
+    }
+  
+    @Test(expected = IOException.class)
+    public void testRejectsCutShortFiles() throws Exception { // A file too short for the figures it claims to hold is refused.
+        new Snapshot(50, false, false).save(path, figures);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        Snapshot.load(path, new FigureBuffer(1, 1));
+    }
+  
+    @Test
+    public void testRefusedFileLeavesSceneAlone() throws Exception { // A file with a bad shape or size is refused before any figure is replaced.
+        long shapes = Snapshot.HEADER_SIZE + Snapshot.COLUMNS * 4L * 100;
+        long sizes = Snapshot.HEADER_SIZE + 6 * 4L * 100; // the size column
+        long[] places = { shapes + 99, sizes + 4 * 42 };
+        byte[][] values = { { 9 }, { -1, -1, -1, -1 } };
+        for (int c = 0; c < places.length; c++) {
+            new Snapshot(50, false, false).save(path, figures);
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.seek(places[c]);
+                file.write(values[c]);
+            }
+            FigureBuffer scene = new FigureBuffer(1, 99);
+            for (int i = 0; i < 250; i++) {
+                scene.add(500, 500, Shape.CIRCLE);
+            }
+            int[] x = scene.x.clone();
+            try {
+                Snapshot.load(path, scene);
+                fail();
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(250, scene.count());
+            assertArrayEquals(x, scene.x);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+
+/**
+ * The SoftwareRenderer draws every figure with its own span fill routines
+ * straight into the int[] pixels of a PixelBuffer, and then copies the
+ * finished frame to the screen with a single drawImage(). This avoids the
+ * cost of 8 Java2D fill calls per figure. Figures only a few pixels across
+ * are drawn from TinyStamps. In a Symmetry other than the classic 8
+ * reflections, squares are drawn as the two triangles of their turned
+ * corners.
+ */
+public class SoftwareRenderer implements RasterRenderer {
+
+    private static final int BLACK = 0x000000;
+
+    private final PixelBuffer pixels = new PixelBuffer(1, 1);
+    private final TinyStamps tiny;
+    private volatile Quality quality = Quality.FULL;
+    private volatile Symmetry symmetry; // null for the classic reflections
+    private final Symmetry.Copies copies = new Symmetry.Copies();
+
+    /**
+     * Creates a renderer that draws figures up to the default tiny size from stamps.
+     */
+    public SoftwareRenderer() {
+        this(TinyStamps.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param tinySize The widest figure, in pixels, drawn from a stamp; 0 rasterizes every figure.
+     */
+    public SoftwareRenderer(int tinySize) {
+        tiny = new TinyStamps(tinySize);
+    }
+
+    @Override
+    public void setQuality(Quality quality) {
+        this.quality = quality;
+    }
+
+    @Override
+    public void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    @Override
+    public void paint(Graphics g, Frame frame, float alpha, int width, int height) {
+        render(frame, alpha, width, height);
+        g.drawImage(pixels.getImage(), 0, 0, null);
+    }
+
+    /**
+     * Draws the frame into this renderer's PixelBuffer without showing it.
+     *
+     * @param frame The figures to draw.
+     * @param alpha How far between their previous (0) and current (1)
+     *              positions to draw the figures.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The PixelBuffer holding the finished image.
+     */
+    public PixelBuffer render(Frame frame, float alpha, int width, int height) {
+        pixels.setSize(width, height);
+        render(frame, alpha, pixels);
+        return pixels;
+    }
+
+    @Override
+    public void render(Frame frame, float alpha, PixelBuffer target) {
+        target.clear(BLACK);
+        Quality quality = this.quality;
+        Symmetry symmetry = this.symmetry;
+        int count = frame.count();
+        for (int i = 0; i < count; i++) {
+            int x = frame.xAt(i, alpha);
+            int y = frame.yAt(i, alpha);
+            if (symmetry != null) {
+                if (target.placeInClip(copies, symmetry, frame, i, x, y, quality)) drawCopies(target, frame, i, copies, quality);
+            }
+            else if (target.touchesClip(frame, i, x, y)) {
+                drawFigure(target, frame, i, x, y, quality, tiny);
+            }
+        }
+    }
+
+    /**
+     * Draws the copies of figure i of the frame placed by a Symmetry.
+     *
+     * @param pixels Where to draw.
+     * @param f The frame holding the figure.
+     * @param i The slot of the figure.
+     * @param copies Where the figure's copies go.
+     * @param quality How much of the figure to draw.
+     */
+    static void drawCopies(PixelBuffer pixels, Frame f, int i, Symmetry.Copies copies, Quality quality) {
+        int rgb = f.color[i] & 0xFFFFFF;
+        int size = f.size[i];
+        Shape shape = f.getShape(i);
+        boolean simplified = quality.simplifies(shape, size, f.offset[i]);
+        for (int k = 0; k < copies.count; k++) {
+            if (simplified) {
+                int left = copies.boxLeft(k, size), top = copies.boxTop(k, size);
+                pixels.fillRect(left, top, copies.boxRight(k, size) - left, copies.boxBottom(k, size) - top, rgb);
+            }
+            else {
+                drawCopy(pixels, shape, copies, k, size, rgb);
+            }
+        }
+    }
+
+    /**
+     * Draws copy k of a figure: a circle around its center, or the triangle
+     * or turned square between its corners.
+     *
+     * @param pixels Where to draw.
+     * @param shape The shape of the figure.
+     * @param copies Where the figure's copies go.
+     * @param k The copy to draw.
+     * @param size The figure's size.
+     * @param rgb The color as a packed RGB int.
+     */
+    static void drawCopy(PixelBuffer pixels, Shape shape, Symmetry.Copies copies, int k, int size, int rgb) {
+        int[] x = copies.x, y = copies.y;
+        int p = k * copies.corners;
+        if (shape == Shape.CIRCLE) {
+            pixels.fillOval(x[p] - size / 2, y[p] - size / 2, size, size, rgb);
+            return;
+        }
+        pixels.fillTriangle(x[p], y[p], x[p + 1], y[p + 1], x[p + 2], y[p + 2], rgb);
+        if (shape == Shape.SQUARE) pixels.fillTriangle(x[p], y[p], x[p + 2], y[p + 2], x[p + 3], y[p + 3], rgb);
+    }
+
+    /**
+     * Draws figure i of the frame and its reflections.
+     *
+     * @param pixels Where to draw.
+     * @param f The frame holding the figure.
+     * @param i The slot of the figure.
+     * @param x The X position to draw the figure at.
+     * @param y The Y position to draw the figure at.
+     * @param quality How much of the figure to draw.
+     * @param tiny Draws the figure instead if it is tiny.
+     */
+    static void drawFigure(PixelBuffer pixels, Frame f, int i, int x, int y, Quality quality, TinyStamps tiny) {
+        drawFigure(pixels, f, i, x, y, quality, tiny, 0, quality.getReflections());
+    }
+
+    /**
+     * Draws some of the reflections of figure i of the frame.
+     *
+     * @param pixels Where to draw.
+     * @param f The frame holding the figure.
+     * @param i The slot of the figure.
+     * @param x The X position to draw the figure at.
+     * @param y The Y position to draw the figure at.
+     * @param quality How much of the figure to draw.
+     * @param tiny Draws the figure instead if it is tiny.
+     * @param from The first reflection to draw.
+     * @param to The reflection after the last one to draw.
+     */
+    static void drawFigure(PixelBuffer pixels, Frame f, int i, int x, int y, Quality quality, TinyStamps tiny, int from, int to) {
+        int originX = f.originX[i];
+        int originY = f.originY[i];
+        int dx = x - originX; // X location relative to origin
+        int dy = y - originY; // Y location relative to origin
+        int rgb = f.color[i] & 0xFFFFFF;
+        int size = f.size[i];
+        int offset = f.offset[i];
+        Shape shape = f.getShape(i);
+        boolean simplified = quality.simplifies(shape, size, offset);
+        if (!simplified && tiny.draw(pixels, f, i, x, y, from, to)) return;
+        int extent = Reflections.extent(shape, size, offset);
+        for (int k = from; k < to; k++) {
+            int bx = Reflections.baseX(k, originX, dx, dy);
+            int by = Reflections.baseY(k, originY, dx, dy);
+            if (simplified) {
+                pixels.fillRect(Reflections.boxLeft(k, bx, shape, size, offset), Reflections.boxTop(k, by, shape, size, offset),
+                        extent, extent, rgb);
+            }
+            else {
+                drawReflection(pixels, shape, bx, by, Reflections.signX(k), Reflections.signY(k), size, offset, rgb);
+            }
+        }
+    }
+
+    /**
+     * Draws one reflection of a figure.
+     *
+     * @param pixels Where to draw.
+     * @param shape The shape of the figure.
+     * @param bx The X position of the reflection's corner.
+     * @param by The Y position of the reflection's corner.
+     * @param sx 1 or -1: which way the reflection goes from its corner along X.
+     * @param sy 1 or -1: which way the reflection goes from its corner along Y.
+     * @param size The figure's size.
+     * @param offset The figure's offset from the origin.
+     * @param rgb The color as a packed RGB int.
+     */
+    static void drawReflection(PixelBuffer pixels, Shape shape, int bx, int by, int sx, int sy, int size, int offset, int rgb) {
+        if (shape == Shape.POLYGON) {
+            int quarter = offset / 4;
+            int half = offset / 2;
+            pixels.fillTriangle(bx, by, bx + sx * quarter, by + sy * half, bx + sx * half, by + sy * quarter, rgb);
+        }
+        else if (shape == Shape.CIRCLE) {
+            pixels.fillOval(bx + sx * offset, by + sy * offset, size, size, rgb);
+        }
+        else {
+            pixels.fillRect(bx + sx * offset, by + sy * offset, size, size, rgb);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package kaleidoscope;
+
+/**
+ * A Stamp is a shape rasterized once into horizontal spans, relative to the
+ * shape's corner, so that it can be filled again anywhere with one bulk
+ * fill per row, and mirrored just by reading its spans backwards.
+ *
+ * Stamps give exactly the pixels that PixelBuffer's fill routines give for
+ * the same shape.
+ */
+public class Stamp {
+
+    private final int rows;
+    private final int[] start; // first pixel of each row, relative to the corner
+    private final int[] end;   // last pixel of each row; less than start if the row is empty
+
+    private Stamp(int rows) {
+        this.rows = rows;
+        this.start = new int[rows];
+        this.end = new int[rows];
+    }
+
+    /**
+     * Rasterizes an oval inside a w by h rectangle, as PixelBuffer.fillOval() does.
+     *
+     * @param w The width of the bounding rectangle.
+     * @param h The height of the bounding rectangle.
+     * @return The oval's stamp; row 0 is the top of the rectangle.
+     */
+    public static Stamp oval(int w, int h) {
+        Stamp stamp = new Stamp(Math.max(0, h));
+        double a = w / 2.0;
+        double b = h / 2.0;
+        for (int r = 0; r < stamp.rows; r++) {
+            stamp.start[r] = 0;
+            stamp.end[r] = -1;
+            if (w <= 0) continue;
+            double dy = (r + 0.5 - b) / b;
+            double t = 1 - dy * dy;
+            if (t <= 0) continue;
+            double halfWidth = a * Math.sqrt(t);
+            stamp.start[r] = (int) Math.ceil(a - halfWidth - 0.5);
+            stamp.end[r] = (int) Math.ceil(a + halfWidth - 0.5) - 1;
+        }
+        return stamp;
+    }
+
+    /**
+     * Rasterizes the triangle with corners (0, 0), (quarter, half) and
+     * (half, quarter), as PixelBuffer.fillTriangle() does.
+     *
+     * @param quarter A quarter of the figure's offset.
+     * @param half Half of the figure's offset.
+     * @return The triangle's stamp; row 0 is the row of the corner at (0, 0).
+     */
+    public static Stamp triangle(int quarter, int half) {
+        if (quarter < 0 || half < 0) throw new IllegalArgumentException("offset must not be negative");
+        Stamp stamp = new Stamp(Math.max(quarter, half) + 1);
+        for (int row = 0; row < stamp.rows; row++) {
+            int left = Math.min(PixelBuffer.edgeCeil(0, 0, quarter, half, row),
+                       Math.min(PixelBuffer.edgeCeil(quarter, half, half, quarter, row),
+                                PixelBuffer.edgeCeil(half, quarter, 0, 0, row)));
+            int right = Math.max(PixelBuffer.edgeFloor(0, 0, quarter, half, row),
+                        Math.max(PixelBuffer.edgeFloor(quarter, half, half, quarter, row),
+                                 PixelBuffer.edgeFloor(half, quarter, 0, 0, row)));
+            stamp.start[row] = left;
+            stamp.end[row] = right;
+        }
+        return stamp;
+    }
+
+    /**
+     * Fills the stamp with its corner at (x, y), mirrored as asked.
+     * Mirroring the rows and spans of the stamp gives exactly the pixels of
+     * the mirrored shape, because all shapes are rasterized on whole pixels.
+     *
+     * @param pixels Where to fill.
+     * @param x The X position of the corner.
+     * @param y The Y position of the corner.
+     * @param signX 1 to fill as stamped, -1 to mirror left to right.
+     * @param signY 1 to fill as stamped, -1 to mirror top to bottom.
+     * @param rgb The color as a packed RGB int.
+     */
+    public void fill(PixelBuffer pixels, int x, int y, int signX, int signY, int rgb) {
+        for (int r = 0; r < rows; r++) {
+            int s = start[r];
+            int e = end[r];
+            if (s > e) continue;
+            if (signX > 0) pixels.fillSpan(y + signY * r, x + s, x + e, rgb);
+            else pixels.fillSpan(y + signY * r, x - e, x - s, rgb);
+        }
+    }
+}
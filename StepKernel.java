@@ -0,0 +1,61 @@
+package kaleidoscope;
+
+/**
+ * A StepKernel advances a range of figures in a FigureBuffer one step.
+ * Every kernel must move figures exactly as Model.makeOneStep() does.
+ */
+public interface StepKernel {
+
+    /** Steps one figure at a time, with branches for the walls. */
+    StepKernel SCALAR = new StepKernel() {
+        @Override
+        public void step(FigureBuffer figures, int from, int to) {
+            figures.step(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    };
+
+    /**
+     * Advances figures from (inclusive) to to (exclusive) one step.
+     *
+     * @param figures The figures to step.
+     * @param from The first slot to step.
+     * @param to One past the last slot to step.
+     */
+    void step(FigureBuffer figures, int from, int to);
+
+    /**
+     * Returns the kernel asked for by the kaleidoscope.vector system property:
+     * the vectorized kernel when it is "true" and the jdk.incubator.vector
+     * module is present, and the scalar kernel otherwise.
+     *
+     * @return The kernel to step figures with.
+     */
+    static StepKernel fromSystemProperty() {
+        if (Boolean.getBoolean("kaleidoscope.vector")) {
+            StepKernel vector = vectorized();
+            if (vector != null) return vector;
+        }
+        return SCALAR;
+    }
+
+    /**
+     * Loads the kernel that uses the Vector API. It is looked up by name so
+     * that nothing else depends on the incubator module being present.
+     *
+     * @return The vectorized kernel, or null if the jdk.incubator.vector
+     *         module is not available.
+     */
+    static StepKernel vectorized() {
+        try {
+            return (StepKernel) Class.forName("kaleidoscope.VectorStepKernel")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
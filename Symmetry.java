@@ -0,0 +1,290 @@
+package kaleidoscope;
+
+/**
+ * A Symmetry draws every figure n times, turned about its origin: n / 2
+ * times by steps of 360 / (n / 2) degrees, and n / 2 times more mirrored
+ * first. This is the dihedral group of order n, of which the classic 8
+ * reflections (see Reflections) are the case n = 8 with squares and
+ * circles kept in their corners; here the figures themselves turn, so a
+ * square becomes a turned square and a triangle keeps its shape.
+ *
+ * The sine and cosine of every turn are worked out once, as 16.16 fixed
+ * point numbers in tables, so placing the n copies of a figure is a loop
+ * of integer multiplies and shifts with no trigonometry at all. Copies of
+ * circles are placed by their centers; copies of squares and triangles by
+ * their corners.
+ */
+public final class Symmetry {
+
+    /** The orders offered by the Controller, in the order it cycles through them. */
+    public static final int[] ORDERS = { 8, 6, 12, 24, 32 };
+
+    /** Largest order there is a table for. */
+    public static final int MAX_ORDER = 256;
+
+    /** Most corners of one copy of a figure: a square's 4. */
+    public static final int MAX_CORNERS = 4;
+
+    private static final int ONE = 1 << 16;
+    private static final long HALF = 1L << 15;
+
+    private final int order;
+    // Copy k takes (x, y) to ((xx[k] x + xy[k] y) >> 16, (yx[k] x + yy[k] y) >> 16).
+    private final int[] xx, xy, yx, yy;
+
+    private Symmetry(int order) {
+        this.order = order;
+        int turns = order / 2;
+        xx = new int[order];
+        xy = new int[order];
+        yx = new int[order];
+        yy = new int[order];
+        for (int k = 0; k < order; k++) {
+            double angle = 2 * Math.PI * (k % turns) / turns;
+            int cos = (int) Math.round(Math.cos(angle) * ONE);
+            int sin = (int) Math.round(Math.sin(angle) * ONE);
+            int mirror = k < turns ? 1 : -1; // copies from n / 2 on are mirrored top to bottom first
+            xx[k] = cos;
+            xy[k] = -sin * mirror;
+            yx[k] = sin;
+            yy[k] = cos * mirror;
+        }
+    }
+
+    /**
+     * @param order How many copies of each figure to draw: an even number
+     *              from 2 to MAX_ORDER.
+     * @return The symmetry of that order.
+     * @throws IllegalArgumentException If the order is odd or out of range.
+     */
+    public static Symmetry of(int order) {
+        if (order < 2 || order > MAX_ORDER || order % 2 != 0) {
+            throw new IllegalArgumentException("Order must be even, from 2 to " + MAX_ORDER + ": " + order);
+        }
+        return new Symmetry(order);
+    }
+
+    /**
+     * @param order How many copies of each figure to draw.
+     * @return null for 8, meaning the classic Reflections, otherwise the symmetry of that order.
+     */
+    public static Symmetry forOrder(int order) {
+        return order == Reflections.COUNT ? null : of(order);
+    }
+
+    /**
+     * @return How many copies of each figure are drawn.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * @param k A copy, from 0 to getOrder() - 1.
+     * @return true if copy k is mirrored, which reverses the order of its corners.
+     */
+    public boolean isMirrored(int k) {
+        return k >= order / 2;
+    }
+
+    /**
+     * @param quality How much of each figure to draw.
+     * @return How many copies to draw at that quality: all of them at full
+     *         quality, or as many of the unmirrored turns as the quality
+     *         draws reflections out of 8.
+     */
+    public int copies(Quality quality) {
+        if (quality.getReflections() >= Reflections.COUNT) return order;
+        return Math.max(1, Math.min(order / 2, order * quality.getReflections() / Reflections.COUNT));
+    }
+
+    /**
+     * Works out the corners of a figure as drawn in its first copy, relative
+     * to its origin: the center of a circle, the 4 corners of a square or
+     * the 3 of a triangle, going clockwise on screen. The first copy is
+     * drawn where the first of the classic Reflections is.
+     *
+     * @param shape The shape of the figure.
+     * @param dx The figure's X position minus its X origin.
+     * @param dy The figure's Y position minus its Y origin.
+     * @param size The figure's size.
+     * @param offset The figure's offset from the origin.
+     * @param xs Receives the X positions of the corners.
+     * @param ys Receives the Y positions of the corners.
+     * @return The number of corners.
+     */
+    public static int corners(Shape shape, int dx, int dy, int size, int offset, int[] xs, int[] ys) {
+        if (shape == Shape.POLYGON) {
+            int quarter = offset / 4, half = offset / 2;
+            xs[0] = dx;           ys[0] = dy;
+            xs[1] = dx + half;    ys[1] = dy + quarter;
+            xs[2] = dx + quarter; ys[2] = dy + half;
+            return 3;
+        }
+        int left = dx + offset, top = dy + offset;
+        if (shape == Shape.CIRCLE) {
+            xs[0] = left + size / 2;
+            ys[0] = top + size / 2;
+            return 1;
+        }
+        xs[0] = left;        ys[0] = top;
+        xs[1] = left + size; ys[1] = top;
+        xs[2] = left + size; ys[2] = top + size;
+        xs[3] = left;        ys[3] = top + size;
+        return 4;
+    }
+
+    /**
+     * Places the corners of every copy of a figure: corner j of copy k goes
+     * to (outX[k * corners + j], outY[k * corners + j]). This is the loop
+     * every frame runs for every figure.
+     *
+     * @param xs The X positions of the corners of the first copy, relative to the origin.
+     * @param ys The Y positions of the corners of the first copy.
+     * @param corners How many corners there are.
+     * @param copies How many copies to place, from the first.
+     * @param originX The X origin the copies are turned about.
+     * @param originY The Y origin the copies are turned about.
+     * @param outX Receives the X positions, at least copies * corners long.
+     * @param outY Receives the Y positions.
+     */
+    public void place(int[] xs, int[] ys, int corners, int copies, int originX, int originY, int[] outX, int[] outY) {
+        place(xs, ys, corners, 0, copies, originX, originY, outX, outY);
+    }
+
+    /**
+     * Places the corners of some of the copies of a figure: corner j of
+     * copy k goes to (outX[(k - from) * corners + j], outY[(k - from) * corners + j]).
+     *
+     * @param xs The X positions of the corners of the first copy, relative to the origin.
+     * @param ys The Y positions of the corners of the first copy.
+     * @param corners How many corners there are.
+     * @param from The first copy to place.
+     * @param to The copy after the last one to place.
+     * @param originX The X origin the copies are turned about.
+     * @param originY The Y origin the copies are turned about.
+     * @param outX Receives the X positions, at least (to - from) * corners long.
+     * @param outY Receives the Y positions.
+     */
+    public void place(int[] xs, int[] ys, int corners, int from, int to, int originX, int originY, int[] outX, int[] outY) {
+        for (int k = from, p = 0; k < to; k++) {
+            long a = xx[k], b = xy[k], c = yx[k], d = yy[k];
+            for (int j = 0; j < corners; j++, p++) {
+                int x = xs[j], y = ys[j];
+                outX[p] = originX + (int) ((a * x + b * y + HALF) >> 16);
+                outY[p] = originY + (int) ((c * x + d * y + HALF) >> 16);
+            }
+        }
+    }
+
+    /**
+     * Tells whether any copy of a figure may reach into a rectangle. Every
+     * copy lies within the figure's farthest reach from its origin, so the
+     * square around that circle is tested.
+     *
+     * @param xs The X positions of the corners of the first copy, relative to the origin.
+     * @param ys The Y positions of the corners of the first copy.
+     * @param corners How many corners there are.
+     * @param size The figure's size, which a circle reaches beyond its center.
+     * @param originX The figure's X origin.
+     * @param originY The figure's Y origin.
+     * @param left The left edge of the rectangle.
+     * @param top The top edge of the rectangle.
+     * @param right The right edge of the rectangle, exclusive.
+     * @param bottom The bottom edge of the rectangle, exclusive.
+     * @return false if no copy reaches into the rectangle.
+     */
+    public static boolean touches(int[] xs, int[] ys, int corners, int size, int originX, int originY,
+            int left, int top, int right, int bottom) {
+        int reach = 0;
+        for (int j = 0; j < corners; j++) {
+            reach = Math.max(reach, Math.abs(xs[j]) + Math.abs(ys[j])); // at least the distance
+        }
+        reach += size + 1;
+        return originX - reach < right && originX + reach >= left && originY - reach < bottom && originY + reach >= top;
+    }
+
+    /**
+     * Where the copies of one figure go. A renderer keeps one and places
+     * each figure with it in turn, so that drawing allocates nothing.
+     */
+    static final class Copies {
+        final int[] x = new int[MAX_ORDER * MAX_CORNERS]; // corner j of copy k is at k * corners + j
+        final int[] y = new int[MAX_ORDER * MAX_CORNERS];
+        private final int[] cornerX = new int[MAX_CORNERS];
+        private final int[] cornerY = new int[MAX_CORNERS];
+        int corners; // corners of each copy
+        int count;   // copies placed
+
+        /**
+         * Places the copies of a figure that the quality asks for, unless
+         * none of them can reach into a rectangle.
+         *
+         * @return false if no copy reaches into the rectangle, and nothing was placed.
+         */
+        boolean place(Symmetry symmetry, Shape shape, int x, int y, int originX, int originY, int size, int offset,
+                Quality quality, int left, int top, int right, int bottom) {
+            corners = corners(shape, x - originX, y - originY, size, offset, cornerX, cornerY);
+            if (!touches(cornerX, cornerY, corners, size, originX, originY, left, top, right, bottom)) return false;
+            count = symmetry.copies(quality);
+            symmetry.place(cornerX, cornerY, corners, count, originX, originY, this.x, this.y);
+            return true;
+        }
+
+        /**
+         * Places copies from (inclusive) to to (exclusive) of a figure,
+         * whether or not they can be seen; they are then copies 0 to
+         * to - from - 1 here.
+         */
+        void placeRange(Symmetry symmetry, Shape shape, int x, int y, int originX, int originY, int size, int offset, int from, int to) {
+            corners = corners(shape, x - originX, y - originY, size, offset, cornerX, cornerY);
+            count = to - from;
+            symmetry.place(cornerX, cornerY, corners, from, to, originX, originY, this.x, this.y);
+        }
+
+        /**
+         * @return The left edge of the box around copy k of a figure of the given size.
+         */
+        int boxLeft(int k, int size) {
+            return corners == 1 ? x[k] - size / 2 : least(x, k * corners);
+        }
+
+        /**
+         * @return The top edge of the box around copy k of a figure of the given size.
+         */
+        int boxTop(int k, int size) {
+            return corners == 1 ? y[k] - size / 2 : least(y, k * corners);
+        }
+
+        /**
+         * @return The right edge, exclusive, of the box around copy k of a figure of the given size.
+         */
+        int boxRight(int k, int size) {
+            return corners == 1 ? x[k] - size / 2 + size : most(x, k * corners);
+        }
+
+        /**
+         * @return The bottom edge, exclusive, of the box around copy k of a figure of the given size.
+         */
+        int boxBottom(int k, int size) {
+            return corners == 1 ? y[k] - size / 2 + size : most(y, k * corners);
+        }
+
+        private int least(int[] a, int from) {
+            int m = a[from];
+            for (int j = 1; j < corners; j++) m = Math.min(m, a[from + j]);
+            return m;
+        }
+
+        private int most(int[] a, int from) {
+            int m = a[from];
+            for (int j = 1; j < corners; j++) m = Math.max(m, a[from + j]);
+            return m;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return order + "-fold symmetry";
+    }
+}
@@ -0,0 +1,182 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * The SymmetryCompositor draws the same pixels as the SoftwareRenderer, but
+ * rasterizes each shape only once instead of once per reflection.
+ *
+ * All 8 reflections of a figure are the same shape: circles and squares are
+ * only moved, and polygons (triangles) are only mirrored left to right
+ * and/or top to bottom. So each shape is rasterized once into a Stamp, and
+ * the 8 reflections are bulk span fills of that stamp at the reflected
+ * corners, reading its spans backwards where the triangle is mirrored.
+ * The stamps depend only on the figure's size or offset, so they are kept
+ * from frame to frame and most frames rasterize nothing at all. Figures
+ * only a few pixels across are drawn from TinyStamps, which skip even the
+ * span fills.
+ *
+ * In a Symmetry other than the classic 8 reflections only circles stay the
+ * same shape in every copy, so only they are stamped.
+ *
+ * Note that the kaleidoscope cannot be built by mirroring one wedge of the
+ * finished image: each reflection moves a figure's corner but not the way
+ * the figure is drawn from that corner, and every figure has its own origin.
+ */
+public class SymmetryCompositor implements RasterRenderer {
+
+    private static final int BLACK = 0x000000;
+
+    private final PixelBuffer pixels = new PixelBuffer(1, 1);
+    private Stamp[] ovals = new Stamp[70];     // by size
+    private Stamp[] triangles = new Stamp[64]; // by offset
+    private final TinyStamps tiny;
+    private volatile Quality quality = Quality.FULL;
+    private volatile Symmetry symmetry; // null for the classic reflections
+    private final Symmetry.Copies copies = new Symmetry.Copies();
+
+    /**
+     * Creates a compositor that draws figures up to the default tiny size from stamps.
+     */
+    public SymmetryCompositor() {
+        this(TinyStamps.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param tinySize The widest figure, in pixels, drawn from a TinyStamps stamp.
+     */
+    public SymmetryCompositor(int tinySize) {
+        tiny = new TinyStamps(tinySize);
+    }
+
+    @Override
+    public void setQuality(Quality quality) {
+        this.quality = quality;
+    }
+
+    @Override
+    public void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    @Override
+    public void paint(Graphics g, Frame frame, float alpha, int width, int height) {
+        render(frame, alpha, width, height);
+        g.drawImage(pixels.getImage(), 0, 0, null);
+    }
+
+    /**
+     * Draws the frame into this compositor's PixelBuffer without showing it.
+     *
+     * @param frame The figures to draw.
+     * @param alpha How far between their previous (0) and current (1)
+     *              positions to draw the figures.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The PixelBuffer holding the finished image.
+     */
+    public PixelBuffer render(Frame frame, float alpha, int width, int height) {
+        pixels.setSize(width, height);
+        render(frame, alpha, pixels);
+        return pixels;
+    }
+
+    @Override
+    public void render(Frame frame, float alpha, PixelBuffer target) {
+        target.clear(BLACK);
+        Quality quality = this.quality;
+        Symmetry symmetry = this.symmetry;
+        int count = frame.count();
+        for (int i = 0; i < count; i++) {
+            int x = frame.xAt(i, alpha);
+            int y = frame.yAt(i, alpha);
+            if (symmetry != null) {
+                if (target.placeInClip(copies, symmetry, frame, i, x, y, quality)) drawCopies(target, frame, i, quality);
+            }
+            else if (target.touchesClip(frame, i, x, y)) {
+                drawFigure(target, frame, i, x, y, quality);
+            }
+        }
+    }
+
+    /**
+     * Draws the copies of figure i placed by a Symmetry. Turning a circle
+     * leaves it the same, so its copies are stamped; turned squares and
+     * triangles are rasterized as the SoftwareRenderer does.
+     */
+    private void drawCopies(PixelBuffer pixels, Frame f, int i, Quality quality) {
+        int size = f.size[i];
+        if (f.getShape(i) != Shape.CIRCLE || quality.simplifies(Shape.CIRCLE, size, f.offset[i])) {
+            SoftwareRenderer.drawCopies(pixels, f, i, copies, quality);
+            return;
+        }
+        int rgb = f.color[i] & 0xFFFFFF;
+        Stamp stamp = oval(size);
+        for (int k = 0; k < copies.count; k++) {
+            stamp.fill(pixels, copies.boxLeft(k, size), copies.boxTop(k, size), 1, 1, rgb);
+        }
+    }
+
+    /**
+     * Stamps figure i of the frame at each of its reflections.
+     */
+    private void drawFigure(PixelBuffer pixels, Frame f, int i, int x, int y, Quality quality) {
+        int originX = f.originX[i];
+        int originY = f.originY[i];
+        int dx = x - originX; // X location relative to origin
+        int dy = y - originY; // Y location relative to origin
+        int rgb = f.color[i] & 0xFFFFFF;
+        int size = f.size[i];
+        int offset = f.offset[i];
+        Shape shape = f.getShape(i);
+        if (quality.simplifies(shape, size, offset)) {
+            int extent = Reflections.extent(shape, size, offset);
+            for (int k = 0; k < quality.getReflections(); k++) {
+                int left = Reflections.boxLeft(k, Reflections.baseX(k, originX, dx, dy), shape, size, offset);
+                int top = Reflections.boxTop(k, Reflections.baseY(k, originY, dx, dy), shape, size, offset);
+                pixels.fillRect(left, top, extent, extent, rgb);
+            }
+            return;
+        }
+        if (tiny.draw(pixels, f, i, x, y, quality.getReflections())) return;
+        Stamp stamp = shape == Shape.POLYGON ? triangle(offset)
+                    : shape == Shape.CIRCLE ? oval(size)
+                    : null;
+        for (int k = 0; k < quality.getReflections(); k++) {
+            int bx = Reflections.baseX(k, originX, dx, dy);
+            int by = Reflections.baseY(k, originY, dx, dy);
+            int sx = Reflections.signX(k);
+            int sy = Reflections.signY(k);
+            if (shape == Shape.POLYGON) {
+                stamp.fill(pixels, bx, by, sx, sy, rgb);
+            }
+            else if (shape == Shape.CIRCLE) {
+                stamp.fill(pixels, bx + sx * offset, by + sy * offset, 1, 1, rgb);
+            }
+            else {
+                pixels.fillRect(bx + sx * offset, by + sy * offset, size, size, rgb);
+            }
+        }
+    }
+
+    /**
+     * @return The stamp of a circle of the given size, rasterizing it the first time.
+     */
+    private Stamp oval(int size) {
+        if (size >= ovals.length) ovals = Arrays.copyOf(ovals, size + 1);
+        Stamp stamp = ovals[size];
+        if (stamp == null) ovals[size] = stamp = Stamp.oval(size, size);
+        return stamp;
+    }
+
+    /**
+     * @return The stamp of a triangle with the given offset, rasterizing it the first time.
+     */
+    private Stamp triangle(int offset) {
+        if (offset >= triangles.length) triangles = Arrays.copyOf(triangles, Math.max(offset + 1, triangles.length * 2));
+        Stamp stamp = triangles[offset];
+        if (stamp == null) triangles[offset] = stamp = Stamp.triangle(offset / 4, offset / 2);
+        return stamp;
+    }
+}
@@ -0,0 +1,57 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import org.junit.Test;
+  
+public class SymmetryCompositorTest {
+  
+    @Test
+    public void testSamePixelsAsSoftwareRenderer() { // Stamping must give exactly the per-reflection pixels, clipping included.
+        SoftwareRenderer software = new SoftwareRenderer();
+        SymmetryCompositor compositor = new SymmetryCompositor();
+        for (int scene = 0; scene < 5; scene++) {
+            Frame frame = FrameFixture.frame(scene, 300, 1000, 800, scene * 17);
+            int[] expected = software.render(frame, 1f, 1000, 800).getPixels();
+            int[] actual = compositor.render(frame, 1f, 1000, 800).getPixels();
+            assertArrayEquals(expected, actual);
+        }
+    }
+  
+    @Test
+    public void testSamePixelsWhenWindowShrinks() { // Figures are partly off screen after the window gets smaller.
+        Frame frame = FrameFixture.frame(9, 200, 1000, 800, 40);
+        int[] expected = new SoftwareRenderer().render(frame, 0.5f, 400, 300).getPixels();
+        int[] actual = new SymmetryCompositor().render(frame, 0.5f, 400, 300).getPixels();
+        assertArrayEquals(expected, actual);
+    }
+  
+    @Test
+    public void testSamePixelsAtLowerQuality() { // Small figures as squares and half the reflections, drawn alike by both.
+        Frame frame = FrameFixture.frame(4, 300, 1000, 800, 25);
+        Quality quality = new Quality(12, 4);
+        SoftwareRenderer software = new SoftwareRenderer();
+        SymmetryCompositor compositor = new SymmetryCompositor();
+        software.setQuality(quality);
+        compositor.setQuality(quality);
+        int[] expected = software.render(frame, 1f, 1000, 800).getPixels();
+        int[] actual = compositor.render(frame, 1f, 1000, 800).getPixels();
+        assertArrayEquals(expected, actual);
+        int[] full = new SoftwareRenderer().render(frame, 1f, 1000, 800).getPixels();
+        assertFalse(java.util.Arrays.equals(full, expected));
+    }
+  
+    @Test
+    public void testSamePixelsInSymmetry() { // Stamped circles land where the SoftwareRenderer draws them in every order.
+        Frame frame = FrameFixture.frame(6, 200, 1000, 800, 30);
+        for (int order : Symmetry.ORDERS) {
+            SoftwareRenderer software = new SoftwareRenderer();
+            SymmetryCompositor compositor = new SymmetryCompositor();
+            software.setSymmetry(Symmetry.forOrder(order));
+            compositor.setSymmetry(Symmetry.forOrder(order));
+            int[] expected = software.render(frame, 1f, 1000, 800).getPixels();
+            int[] actual = compositor.render(frame, 1f, 1000, 800).getPixels();
+            assertArrayEquals("order " + order, expected, actual);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.HashSet;
+import java.util.Set;
+  
+import org.junit.Test;
+  
+public class SymmetryTest {
+  
+    private static Set<Long> placed(Symmetry symmetry, int x, int y) {
+        int[] outX = new int[symmetry.getOrder()], outY = new int[symmetry.getOrder()];
+        symmetry.place(new int[] { x }, new int[] { y }, 1, symmetry.getOrder(), 0, 0, outX, outY);
+        Set<Long> points = new HashSet<Long>();
+        for (int k = 0; k < outX.length; k++) {
+            points.add(((long) outX[k] << 32) | (outY[k] & 0xFFFFFFFFL));
+        }
+        return points;
+    }
+  
+    @Test
+    public void testEightFoldPlacesCornersLikeReflections() { // Turning by quarters and mirroring reaches the same corners as the classic reflections.
+        Set<Long> expected = new HashSet<Long>();
+        for (int k = 0; k < Reflections.COUNT; k++) {
+            int bx = Reflections.baseX(k, 0, 37, -120), by = Reflections.baseY(k, 0, 37, -120);
+            expected.add(((long) bx << 32) | (by & 0xFFFFFFFFL));
+        }
+        assertEquals(expected, placed(Symmetry.of(8), 37, -120));
+    }
+  
+    @Test
+    public void testCopiesAreEvenlyTurned() { // Every copy is as far from the origin, at a multiple of the turn, mirrored copies included.
+        for (int order : Symmetry.ORDERS) {
+            Symmetry symmetry = Symmetry.of(order);
+            int[] outX = new int[order], outY = new int[order];
+            symmetry.place(new int[] { 300 }, new int[] { 100 }, 1, order, 500, 400, outX, outY);
+            double radius = Math.hypot(300, 100);
+            double turn = 2 * Math.PI / (order / 2);
+            for (int k = 0; k < order; k++) {
+                double dx = outX[k] - 500, dy = outY[k] - 400;
+                assertEquals(radius, Math.hypot(dx, dy), 1.0);
+                double start = symmetry.isMirrored(k) ? Math.atan2(-100, 300) : Math.atan2(100, 300);
+                double steps = (Math.atan2(dy, dx) - start) / turn;
+                assertEquals(order + "-fold copy " + k, Math.round(steps), steps, 0.01);
+            }
+            assertEquals(order, placed(symmetry, 300, 100).size());
+        }
+    }
+  
+    @Test
+    public void testOrders() { // Odd and out of range orders are refused, and 8 means the classic reflections.
+        assertNull(Symmetry.forOrder(8));
+        assertEquals(12, Symmetry.forOrder(12).getOrder());
+        assertEquals(6, Symmetry.of(12).copies(new Quality(0, 4)));
+        assertEquals(12, Symmetry.of(12).copies(Quality.FULL));
+        for (int order : new int[] { 0, 7, Symmetry.MAX_ORDER + 2 }) {
+            try {
+                Symmetry.of(order);
+                fail("Order " + order + " accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
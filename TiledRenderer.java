@@ -0,0 +1,293 @@
+package kaleidoscope;
+
+import java.awt.Graphics;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The TiledRenderer draws the same pixels as the SoftwareRenderer, but
+ * fills the image on every core of a fork-join pool.
+ *
+ * The image is cut into TILE x TILE pixel tiles. First, on the calling
+ * thread, the bounding box of each of the 8 reflections of every figure
+ * (or of each of its copies in a Symmetry) is binned: the reflection is
+ * added to the list of every tile its box overlaps, in the order the
+ * SoftwareRenderer draws them. Then the tiles are filled in parallel,
+ * each clipped to itself: cleared, and every reflection in its list drawn
+ * in order, exactly as the SoftwareRenderer draws it. No two tiles share
+ * a pixel, so the tasks write into the one int[] of the image without
+ * locking, and every pixel is written by the reflections that cover it in
+ * the same order as on one thread.
+ *
+ * Each pool thread keeps its own TinyStamps, since stamps are made the
+ * first time they are drawn. A renderer must only paint on one thread at
+ * a time.
+ */
+public class TiledRenderer implements RasterRenderer {
+
+    /** Width and height of a tile, in pixels. */
+    static final int TILE = 256;
+
+    private static final int BLACK = 0x000000;
+
+    private final ForkJoinPool pool;
+    private final int tinySize;
+    private final PixelBuffer pixels = new PixelBuffer(1, 1);
+    private final ThreadLocal<Lane> lanes = new ThreadLocal<Lane>();
+    private final Symmetry.Copies copies = new Symmetry.Copies(); // places copies for binning
+    private volatile Quality quality = Quality.FULL;
+    private volatile Symmetry symmetry; // null for the classic reflections
+
+    // The tiles: columns x rows of them, each with the reflections that reach into it.
+    private int columns;
+    private int rows;
+    private int[][] bins = new int[0][]; // figure times stride plus reflection or copy
+    private int[] binSize = new int[0];
+    private int[] active = new int[0]; // the tiles inside the clip
+    private int activeCount;
+
+    // What the tiles draw this frame; set before the tasks start.
+    private Frame frame;
+    private PixelBuffer target;
+    private Quality drawQuality;
+    private Symmetry drawSymmetry;
+    private int stride; // reflections or copies of each figure
+    private int[] drawX = new int[0]; // where each figure is drawn
+    private int[] drawY = new int[0];
+
+    /**
+     * Creates a renderer that fills tiles on the common fork-join pool.
+     */
+    public TiledRenderer() {
+        this(ForkJoinPool.commonPool(), TinyStamps.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param pool The pool that tiles are filled on.
+     * @param tinySize The widest figure, in pixels, drawn from a stamp; 0 rasterizes every figure.
+     */
+    public TiledRenderer(ForkJoinPool pool, int tinySize) {
+        this.pool = pool;
+        this.tinySize = tinySize;
+    }
+
+    @Override
+    public void setQuality(Quality quality) {
+        this.quality = quality;
+    }
+
+    @Override
+    public void setSymmetry(Symmetry symmetry) {
+        this.symmetry = symmetry;
+    }
+
+    @Override
+    public void paint(Graphics g, Frame frame, float alpha, int width, int height) {
+        render(frame, alpha, width, height);
+        g.drawImage(pixels.getImage(), 0, 0, null);
+    }
+
+    /**
+     * Draws the frame into this renderer's PixelBuffer without showing it.
+     *
+     * @param frame The figures to draw.
+     * @param alpha How far between their previous (0) and current (1)
+     *              positions to draw the figures.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The PixelBuffer holding the finished image.
+     */
+    public PixelBuffer render(Frame frame, float alpha, int width, int height) {
+        pixels.setSize(width, height);
+        render(frame, alpha, pixels);
+        return pixels;
+    }
+
+    @Override
+    public void render(Frame frame, float alpha, PixelBuffer target) {
+        this.frame = frame;
+        this.target = target;
+        drawQuality = quality;
+        drawSymmetry = symmetry;
+        bin(frame, alpha, target);
+        if (pool.getParallelism() > 1 && activeCount > 1) {
+            pool.invoke(new TileTask(0, activeCount));
+        }
+        else {
+            Lane lane = lane();
+            for (int a = 0; a < activeCount; a++) {
+                drawTile(active[a], lane);
+            }
+        }
+        this.frame = null;
+        this.target = null;
+    }
+
+    /**
+     * Lists, for every tile inside the clip of the target, the reflections
+     * or copies of figures that may reach into it.
+     */
+    private void bin(Frame f, float alpha, PixelBuffer target) {
+        int width = target.getWidth(), height = target.getHeight();
+        int c = (width + TILE - 1) / TILE, r = (height + TILE - 1) / TILE;
+        if (c != columns || r != rows) {
+            columns = c;
+            rows = r;
+            bins = new int[c * r][];
+            for (int t = 0; t < bins.length; t++) {
+                bins[t] = new int[16];
+            }
+            binSize = new int[c * r];
+            active = new int[c * r];
+        }
+        Arrays.fill(binSize, 0);
+        int left = target.getClipLeft(), top = target.getClipTop();
+        int right = target.getClipRight(), bottom = target.getClipBottom();
+        activeCount = 0;
+        if (left < right && top < bottom) {
+            for (int row = top / TILE; row <= (bottom - 1) / TILE; row++) {
+                for (int column = left / TILE; column <= (right - 1) / TILE; column++) {
+                    active[activeCount++] = row * columns + column;
+                }
+            }
+        }
+        int count = f.count();
+        if (drawX.length < count) {
+            drawX = new int[count];
+            drawY = new int[count];
+        }
+        Quality quality = drawQuality;
+        Symmetry symmetry = drawSymmetry;
+        stride = symmetry == null ? Reflections.COUNT : symmetry.getOrder();
+        for (int i = 0; i < count; i++) {
+            int x = f.xAt(i, alpha);
+            int y = f.yAt(i, alpha);
+            drawX[i] = x;
+            drawY[i] = y;
+            Shape shape = f.getShape(i);
+            int size = f.size[i];
+            int offset = f.offset[i];
+            if (symmetry != null) {
+                if (!copies.place(symmetry, shape, x, y, f.originX[i], f.originY[i], size, offset, quality,
+                        left, top, right, bottom)) continue;
+                for (int k = 0; k < copies.count; k++) {
+                    binBox(i * stride + k, copies.boxLeft(k, size), copies.boxTop(k, size), copies.boxRight(k, size), copies.boxBottom(k, size),
+                            left, top, right, bottom);
+                }
+                continue;
+            }
+            int dx = x - f.originX[i];
+            int dy = y - f.originY[i];
+            int extent = Reflections.extent(shape, size, offset);
+            for (int k = 0; k < quality.getReflections(); k++) {
+                int boxLeft = Reflections.boxLeft(k, Reflections.baseX(k, f.originX[i], dx, dy), shape, size, offset);
+                int boxTop = Reflections.boxTop(k, Reflections.baseY(k, f.originY[i], dx, dy), shape, size, offset);
+                binBox(i * stride + k, boxLeft, boxTop, boxLeft + extent, boxTop + extent, left, top, right, bottom);
+            }
+        }
+    }
+
+    /**
+     * Adds a reflection to every tile inside the clip that its box, with a
+     * pixel of slack all round, overlaps.
+     */
+    private void binBox(int entry, int x0, int y0, int x1, int y1, int left, int top, int right, int bottom) {
+        x0 = Math.max(x0 - 1, left);
+        y0 = Math.max(y0 - 1, top);
+        x1 = Math.min(x1 + 1, right - 1);
+        y1 = Math.min(y1 + 1, bottom - 1);
+        if (x0 > x1 || y0 > y1) return;
+        for (int row = y0 / TILE; row <= y1 / TILE; row++) {
+            for (int column = x0 / TILE; column <= x1 / TILE; column++) {
+                int t = row * columns + column;
+                int n = binSize[t];
+                int[] bin = bins[t];
+                if (n == bin.length) bins[t] = bin = Arrays.copyOf(bin, n * 2);
+                bin[n] = entry;
+                binSize[t] = n + 1;
+            }
+        }
+    }
+
+    /**
+     * Clears one tile and draws the reflections listed for it, clipped to it.
+     */
+    private void drawTile(int t, Lane lane) {
+        PixelBuffer view = lane.view;
+        PixelBuffer target = this.target;
+        view.share(target);
+        int left = Math.max((t % columns) * TILE, target.getClipLeft());
+        int top = Math.max((t / columns) * TILE, target.getClipTop());
+        int right = Math.min((t % columns + 1) * TILE, target.getClipRight());
+        int bottom = Math.min((t / columns + 1) * TILE, target.getClipBottom());
+        view.setClip(left, top, right - left, bottom - top);
+        view.clear(BLACK);
+        Frame f = frame;
+        Quality quality = drawQuality;
+        Symmetry symmetry = drawSymmetry;
+        int[] bin = bins[t];
+        int stride = this.stride;
+        Symmetry.Copies copies = lane.copies;
+        for (int j = 0, n = binSize[t]; j < n; j++) {
+            int i = bin[j] / stride, k = bin[j] % stride;
+            if (symmetry == null) {
+                SoftwareRenderer.drawFigure(view, f, i, drawX[i], drawY[i], quality, lane.tiny, k, k + 1);
+            }
+            else {
+                copies.placeRange(symmetry, f.getShape(i), drawX[i], drawY[i], f.originX[i], f.originY[i],
+                        f.size[i], f.offset[i], k, k + 1);
+                SoftwareRenderer.drawCopies(view, f, i, copies, quality);
+            }
+        }
+    }
+
+    /**
+     * @return The calling thread's own view, stamps and copies.
+     */
+    private Lane lane() {
+        Lane lane = lanes.get();
+        if (lane == null) {
+            lane = new Lane(tinySize);
+            lanes.set(lane);
+        }
+        return lane;
+    }
+
+    /**
+     * What one thread needs to fill tiles: a view of the image with a clip
+     * of its own, its own stamps, and room to place copies.
+     */
+    private static class Lane {
+        final PixelBuffer view = new PixelBuffer(1, 1);
+        final TinyStamps tiny;
+        final Symmetry.Copies copies = new Symmetry.Copies();
+
+        Lane(int tinySize) {
+            tiny = new TinyStamps(tinySize);
+        }
+    }
+
+    /**
+     * Fills a range of the tiles inside the clip, splitting it in half
+     * until it is one tile.
+     */
+    private class TileTask extends RecursiveAction {
+        private final int from, to;
+
+        TileTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                drawTile(active[from], lane());
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(from, middle), new TileTask(middle, to));
+        }
+    }
+}
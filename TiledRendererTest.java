@@ -0,0 +1,62 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.concurrent.ForkJoinPool;
+  
+import org.junit.After;
+import org.junit.Test;
+  
+public class TiledRendererTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+  
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+  
+    @Test
+    public void testSamePixelsAsSoftwareRenderer() { // Tiles filled on 4 threads give exactly the pixels drawn on one, at odd sizes too.
+        TiledRenderer tiled = new TiledRenderer(pool, TinyStamps.DEFAULT_SIZE);
+        SoftwareRenderer software = new SoftwareRenderer();
+        for (int scene = 0; scene < 4; scene++) {
+            int width = 1000 - 77 * scene, height = 800 - 51 * scene;
+            Frame frame = FrameFixture.frame(scene, 400, 1000, 800, scene * 13);
+            int[] expected = software.render(frame, 0.5f, width, height).getPixels();
+            int[] actual = tiled.render(frame, 0.5f, width, height).getPixels();
+            assertArrayEquals("scene " + scene, expected, actual);
+        }
+    }
+  
+    @Test
+    public void testSamePixelsInClip() { // Only the clip is drawn, and within it the same pixels.
+        Frame frame = FrameFixture.frame(7, 300, 1000, 800, 20);
+        PixelBuffer expected = new PixelBuffer(1000, 800);
+        PixelBuffer actual = new PixelBuffer(1000, 800);
+        expected.clear(0x123456);
+        actual.clear(0x123456);
+        expected.setClip(150, 90, 333, 401);
+        actual.setClip(150, 90, 333, 401);
+        new SoftwareRenderer().render(frame, 1f, expected);
+        new TiledRenderer(pool, TinyStamps.DEFAULT_SIZE).render(frame, 1f, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+  
+    @Test
+    public void testSamePixelsAtLowerQualityAndInSymmetry() { // Simplified figures, fewer reflections and turned copies are binned as they are drawn.
+        Frame frame = FrameFixture.frame(3, 300, 1000, 800, 25);
+        Quality quality = new Quality(12, 4);
+        for (Symmetry symmetry : new Symmetry[] { null, Symmetry.of(12) }) {
+            TiledRenderer tiled = new TiledRenderer(pool, 0);
+            SoftwareRenderer software = new SoftwareRenderer(0);
+            tiled.setQuality(quality);
+            software.setQuality(quality);
+            tiled.setSymmetry(symmetry);
+            software.setSymmetry(symmetry);
+            assertArrayEquals(software.render(frame, 1f, 1000, 800).getPixels(), tiled.render(frame, 1f, 1000, 800).getPixels());
+            tiled.setQuality(Quality.FULL);
+            software.setQuality(Quality.FULL);
+            assertArrayEquals(software.render(frame, 1f, 1000, 800).getPixels(), tiled.render(frame, 1f, 1000, 800).getPixels());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package kaleidoscope;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The TimingWheel runs tasks at deadlines, for very many tasks that come
+ * round again and again, such as the steps of thousands of Sessions.
+ *
+ * Time is cut into ticks of a fixed length, and the wheel is a ring of
+ * buckets, one per tick; a task due in n ticks goes in the bucket n places
+ * ahead, with the number of whole turns of the ring still to wait. One
+ * thread turns the wheel: every tick it hands the tasks in the bucket that
+ * are due to an Executor. Scheduling is one compareAndSet onto a list the
+ * wheel thread empties every tick, and tasks are linked through a field of
+ * their own, so nothing is allocated and no lock is taken however many
+ * tasks there are. A task runs at most one tick late, plus however long
+ * the Executor takes to get to it.
+ */
+public class TimingWheel {
+
+    /**
+     * Something to run at a deadline. A task is scheduled at most once at a time.
+     */
+    public abstract static class Task implements Runnable {
+        long deadline;
+        long rounds; // whole turns of the wheel still to wait
+        Task next;   // in the list of newly scheduled tasks, then in a bucket
+        volatile boolean cancelled;
+
+        /**
+         * @return The System.nanoTime() the task was scheduled for.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Keeps the task from running, if it has not started yet. It cannot be scheduled again.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Task[] buckets; // only touched by the wheel thread
+    private final Executor executor;
+    private final AtomicReference<Task> scheduled = new AtomicReference<Task>();
+    private final Thread thread;
+    private final long origin = System.nanoTime();
+    private long tick; // the next tick to turn to; only used by the wheel thread
+    private volatile boolean stopped;
+
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * Starts turning the wheel.
+     *
+     * @param tickNanos The length of one tick.
+     * @param size The number of buckets; rounded up to a power of two.
+     * @param executor What runs the tasks that are due.
+     */
+    public TimingWheel(long tickNanos, int size, Executor executor) {
+        if (tickNanos <= 0 || size < 1 || size > 1 << 20) throw new IllegalArgumentException("Bad wheel: " + tickNanos + " ns x " + size);
+        int n = Integer.highestOneBit(size);
+        if (n < size) n <<= 1;
+        this.tickNanos = tickNanos;
+        this.mask = n - 1;
+        this.buckets = new Task[n];
+        this.executor = executor;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                turn();
+            }
+        }, "kaleidoscope-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules a task. May be called on any thread, including by the task itself.
+     *
+     * @param task The task; not scheduled already.
+     * @param deadline The System.nanoTime() to run it at; run as soon as
+     *                 possible if it has passed.
+     */
+    public void schedule(Task task, long deadline) {
+        task.deadline = deadline;
+        Task head;
+        do {
+            head = scheduled.get();
+            task.next = head;
+        } while (!scheduled.compareAndSet(head, task));
+    }
+
+    /**
+     * Stops turning the wheel; tasks not yet run never will be.
+     */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * @return The number of tasks run so far.
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    /**
+     * @return The length of one tick in nanoseconds.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Turns the wheel until stopped, one bucket every tick.
+     */
+    private void turn() {
+        while (!stopped) {
+            long now = System.nanoTime();
+            long current = (now - origin) / tickNanos;
+            while (tick <= current) {
+                place(scheduled.getAndSet(null));
+                expire(buckets[(int) tick & mask]);
+                tick++;
+            }
+            long wait = origin + tick * tickNanos - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    /**
+     * Puts newly scheduled tasks in their buckets; the wheel thread is at tick.
+     */
+    private void place(Task task) {
+        while (task != null) {
+            Task next = task.next;
+            long due = Math.max(tick, (task.deadline - origin + tickNanos - 1) / tickNanos); // never before now
+            task.rounds = (due - tick) >> Integer.numberOfTrailingZeros(mask + 1);
+            int b = (int) due & mask;
+            task.next = buckets[b];
+            buckets[b] = task;
+            task = next;
+        }
+    }
+
+    /**
+     * Runs the tasks in a bucket that are due this turn and keeps the rest.
+     */
+    private void expire(Task head) {
+        int b = (int) tick & mask;
+        buckets[b] = null;
+        while (head != null) {
+            Task next = head.next;
+            if (head.rounds > 0) {
+                head.rounds--;
+                head.next = buckets[b];
+                buckets[b] = head;
+            }
+            else if (!head.cancelled) {
+                head.next = null;
+                expired.incrementAndGet();
+                executor.execute(head);
+            }
+            head = next;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+  
+import org.junit.Test;
+  
+public class TimingWheelTest {
+  
+    /** Runs tasks on the wheel's own thread. */
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+  
+    /** Notes when it ran. */
+    static class Timed extends TimingWheel.Task {
+        final CountDownLatch done;
+        volatile long ranAt;
+  
+        Timed(CountDownLatch done) {
+            this.done = done;
+        }
+  
+        @Override
+        public void run() {
+            ranAt = System.nanoTime();
+            done.countDown();
+        }
+    }
+  
+    @Test
+    public void testNeverEarly() throws Exception { // Tasks run at or after their deadlines, however far ahead, and not much later.
+        TimingWheel wheel = new TimingWheel(1000000L, 16, DIRECT); // 16 ms a turn, so most tasks wait whole turns
+        try {
+            CountDownLatch done = new CountDownLatch(50);
+            Timed[] tasks = new Timed[50];
+            long now = System.nanoTime();
+            for (int t = 0; t < tasks.length; t++) {
+                tasks[t] = new Timed(done);
+                wheel.schedule(tasks[t], now + (t * 7 % 50) * 2000000L);
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            for (Timed task : tasks) {
+                assertTrue(task.ranAt >= task.getDeadline());
+                assertTrue(task.ranAt - task.getDeadline() < 500000000L);
+            }
+            assertEquals(50, wheel.getExpiredCount());
+        } finally {
+            wheel.stop();
+        }
+    }
+  
+    @Test
+    public void testRescheduleAndCancel() throws Exception { // A task may schedule itself again; a cancelled one does not run.
+        final TimingWheel wheel = new TimingWheel(1000000L, 64, DIRECT);
+        try {
+            final AtomicInteger runs = new AtomicInteger();
+            final CountDownLatch ten = new CountDownLatch(10);
+            TimingWheel.Task repeating = new TimingWheel.Task() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                    ten.countDown();
+                    wheel.schedule(this, getDeadline() + 2000000L);
+                }
+            };
+            wheel.schedule(repeating, System.nanoTime());
+            Timed cancelled = new Timed(new CountDownLatch(1));
+            wheel.schedule(cancelled, System.nanoTime() + 5000000L);
+            cancelled.cancel();
+            assertTrue(ten.await(5, TimeUnit.SECONDS));
+            repeating.cancel();
+            Thread.sleep(20);
+            int stopped = runs.get();
+            Thread.sleep(20);
+            assertEquals(stopped, runs.get());
+            assertEquals(0, cancelled.ranAt);
+        } finally {
+            wheel.stop();
+        }
+    }
+}
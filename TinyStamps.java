@@ -0,0 +1,215 @@
+package kaleidoscope;
+
+import java.util.Arrays;
+
+/**
+ * TinyStamps is the level-of-detail tier for figures only a few pixels
+ * across, of which FigureBuffer makes many: sizes are picked from 0 to 69.
+ * Rasterizing such a figure span by span, 8 times, costs far more than
+ * the handful of pixels it covers.
+ *
+ * Instead, the first time a tiny figure of a given shape and size is
+ * drawn in a given reflection, it is drawn once with the SoftwareRenderer's
+ * own fill routines into a scratch buffer, and the pixels it covered are
+ * kept as a list of positions relative to the corner of its bounding box.
+ * From then on each reflection that lies wholly inside the clip is a run
+ * of plain stores into the int[] at those positions, with no clipping and
+ * no arithmetic beyond one add per pixel; a figure of size 1 is a single
+ * store. Reflections that cross the edge of the clip are clipped pixel by
+ * pixel. Since the stamps are made by the same fill routines, the pixels
+ * are exactly the same.
+ *
+ * Figures whose bounding box is wider than the tiny size are left to the
+ * renderer. The size is taken from -Dkaleidoscope.tinySize (default 16);
+ * 0 turns the tier off.
+ */
+public class TinyStamps {
+
+    /** Default widest bounding box, in pixels, of a figure drawn from a stamp. */
+    public static final int DEFAULT_SIZE = Integer.getInteger("kaleidoscope.tinySize", 16);
+
+    /** Widest bounding box any stamp can be made for. */
+    static final int MAX_SIZE = 64;
+
+    private static final int MARGIN = 2; // room around the bounding box in the scratch buffer
+
+    private final int maxExtent;
+    private final Stamp[][] stamps; // by shape and size or offset, then reflection
+    private PixelBuffer scratch;
+
+    /**
+     * Creates stamps for figures up to the default size.
+     */
+    public TinyStamps() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param maxExtent The widest bounding box, in pixels, of a figure drawn
+     *                  from a stamp, up to MAX_SIZE; 0 draws none.
+     */
+    public TinyStamps(int maxExtent) {
+        this.maxExtent = Math.max(0, Math.min(maxExtent, MAX_SIZE));
+        // Polygons are keyed by offset, and a polygon's box is half its offset wide.
+        stamps = new Stamp[Shape.values().length * (2 * MAX_SIZE + 2)][];
+    }
+
+    /**
+     * @return The widest bounding box, in pixels, of a figure drawn from a stamp.
+     */
+    public int getMaxExtent() {
+        return maxExtent;
+    }
+
+    /**
+     * Draws figure i of the frame and its first few reflections from
+     * stamps, if it is small enough.
+     *
+     * @param pixels Where to draw.
+     * @param f The frame holding the figure.
+     * @param i The slot of the figure.
+     * @param x The X position to draw the figure at.
+     * @param y The Y position to draw the figure at.
+     * @param reflections How many reflections to draw.
+     * @return false if the figure is too big, and nothing was drawn.
+     */
+    public boolean draw(PixelBuffer pixels, Frame f, int i, int x, int y, int reflections) {
+        return draw(pixels, f, i, x, y, 0, reflections);
+    }
+
+    /**
+     * Draws some of the reflections of figure i of the frame from stamps,
+     * if it is small enough.
+     *
+     * @param pixels Where to draw.
+     * @param f The frame holding the figure.
+     * @param i The slot of the figure.
+     * @param x The X position to draw the figure at.
+     * @param y The Y position to draw the figure at.
+     * @param from The first reflection to draw.
+     * @param to The reflection after the last one to draw.
+     * @return false if the figure is too big, and nothing was drawn.
+     */
+    public boolean draw(PixelBuffer pixels, Frame f, int i, int x, int y, int from, int to) {
+        Shape shape = f.getShape(i);
+        int size = f.size[i];
+        int offset = f.offset[i];
+        if (Reflections.extent(shape, size, offset) > maxExtent) return false;
+        Stamp[] byReflection = stamps(shape, size, offset);
+        int originX = f.originX[i];
+        int originY = f.originY[i];
+        int dx = x - originX;
+        int dy = y - originY;
+        int rgb = f.color[i] & 0xFFFFFF;
+        int[] target = pixels.getPixels();
+        int width = pixels.getWidth();
+        for (int k = from; k < to; k++) {
+            int left = Reflections.boxLeft(k, Reflections.baseX(k, originX, dx, dy), shape, size, offset);
+            int top = Reflections.boxTop(k, Reflections.baseY(k, originY, dx, dy), shape, size, offset);
+            Stamp stamp = byReflection[k];
+            if (pixels.clipContains(left + stamp.left, top + stamp.top, left + stamp.right, top + stamp.bottom)) {
+                int[] positions = stamp.positions(width);
+                int base = top * width + left;
+                for (int p = 0; p < positions.length; p++) {
+                    target[base + positions[p]] = rgb;
+                }
+            }
+            else {
+                for (int p = 0; p < stamp.xs.length; p++) {
+                    int px = left + stamp.xs[p];
+                    pixels.fillSpan(top + stamp.ys[p], px, px, rgb);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The stamps of a figure in each of its reflections, making them the first time.
+     */
+    private Stamp[] stamps(Shape shape, int size, int offset) {
+        int key = shape.ordinal() * (2 * MAX_SIZE + 2) + (shape == Shape.POLYGON ? offset : size);
+        Stamp[] byReflection = stamps[key];
+        if (byReflection == null) {
+            byReflection = new Stamp[Reflections.COUNT];
+            for (int k = 0; k < Reflections.COUNT; k++) {
+                byReflection[k] = make(k, shape, size, offset);
+            }
+            stamps[key] = byReflection;
+        }
+        return byReflection;
+    }
+
+    /**
+     * Draws reflection k of a figure into the scratch buffer, with the
+     * corner of its bounding box at (MARGIN, MARGIN), and records the
+     * pixels it covered.
+     */
+    private Stamp make(int k, Shape shape, int size, int offset) {
+        int extent = Reflections.extent(shape, size, offset);
+        int side = extent + 2 * MARGIN + 1;
+        if (scratch == null) scratch = new PixelBuffer(MAX_SIZE + 2 * MARGIN + 1, MAX_SIZE + 2 * MARGIN + 1);
+        scratch.setClip(0, 0, side, side);
+        scratch.clear(0);
+        // Where the figure's corner goes so that its box starts at the margin.
+        int bx = MARGIN - Reflections.boxLeft(k, 0, shape, size, offset);
+        int by = MARGIN - Reflections.boxTop(k, 0, shape, size, offset);
+        SoftwareRenderer.drawReflection(scratch, shape, bx, by, Reflections.signX(k), Reflections.signY(k), size, offset, 1);
+        int[] covered = scratch.getPixels();
+        int stride = scratch.getWidth();
+        int n = 0;
+        int[] xs = new int[side * side], ys = new int[side * side];
+        for (int row = 0; row < side; row++) {
+            for (int col = 0; col < side; col++) {
+                if (covered[row * stride + col] != 0) {
+                    xs[n] = col - MARGIN;
+                    ys[n] = row - MARGIN;
+                    n++;
+                }
+            }
+        }
+        return new Stamp(Arrays.copyOf(xs, n), Arrays.copyOf(ys, n));
+    }
+
+    /**
+     * The pixels one reflection of a tiny figure covers, relative to the
+     * corner of its bounding box.
+     */
+    private static class Stamp {
+        final int[] xs, ys;
+        final int left, top, right, bottom; // the pixels' bounds; right and bottom are exclusive
+        private int[] positions = new int[0]; // xs and ys as offsets into rows of the last width
+        private int width = -1;
+
+        Stamp(int[] xs, int[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+            int l = 0, t = 0, r = 0, b = 0;
+            for (int p = 0; p < xs.length; p++) {
+                if (p == 0 || xs[p] < l) l = xs[p];
+                if (p == 0 || ys[p] < t) t = ys[p];
+                if (p == 0 || xs[p] >= r) r = xs[p] + 1;
+                if (p == 0 || ys[p] >= b) b = ys[p] + 1;
+            }
+            left = l;
+            top = t;
+            right = r;
+            bottom = b;
+        }
+
+        /**
+         * @return The pixels as offsets from the corner's index in an image of the given width.
+         */
+        int[] positions(int width) {
+            if (width != this.width) {
+                int[] p = new int[xs.length];
+                for (int j = 0; j < p.length; j++) {
+                    p[j] = ys[j] * width + xs[j];
+                }
+                positions = p;
+                this.width = width;
+            }
+            return positions;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+  
+import java.util.Random;
+  
+import org.junit.Test;
+  
+public class TinyStampsTest {
+  
+    /**
+     * Makes figures of every shape no more than maxSize pixels across,
+     * stepped a while so that some are near the walls.
+     */
+    private static Frame makeTinyFrame(long seed, int count, int maxSize, int width, int height) {
+        FigureBuffer figures = FrameFixture.figures(seed, count, width, height);
+        Random rand = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            if (figures.getShape(i) == Shape.POLYGON) figures.offset[i] = rand.nextInt(2 * maxSize + 2);
+            else figures.size[i] = rand.nextInt(maxSize + 1);
+            figures.setLimits(i, width, height);
+        }
+        return FrameFixture.frame(figures, 13);
+    }
+  
+    @Test
+    public void testSamePixelsAsRasterizing() { // Stamps must be exactly the pixels the fill routines give.
+        for (int scene = 0; scene < 4; scene++) {
+            Frame frame = makeTinyFrame(scene, 2000, 24, 1000, 800);
+            int[] expected = new SoftwareRenderer(0).render(frame, 0.5f, 1000, 800).getPixels();
+            assertArrayEquals(expected, new SoftwareRenderer(24).render(frame, 0.5f, 1000, 800).getPixels());
+            assertArrayEquals(expected, new SymmetryCompositor(24).render(frame, 0.5f, 1000, 800).getPixels());
+        }
+    }
+  
+    @Test
+    public void testSamePixelsWhenClipped() { // Reflections crossing the window's edge or a clip are clipped pixel by pixel.
+        Frame frame = makeTinyFrame(7, 3000, 16, 1000, 800);
+        int[] expected = new SoftwareRenderer(0).render(frame, 1f, 400, 300).getPixels();
+        assertArrayEquals(expected, new SoftwareRenderer(16).render(frame, 1f, 400, 300).getPixels());
+        PixelBuffer rasterized = new PixelBuffer(1000, 800);
+        PixelBuffer stamped = new PixelBuffer(1000, 800);
+        rasterized.setClip(130, 70, 301, 257);
+        stamped.setClip(130, 70, 301, 257);
+        new SoftwareRenderer(0).render(frame, 1f, rasterized);
+        new SoftwareRenderer(16).render(frame, 1f, stamped);
+        assertArrayEquals(rasterized.getPixels(), stamped.getPixels());
+    }
+  
+    @Test
+    public void testOnlyTinyFiguresAreStamped() { // Bigger figures are left to the renderer.
+        Frame frame = makeTinyFrame(3, 30, 40, 1000, 800);
+        TinyStamps stamps = new TinyStamps(8);
+        PixelBuffer pixels = new PixelBuffer(1000, 800);
+        for (int i = 0; i < frame.count(); i++) {
+            int extent = Reflections.extent(frame.getShape(i), frame.size[i], frame.offset[i]);
+            assertEquals(extent <= 8, stamps.draw(pixels, frame, i, frame.xAt(i, 1f), frame.yAt(i, 1f), Reflections.COUNT));
+        }
+    }
+}
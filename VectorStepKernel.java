@@ -0,0 +1,53 @@
+package kaleidoscope;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorStepKernel steps as many figures at a time as fit in one vector
+ * register. Instead of branching on the walls, it builds a mask of the lanes
+ * that went out of bounds and uses it to negate their deltas and move them
+ * back, which is what the branches in Model.makeOneStep() do one figure at
+ * a time. The figures left over at the end are stepped by the scalar code.
+ *
+ * This class needs the jdk.incubator.vector module (--add-modules
+ * jdk.incubator.vector); use StepKernel.vectorized() to get one safely.
+ */
+public class VectorStepKernel implements StepKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void step(FigureBuffer figures, int from, int to) {
+        int upper = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < upper; i += SPECIES.length()) {
+            stepAxis(figures.x, figures.xDelta, figures.xLimit, i);
+            stepAxis(figures.y, figures.yDelta, figures.yLimit, i);
+        }
+        figures.step(i, to);
+    }
+
+    /**
+     * Steps one vector of figures along one axis.
+     */
+    private static void stepAxis(int[] position, int[] delta, int[] limit, int i) {
+        IntVector p = IntVector.fromArray(SPECIES, position, i);
+        IntVector d = IntVector.fromArray(SPECIES, delta, i);
+        IntVector l = IntVector.fromArray(SPECIES, limit, i);
+        p = p.add(d);
+        VectorMask<Integer> bounce = p.compare(VectorOperators.LT, 0)
+                .or(p.compare(VectorOperators.GE, l));
+        d = d.blend(d.neg(), bounce); // delta = -delta where it hit a wall
+        p = p.add(d, bounce);         // position += delta where it hit a wall
+        p.intoArray(position, i);
+        d.intoArray(delta, i);
+    }
+
+    @Override
+    public String toString() {
+        return "vector(" + SPECIES.length() + " lanes)";
+    }
+}
@@ -0,0 +1,58 @@
+package kaleidoscope;
+  
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+  
+import org.junit.Test;
+  
+public class VectorStepKernelTest {
+  
+    private static FigureBuffer makeFigures(long seed, int count) {
+        FigureBuffer figures = FrameFixture.figures(seed, count, 1000, 800);
+        for (int i = 0; i < count; i++) {
+            figures.setLimits(i, 300 + i % 700, 200 + i % 600); // walls of every size
+        }
+        return figures;
+    }
+  
+    private static void assertMatchesModel(StepKernel kernel) {
+        int count = 1003; // not a multiple of any vector length, so the scalar tail runs too
+        FigureBuffer expected = makeFigures(11, count);
+        FigureBuffer actual = makeFigures(11, count);
+        for (int i = 0; i < count; i += 7) { // start some figures out of bounds, as after a resize
+            expected.x[i] = actual.x[i] = -3;
+            expected.y[i] = actual.y[i] = expected.yLimit[i] + 5;
+        }
+        Model model = expected.get(0);
+        for (int tick = 0; tick < 300; tick++) {
+            for (int i = 0; i < count; i++) {
+                model.moveTo(i);
+                model.makeOneStep();
+            }
+            kernel.step(actual, 0, count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected.x[i], actual.x[i]);
+                assertEquals(expected.y[i], actual.y[i]);
+                assertEquals(expected.xDelta[i], actual.xDelta[i]);
+                assertEquals(expected.yDelta[i], actual.yDelta[i]);
+            }
+        }
+    }
+  
+    @Test
+    public void testVectorKernelMatchesMakeOneStep() {
+        StepKernel kernel = StepKernel.vectorized();
+        assumeNotNull(kernel); // skipped when jdk.incubator.vector is not present
+        assertMatchesModel(kernel);
+    }
+  
+    @Test
+    public void testScalarKernelMatchesMakeOneStep() {
+        assertMatchesModel(StepKernel.SCALAR);
+    }
+  
+    @Test
+    public void testFallsBackToScalar() {
+        assertSame(StepKernel.SCALAR, StepKernel.fromSystemProperty()); // kaleidoscope.vector is not set
+    }
+}
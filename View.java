@@ -1,8 +1,8 @@
 package kaleidoscope;
 
-import java.awt.Color;
 import java.awt.Graphics;
-import java.util.ArrayList;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -18,169 +18,241 @@ import javax.swing.JPanel;
  */
 public class View extends JPanel implements Observer {
 
-	private ArrayList<Model> models;
+	private FrameExchange frames; // newest complete copy of the figures, published by the simulation
+	private SimulationLoop loop; // tells how far between two steps to draw the figures
+	// Most regions times figures worth repainting region by region: every region
+	// goes through every figure, and a Graphics takes longer to start each region.
+	private static final long RASTER_REGION_WORK = 1 << 16;
+	private static final long GRAPHICS_REGION_WORK = 1 << 13;
+	
+	private volatile Renderer renderer = new Java2DRenderer();
+	private final DirtyRegions dirty; // what has changed since the last paint
+	private final PixelBuffer back = new PixelBuffer(1, 1); // what is on screen; only changed parts are redrawn
+	private Graphics2D backGraphics; // draws on back for renderers that paint on a Graphics
+	private BufferedImage backImage; // the image backGraphics draws on
+	private Frame frame; // the figures to paint next, and how far between steps
+	private float alpha;
+	private boolean prepared; // true if frame has been marked in dirty but not painted yet
+	private Metrics metrics; // times each paint, or null
+	private FrameGovernor governor; // told how long each paint takes, or null
+	private Quality quality = Quality.FULL; // how much of each figure the renderer draws
+	private Symmetry symmetry; // how many copies of each figure are drawn, or null for the classic reflections
+	
     /**
      * Constructor.
-     * @param models The Model whose working is to be displayed.
      */
-    View() {}
+    View() {
+    	this(new DirtyRegions());
+    }
     
-    public void addFigures(ArrayList<Model> models) {
-    	this.models = models;
+    /**
+     * @param dirty Works out which parts of the view need repainting.
+     */
+    View(DirtyRegions dirty) {
+    	this.dirty = dirty;
     }
-
+    
     /**
-     * Displays what is going on in the Model. Note: This method should
-     * NEVER be called directly; call repaint() instead.
+     * @param frames Where the simulation publishes the figures to be displayed.
+     */
+    public void setFrames(FrameExchange frames) {
+    	this.frames = frames;
+    }
+    
+    /**
+     * @param metrics Where to record how long each paint takes, or null.
+     */
+    public void setMetrics(Metrics metrics) {
+    	this.metrics = metrics;
+    }
+    
+    /**
+     * @param governor Where to report how long each paint takes, or null.
+     */
+    public void setGovernor(FrameGovernor governor) {
+    	this.governor = governor;
+    }
+    
+    /**
+     * Chooses how the figures are painted. Takes effect on the next repaint.
      * 
-     * @param g The Graphics on which to paint things.
-     * @see javax.swing.JComponent#paint(java.awt.Graphics)
+     * @param renderer The renderer to paint with.
      */
-    @Override
-    public void paint(Graphics g) {
-        g.setColor(Color.BLACK); // Sets background to black
-        g.fillRect(0, 0, getWidth(), getHeight());
-    	for (int i = 0; i < models.size(); i++){ // Iterates through list of models and draws them on screen
-    		g.setColor(models.get(i).getColor()); // Sets color of model to be drawn based on randomly assigned color.
-    		if (models.get(i).getShape() == Shape.POLYGON){ // Draws polygon objects.
-    			createPolygon(g, models.get(i));
-    		}
-    		else if (models.get(i).getShape() == Shape.CIRCLE){ // Draws circle objects.
-    			drawOval(g, models.get(i));
-    		}
-    		else{ // Draws square objects.
-    			drawSquare(g, models.get(i));
-    		}
-    	}
+    public void setRenderer(Renderer renderer) {
+    	renderer.setQuality(quality);
+    	renderer.setSymmetry(symmetry);
+    	this.renderer = renderer;
+    	dirty.invalidate(); // the new renderer may draw some pixels differently
     }
     
     /**
-     * Draws an oval and its 8 reflections.
-     * Position of each model is based on offset from origin. 
+     * Chooses how much of each figure is drawn, and repaints everything at
+     * the new quality on the next repaint. Must be called on the event
+     * dispatch thread.
      * 
-     * @param g The Graphics on which to paint things.
-     * @param model The model figure that is currently being drawn.
-     */
-    public void drawOval(Graphics g, Model model){ // Draws Circle objects and its reflections.
-    	g.fillOval(model.getOriginXPlusX() + model.getOffset(), 
-    			model.getOriginYPlusY() + model.getOffset(),
-    			model.getSize(), model.getSize());
-        g.fillOval(model.getOriginXMinusX() - model.getOffset(),
-        		model.getOriginYMinusY() - model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillOval(model.getOriginXMinusX() - model.getOffset(), 
-        		model.getOriginYPlusY() + model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillOval(model.getOriginXPlusX() + model.getOffset(), 
-        		model.getOriginYMinusY() - model.getOffset(),
-        		model.getSize(), model.getSize());
-        
-    	g.fillOval(model.getOriginXPlusY() + model.getOffset(), 
-    			model.getOriginYPlusX() + model.getOffset(),
-    			model.getSize(), model.getSize());
-        g.fillOval(model.getOriginXMinusY() - model.getOffset(),
-        		model.getOriginYMinusX() - model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillOval(model.getOriginXMinusY() - model.getOffset(), 
-        		model.getOriginYPlusX() + model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillOval(model.getOriginXPlusY() + model.getOffset(), 
-        		model.getOriginYMinusX() - model.getOffset(),
-        		model.getSize(), model.getSize());
+     * @param quality The detail and number of reflections to draw.
+     */
+    public void setQuality(Quality quality) {
+    	if (quality == this.quality) return;
+    	this.quality = quality;
+    	renderer.setQuality(quality);
+    	dirty.invalidate();
+    }
+    
+    /**
+     * @return How much of each figure is drawn.
+     */
+    public Quality getQuality() {
+    	return quality;
     }
     
     /**
-     * Draws an square and its 8 reflections.
-     * Position of each model is based on offset from origin. 
+     * Chooses how many copies of each figure are drawn, and repaints
+     * everything on the next repaint. Must be called on the event dispatch
+     * thread.
      * 
-     * @param g The Graphics on which to paint things.
-     * @param model The model figure that is currently being drawn.
-     */
-    public void drawSquare(Graphics g, Model model){ // Draws Square objects and its reflections.
-    	g.fillRect(model.getOriginXPlusX() + model.getOffset(), 
-    			model.getOriginYPlusY() + model.getOffset(),
-    			model.getSize(), model.getSize());
-        g.fillRect(model.getOriginXMinusX() - model.getOffset(),
-        		model.getOriginYMinusY() - model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillRect(model.getOriginXMinusX() - model.getOffset(), 
-        		model.getOriginYPlusY() + model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillRect(model.getOriginXPlusX() + model.getOffset(), 
-        		model.getOriginYMinusY() - model.getOffset(),
-        		model.getSize(), model.getSize());
-        
-    	g.fillRect(model.getOriginXPlusY() + model.getOffset(), 
-    			model.getOriginYPlusX() + model.getOffset(),
-    			model.getSize(), model.getSize());
-        g.fillRect(model.getOriginXMinusY() - model.getOffset(),
-        		model.getOriginYMinusX() - model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillRect(model.getOriginXMinusY() - model.getOffset(), 
-        		model.getOriginYPlusX() + model.getOffset(),
-        		model.getSize(), model.getSize());
-        g.fillRect(model.getOriginXPlusY() + model.getOffset(), 
-        		model.getOriginYMinusX() - model.getOffset(),
-        		model.getSize(), model.getSize());
+     * @param symmetry The symmetry to draw figures in, or null for the classic 8 Reflections.
+     */
+    public void setSymmetry(Symmetry symmetry) {
+    	this.symmetry = symmetry;
+    	renderer.setSymmetry(symmetry);
+    	dirty.setSymmetry(symmetry);
+    }
+    
+    /**
+     * @return The symmetry figures are drawn in, or null for the classic 8 Reflections.
+     */
+    public Symmetry getSymmetry() {
+    	return symmetry;
+    }
+    
+    /**
+     * @return The renderer the figures are painted with.
+     */
+    public Renderer getRenderer() {
+    	return renderer;
+    }
+    
+    /**
+     * @param loop The simulation loop that moves the figures, or null to
+     *             always draw the figures where they are now.
+     */
+    public void setSimulationLoop(SimulationLoop loop) {
+    	this.loop = loop;
+    }
+
+    /**
+     * Repaints only the parts of the view where figures have moved or
+     * changed since they were last painted, or the whole view if they
+     * cover too much of it. Must be called on the event dispatch thread.
+     */
+    public void repaintChanged() {
+        if (frames == null) return;
+        prepare();
+        if (dirty.isEmpty()) return;
+        int regions = dirty.merge(maxRegionWork());
+        if (metrics != null) metrics.repaintRequested();
+        if (dirty.isFull()) {
+            repaint();
+            return;
+        }
+        for (int r = 0; r < regions; r++) {
+            repaint(dirty.getX(r), dirty.getY(r), dirty.getWidth(r), dirty.getHeight(r));
+        }
+    }
+    
+    /**
+     * Picks the newest frame, and how far between steps to draw it, as the
+     * next one to paint, and marks what changes when it is painted.
+     */
+    private void prepare() {
+        frame = frames.latest();
+        alpha = loop == null ? 1f : loop.getAlpha();
+        dirty.mark(frame, alpha, getWidth(), getHeight());
+        prepared = true;
+    }
+    
+    private long maxRegionWork() {
+        return renderer instanceof RasterRenderer ? RASTER_REGION_WORK : GRAPHICS_REGION_WORK;
     }
 
     /**
-     * Draws an polygon (triangle) and its 8 reflections.
-     * Position of each model is based on offset from origin. 
+     * Displays what is going on in the Model. Note: This method should
+     * NEVER be called directly; call repaint() instead.
+     * Draws the newest complete Frame published by the simulation, without
+     * locking. Figures are drawn part of the way between their previous and
+     * current positions, depending on how far the simulation is towards its
+     * next step.
+     * 
+     * The figures are drawn into an off-screen buffer that is kept from
+     * one paint to the next. Only the regions that have changed are redrawn,
+     * and the whole buffer is copied to the screen through Swing's clip.
      * 
      * @param g The Graphics on which to paint things.
-     * @param model The model figure that is currently being drawn.
-     */
-    public void createPolygon(Graphics g, Model model){ // Draws Polygon objects and its reflections.
-    	g.fillPolygon(new int[]{model.getOriginXPlusX(),
-    			model.getOriginXPlusX() + model.getOffset() / 4, 
-    			model.getOriginXPlusX() + model.getOffset() / 2},
-    			new int[]{model.getOriginYPlusY(),
-    			model.getOriginYPlusY() + model.getOffset() / 2,
-    			model.getOriginYPlusY() + model.getOffset() / 4}, 3);
-    	g.fillPolygon(new int[]{model.getOriginXMinusX(),
-    			model.getOriginXMinusX() - model.getOffset() / 4, 
-    			model.getOriginXMinusX() - model.getOffset() / 2},
-    			new int[]{model.getOriginYMinusY(),
-    			model.getOriginYMinusY() - model.getOffset() / 2,
-    			model.getOriginYMinusY() - model.getOffset() / 4}, 3);
-    	g.fillPolygon(new int[]{model.getOriginXMinusX(),
-    			model.getOriginXMinusX() - model.getOffset() / 4, 
-    			model.getOriginXMinusX() - model.getOffset() / 2},
-    			new int[]{model.getOriginYPlusY(),
-    			model.getOriginYPlusY() + model.getOffset() / 2,
-    			model.getOriginYPlusY() + model.getOffset() / 4}, 3);
-    	g.fillPolygon(new int[]{model.getOriginXPlusX(),
-    			model.getOriginXPlusX() + model.getOffset() / 4, 
-    			model.getOriginXPlusX() + model.getOffset() / 2},
-    			new int[]{model.getOriginYMinusY(),
-    			model.getOriginYMinusY() - model.getOffset() / 2,
-    			model.getOriginYMinusY() - model.getOffset() / 4}, 3);
-    	
-    	g.fillPolygon(new int[]{model.getOriginXPlusY(),
-    			model.getOriginXPlusY() + model.getOffset() / 4, 
-    			model.getOriginXPlusY() + model.getOffset() / 2},
-    			new int[]{model.getOriginYPlusX(),
-    			model.getOriginYPlusX() + model.getOffset() / 2,
-    			model.getOriginYPlusX() + model.getOffset() / 4}, 3);
-    	g.fillPolygon(new int[]{model.getOriginXMinusY(),
-    			model.getOriginXMinusY() - model.getOffset() / 4, 
-    			model.getOriginXMinusY() - model.getOffset() / 2},
-    			new int[]{model.getOriginYMinusX(),
-    			model.getOriginYMinusX() - model.getOffset() / 2,
-    			model.getOriginYMinusX() - model.getOffset() / 4}, 3);
-    	g.fillPolygon(new int[]{model.getOriginXMinusY(),
-    			model.getOriginXMinusY() - model.getOffset() / 4, 
-    			model.getOriginXMinusY() - model.getOffset() / 2},
-    			new int[]{model.getOriginYPlusX(),
-    			model.getOriginYPlusX() + model.getOffset() / 2,
-    			model.getOriginYPlusX() + model.getOffset() / 4}, 3);
-    	g.fillPolygon(new int[]{model.getOriginXPlusY(),
-    			model.getOriginXPlusY() + model.getOffset() / 4, 
-    			model.getOriginXPlusY() + model.getOffset() / 2},
-    			new int[]{model.getOriginYMinusX(),
-    			model.getOriginYMinusX() - model.getOffset() / 2,
-    			model.getOriginYMinusX() - model.getOffset() / 4}, 3);
+     * @see javax.swing.JComponent#paint(java.awt.Graphics)
+     */
+    @Override
+    public void paint(Graphics g) {
+        if (frames == null) return;
+        long start = System.nanoTime();
+        Events.Paint event = new Events.Paint();
+        event.begin();
+        if (!prepared) prepare(); // not asked for by repaintChanged(), so pick up the newest frame
+        prepared = false;
+        int width = getWidth();
+        int height = getHeight();
+        if (back.getWidth() != Math.max(1, width) || back.getHeight() != Math.max(1, height)) {
+            back.setSize(width, height);
+            dirty.invalidate();
+        }
+        Renderer renderer = this.renderer;
+        int regions = dirty.merge(maxRegionWork());
+        boolean full = dirty.isFull();
+        if (renderer instanceof RasterRenderer) {
+            RasterRenderer raster = (RasterRenderer) renderer;
+            if (full) {
+                raster.render(frame, alpha, back);
+            }
+            for (int r = 0; r < regions; r++) {
+                back.setClip(dirty.getX(r), dirty.getY(r), dirty.getWidth(r), dirty.getHeight(r));
+                raster.render(frame, alpha, back);
+            }
+            back.resetClip();
+        }
+        else {
+            Graphics2D g2 = backGraphics();
+            if (full) {
+                g2.setClip(null);
+                renderer.paint(g2, frame, alpha, width, height);
+            }
+            for (int r = 0; r < regions; r++) { // a rectangle at a time: other clip shapes change the pixels at the edges
+                g2.setClip(dirty.getX(r), dirty.getY(r), dirty.getWidth(r), dirty.getHeight(r));
+                renderer.paint(g2, frame, alpha, width, height);
+            }
+        }
+        g.drawImage(back.getImage(), 0, 0, null); // Swing merges the repainted regions into one clip, which must all be covered
+        dirty.clear();
+        if (event.shouldCommit()) {
+            event.step = frame.tick();
+            event.figures = frame.count();
+            event.regions = full ? 0 : regions;
+            event.commit();
+        }
+        long nanos = System.nanoTime() - start;
+        if (metrics != null) metrics.paint(nanos, frame.tick(), !full);
+        if (governor != null) governor.painted(nanos);
+    }
+    
+    /**
+     * @return A Graphics that draws on the off-screen buffer.
+     */
+    private Graphics2D backGraphics() {
+        if (backImage != back.getImage()) {
+            if (backGraphics != null) backGraphics.dispose();
+            backImage = back.getImage();
+            backGraphics = backImage.createGraphics();
+        }
+        return backGraphics;
     }
 
     /**
@@ -0,0 +1,68 @@
+package kaleidoscope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a step plus a round of collisions, with the grid kept from tick
+ * to tick on one thread and on every core, and with a grid built from
+ * scratch every tick. The world grows with the number of figures so that
+ * they are always as crowded as 100 figures in a 1000x800 window.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class CollisionBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    int figureCount;
+
+    private FigureBuffer figures;
+    private CollisionGrid serial;
+    private CollisionGrid parallel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        figures = Scenes.spread(figureCount);
+        serial = new CollisionGrid(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+        parallel = new CollisionGrid(ForkJoinPool.commonPool(), 0);
+    }
+
+    @Benchmark
+    public int serial() {
+        figures.makeOneStep();
+        serial.collide(figures);
+        return serial.getLastPairCount();
+    }
+
+    @Benchmark
+    public int parallel() {
+        figures.makeOneStep();
+        parallel.collide(figures);
+        return parallel.getLastPairCount();
+    }
+
+    @Benchmark
+    public int rebuilt() {
+        figures.makeOneStep();
+        CollisionGrid grid = new CollisionGrid(ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+        grid.collide(figures);
+        return grid.getLastPairCount();
+    }
+}
@@ -0,0 +1,94 @@
+package kaleidoscope;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures adding and then removing figures, figuresPerOp of them, as one
+ * CommandBatch through a CommandQueue, against one edit per figure
+ * submitted the way the Add Figure button does it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class CommandBenchmark {
+
+    @Param({ "1", "100", "10000" })
+    int figuresPerOp;
+
+    private FigureBuffer figures;
+    private final CommandQueue queue = new CommandQueue(CommandQueue.DEFAULT_CAPACITY);
+    private final Queue<Runnable> edits = new ConcurrentLinkedQueue<Runnable>();
+    private CommandQueue.Target target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        figures = Scenes.mixed(1000);
+        target = new CommandQueue.Target() {
+            @Override
+            public int apply(CommandBatch batch) {
+                for (int c = 0; c < batch.size(); c++) {
+                    int n = batch.getFirst(c);
+                    if (batch.getOp(c) == CommandBatch.Op.ADD) {
+                        figures.ensureCapacity(figures.count() + n);
+                        for (int k = 0; k < n; k++) {
+                            figures.add(Scenes.WIDTH, Scenes.HEIGHT, Shape.CIRCLE);
+                        }
+                    }
+                    else {
+                        for (int k = 0; k < n; k++) {
+                            figures.removeLast();
+                        }
+                    }
+                }
+                return figures.count();
+            }
+        };
+    }
+
+    @Benchmark
+    public int batched() {
+        queue.offer(new CommandBatch(0).add(figuresPerOp, Shape.CIRCLE).remove(figuresPerOp));
+        return queue.drain(target, 0);
+    }
+
+    @Benchmark
+    public int oneAtATime() {
+        for (int k = 0; k < figuresPerOp; k++) {
+            edits.add(new Runnable() {
+                @Override
+                public void run() {
+                    figures.add(Scenes.WIDTH, Scenes.HEIGHT, Shape.CIRCLE);
+                }
+            });
+            edits.add(new Runnable() {
+                @Override
+                public void run() {
+                    figures.removeLast();
+                }
+            });
+        }
+        Runnable edit;
+        while ((edit = edits.poll()) != null) {
+            edit.run();
+        }
+        return figures.count();
+    }
+}
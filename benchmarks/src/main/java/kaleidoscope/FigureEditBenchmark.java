@@ -0,0 +1,51 @@
+package kaleidoscope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures adding and removing a figure in a scene of the given size,
+ * and building a stand-alone Model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class FigureEditBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    int figureCount;
+
+    private FigureBuffer figures;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        figures = Scenes.mixed(figureCount);
+    }
+
+    @Benchmark
+    public int addThenRemove() {
+        int slot = figures.add(Scenes.WIDTH, Scenes.HEIGHT, Shape.CIRCLE);
+        figures.removeLast();
+        return slot;
+    }
+
+    @Benchmark
+    public Model newModel() {
+        return new Model(Scenes.WIDTH, Scenes.HEIGHT, Shape.CIRCLE);
+    }
+}
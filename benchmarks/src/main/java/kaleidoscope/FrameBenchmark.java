@@ -0,0 +1,82 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one steady-state frame from start to finish: a tick of the
+ * simulation, publishing it and painting it with each renderer. Run it
+ * with -prof gc; gc.alloc.rate.norm is the bytes allocated per frame.
+ * With the software and compositor renderers it stays near zero, flashing
+ * or not. The java2d renderer allocates nothing itself apart from one
+ * Color per figure per tick while flashing, but Java2D's own fillOval and
+ * fillPolygon allocate inside the JDK.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class FrameBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    int figureCount;
+
+    @Param({ "false", "true" })
+    boolean flashOn;
+
+    @Param({ "java2d", "batched", "software", "compositor", "tiled" })
+    String renderer;
+
+    private FigureBuffer figures;
+    private ParallelStepper stepper;
+    private FrameExchange frames;
+    private View view;
+    private BufferedImage image;
+    private Graphics2D g;
+    private long tick;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        figures = Scenes.mixed(figureCount);
+        stepper = new ParallelStepper();
+        frames = new FrameExchange();
+        view = new View();
+        view.setFrames(frames);
+        view.setRenderer(Renderer.forName(renderer));
+        view.setSize(Scenes.WIDTH, Scenes.HEIGHT);
+        image = new BufferedImage(Scenes.WIDTH, Scenes.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage frame() {
+        figures.savePositions();
+        stepper.step(figures);
+        if (flashOn) figures.randomizeColors();
+        frames.publish(figures, ++tick);
+        view.paint(g);
+        return image;
+    }
+}
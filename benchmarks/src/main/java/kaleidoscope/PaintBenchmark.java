@@ -0,0 +1,68 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures painting a whole frame onto an off-screen Graphics2D, for
+ * scenes of one shape, with each renderer. The renderer is called directly:
+ * View.paint() would only repaint what changed, which is nothing here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class PaintBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    int figureCount;
+
+    @Param({ "CIRCLE", "SQUARE", "POLYGON" })
+    Shape shape;
+
+    @Param({ "java2d", "batched", "software", "compositor", "tiled" })
+    String renderer;
+
+    private Renderer painter;
+    private Frame frame;
+    private BufferedImage image;
+    private Graphics2D g;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FrameExchange frames = new FrameExchange();
+        frames.publish(Scenes.of(shape, figureCount), 0);
+        frame = frames.latest();
+        painter = Renderer.forName(renderer);
+        image = new BufferedImage(Scenes.WIDTH, Scenes.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        painter.paint(g, frame, 1f, Scenes.WIDTH, Scenes.HEIGHT);
+        return image;
+    }
+}
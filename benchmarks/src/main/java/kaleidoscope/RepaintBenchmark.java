@@ -0,0 +1,98 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a tick followed by View.repaintChanged() and View.paint() on a
+ * large window, repainting only the regions that changed (dirtyThreshold
+ * 0.5) or always repainting everything (dirtyThreshold 0). As Swing would,
+ * the regions asked for are merged into one clip rectangle for paint().
+ * Sparse scenes are where repainting only the changed regions pays off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class RepaintBenchmark {
+
+    static final int WIDTH = 2560;
+    static final int HEIGHT = 1440;
+
+    @Param({ "10", "100", "1000" })
+    int figureCount;
+
+    @Param({ "java2d", "batched", "software", "compositor", "tiled" })
+    String renderer;
+
+    @Param({ "0", "0.5" })
+    double dirtyThreshold;
+
+    private FigureBuffer figures;
+    private FrameExchange frames;
+    private View view;
+    private BufferedImage image;
+    private Graphics2D g;
+    private final Rectangle clip = new Rectangle();
+    private long tick;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        figures = Scenes.mixed(figureCount);
+        figures.setLimits(WIDTH, HEIGHT);
+        frames = new FrameExchange();
+        view = new View(new DirtyRegions(dirtyThreshold)) {
+            @Override
+            public void repaint() {
+                clip.setBounds(0, 0, WIDTH, HEIGHT);
+            }
+
+            @Override
+            public void repaint(int x, int y, int width, int height) {
+                if (clip.isEmpty()) clip.setBounds(x, y, width, height);
+                else clip.add(new Rectangle(x, y, width, height));
+            }
+        };
+        view.setFrames(frames);
+        view.setRenderer(Renderer.forName(renderer));
+        view.setSize(WIDTH, HEIGHT);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage repaint() {
+        figures.savePositions();
+        figures.makeOneStep();
+        frames.publish(figures, ++tick);
+        clip.setBounds(0, 0, 0, 0);
+        view.repaintChanged();
+        if (clip.isEmpty()) return image;
+        g.setClip(clip);
+        view.paint(g);
+        return image;
+    }
+}
@@ -0,0 +1,88 @@
+package kaleidoscope;
+
+import java.util.Random;
+
+/**
+ * Builds the scenes that the benchmarks run on. Scenes are seeded, so every
+ * run of a benchmark sees the same figures.
+ */
+final class Scenes {
+
+    static final int WIDTH = 1000;
+    static final int HEIGHT = 800;
+
+    private Scenes() {}
+
+    /**
+     * Makes figures the way the Controller does: every 5th figure is a
+     * polygon, other even-numbered figures are circles and odd-numbered
+     * figures are squares.
+     */
+    static FigureBuffer mixed(int count) {
+        FigureBuffer figures = new FigureBuffer(count, 42);
+        for (int i = 0; i < count; i++) {
+            figures.add(WIDTH, HEIGHT, i % 5 == 0 ? Shape.POLYGON : i % 2 == 0 ? Shape.CIRCLE : Shape.SQUARE);
+        }
+        return figures;
+    }
+
+    /**
+     * Makes figures that all have the same shape.
+     */
+    static FigureBuffer of(Shape shape, int count) {
+        FigureBuffer figures = new FigureBuffer(count, 42);
+        for (int i = 0; i < count; i++) {
+            figures.add(WIDTH, HEIGHT, shape);
+        }
+        return figures;
+    }
+
+    /**
+     * Makes mixed figures no more than maxSize pixels across, the way a
+     * dense scene of small figures looks.
+     */
+    static FigureBuffer tiny(int count, int maxSize) {
+        Random rand = new Random(42);
+        FigureBuffer figures = mixed(count);
+        for (int i = 0; i < count; i++) {
+            if (figures.getShape(i) == Shape.POLYGON) figures.offset[i] = rand.nextInt(2 * maxSize + 2);
+            else figures.size[i] = rand.nextInt(maxSize + 1);
+            figures.setLimits(i, WIDTH, HEIGHT);
+        }
+        return figures;
+    }
+
+    /**
+     * Makes mixed figures sized for a WIDTH x HEIGHT window, spread over a
+     * world that grows with the number of figures so that there are always
+     * about 100 figures per window's worth of space.
+     */
+    static FigureBuffer spread(int count) {
+        Random rand = new Random(42);
+        double scale = Math.sqrt(Math.max(1, count / 100.0));
+        int width = (int) (WIDTH * scale), height = (int) (HEIGHT * scale);
+        FigureBuffer figures = new FigureBuffer(count, 42);
+        for (int i = 0; i < count; i++) {
+            figures.add(WIDTH, HEIGHT, i % 5 == 0 ? Shape.POLYGON : i % 2 == 0 ? Shape.CIRCLE : Shape.SQUARE);
+            figures.xLimit[i] = width - figures.size[i];
+            figures.yLimit[i] = height - figures.size[i];
+            figures.x[i] = rand.nextInt(figures.xLimit[i]);
+            figures.y[i] = rand.nextInt(figures.yLimit[i]);
+        }
+        return figures;
+    }
+
+    /**
+     * Steps the figures a while so that they are spread over the screen,
+     * and copies them into a frame.
+     */
+    static Frame frame(FigureBuffer figures) {
+        for (int i = 0; i < 25; i++) {
+            figures.savePositions();
+            figures.makeOneStep();
+        }
+        Frame frame = new Frame();
+        frame.copyFrom(figures, 25);
+        return frame;
+    }
+}
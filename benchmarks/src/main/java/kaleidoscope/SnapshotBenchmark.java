@@ -0,0 +1,78 @@
+package kaleidoscope;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures saving a scene to a Snapshot and loading it back, next to
+ * building the same scene from random numbers one figure at a time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class SnapshotBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    int figureCount;
+
+    private FigureBuffer figures;
+    private FigureBuffer loaded;
+    private Path path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        figures = Scenes.mixed(figureCount);
+        loaded = new FigureBuffer(figureCount, 1);
+        path = Files.createTempFile("kaleidoscope", ".ksnp");
+        new Snapshot(50, false, false).save(path, figures);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public FigureBuffer load() throws IOException {
+        Snapshot.load(path, loaded);
+        return loaded;
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        new Snapshot(50, false, false).save(path, figures);
+    }
+
+    @Benchmark
+    public FigureBuffer build() {
+        return Scenes.mixed(figureCount);
+    }
+
+    @Benchmark
+    public Model[] buildModels() {
+        Model[] models = new Model[figureCount];
+        for (int i = 0; i < figureCount; i++) {
+            models[i] = new Model(Scenes.WIDTH, Scenes.HEIGHT, i % 5 == 0 ? Shape.POLYGON : i % 2 == 0 ? Shape.CIRCLE : Shape.SQUARE);
+        }
+        return models;
+    }
+}
@@ -0,0 +1,79 @@
+package kaleidoscope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one step of every figure: through Model.makeOneStep() one Model
+ * at a time, through the FigureBuffer's scalar loop, through the vector
+ * kernel, and through the ParallelStepper; and jumping a million steps
+ * ahead at once with FigureBuffer.advance().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class StepBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    int figureCount;
+
+    private FigureBuffer figures;
+    private Model[] models;
+    private ParallelStepper parallel;
+    private StepKernel vector;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        figures = Scenes.mixed(figureCount);
+        models = new Model[figureCount];
+        for (int i = 0; i < figureCount; i++) {
+            models[i] = figures.get(i);
+        }
+        parallel = new ParallelStepper();
+        parallel.setThreshold(0);
+        vector = StepKernel.vectorized();
+        if (vector == null) vector = StepKernel.SCALAR;
+    }
+
+    @Benchmark
+    public void modelMakeOneStep() {
+        for (Model model : models) {
+            model.makeOneStep();
+        }
+    }
+
+    @Benchmark
+    public void bufferScalar() {
+        figures.makeOneStep();
+    }
+
+    @Benchmark
+    public void bufferVector() {
+        vector.step(figures, 0, figures.count());
+    }
+
+    @Benchmark
+    public void bufferParallel() {
+        parallel.step(figures);
+    }
+
+    @Benchmark
+    public void bufferAdvanceMillion() {
+        figures.advance(1000000);
+    }
+}
@@ -0,0 +1,82 @@
+package kaleidoscope;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the cost of a frame grows with the order of the Symmetry:
+ * place() only works out where every copy of every figure goes, paint()
+ * also draws them with each renderer. Order 8 is the classic Reflections,
+ * drawn without the tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class SymmetryBenchmark {
+
+    @Param({ "1000", "10000" })
+    int figureCount;
+
+    @Param({ "6", "8", "12", "24", "32" })
+    int order;
+
+    @Param({ "java2d", "batched", "software", "compositor" })
+    String renderer;
+
+    private Renderer painter;
+    private Symmetry symmetry;
+    private final Symmetry.Copies copies = new Symmetry.Copies();
+    private Frame frame;
+    private BufferedImage image;
+    private Graphics2D g;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = Scenes.frame(Scenes.mixed(figureCount));
+        symmetry = Symmetry.of(order);
+        painter = Renderer.forName(renderer);
+        painter.setSymmetry(Symmetry.forOrder(order));
+        image = new BufferedImage(Scenes.WIDTH, Scenes.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public int place() {
+        int sum = 0;
+        for (int i = 0; i < frame.count(); i++) {
+            copies.place(symmetry, frame.getShape(i), frame.x[i], frame.y[i], frame.originX[i], frame.originY[i],
+                    frame.size[i], frame.offset[i], Quality.FULL, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            sum += copies.x[copies.count * copies.corners - 1];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        painter.paint(g, frame, 1f, Scenes.WIDTH, Scenes.HEIGHT);
+        return image;
+    }
+}
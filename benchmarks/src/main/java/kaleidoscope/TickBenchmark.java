@@ -0,0 +1,70 @@
+package kaleidoscope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole tick of a Session, as the SessionHost runs it: make
+ * the waiting commands (none here), step every figure, change colors if
+ * flashing, and publish a frame. instrumentedTick() steps and publishes
+ * the session the way the Controller's Strobe and Publisher do, adding
+ * what the Strobe records on every step: a JFR event (with no recording
+ * running) and the Metrics histogram.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class TickBenchmark {
+
+    @Param({ "10", "1000", "100000", "1000000" })
+    int figureCount;
+
+    @Param({ "false", "true" })
+    boolean flashOn;
+
+    private Session session;
+    private Metrics metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        session = new Session(Scenes.mixed(figureCount), new ParallelStepper(), Scenes.WIDTH, Scenes.HEIGHT,
+                CommandQueue.DEFAULT_CAPACITY);
+        if (flashOn) session.toggleFlash();
+        metrics = new Metrics();
+    }
+
+    @Benchmark
+    public void tick() {
+        session.tick();
+    }
+
+    @Benchmark
+    public void instrumentedTick() {
+        Events.Tick event = new Events.Tick();
+        event.begin();
+        long nanos = session.step();
+        int count = session.getFigures().count();
+        if (event.shouldCommit()) {
+            event.step = session.getSteps();
+            event.figures = count;
+            event.commit();
+        }
+        metrics.tick(nanos, count);
+        session.publish();
+    }
+}
@@ -0,0 +1,71 @@
+package kaleidoscope;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rendering a whole 4K (3840 x 2160) frame with the
+ * SoftwareRenderer on one thread and with the TiledRenderer on pools of
+ * 1 to 8 threads, to show how filling the image scales with cores. The
+ * scaling is only seen on a machine with at least that many cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class TiledBenchmark {
+
+    static final int WIDTH = 3840;
+    static final int HEIGHT = 2160;
+
+    @Param({ "1000", "100000" })
+    int figureCount;
+
+    @Param({ "software", "tiled" })
+    String renderer;
+
+    @Param({ "1", "2", "4", "8" })
+    int threads;
+
+    private ForkJoinPool pool;
+    private RasterRenderer painter;
+    private Frame frame;
+    private PixelBuffer pixels;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FigureBuffer figures = Scenes.mixed(figureCount);
+        figures.setLimits(WIDTH, HEIGHT);
+        frame = Scenes.frame(figures);
+        pool = new ForkJoinPool(threads);
+        painter = renderer.equals("software") ? new SoftwareRenderer() : new TiledRenderer(pool, TinyStamps.DEFAULT_SIZE);
+        pixels = new PixelBuffer(WIDTH, HEIGHT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public PixelBuffer render() {
+        painter.render(frame, 1f, pixels);
+        return pixels;
+    }
+}
@@ -0,0 +1,59 @@
+package kaleidoscope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rendering a dense scene of small figures with and without the
+ * TinyStamps tier: tinySize 0 rasterizes every figure, 16 stamps every
+ * figure up to 16 pixels across.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class TinyFigureBenchmark {
+
+    @Param({ "10000", "100000" })
+    int figureCount;
+
+    @Param({ "4", "16" })
+    int maxSize;
+
+    @Param({ "0", "16" })
+    int tinySize;
+
+    @Param({ "software", "compositor" })
+    String renderer;
+
+    private RasterRenderer painter;
+    private Frame frame;
+    private PixelBuffer pixels;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frame = Scenes.frame(Scenes.tiny(figureCount, maxSize));
+        painter = renderer.equals("software") ? new SoftwareRenderer(tinySize) : new SymmetryCompositor(tinySize);
+        pixels = new PixelBuffer(Scenes.WIDTH, Scenes.HEIGHT);
+    }
+
+    @Benchmark
+    public PixelBuffer render() {
+        painter.render(frame, 1f, pixels);
+        return pixels;
+    }
+}